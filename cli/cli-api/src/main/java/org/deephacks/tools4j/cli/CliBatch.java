@@ -0,0 +1,267 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.cli;
+
+import static org.deephacks.tools4j.cli.CliEvents.CLI005_BATCH_SUCCESS;
+import static org.deephacks.tools4j.cli.CliEvents.CLI101_OPTION_INVALID_INPUT;
+import static org.deephacks.tools4j.cli.CliEvents.CLI112_BATCH_FAILED;
+import static org.deephacks.tools4j.cli.CliEvents.CLI113_BATCH_INVALID_LINE;
+import static org.deephacks.tools4j.cli.CliEvents.CLI114_BATCH_FILE_DOES_NOT_EXIST;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.deephacks.tools4j.support.event.AbortRuntimeException;
+import org.deephacks.tools4j.support.event.Event;
+
+import com.google.common.base.Charsets;
+
+/**
+ * CliBatch execute commands read from a file, or standard in, in the same JVM so that
+ * startup, lookups and conversions are paid once for all of them.
+ * <p>
+ * Each line is a command written the same way as in a terminal, words are separated by
+ * white space and can be quoted with ' or " or escaped with \. Empty lines and lines
+ * starting with # are ignored. Every command is executed by {@link CliMain} the same way
+ * as a single command and the result of each command is printed with its line number.
+ * </p>
+ * Commands are executed one at a time in the order they are written. Commands that do not
+ * depend on each other can be executed by several threads at the same time with the
+ * parallel option, results are still printed in the order of the lines but the output
+ * of the commands themselves may be interleaved.
+ *
+ * <pre>
+ * batch [-p,--parallel &lt;threads&gt;] [file]
+ * </pre>
+ */
+final class CliBatch {
+    /** reserved keyword of the batch command */
+    static final String KEYWORD = "batch";
+    static final String PARALLEL_SHORT_OPT = "p";
+    static final String PARALLEL_LONG_OPT = "parallel";
+    /** read commands from standard in */
+    static final String STDIN = "-";
+    private final CliMain main;
+    private final File currentDirectory;
+    private int commands = 0;
+    private int failed = 0;
+
+    /**
+     * @param currentDirectory directory of the terminal, null if same as this JVM.
+     */
+    CliBatch(CliMain main, File currentDirectory) {
+        this.main = main;
+        this.currentDirectory = currentDirectory == null ? new File(".") : currentDirectory;
+    }
+
+    Event run(String[] args) throws IOException {
+        GNUishParser p = GNUishParser.parse(args, GNUishParser.getReservedNonArgumentOptions());
+        int threads = getThreads(p);
+        BufferedReader reader = new BufferedReader(open(p.getArgs()));
+        try {
+            if (threads > 1) {
+                runParallel(reader, threads);
+            } else {
+                runSequential(reader);
+            }
+        } finally {
+            reader.close();
+        }
+        Event result = failed == 0 ? CLI005_BATCH_SUCCESS(commands) : CLI112_BATCH_FAILED(
+                failed, commands);
+        System.out.println(result.getMessage());
+        return result;
+    }
+
+    private void runSequential(BufferedReader reader) throws IOException {
+        String line;
+        int lineNumber = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNumber++;
+            String[] words = tokenize(line);
+            if (words == null || words.length > 0) {
+                report(lineNumber, execute(words, lineNumber, line));
+            }
+        }
+    }
+
+    private void runParallel(BufferedReader reader, int threads) throws IOException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        Map<Integer, Future<Event>> results = new LinkedHashMap<Integer, Future<Event>>();
+        try {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                final String[] words = tokenize(line);
+                if (words != null && words.length == 0) {
+                    continue;
+                }
+                final int number = lineNumber;
+                final String command = line;
+                results.put(lineNumber, executor.submit(new Callable<Event>() {
+                    @Override
+                    public Event call() {
+                        return execute(words, number, command);
+                    }
+                }));
+            }
+            for (Map.Entry<Integer, Future<Event>> result : results.entrySet()) {
+                report(result.getKey(), get(result.getValue()));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @param words of the line, null if the line have a quote that is not closed.
+     */
+    private Event execute(String[] words, int lineNumber, String line) {
+        // a batch within a batch would read standard in that belong to this batch
+        if (words == null || KEYWORD.equals(words[0])) {
+            AbortRuntimeException e = CLI113_BATCH_INVALID_LINE(lineNumber, line);
+            System.out.println(e.getMessage());
+            return e.getEvent();
+        }
+        String[] args = new String[words.length - 1];
+        System.arraycopy(words, 1, args, 0, args.length);
+        return main.execute(words[0], args);
+    }
+
+    private void report(int lineNumber, Event event) {
+        commands++;
+        if (!isSuccess(event)) {
+            failed++;
+        }
+        System.out.println("line " + lineNumber + ": " + event.getCode() + " "
+                + event.getMessage());
+    }
+
+    static boolean isSuccess(Event event) {
+        return event.getCode() == CliEvents.CLI001 || event.getCode() == CliEvents.CLI002;
+    }
+
+    private static Event get(Future<Event> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return CliEvents.CLI004_UNEXPECTED_EXCEPTION(e);
+        } catch (ExecutionException e) {
+            return CliEvents.CLI004_UNEXPECTED_EXCEPTION(e.getCause());
+        }
+    }
+
+    private static int getThreads(GNUishParser p) {
+        String threads = p.getShortOpt(PARALLEL_SHORT_OPT);
+        if (threads == null) {
+            threads = p.getLongOpt(PARALLEL_LONG_OPT);
+        }
+        if (threads == null) {
+            return 1;
+        }
+        try {
+            int n = Integer.parseInt(threads);
+            if (n < 1) {
+                throw new NumberFormatException(threads);
+            }
+            return n;
+        } catch (NumberFormatException e) {
+            throw CLI101_OPTION_INVALID_INPUT("Integer", PARALLEL_SHORT_OPT);
+        }
+    }
+
+    private Reader open(List<String> args) throws IOException {
+        if (args.isEmpty() || STDIN.equals(args.get(0))) {
+            return new InputStreamReader(System.in, Charsets.UTF_8);
+        }
+        File file = new File(args.get(0));
+        if (!file.isAbsolute()) {
+            file = new File(currentDirectory, args.get(0));
+        }
+        if (!file.isFile()) {
+            throw CLI114_BATCH_FILE_DOES_NOT_EXIST(file);
+        }
+        return new InputStreamReader(new FileInputStream(file), Charsets.UTF_8);
+    }
+
+    /**
+     * Split a line into words the same way as a shell.
+     *
+     * @return words of the line, empty if the line have no command or null if a quote
+     * is not closed.
+     */
+    static String[] tokenize(String line) {
+        List<String> words = new ArrayList<String>();
+        StringBuilder word = null;
+        char quote = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quote == '\'') {
+                if (c == '\'') {
+                    quote = 0;
+                } else {
+                    word.append(c);
+                }
+            } else if (quote == '"') {
+                if (c == '"') {
+                    quote = 0;
+                } else if (c == '\\' && i + 1 < line.length()) {
+                    word.append(line.charAt(++i));
+                } else {
+                    word.append(c);
+                }
+            } else if (Character.isWhitespace(c)) {
+                if (word != null) {
+                    words.add(word.toString());
+                    word = null;
+                }
+            } else if (c == '#' && word == null) {
+                break;
+            } else {
+                if (word == null) {
+                    word = new StringBuilder();
+                }
+                if (c == '\'' || c == '"') {
+                    quote = c;
+                } else if (c == '\\' && i + 1 < line.length()) {
+                    word.append(line.charAt(++i));
+                } else {
+                    word.append(c);
+                }
+            }
+        }
+        if (quote != 0) {
+            return null;
+        }
+        if (word != null) {
+            words.add(word.toString());
+        }
+        return words.toArray(new String[words.size()]);
+    }
+}
@@ -0,0 +1,191 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.cli;
+
+import static org.deephacks.tools4j.cli.CliEvents.CLI108_DUPLICATE_COMMANDS;
+import static org.deephacks.tools4j.cli.CliExtensionAnnotationProcessor.COMMAND;
+import static org.deephacks.tools4j.cli.CliExtensionAnnotationProcessor.INDEX_FILE;
+import static org.deephacks.tools4j.cli.CliExtensionAnnotationProcessor.INDEX_VERSION;
+import static org.deephacks.tools4j.cli.CliExtensionAnnotationProcessor.USAGE;
+import static org.deephacks.tools4j.cli.CliExtensionAnnotationProcessor.VERSION;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.deephacks.tools4j.support.ServiceProviderAnnotationProcessor;
+import org.deephacks.tools4j.support.event.AbortRuntimeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+
+/**
+ * CliCommandIndex is responsible for knowing the keyword and usage of commands without
+ * creating them, using the indexes generated by the {@link CliExtensionAnnotationProcessor}.
+ * <p>
+ * Only commands that are registered as {@link CliCommand} service providers are known.
+ * The index is not used if any of them is missing from the indexes, such as commands
+ * of jars compiled without the processor, and all commands must then be looked up.
+ * </p>
+ */
+final class CliCommandIndex {
+    private static final Logger logger = LoggerFactory.getLogger(CliCommandIndex.class);
+    private static final String SERVICE_FILE = ServiceProviderAnnotationProcessor.OUTPUT_DIR
+            + CliCommand.class.getName();
+    /** keyword to classes, more than one class is a duplicate */
+    private final Map<String, Set<String>> commands;
+    private final Map<String, String> usages;
+    private final ClassLoader cl;
+
+    private CliCommandIndex(Map<String, Set<String>> commands, Map<String, String> usages,
+            ClassLoader cl) {
+        this.commands = commands;
+        this.usages = usages;
+        this.cl = cl;
+    }
+
+    /**
+     * @return index of all commands or null if some commands are not indexed.
+     */
+    static CliCommandIndex load(ClassLoader cl) {
+        try {
+            Set<String> providers = new HashSet<String>();
+            for (URL url : Collections.list(cl.getResources(SERVICE_FILE))) {
+                providers.addAll(readProviders(url));
+            }
+            if (providers.isEmpty()) {
+                return null;
+            }
+            Set<String> indexed = new HashSet<String>();
+            Map<String, Set<String>> commands = new TreeMap<String, Set<String>>();
+            Map<String, String> usages = new TreeMap<String, String>();
+            for (URL url : Collections.list(cl.getResources(INDEX_FILE))) {
+                Properties index = readIndex(url);
+                if (!Integer.toString(INDEX_VERSION).equals(index.getProperty(VERSION))) {
+                    logger.debug("Ignoring command index of unknown version {}", url);
+                    continue;
+                }
+                for (String key : index.stringPropertyNames()) {
+                    if (!key.startsWith(COMMAND)) {
+                        continue;
+                    }
+                    String keyword = key.substring(COMMAND.length());
+                    String className = index.getProperty(key);
+                    indexed.add(className);
+                    if (!providers.contains(className)) {
+                        continue;
+                    }
+                    if (!commands.containsKey(keyword)) {
+                        commands.put(keyword, new LinkedHashSet<String>());
+                    }
+                    commands.get(keyword).add(className);
+                    usages.put(keyword, index.getProperty(USAGE + keyword, ""));
+                }
+            }
+            if (!indexed.containsAll(providers)) {
+                logger.debug("Commands are not indexed, {} have {}", SERVICE_FILE, providers);
+                return null;
+            }
+            return new CliCommandIndex(commands, usages, cl);
+        } catch (IOException e) {
+            logger.debug("Could not read command index.", e);
+            return null;
+        }
+    }
+
+    /**
+     * @throws AbortRuntimeException if a keyword is used by more than one command.
+     */
+    void validateUniqueness() {
+        for (Map.Entry<String, Set<String>> command : commands.entrySet()) {
+            if (command.getValue().size() > 1) {
+                throw CLI108_DUPLICATE_COMMANDS(command.getKey());
+            }
+        }
+    }
+
+    /**
+     * @return usage of each keyword, sorted on keyword.
+     */
+    Map<String, String> getUsages() {
+        return usages;
+    }
+
+    /**
+     * Create the command of a keyword, other commands are not loaded.
+     *
+     * @return the command or null if no command have the keyword.
+     */
+    CliCommand newCommand(String keyword) {
+        Set<String> classNames = commands.get(keyword);
+        if (classNames == null) {
+            return null;
+        }
+        String className = classNames.iterator().next();
+        try {
+            Class<?> clazz = Class.forName(className, true, cl);
+            return CliCommand.class.cast(clazz.newInstance());
+        } catch (Exception e) {
+            throw new IllegalStateException("Could not create command " + className, e);
+        }
+    }
+
+    private static Properties readIndex(URL url) throws IOException {
+        InputStream in = url.openStream();
+        try {
+            Properties properties = new Properties();
+            properties.load(in);
+            return properties;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return lines without comments and white space, same as ServiceLoader.
+     */
+    private static List<String> readProviders(URL url) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        InputStream in = url.openStream();
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, Charsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int comment = line.indexOf('#');
+                if (comment >= 0) {
+                    line = line.substring(0, comment);
+                }
+                line = line.trim();
+                if (!line.isEmpty()) {
+                    lines.add(line);
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return lines;
+    }
+}
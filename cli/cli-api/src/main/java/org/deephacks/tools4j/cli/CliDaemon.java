@@ -0,0 +1,326 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.cli;
+
+import static org.deephacks.tools4j.cli.CliEvents.CLI001_SUCCESS;
+import static org.deephacks.tools4j.cli.CliEvents.CLI111_DAEMON_START_FAILED;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.Timer;
+import java.util.TimerTask;
+
+import org.deephacks.tools4j.log.LogConfiguration;
+import org.deephacks.tools4j.support.event.Event;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * CliDaemon keep a warm JVM that execute commands on behalf of the {@link DaemonClient}
+ * of the bootstrap, so that caches, lookups and compiled code survive between commands.
+ * <p>
+ * The daemon listen on a loopback socket and write its port and a secret token to the
+ * daemon file in the cache directory. Each request is executed in its own thread by a
+ * new {@link CliMain}, which create a new {@link CliExecutionContext} with the working
+ * directory of the client. Standard out, error and in of the request thread, and
+ * threads it start, are forwarded to the client. Logging is configured once for all
+ * requests.
+ * </p>
+ * The daemon stop when the daemon file is removed, which the bootstrap also do when
+ * jars of boot or lib change.
+ */
+class CliDaemon {
+    private static final Logger logger = LoggerFactory.getLogger(CliDaemon.class);
+    /** how often to check that the daemon file still belong to this daemon */
+    private static final long CHECK_INTERVAL_MS = 1000;
+    /** request of the current thread, if any */
+    private static final InheritableThreadLocal<Request> REQUEST = new InheritableThreadLocal<Request>();
+    private final File daemonFile;
+    private final String token = new BigInteger(130, new SecureRandom()).toString(32);
+    private final Set<Thread> requests = Collections.synchronizedSet(new HashSet<Thread>());
+    private ServerSocket server;
+
+    public CliDaemon(String terminalArgs[]) {
+        LogConfiguration.init(CliMain.getConfDir());
+        File cache = new File(Bootstrap.getHomeDir(), Bootstrap.CACHE_DIR);
+        daemonFile = new File(cache, DaemonClient.DAEMON_FILE);
+    }
+
+    public Event run() {
+        try {
+            server = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+            writeDaemonFile();
+        } catch (IOException e) {
+            throw CLI111_DAEMON_START_FAILED(e);
+        }
+        forwardStreams();
+        Timer timer = new Timer("cli-daemon-check", true);
+        timer.schedule(new TimerTask() {
+            @Override
+            public void run() {
+                if (!isDaemonFileOwner()) {
+                    logger.info("Daemon file {} removed, stopping.", daemonFile);
+                    close();
+                    cancel();
+                }
+            }
+        }, CHECK_INTERVAL_MS, CHECK_INTERVAL_MS);
+        logger.info("Daemon listening on port {}", server.getLocalPort());
+        while (!server.isClosed()) {
+            try {
+                Socket socket = server.accept();
+                Thread thread = new Thread(new Request(socket), "cli-daemon-request");
+                requests.add(thread);
+                thread.start();
+            } catch (IOException e) {
+                if (!server.isClosed()) {
+                    logger.warn("Could not accept request.", e);
+                }
+            }
+        }
+        timer.cancel();
+        // let commands that are running finish
+        for (Thread thread : snapshot()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        if (isDaemonFileOwner()) {
+            daemonFile.delete();
+        }
+        return CLI001_SUCCESS();
+    }
+
+    void close() {
+        try {
+            server.close();
+        } catch (IOException e) {
+            logger.debug("Could not close server socket.", e);
+        }
+    }
+
+    private Thread[] snapshot() {
+        synchronized (requests) {
+            return requests.toArray(new Thread[requests.size()]);
+        }
+    }
+
+    /**
+     * The file is readable only by the owner since the token allow execution of any
+     * command as the user that started the daemon.
+     */
+    private void writeDaemonFile() throws IOException {
+        File tmp = new File(daemonFile.getParentFile(), DaemonClient.DAEMON_FILE + ".tmp");
+        Files.createParentDirs(tmp);
+        tmp.delete();
+        if (!tmp.createNewFile()) {
+            throw new IOException("Could not create " + tmp.getAbsolutePath());
+        }
+        tmp.setReadable(false, false);
+        tmp.setWritable(false, false);
+        tmp.setReadable(true, true);
+        tmp.setWritable(true, true);
+        String pid = ManagementFactory.getRuntimeMXBean().getName().split("@")[0];
+        Files.write(server.getLocalPort() + " " + token + " " + pid + "\n", tmp, Charsets.UTF_8);
+        if (!tmp.renameTo(daemonFile)) {
+            daemonFile.delete();
+            if (!tmp.renameTo(daemonFile)) {
+                throw new IOException("Could not create " + daemonFile.getAbsolutePath());
+            }
+        }
+    }
+
+    private boolean isDaemonFileOwner() {
+        try {
+            List<String> lines = Files.readLines(daemonFile, Charsets.UTF_8);
+            return !lines.isEmpty() && lines.get(0).startsWith(server.getLocalPort() + " " + token);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Replace standard streams with streams that forward to the client of the request
+     * of the current thread, or to the original streams otherwise.
+     */
+    private static void forwardStreams() {
+        final PrintStream out = System.out;
+        final PrintStream err = System.err;
+        final InputStream in = System.in;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                Request request = REQUEST.get();
+                if (request == null) {
+                    out.write(b, off, len);
+                } else {
+                    request.write(DaemonClient.OUT, b, off, len);
+                }
+            }
+        }, true));
+        System.setErr(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[] { (byte) b }, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                Request request = REQUEST.get();
+                if (request == null) {
+                    err.write(b, off, len);
+                } else {
+                    request.write(DaemonClient.ERR, b, off, len);
+                }
+            }
+        }, true));
+        System.setIn(new InputStream() {
+            @Override
+            public int read() throws IOException {
+                byte[] b = new byte[1];
+                int n = read(b, 0, 1);
+                return n < 0 ? -1 : b[0] & 0xff;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                Request request = REQUEST.get();
+                if (request == null) {
+                    return in.read(b, off, len);
+                }
+                return request.read(b, off, len);
+            }
+        });
+    }
+
+    /**
+     * Execute the command of a client.
+     */
+    private final class Request implements Runnable {
+        private final Socket socket;
+        private DataInputStream in;
+        private DataOutputStream out;
+        private boolean endOfInput = false;
+
+        private Request(Socket socket) {
+            this.socket = socket;
+        }
+
+        @Override
+        public void run() {
+            try {
+                socket.setTcpNoDelay(true);
+                in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+                // constant time, so that the token cannot be guessed from response times
+                if (!MessageDigest.isEqual(token.getBytes(Charsets.UTF_8),
+                        in.readUTF().getBytes(Charsets.UTF_8))) {
+                    logger.warn("Request with wrong token from port {}", socket.getPort());
+                    return;
+                }
+                File currentDirectory = new File(in.readUTF());
+                String[] args = new String[in.readInt()];
+                for (int i = 0; i < args.length; i++) {
+                    args[i] = in.readUTF();
+                }
+                // from here on the client must not execute the command itself
+                synchronized (this) {
+                    out.write(DaemonClient.ACCEPTED);
+                    out.flush();
+                }
+                int status = 0;
+                REQUEST.set(this);
+                try {
+                    new CliMain(args, currentDirectory).run();
+                } catch (Throwable e) {
+                    // same as the bootstrap would fail without a daemon
+                    logger.warn("Command failed unexpectedly.", e);
+                    e.printStackTrace();
+                    status = 1;
+                } finally {
+                    REQUEST.remove();
+                }
+                synchronized (this) {
+                    out.write(DaemonClient.EXIT);
+                    out.writeInt(status);
+                    out.flush();
+                }
+            } catch (IOException e) {
+                logger.debug("Client went away.", e);
+            } finally {
+                requests.remove(Thread.currentThread());
+                try {
+                    socket.close();
+                } catch (IOException e) {
+                    logger.debug("Could not close socket.", e);
+                }
+            }
+        }
+
+        synchronized void write(int type, byte[] b, int off, int len) throws IOException {
+            out.write(type);
+            out.writeInt(len);
+            out.write(b, off, len);
+            out.flush();
+        }
+
+        synchronized int read(byte[] b, int off, int len) throws IOException {
+            if (endOfInput) {
+                return -1;
+            }
+            if (len == 0) {
+                return 0;
+            }
+            out.write(DaemonClient.IN);
+            out.writeInt(len);
+            out.flush();
+            int n = in.readInt();
+            if (n < 0) {
+                endOfInput = true;
+                return -1;
+            }
+            in.readFully(b, off, n);
+            return n;
+        }
+    }
+}
@@ -80,6 +80,17 @@ public class CliEvents {
         return code;
     }
 
+    /**
+     * {@value} - Batch was executed.
+     */
+    public static final int CLI005 = 5;
+    static final String CLI005_MSG = "Batch of {0} commands was executed.";
+
+    @EventDoc(module = MODULE_NAME, code = CLI005, desc = "Batch was executed.")
+    static Event CLI005_BATCH_SUCCESS(int commands) {
+        return new Event(MODULE_NAME, CLI005, MessageFormat.format(CLI005_MSG, commands));
+    }
+
     /**
      * {@value} - Invalid option argument value.
      */
@@ -229,4 +240,55 @@ public class CliEvents {
         Event code = new Event(MODULE_NAME, CLI110, msg);
         return new AbortRuntimeException(code);
     }
+
+    /**
+     * {@value} - Daemon could not be started.
+     */
+    public static final int CLI111 = 111;
+    static final String CLI111_MSG = "Daemon could not be started: {0}";
+
+    @EventDoc(module = MODULE_NAME, code = CLI111, desc = "Daemon could not be started.")
+    static AbortRuntimeException CLI111_DAEMON_START_FAILED(Exception e) {
+        String msg = MessageFormat.format(CLI111_MSG, e.getMessage());
+        Event code = new Event(MODULE_NAME, CLI111, msg);
+        return new AbortRuntimeException(code, e);
+    }
+
+    /**
+     * {@value} - Commands of a batch failed.
+     */
+    public static final int CLI112 = 112;
+    static final String CLI112_MSG = "{0} of {1} commands in batch failed.";
+
+    @EventDoc(module = MODULE_NAME, code = CLI112, desc = "Commands of a batch failed.")
+    static Event CLI112_BATCH_FAILED(int failed, int commands) {
+        String msg = MessageFormat.format(CLI112_MSG, failed, commands);
+        return new Event(MODULE_NAME, CLI112, msg);
+    }
+
+    /**
+     * {@value} - Batch line is not a valid command.
+     */
+    public static final int CLI113 = 113;
+    static final String CLI113_MSG = "Line {0} of batch is not a valid command: {1}";
+
+    @EventDoc(module = MODULE_NAME, code = CLI113, desc = "Batch line is not a valid command.")
+    static AbortRuntimeException CLI113_BATCH_INVALID_LINE(int lineNumber, String line) {
+        String msg = MessageFormat.format(CLI113_MSG, Integer.toString(lineNumber), line);
+        Event code = new Event(MODULE_NAME, CLI113, msg);
+        return new AbortRuntimeException(code);
+    }
+
+    /**
+     * {@value} - Batch file does not exist.
+     */
+    public static final int CLI114 = 114;
+    static final String CLI114_MSG = "Batch file does not exist:  {0}";
+
+    @EventDoc(module = MODULE_NAME, code = CLI114, desc = "Batch file does not exist.")
+    static AbortRuntimeException CLI114_BATCH_FILE_DOES_NOT_EXIST(File file) {
+        String msg = MessageFormat.format(CLI114_MSG, file.getAbsolutePath());
+        Event code = new Event(MODULE_NAME, CLI114, msg);
+        return new AbortRuntimeException(code);
+    }
 }
@@ -36,11 +36,18 @@ public final class CliExecutionContext {
     private File currentDirectory;
     private static ThreadLocal<CliExecutionContext> THREAD_CONTEXT = new ThreadLocal<CliExecutionContext>();
 
-    CliExecutionContext(GNUishParser parser, BeanInstance<CliCommand> cliCommand) {
+    /**
+     * @param currentDirectory directory of the terminal, null if same as this JVM.
+     */
+    CliExecutionContext(GNUishParser parser, BeanInstance<CliCommand> cliCommand,
+            File currentDirectory) {
         this.parser = Preconditions.checkNotNull(parser);
         this.cliCommand = Preconditions.checkNotNull(cliCommand);
         try {
-            currentDirectory = new File(".").getCanonicalFile();
+            if (currentDirectory == null) {
+                currentDirectory = new File(".");
+            }
+            this.currentDirectory = currentDirectory.getCanonicalFile();
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
@@ -0,0 +1,99 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.cli;
+
+import java.text.MessageFormat;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedSourceVersion;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.tools.Diagnostic.Kind;
+
+import org.deephacks.tools4j.support.FileOutputAnnotationProcessor;
+
+/**
+ * CliExtensionAnnotationProcessor is responsible for generating an index of the
+ * keyword, class and usage of all {@link CliExtension} commands, {@value #INDEX_FILE}.
+ * <p>
+ * The index is a properties file with a {@value #COMMAND} and a {@value #USAGE}
+ * property for each keyword, so that commands can be listed and found without
+ * creating them. Abstract classes are left out. Classes that do not implement
+ * {@link CliCommand} and keywords used by more than one command are compile errors.
+ * </p>
+ */
+@SupportedSourceVersion(SourceVersion.RELEASE_7)
+@SupportedAnnotationTypes("org.deephacks.tools4j.cli.CliExtension")
+public class CliExtensionAnnotationProcessor extends FileOutputAnnotationProcessor {
+    public static final String INDEX_FILE = "META-INF/tools4j/commands.index";
+    /** increment if the format of the index change */
+    public static final int INDEX_VERSION = 1;
+    public static final String VERSION = "version";
+    public static final String COMMAND = "command.";
+    public static final String USAGE = "usage.";
+    /** commands of all rounds */
+    private final Map<String, String> keywords = new HashMap<String, String>();
+
+    @Override
+    protected boolean handleProcess(Set<? extends TypeElement> annotations,
+            RoundEnvironment roundEnv) {
+        debug("CliExtensionAnnotationProcessor");
+        TypeElement cliCommand = processingEnv.getElementUtils().getTypeElement(
+                CliCommand.class.getName());
+        for (Element element : roundEnv.getElementsAnnotatedWith(CliExtension.class)) {
+            if (element.getKind() != ElementKind.CLASS
+                    || element.getModifiers().contains(Modifier.ABSTRACT)) {
+                continue;
+            }
+            TypeElement type = (TypeElement) element;
+            String className = processingEnv.getElementUtils().getBinaryName(type).toString();
+            if (!processingEnv.getTypeUtils().isAssignable(type.asType(), cliCommand.asType())) {
+                error(type, "@CliExtension {0} does not implement {1}.", className,
+                        CliCommand.class.getName());
+                continue;
+            }
+            CliExtension extension = type.getAnnotation(CliExtension.class);
+            if (CliBatch.KEYWORD.equals(extension.keyword())) {
+                error(type, "@CliExtension {0} use the reserved keyword {1}.", className,
+                        CliBatch.KEYWORD);
+                continue;
+            }
+            String existing = keywords.put(extension.keyword(), className);
+            if (existing != null && !existing.equals(className)) {
+                error(type, CliEvents.CLI108_MSG + " ({1} and {2})", extension.keyword(),
+                        existing, className);
+                continue;
+            }
+            Properties properties = new Properties();
+            properties.setProperty(COMMAND + extension.keyword(), className);
+            properties.setProperty(USAGE + extension.keyword(), extension.usage());
+            addProperties(properties, INDEX_FILE);
+            addLine(VERSION + "=" + INDEX_VERSION, INDEX_FILE);
+        }
+        return false;
+    }
+
+    private void error(Element element, String pattern, Object... args) {
+        processingEnv.getMessager().printMessage(Kind.ERROR,
+                MessageFormat.format(pattern, args), element);
+    }
+}
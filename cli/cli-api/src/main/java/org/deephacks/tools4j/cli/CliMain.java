@@ -26,6 +26,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -50,22 +51,39 @@ class CliMain {
     static final String CONF_DIR = "conf";
     static final String CONF_FILE = "conf.properties";
     private Collection<BeanInstance<CliCommand>> availableCliCommands = new ArrayList<BeanInstance<CliCommand>>();
-    private BeanInstance<CliCommand> cliCommand;
+    /** true when the commands of availableCliCommands have been used */
+    private boolean lookupsUsed = false;
     private String terminalArgs[];
     private Logger logger = null;
     private AbortRuntimeException constructorEx;
+    /** null if the current directory of this JVM */
+    private File currentDirectory;
+    /** null if commands are not indexed and must be looked up */
+    private CliCommandIndex commandIndex;
 
     public CliMain(String terminalArgs[]) {
-        if (terminalArgs == null) {
-            terminalArgs = new String[0];
-        }
         try {
             LogConfiguration.init(getConfDir());
         } catch (AbortRuntimeException e) {
             // cannot throw yet, constructor cannot return the event.
             constructorEx = e;
         }
+        init(terminalArgs);
+    }
+
+    /**
+     * Used by the daemon, which have already configured logging, to execute commands
+     * on behalf of a terminal in another directory.
+     */
+    CliMain(String terminalArgs[], File currentDirectory) {
+        this.currentDirectory = currentDirectory;
+        init(terminalArgs);
+    }
 
+    private void init(String terminalArgs[]) {
+        if (terminalArgs == null) {
+            terminalArgs = new String[0];
+        }
         this.terminalArgs = terminalArgs;
 
         if (GNUishParser.parseReservedOnly(terminalArgs).debug()) {
@@ -73,7 +91,10 @@ class CliMain {
         }
 
         this.logger = LoggerFactory.getLogger(CliMain.class);
-        availableCliCommands = getLookups();
+        commandIndex = CliCommandIndex.load(getClassLoader());
+        if (commandIndex == null) {
+            availableCliCommands = getLookups();
+        }
 
     }
 
@@ -90,44 +111,90 @@ class CliMain {
             printAvailableCommandsHelp();
             return CLI003_HELP_COMMANDS();
         }
+        if (CliBatch.KEYWORD.equals(command)) {
+            return runBatch(remainingArgs);
+        }
+        return execute(command, remainingArgs);
+    }
+
+    /**
+     * Parse, inject, validate and execute a command. Every call use a new instance of
+     * the command so that commands of a batch can be executed at the same time.
+     */
+    Event execute(String command, String[] args) {
         try {
             if (constructorEx != null) {
                 throw constructorEx;
             }
-            validateUniqueness();
-            cliCommand = getCommand(command);
+            BeanInstance<CliCommand> cliCommand = getCommand(command);
             List<String> nonArgumentedOptions = getNonArgumentedOptions(cliCommand);
-            GNUishParser p = GNUishParser.parse(remainingArgs, nonArgumentedOptions);
-            if (p.help() && cliCommand != null) {
-                printCommandHelp();
+            GNUishParser p = GNUishParser.parse(args, nonArgumentedOptions);
+            if (p.help()) {
+                printCommandHelp(cliCommand);
                 return CLI002_HELP_COMMAND(command);
             }
-            CliExecutionContext ctx = new CliExecutionContext(p, cliCommand);
+            CliExecutionContext ctx = new CliExecutionContext(p, cliCommand, currentDirectory);
             ctx.execute();
-        } catch (AbortRuntimeException e) {
-            System.out.println(e.getMessage());
-            logger.debug(e.getMessage(), e);
-            return e.getEvent();
         } catch (Throwable e) {
-            Event code = CliEvents.CLI004_UNEXPECTED_EXCEPTION(e);
-            System.out.println(code.getMessage());
-            logger.debug(e.getMessage(), e);
-            return code;
+            return failed(e);
         }
         return CLI001_SUCCESS();
     }
 
+    private Event runBatch(String[] args) {
+        try {
+            if (constructorEx != null) {
+                throw constructorEx;
+            }
+            return new CliBatch(this, currentDirectory).run(args);
+        } catch (Throwable e) {
+            return failed(e);
+        }
+    }
+
+    private Event failed(Throwable e) {
+        if (e instanceof AbortRuntimeException) {
+            System.out.println(e.getMessage());
+            logger.debug(e.getMessage(), e);
+            return ((AbortRuntimeException) e).getEvent();
+        }
+        Event code = CliEvents.CLI004_UNEXPECTED_EXCEPTION(e);
+        System.out.println(code.getMessage());
+        logger.debug(e.getMessage(), e);
+        return code;
+    }
+
     BeanInstance<CliCommand> getCommand(String command) {
-        for (BeanInstance<CliCommand> aCommand : availableCliCommands) {
+        if (commandIndex != null) {
+            commandIndex.validateUniqueness();
+            CliCommand indexed = commandIndex.newCommand(command);
+            if (indexed == null) {
+                throw CLI109_COMMAND_DOES_NOT_EXIST(command);
+            }
+            return BeanInstance.of(indexed);
+        }
+        Collection<BeanInstance<CliCommand>> commands = useLookups();
+        validateUniqueness(commands);
+        for (BeanInstance<CliCommand> aCommand : commands) {
             CliExtension extension = aCommand.getClassAnnotation(CliExtension.class);
             if (command.equals(extension.keyword())) {
-                cliCommand = aCommand;
+                return aCommand;
             }
         }
-        if (cliCommand == null) {
-            throw CLI109_COMMAND_DOES_NOT_EXIST(command);
+        throw CLI109_COMMAND_DOES_NOT_EXIST(command);
+    }
+
+    /**
+     * Commands keep the options and arguments that were injected into them, so the
+     * commands that were looked up by the constructor are used once and commands of
+     * a batch are looked up again.
+     */
+    private synchronized Collection<BeanInstance<CliCommand>> useLookups() {
+        if (lookupsUsed) {
+            return getLookups();
         }
-        return cliCommand;
+        lookupsUsed = true;
+        return availableCliCommands;
     }
 
     private Collection<BeanInstance<CliCommand>> getLookups() {
@@ -137,9 +204,9 @@ class CliMain {
 
     }
 
-    private void validateUniqueness() {
+    private void validateUniqueness(Collection<BeanInstance<CliCommand>> commands) {
         Map<String, BeanInstance<CliCommand>> availableCommands = Maps.newHashMap();
-        for (BeanInstance<CliCommand> command : availableCliCommands) {
+        for (BeanInstance<CliCommand> command : commands) {
             CliExtension ext = command.getClassAnnotation(CliExtension.class);
             if (availableCommands.get(ext.keyword()) != null) {
                 throw CLI108_DUPLICATE_COMMANDS(ext.keyword());
@@ -190,16 +257,28 @@ class CliMain {
     }
 
     private void printAvailableCommandsHelp() {
-        StringBuffer sb = new StringBuffer();
-        sb.append("Available commands are: ");
+        Map<String, String> usages = new LinkedHashMap<String, String>();
+        if (commandIndex != null) {
+            usages.putAll(commandIndex.getUsages());
+        }
         for (BeanInstance<CliCommand> cliCommand : availableCliCommands) {
             CliExtension ext = cliCommand.getClassAnnotation(CliExtension.class);
-            sb.append("  " + ext.keyword() + " - " + ext.usage());
+            usages.put(ext.keyword(), ext.usage());
+        }
+        StringBuffer sb = new StringBuffer();
+        sb.append("Available commands are: ");
+        for (Map.Entry<String, String> usage : usages.entrySet()) {
+            sb.append("  " + usage.getKey() + " - " + usage.getValue());
         }
         System.out.println(sb.toString());
     }
 
-    private void printCommandHelp() {
+    private static ClassLoader getClassLoader() {
+        ClassLoader cl = Thread.currentThread().getContextClassLoader();
+        return cl != null ? cl : CliMain.class.getClassLoader();
+    }
+
+    private void printCommandHelp(BeanInstance<CliCommand> cliCommand) {
         CliExtension cliExtension = cliCommand.getClassAnnotation(CliExtension.class);
         StringBuffer sb = new StringBuffer();
         Map<String, BeanAnnotatedField<CliArgument>> arguments = cliCommand
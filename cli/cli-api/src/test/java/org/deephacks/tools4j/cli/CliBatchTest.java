@@ -0,0 +1,128 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.cli;
+
+import static org.deephacks.tools4j.cli.CliEvents.CLI005;
+import static org.deephacks.tools4j.cli.CliEvents.CLI101;
+import static org.deephacks.tools4j.cli.CliEvents.CLI112;
+import static org.deephacks.tools4j.cli.CliEvents.CLI114;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.deephacks.tools4j.support.event.AbortRuntimeException;
+import org.deephacks.tools4j.support.event.Event;
+import org.deephacks.tools4j.support.lookup.MockLookup;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.io.Files;
+
+public class CliBatchTest {
+    private static final int CONCURRENT_COMMANDS = 4;
+    private final CountDownLatch running = new CountDownLatch(CONCURRENT_COMMANDS);
+    private final List<String> names = new CopyOnWriteArrayList<String>();
+    private File dir;
+
+    @Before
+    public void before() throws Exception {
+        dir = Files.createTempDir();
+        MockLookup.setMockInstances(CliCommand.class, new NameCommand(), new WaitingCommand());
+    }
+
+    @Test
+    public void test_tokenize() {
+        assertThat(Arrays.asList(CliBatch.tokenize(" name \"a b\" 'c \"d' e\\ f g# # h")),
+                is(Arrays.asList("name", "a b", "c \"d", "e f", "g#")));
+        assertThat(Arrays.asList(CliBatch.tokenize("name \"a \\\"b\\\"\" ''")),
+                is(Arrays.asList("name", "a \"b\"", "")));
+        assertThat(CliBatch.tokenize("  # comment").length, is(0));
+        assertThat(CliBatch.tokenize("").length, is(0));
+        assertThat(CliBatch.tokenize("name 'a"), is(nullValue()));
+    }
+
+    @Test
+    public void test_batch_file() throws Exception {
+        write("commands", "name first", "", "# comment", "name 'second name' --help",
+                "name \"third name\"", "unknown", "name 'unterminated", "batch commands");
+        Event event = new CliMain(new String[] { "batch", "commands" }, dir).run();
+        assertThat(event.getCode(), is(CLI112));
+        assertThat(event.getMessage(), is("3 of 6 commands in batch failed."));
+        // help is not executed
+        assertThat(names, is(Arrays.asList("first", "third name")));
+    }
+
+    @Test
+    public void test_parallel() throws Exception {
+        String[] lines = new String[CONCURRENT_COMMANDS];
+        Arrays.fill(lines, "wait");
+        write("commands", lines);
+        String path = new File(dir, "commands").getAbsolutePath();
+        Event event = new CliMain(new String[] { "batch", "--parallel",
+                Integer.toString(CONCURRENT_COMMANDS), path }, null).run();
+        assertThat(event.getCode(), is(CLI005));
+        assertThat(running.getCount(), is(0L));
+    }
+
+    @Test
+    public void test_invalid_input() throws Exception {
+        Event event = new CliMain(new String[] { "batch", "missing" }, dir).run();
+        assertThat(event.getCode(), is(CLI114));
+        write("commands", "name first");
+        event = new CliMain(new String[] { "batch", "-p", "0", "commands" }, dir).run();
+        assertThat(event.getCode(), is(CLI101));
+        assertThat(names.size(), is(0));
+    }
+
+    private void write(String name, String... lines) throws Exception {
+        Files.write(Joiner.on('\n').join(lines), new File(dir, name), Charsets.UTF_8);
+    }
+
+    @CliExtension(keyword = "name", usage = "")
+    public class NameCommand implements CliCommand {
+        @CliArgument(name = "name", desc = "desc", position = 0)
+        private String name;
+
+        @Override
+        public void execute(CliExecutionContext ctx) throws AbortRuntimeException {
+            names.add(name);
+        }
+    }
+
+    @CliExtension(keyword = "wait", usage = "")
+    public class WaitingCommand implements CliCommand {
+
+        @Override
+        public void execute(CliExecutionContext ctx) throws AbortRuntimeException {
+            running.countDown();
+            try {
+                // every command must run at the same time
+                if (!running.await(10, TimeUnit.SECONDS)) {
+                    throw new IllegalStateException("Commands did not run concurrently.");
+                }
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
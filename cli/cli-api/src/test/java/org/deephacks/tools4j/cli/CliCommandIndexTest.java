@@ -0,0 +1,156 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.cli;
+
+import static org.deephacks.tools4j.cli.CliEvents.CLI108;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.notNullValue;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.tools.JavaCompiler;
+import javax.tools.JavaCompiler.CompilationTask;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.deephacks.tools4j.support.ServiceProvider;
+import org.deephacks.tools4j.support.ServiceProviderAnnotationProcessor;
+import org.deephacks.tools4j.support.event.AbortRuntimeException;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+
+/**
+ * Compile commands with the {@link CliExtensionAnnotationProcessor} and check that
+ * only the command that is executed is created.
+ */
+public class CliCommandIndexTest {
+    private static final String[] FIRST = {
+            "package index;",
+            "import org.deephacks.tools4j.cli.*;",
+            "import org.deephacks.tools4j.support.ServiceProvider;",
+            "@ServiceProvider(service = CliCommand.class)",
+            "@CliExtension(keyword = \"first\", usage = \"usage with = and \\u00e5\")",
+            "public class First implements CliCommand {",
+            "  public void execute(CliExecutionContext ctx) {}",
+            "}" };
+    private static final String[] SECOND = {
+            "package index;",
+            "import org.deephacks.tools4j.cli.*;",
+            "import org.deephacks.tools4j.support.ServiceProvider;",
+            "@ServiceProvider(service = CliCommand.class)",
+            "@CliExtension(keyword = \"second\", usage = \"second\")",
+            "public class Second implements CliCommand {",
+            "  public Second() { throw new IllegalStateException(\"not executed\"); }",
+            "  public void execute(CliExecutionContext ctx) {}",
+            "}" };
+    private static final String[] DUPLICATE = {
+            "package duplicate;",
+            "import org.deephacks.tools4j.cli.*;",
+            "import org.deephacks.tools4j.support.ServiceProvider;",
+            "@ServiceProvider(service = CliCommand.class)",
+            "@CliExtension(keyword = \"first\", usage = \"duplicate\")",
+            "public class Duplicate implements CliCommand {",
+            "  public void execute(CliExecutionContext ctx) {}",
+            "}" };
+
+    @Test
+    public void test_only_executed_command_is_created() throws Exception {
+        File dir = compile(true, FIRST, SECOND);
+        ClassLoader cl = new URLClassLoader(new URL[] { dir.toURI().toURL() },
+                CliCommandIndexTest.class.getClassLoader());
+        CliCommandIndex index = CliCommandIndex.load(cl);
+        assertThat(index, notNullValue());
+        index.validateUniqueness();
+        assertThat(index.getUsages(), is((Object) ImmutableMap.of("first",
+                "usage with = and \u00e5", "second", "second")));
+        assertThat(index.newCommand("first").getClass().getName(), is("index.First"));
+        assertThat(index.newCommand("bogus"), nullValue());
+    }
+
+    @Test
+    public void test_duplicate_keyword_fail_compilation() throws Exception {
+        assertThat(compile(true, FIRST, DUPLICATE), nullValue());
+    }
+
+    @Test
+    public void test_duplicate_keyword_in_other_jar() throws Exception {
+        File first = compile(true, FIRST);
+        File duplicate = compile(true, DUPLICATE);
+        ClassLoader cl = new URLClassLoader(new URL[] { first.toURI().toURL(),
+                duplicate.toURI().toURL() }, CliCommandIndexTest.class.getClassLoader());
+        try {
+            CliCommandIndex.load(cl).validateUniqueness();
+            fail("duplicate keyword");
+        } catch (AbortRuntimeException e) {
+            assertThat(e.getEvent().getCode(), is(CLI108));
+        }
+    }
+
+    @Test
+    public void test_commands_not_indexed() throws Exception {
+        File dir = compile(false, SECOND);
+        ClassLoader cl = new URLClassLoader(new URL[] { dir.toURI().toURL() },
+                CliCommandIndexTest.class.getClassLoader());
+        assertThat(CliCommandIndex.load(cl), nullValue());
+    }
+
+    /**
+     * @param index run the CliExtensionAnnotationProcessor.
+     * @return directory with classes or null if compilation failed.
+     */
+    private static File compile(boolean index, String[]... sources) throws Exception {
+        File dir = Files.createTempDir();
+        List<File> files = new ArrayList<File>();
+        for (String[] source : sources) {
+            String text = Joiner.on('\n').join(source);
+            String className = text.replaceAll("(?s).*public class (\\w+).*", "$1");
+            File file = new File(dir, className + ".java");
+            Files.write(text, file, Charsets.UTF_8);
+            files.add(file);
+        }
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null);
+        String classpath = Joiner.on(File.pathSeparator).join(getLocation(CliCommand.class),
+                getLocation(ServiceProvider.class));
+        CompilationTask task = compiler.getTask(null, fileManager, null,
+                Arrays.asList("-d", dir.getAbsolutePath(), "-cp", classpath), null,
+                fileManager.getJavaFileObjectsFromFiles(files));
+        if (index) {
+            task.setProcessors(Arrays.asList(new ServiceProviderAnnotationProcessor(),
+                    new CliExtensionAnnotationProcessor()));
+        } else {
+            task.setProcessors(Arrays.asList(new ServiceProviderAnnotationProcessor()));
+        }
+        boolean success = task.call();
+        fileManager.close();
+        return success ? dir : null;
+    }
+
+    private static String getLocation(Class<?> cls) throws Exception {
+        return new File(cls.getProtectionDomain().getCodeSource().getLocation().toURI())
+                .getAbsolutePath();
+    }
+}
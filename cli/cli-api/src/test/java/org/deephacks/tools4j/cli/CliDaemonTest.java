@@ -0,0 +1,197 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.cli;
+
+import static org.deephacks.tools4j.cli.CliEvents.CLI001;
+import static org.hamcrest.CoreMatchers.is;
+import static org.hamcrest.CoreMatchers.not;
+import static org.hamcrest.CoreMatchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.deephacks.tools4j.support.event.AbortRuntimeException;
+import org.deephacks.tools4j.support.event.Event;
+import org.deephacks.tools4j.support.lookup.MockLookup;
+import org.deephacks.tools4j.support.test.JUnitUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+public class CliDaemonTest {
+    private static final int CONCURRENT_COMMANDS = 4;
+    private File home;
+    private File daemonFile;
+    private final CountDownLatch running = new CountDownLatch(CONCURRENT_COMMANDS);
+    private final List<CliExecutionContext> contexts = new CopyOnWriteArrayList<CliExecutionContext>();
+
+    @Before
+    public void before() throws Exception {
+        home = Files.createTempDir();
+        File conf = new File(home, CliMain.CONF_DIR);
+        conf.mkdirs();
+        for (File file : JUnitUtils.getMavenProjectChildFile(CliDaemonTest.class, "src/main/conf")
+                .listFiles()) {
+            Files.copy(file, new File(conf, file.getName()));
+        }
+        System.setProperty(Bootstrap.CLI_HOME_VARIABLE, home.getAbsolutePath());
+        daemonFile = new File(new File(home, Bootstrap.CACHE_DIR), DaemonClient.DAEMON_FILE);
+        MockLookup.setMockInstances(CliCommand.class, new WaitingCommand());
+    }
+
+    @Test
+    public void test_concurrent_commands() throws Exception {
+        final CliDaemon daemon = new CliDaemon(new String[0]);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        Future<Event> stopped = executor.submit(new Callable<Event>() {
+            @Override
+            public Event call() throws Exception {
+                return daemon.run();
+            }
+        });
+        while (!daemonFile.exists()) {
+            Thread.sleep(10);
+        }
+        List<Future<Integer>> statuses = new ArrayList<Future<Integer>>();
+        for (int i = 0; i < CONCURRENT_COMMANDS; i++) {
+            statuses.add(executor.submit(new Callable<Integer>() {
+                @Override
+                public Integer call() throws Exception {
+                    return DaemonClient.run(home, new String[] { "wait" });
+                }
+            }));
+        }
+        for (Future<Integer> status : statuses) {
+            assertThat(status.get(10, TimeUnit.SECONDS), is(0));
+        }
+        // each command had its own context
+        Set<CliExecutionContext> unique = new HashSet<CliExecutionContext>(contexts);
+        assertThat(unique.size(), is(CONCURRENT_COMMANDS));
+        daemonFile.delete();
+        assertThat(stopped.get(10, TimeUnit.SECONDS).getCode(), is(CLI001));
+        // no daemon, the command is executed without it
+        assertThat(DaemonClient.run(home, new String[] { "wait" }), is(nullValue()));
+        executor.shutdown();
+    }
+
+    @Test
+    public void test_connection_closed_by_daemon() throws Exception {
+        final ServerSocket server = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        try {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        // a daemon that is stopping accept and close
+                        server.accept().close();
+                    } catch (IOException e) {
+                        // server was closed
+                    }
+                }
+            }.start();
+            daemonFile.getParentFile().mkdirs();
+            Files.write(server.getLocalPort() + " token 1\n", daemonFile, Charsets.UTF_8);
+            // nothing was received, the command is executed without the daemon
+            assertThat(DaemonClient.run(home, new String[] { "wait" }), is(nullValue()));
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void test_connection_closed_after_accepted() throws Exception {
+        final ServerSocket server = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        try {
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        // a daemon that accept the request and die while executing it
+                        Socket socket = server.accept();
+                        DataInputStream in = new DataInputStream(socket.getInputStream());
+                        in.readUTF();
+                        in.readUTF();
+                        for (int i = in.readInt(); i > 0; i--) {
+                            in.readUTF();
+                        }
+                        socket.getOutputStream().write(DaemonClient.ACCEPTED);
+                        socket.close();
+                    } catch (IOException e) {
+                        // server was closed
+                    }
+                }
+            }.start();
+            daemonFile.getParentFile().mkdirs();
+            Files.write(server.getLocalPort() + " token 1\n", daemonFile, Charsets.UTF_8);
+            // the command may have been executed, so it fail instead of running again
+            assertThat(DaemonClient.run(home, new String[] { "wait" }), is(1));
+        } finally {
+            server.close();
+        }
+    }
+
+    @Test
+    public void test_current_directory_of_terminal() throws Exception {
+        File dir = Files.createTempDir();
+        new Thread() {
+            @Override
+            public void run() {
+                for (int i = 1; i < CONCURRENT_COMMANDS; i++) {
+                    running.countDown();
+                }
+            }
+        }.start();
+        Event event = new CliMain(new String[] { "wait" }, dir).run();
+        assertThat(event.getCode(), is(CLI001));
+        assertThat(contexts.get(0).getCurrentDirectory(), is(dir.getCanonicalFile()));
+        assertThat(contexts.get(0).getCurrentDirectory(), not(new File(".").getCanonicalFile()));
+    }
+
+    @CliExtension(keyword = "wait", usage = "")
+    public class WaitingCommand implements CliCommand {
+
+        @Override
+        public void execute(CliExecutionContext ctx) throws AbortRuntimeException {
+            running.countDown();
+            try {
+                // every command must run at the same time
+                if (!running.await(10, TimeUnit.SECONDS)) {
+                    throw new IllegalStateException("Commands did not run concurrently.");
+                }
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            assertThat(CliExecutionContext.get(), is(ctx));
+            contexts.add(ctx);
+        }
+    }
+}
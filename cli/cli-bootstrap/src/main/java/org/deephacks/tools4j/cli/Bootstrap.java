@@ -1,25 +1,54 @@
 package org.deephacks.tools4j.cli;
 
+import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.Method;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 /**
  * Using .bat and .sh scripts to dynamically load the class path is a pain, so
  * we use this class to load classes using class loaders instead.
- * 
+ *
  * This bootstrap stuff needs to be in a separate jar, therefore it is also a
  * separate Maven project.
- * 
+ *
  * Make sure that no dependencies to other classes exist in this Bootstrap
  * class.
- * 
+ * <p>
+ * The jars of boot and lib are written to a class path index in the cache
+ * directory. The first line of the index is the class path, which the scripts
+ * give to java so that the jars are loaded by the system class loader. Such
+ * a class path can also be archived for class data sharing, see t4j_cli_cds.
+ * The rest of the index is the size, last modified time and path of each jar.
+ * The index, and everything else in the cache directory, is recreated when
+ * any of those change.
+ * </p>
+ * Set system variable {@link #CLI_TIMING_VARIABLE} to print the time spent in
+ * each phase of startup, see t4j_cli_bench.
+ * <p>
+ * Commands are sent to the daemon of the home directory, if one is running, see
+ * {@link DaemonClient}. Set system variable {@link #CLI_DAEMON_VARIABLE} to run
+ * as the daemon, see t4j_cli_daemon.
+ * </p>
+ *
  * @author Kristoffer Sjogren
  */
 public class Bootstrap {
@@ -27,16 +56,24 @@ public class Bootstrap {
      * This is set in the bat and sh scripts.
      */
     static final String CLI_HOME_VARIABLE = "org.deephacks.tools4j.cli.home";
+    static final String CLI_TIMING_VARIABLE = "org.deephacks.tools4j.cli.timing";
+    static final String CLI_DAEMON_VARIABLE = "org.deephacks.tools4j.cli.daemon";
     static final String LIB_DIR = "lib";
     static final String BOOT_DIR = "boot";
+    static final String CACHE_DIR = "cache";
+    static final String CLASSPATH_INDEX = "classpath";
 
     /**
      * Main class in cli-api
      */
     private static final String MAIN_CLASS = "org.deephacks.tools4j.cli.CliMain";
+    /**
+     * Main class in cli-api when running as a daemon
+     */
+    private static final String DAEMON_CLASS = "org.deephacks.tools4j.cli.CliDaemon";
 
     public static final void main(String[] args) {
-
+        long start = System.nanoTime();
         String home = System.getProperty(CLI_HOME_VARIABLE);
         if (home == null || "".equals(home)) {
             Properties p = System.getProperties();
@@ -52,20 +89,41 @@ public class Bootstrap {
                     + "]does not exist.");
             return;
         }
-        loadJars();
+        Timing timing = Boolean.getBoolean(CLI_TIMING_VARIABLE) ? new Timing(start) : null;
         try {
-            Class<?> cliMain = Thread.currentThread().getContextClassLoader().loadClass(MAIN_CLASS);
+            List<File> jars = index(homeDir);
+            lap(timing, "index");
+            boolean daemon = Boolean.getBoolean(CLI_DAEMON_VARIABLE);
+            if (!daemon) {
+                Integer status = DaemonClient.run(homeDir, args);
+                if (status != null) {
+                    lap(timing, "daemon");
+                    if (timing != null) {
+                        System.err.println(timing);
+                    }
+                    System.exit(status);
+                }
+            }
+            loadJars(jars);
+            lap(timing, "classloader");
+            Class<?> cliMain = Thread.currentThread().getContextClassLoader()
+                    .loadClass(daemon ? DAEMON_CLASS : MAIN_CLASS);
+            lap(timing, "load");
             Constructor<?> c = cliMain.getConstructor(String[].class);
             c.setAccessible(true);
             Object o = c.newInstance((Object) args);
+            lap(timing, "init");
             Method m = o.getClass().getMethod("run");
             m.setAccessible(true);
             m.invoke(o);
+            lap(timing, "run");
         } catch (Exception e) {
             // cant do much about this.
             throw new RuntimeException(e);
         }
-
+        if (timing != null) {
+            System.err.println(timing);
+        }
     }
 
     public final static File getHomeDir() {
@@ -85,33 +143,137 @@ public class Bootstrap {
 
     }
 
-    private static void loadJars() {
-        try {
-            File root = getHomeDir();
-            File boot = new File(root, BOOT_DIR).getCanonicalFile();
-            loadJarsInThreadCLChild(boot);
-            File lib = new File(root, LIB_DIR).getCanonicalFile();
-            loadJarsInThreadCLChild(lib);
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+    /**
+     * List jars of boot and lib, in that order, and make sure that the class path
+     * index is up to date with them.
+     */
+    static List<File> index(File root) throws IOException {
+        List<File> jars = new ArrayList<File>();
+        jars.addAll(listJars(new File(root, BOOT_DIR).getCanonicalFile()));
+        jars.addAll(listJars(new File(root, LIB_DIR).getCanonicalFile()));
+        List<String> lines = new ArrayList<String>();
+        lines.add(toClassPath(jars));
+        for (File jar : jars) {
+            lines.add(jar.length() + " " + jar.lastModified() + " " + jar.getAbsolutePath());
+        }
+        File cache = new File(root, CACHE_DIR);
+        File index = new File(cache, CLASSPATH_INDEX);
+        if (!lines.equals(readLines(index))) {
+            try {
+                clear(cache);
+                writeLines(index, lines);
+            } catch (IOException e) {
+                // the home directory may be read only, which only make startup slower.
+            }
         }
+        return jars;
     }
 
-    private static void loadJarsInThreadCLChild(File dir) throws IOException {
-        File[] jars = listJars(dir);
+    /**
+     * Use the system class loader if it was given the class path of the index,
+     * otherwise create a class loader for the jars.
+     */
+    private static void loadJars(List<File> jars) {
+        if (toClassPath(jars).equals(System.getProperty("java.class.path"))) {
+            return;
+        }
         ClassLoader cl = Thread.currentThread().getContextClassLoader();
-        URLClassLoader jarExtensions = createClassLoaderFrom(jars, cl);
+        if (ClassLoader.getSystemResource(MAIN_CLASS.replace('.', '/') + ".class") != null) {
+            // jars of an outdated index, skip them.
+            cl = ClassLoader.getSystemClassLoader().getParent();
+        }
+        URLClassLoader jarExtensions = createClassLoaderFrom(jars.toArray(new File[jars.size()]),
+                cl);
         Thread.currentThread().setContextClassLoader(jarExtensions);
     }
 
-    private static File[] listJars(File dir) {
+    private static List<File> listJars(File dir) {
         File[] listFiles = dir.listFiles(new FileFilter() {
             @Override
             public boolean accept(File file) {
                 return (file.isFile() && file.getName().toLowerCase().endsWith(".jar"));
             }
         });
-        return listFiles;
+        if (listFiles == null) {
+            return new ArrayList<File>();
+        }
+        // same order no matter how the file system list files
+        Arrays.sort(listFiles, new Comparator<File>() {
+            @Override
+            public int compare(File o1, File o2) {
+                return o1.getName().compareTo(o2.getName());
+            }
+        });
+        return Arrays.asList(listFiles);
+    }
+
+    private static String toClassPath(List<File> jars) {
+        StringBuilder sb = new StringBuilder();
+        for (File jar : jars) {
+            if (sb.length() > 0) {
+                sb.append(File.pathSeparatorChar);
+            }
+            sb.append(jar.getAbsolutePath());
+        }
+        return sb.toString();
+    }
+
+    static List<String> readLines(File file) {
+        List<String> lines = new ArrayList<String>();
+        if (!file.exists()) {
+            return lines;
+        }
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(
+                    file), "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    lines.add(line);
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            // recreate it
+            lines.clear();
+        }
+        return lines;
+    }
+
+    private static void writeLines(File file, List<String> lines) throws IOException {
+        File tmp = new File(file.getParentFile(), file.getName() + ".tmp");
+        Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+        try {
+            for (String line : lines) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+        // scripts running at the same time never read a half written index
+        if (!tmp.renameTo(file) && !(file.delete() && tmp.renameTo(file))) {
+            throw new IOException("Could not write " + file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Remove files that were created from an outdated index.
+     */
+    private static void clear(File cache) throws IOException {
+        if (!cache.exists() && !cache.mkdirs()) {
+            throw new IOException("Could not create " + cache.getAbsolutePath());
+        }
+        File[] files = cache.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isFile()) {
+                file.delete();
+            }
+        }
     }
 
     private static URLClassLoader createClassLoaderFrom(File[] jars, ClassLoader parent) {
@@ -134,4 +296,45 @@ public class Bootstrap {
         }
         return urls;
     }
+
+    private static void lap(Timing timing, String phase) {
+        if (timing != null) {
+            timing.lap(phase);
+        }
+    }
+
+    /**
+     * Milliseconds spent in each phase of startup, beginning with the time from
+     * start of the JVM until main is called. Time spent on timing is left out.
+     */
+    static class Timing {
+        private final Map<String, Long> phases = new LinkedHashMap<String, Long>();
+        private final long start;
+        private long last;
+
+        Timing(long start) {
+            long now = System.currentTimeMillis() - (System.nanoTime() - start) / 1000000;
+            // loading the management classes is not part of any phase
+            long jvm = now - ManagementFactory.getRuntimeMXBean().getStartTime();
+            phases.put("jvm", Math.max(0, jvm));
+            this.last = System.nanoTime();
+            this.start = last;
+        }
+
+        void lap(String phase) {
+            long now = System.nanoTime();
+            phases.put(phase, (now - last) / 1000000);
+            last = now;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder sb = new StringBuilder("startup");
+            for (Map.Entry<String, Long> phase : phases.entrySet()) {
+                sb.append(' ').append(phase.getKey()).append('=').append(phase.getValue());
+            }
+            long total = phases.get("jvm") + (last - start) / 1000000;
+            return sb.append(" total=").append(total).toString();
+        }
+    }
 }
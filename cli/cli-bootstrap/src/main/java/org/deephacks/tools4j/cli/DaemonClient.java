@@ -0,0 +1,135 @@
+package org.deephacks.tools4j.cli;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.List;
+
+/**
+ * DaemonClient forward the arguments, working directory and console streams of the
+ * terminal to a running daemon that execute the command, see CliDaemon in cli-api.
+ * <p>
+ * The daemon write its port and a secret token to {@link #DAEMON_FILE} in the cache
+ * directory, which only the user that started the daemon can read. A request is the
+ * token, the working directory and the arguments. The daemon accept the request with
+ * an {@link #ACCEPTED} frame before it execute the command, and then send frames with
+ * output, requests for input and finally the exit status. The command is executed here
+ * instead only if the request was never accepted, since it must not run twice.
+ * </p>
+ * Same as the bootstrap, this class must not depend on any other classes.
+ */
+final class DaemonClient {
+    static final String DAEMON_FILE = "daemon";
+    /** first frame, sent before the command is executed */
+    static final int ACCEPTED = 'A';
+    /** frame with bytes to standard out */
+    static final int OUT = 'O';
+    /** frame with bytes to standard error */
+    static final int ERR = 'E';
+    /** request for at most a number of bytes from standard in, -1 is end of stream */
+    static final int IN = 'I';
+    /** last frame with the exit status */
+    static final int EXIT = 'X';
+
+    private DaemonClient() {
+    }
+
+    /**
+     * Execute the command in the daemon of the home directory.
+     *
+     * @return exit status or null if there is no daemon running, or if the daemon
+     * did not accept the request.
+     */
+    static Integer run(File root, String[] args) throws IOException {
+        File file = new File(new File(root, Bootstrap.CACHE_DIR), DAEMON_FILE);
+        if (!file.exists()) {
+            return null;
+        }
+        List<String> lines = Bootstrap.readLines(file);
+        String[] daemon = lines.isEmpty() ? new String[0] : lines.get(0).split(" ");
+        if (daemon.length < 2) {
+            return null;
+        }
+        Socket socket;
+        try {
+            socket = new Socket(InetAddress.getByName("127.0.0.1"), Integer.parseInt(daemon[0]));
+        } catch (IOException e) {
+            // daemon is gone, run the command here instead.
+            return null;
+        }
+        try {
+            socket.setTcpNoDelay(true);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    socket.getOutputStream()));
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    socket.getInputStream()));
+            int type;
+            try {
+                out.writeUTF(daemon[1]);
+                out.writeUTF(new File(".").getCanonicalPath());
+                out.writeInt(args.length);
+                for (String arg : args) {
+                    out.writeUTF(arg);
+                }
+                out.flush();
+                type = in.read();
+            } catch (IOException e) {
+                type = -1;
+            }
+            if (type < 0) {
+                // daemon is shutting down or rejected the request, run the command here instead.
+                return null;
+            }
+            try {
+                if (type != ACCEPTED) {
+                    throw new IOException("Unexpected frame " + type + " from daemon.");
+                }
+                return forward(in, out);
+            } catch (IOException e) {
+                // the command may have been executed already, so it is not run again.
+                System.err.println("Lost connection to daemon before the command finished. " + e);
+                return 1;
+            }
+        } finally {
+            socket.close();
+        }
+    }
+
+    private static int forward(DataInputStream in, DataOutputStream out) throws IOException {
+        byte[] buf = new byte[8192];
+        for (;;) {
+            int type = in.read();
+            if (type == OUT || type == ERR) {
+                PrintStream stream = type == OUT ? System.out : System.err;
+                int length = in.readInt();
+                while (length > 0) {
+                    int n = in.read(buf, 0, Math.min(buf.length, length));
+                    if (n < 0) {
+                        throw new EOFException();
+                    }
+                    stream.write(buf, 0, n);
+                    length -= n;
+                }
+                stream.flush();
+            } else if (type == IN) {
+                int n = System.in.read(buf, 0, Math.min(buf.length, in.readInt()));
+                out.writeInt(n);
+                if (n > 0) {
+                    out.write(buf, 0, n);
+                }
+                out.flush();
+            } else if (type == EXIT) {
+                return in.readInt();
+            } else {
+                throw new IOException("Daemon closed connection unexpectedly.");
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package org.deephacks.tools4j.cli;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class BootstrapTest {
+    private File home;
+    private File index;
+    private File archive;
+
+    @Before
+    public void before() throws IOException {
+        home = File.createTempFile("cli", "home").getCanonicalFile();
+        home.delete();
+        new File(home, Bootstrap.BOOT_DIR).mkdirs();
+        new File(home, Bootstrap.LIB_DIR).mkdirs();
+        index = new File(new File(home, Bootstrap.CACHE_DIR), Bootstrap.CLASSPATH_INDEX);
+        archive = new File(new File(home, Bootstrap.CACHE_DIR), "cli.jsa");
+    }
+
+    @Test
+    public void test_boot_before_lib() throws IOException {
+        File b = write(Bootstrap.LIB_DIR, "b.jar", 1);
+        File a = write(Bootstrap.LIB_DIR, "a.jar", 1);
+        File boot = write(Bootstrap.BOOT_DIR, "z.jar", 1);
+        write(Bootstrap.LIB_DIR, "readme.txt", 1);
+        List<File> jars = Bootstrap.index(home);
+        assertEquals(Arrays.asList(boot, a, b), jars);
+        assertTrue(index.exists());
+    }
+
+    @Test
+    public void test_index_recreated_when_jars_change() throws IOException {
+        write(Bootstrap.LIB_DIR, "a.jar", 1);
+        Bootstrap.index(home);
+        archive.createNewFile();
+        // unchanged jars keep the cache
+        Bootstrap.index(home);
+        assertTrue(archive.exists());
+
+        write(Bootstrap.LIB_DIR, "a.jar", 2);
+        Bootstrap.index(home);
+        assertFalse(archive.exists());
+        assertTrue(index.exists());
+
+        archive.createNewFile();
+        write(Bootstrap.LIB_DIR, "b.jar", 1);
+        assertEquals(2, Bootstrap.index(home).size());
+        assertFalse(archive.exists());
+    }
+
+    private File write(String dir, String name, int size) throws IOException {
+        File file = new File(new File(home, dir), name);
+        FileOutputStream out = new FileOutputStream(file);
+        try {
+            out.write(new byte[size]);
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+}
@@ -18,6 +18,7 @@ import java.util.List;
 import java.util.Map;
 
 import org.deephacks.tools4j.config.model.Bean;
+import org.deephacks.tools4j.config.model.Criteria;
 import org.deephacks.tools4j.config.model.Schema;
 import org.deephacks.tools4j.config.model.Bean.BeanId;
 import org.deephacks.tools4j.support.event.AbortRuntimeException;
@@ -35,6 +36,12 @@ import org.deephacks.tools4j.support.event.AbortRuntimeException;
  * initalized for operations to work, nor must references be set recusivley (BeanId is 
  * enough to indicate a reference).
  * </p>
+ * <p>
+ * Fetched beans carry the version they had in storage. Beans given back to set, merge
+ * or delete with that version are only written if no one else have changed them in 
+ * between, otherwise the operation fail with 
+ * {@link org.deephacks.tools4j.config.model.Events#CFG310}. 
+ * </p>
  * 
  * <p>
  * Admin Context is specifically not tied to either Java SE, EE, OSGi, Spring, CDI or 
@@ -98,6 +105,20 @@ public abstract class AdminContext {
     public abstract List<Bean> list(String schemaName, Collection<String> instanceIds)
             throws AbortRuntimeException;
 
+    /**
+     * List bean instances of a particular type that match a criteria. Only 
+     * matching beans are fetched from storage, if the bean manager support it.
+     * 
+     * @param schemaName the type of beans to be listed.
+     * @param criteria restrictions on property values that beans must match.
+     * @return matching beans.
+     * @throws AbortRuntimeException is thrown when the system itself cannot 
+     * recover from a certain event and must therefore abort execution, see 
+     * {@link org.deephacks.tools4j.config.model.Events}.
+     */
+    public abstract List<Bean> query(String schemaName, Criteria criteria)
+            throws AbortRuntimeException;
+
     /**
      * 
      * @param adminBean
@@ -197,6 +218,18 @@ public abstract class AdminContext {
      */
     public abstract void delete(BeanId bean) throws AbortRuntimeException;
 
+    /**
+     * Delete a bean, but only if it have not been changed since it was read,
+     * as given by the version of the bean. A bean with version 0 is always 
+     * deleted. See {@link #delete(BeanId)}.
+     * 
+     * @param bean to be deleted
+     * @throws AbortRuntimeException is thrown when the system itself cannot 
+     * recover from a certain event and must therefore abort execution, see 
+     * {@link org.deephacks.tools4j.config.model.Events}.
+     */
+    public abstract void delete(Bean bean) throws AbortRuntimeException;
+
     /**
      * This is the collection variant of {@link #delete(Bean)}.
      * 
@@ -0,0 +1,114 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.admin;
+
+import java.util.Collection;
+import java.util.concurrent.Future;
+
+import org.deephacks.tools4j.config.model.Bean;
+import org.deephacks.tools4j.config.model.Bean.BeanId;
+
+/**
+ * <p>
+ * Asynchronous variant of the write operations of {@link AdminContext}. Operations
+ * return immediately with a future that is done when the operation have been
+ * written to storage.
+ * </p>
+ * <p>
+ * Operations that are issued concurrently, within a short window of time, are
+ * validated together and written to storage as one write. Errors are still reported
+ * per operation; the future of an operation that fail throw an
+ * {@link java.util.concurrent.ExecutionException} caused by the same exception
+ * that the corresponding operation of the {@link AdminContext} would have thrown.
+ * </p>
+ * <p>
+ * Operations are written in the order they were issued. Beans given to an operation
+ * must not be changed until its future is done.
+ * </p>
+ *
+ * @author Kristoffer Sjogren
+ */
+public abstract class AsyncAdminContext {
+    private static final String CORE_IMPL = "org.deephacks.tools4j.config.internal.core.admin.AsyncAdminCoreContext";
+
+    protected AsyncAdminContext() {
+        // only core should implement this class
+        if (!getClass().getName().equals(CORE_IMPL)) {
+            throw new IllegalArgumentException("Only AsyncAdminCoreContext is allowed to"
+                    + "implement this interface.");
+        }
+    }
+
+    /**
+     * Create a new context, which must be closed when it is no longer used.
+     */
+    public static AsyncAdminContext get() {
+        try {
+            return (AsyncAdminContext) Class.forName(CORE_IMPL).newInstance();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * See {@link AdminContext#create(Bean)}.
+     */
+    public abstract Future<Void> create(Bean bean);
+
+    /**
+     * See {@link AdminContext#create(Collection)}.
+     */
+    public abstract Future<Void> create(Collection<Bean> beans);
+
+    /**
+     * See {@link AdminContext#set(Bean)}.
+     */
+    public abstract Future<Void> set(Bean bean);
+
+    /**
+     * See {@link AdminContext#set(Collection)}.
+     */
+    public abstract Future<Void> set(Collection<Bean> beans);
+
+    /**
+     * See {@link AdminContext#merge(Bean)}.
+     */
+    public abstract Future<Void> merge(Bean bean);
+
+    /**
+     * See {@link AdminContext#merge(Collection)}.
+     */
+    public abstract Future<Void> merge(Collection<Bean> beans);
+
+    /**
+     * See {@link AdminContext#delete(BeanId)}.
+     */
+    public abstract Future<Void> delete(BeanId beanId);
+
+    /**
+     * See {@link AdminContext#delete(Bean)}.
+     */
+    public abstract Future<Void> delete(Bean bean);
+
+    /**
+     * See {@link AdminContext#delete(String, Collection)}.
+     */
+    public abstract Future<Void> delete(String schemaName, Collection<String> instanceIds);
+
+    /**
+     * Write operations that have already been issued and stop accepting new ones.
+     * Operations issued after close throw {@link IllegalStateException}.
+     */
+    public abstract void close();
+}
@@ -0,0 +1,49 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.admin.cli;
+
+import org.deephacks.tools4j.cli.CliArgument;
+import org.deephacks.tools4j.cli.CliCommand;
+import org.deephacks.tools4j.cli.CliExecutionContext;
+import org.deephacks.tools4j.cli.CliExtension;
+import org.deephacks.tools4j.config.internal.core.admin.BeanExporter;
+import org.deephacks.tools4j.config.internal.core.admin.BulkProgress;
+import org.deephacks.tools4j.support.ServiceProvider;
+import org.deephacks.tools4j.support.event.AbortRuntimeException;
+
+/**
+ * Export all beans of a schema to a file that can be given to the import command.
+ */
+@ServiceProvider(service = CliCommand.class)
+@CliExtension(keyword = "export", usage = "Export all beans of a schema to a file.")
+public class ExportCommand implements CliCommand {
+    @CliArgument(name = "schema", desc = "Name of the schema to export.", position = 0)
+    private String schema;
+
+    @CliArgument(name = "file", desc = "File to write beans to.", position = 1)
+    private String file;
+
+    @Override
+    public void execute(final CliExecutionContext ctx) throws AbortRuntimeException {
+        BeanExporter exporter = new BeanExporter();
+        exporter.setProgress(new BulkProgress() {
+            @Override
+            public void progress(long count) {
+                ctx.getConsole().verbose("Exported " + count + " beans.");
+            }
+        });
+        long count = exporter.exportFile(schema, ImportCommand.resolve(ctx, file));
+        ctx.getConsole().out("Exported " + count + " beans to " + file + ".");
+    }
+}
@@ -0,0 +1,67 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.admin.cli;
+
+import java.io.File;
+
+import org.deephacks.tools4j.cli.CliArgument;
+import org.deephacks.tools4j.cli.CliCommand;
+import org.deephacks.tools4j.cli.CliExecutionContext;
+import org.deephacks.tools4j.cli.CliExtension;
+import org.deephacks.tools4j.cli.CliOption;
+import org.deephacks.tools4j.config.internal.core.admin.BeanImporter;
+import org.deephacks.tools4j.config.internal.core.admin.BulkProgress;
+import org.deephacks.tools4j.support.ServiceProvider;
+import org.deephacks.tools4j.support.event.AbortRuntimeException;
+
+/**
+ * Import beans from a file written by the export command.
+ */
+@ServiceProvider(service = CliCommand.class)
+@CliExtension(keyword = "import", usage = "Import beans from a file, chunk by chunk.")
+public class ImportCommand implements CliCommand {
+    @CliArgument(name = "file", desc = "File to import beans from.", position = 0)
+    private String file;
+
+    @CliOption(shortName = "c", name = "chunk", desc = "Number of beans written at a time.")
+    private Integer chunk;
+
+    @CliOption(shortName = "r", name = "resume", desc = "Resume an import that failed.")
+    private Boolean resume;
+
+    @Override
+    public void execute(final CliExecutionContext ctx) throws AbortRuntimeException {
+        BeanImporter importer = new BeanImporter();
+        if (chunk != null) {
+            importer.setChunkSize(chunk);
+        }
+        importer.setResume(resume != null && resume);
+        importer.setProgress(new BulkProgress() {
+            @Override
+            public void progress(long count) {
+                ctx.getConsole().verbose("Imported " + count + " beans.");
+            }
+        });
+        long count = importer.importFile(resolve(ctx, file));
+        ctx.getConsole().out("Imported " + count + " beans from " + file + ".");
+    }
+
+    static File resolve(CliExecutionContext ctx, String path) {
+        File file = new File(path);
+        if (file.isAbsolute()) {
+            return file;
+        }
+        return new File(ctx.getCurrentDirectory(), path);
+    }
+}
@@ -0,0 +1,39 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.admin.cli;
+
+import org.deephacks.tools4j.cli.CliArgument;
+import org.deephacks.tools4j.cli.CliCommand;
+import org.deephacks.tools4j.cli.CliExecutionContext;
+import org.deephacks.tools4j.cli.CliExtension;
+import org.deephacks.tools4j.config.internal.core.admin.BeanExporter;
+import org.deephacks.tools4j.support.ServiceProvider;
+import org.deephacks.tools4j.support.event.AbortRuntimeException;
+
+/**
+ * Write a snapshot of all schemas and beans, used to bootstrap the runtime
+ * context quickly.
+ */
+@ServiceProvider(service = CliCommand.class)
+@CliExtension(keyword = "snapshot", usage = "Write a snapshot of all schemas and beans to a file.")
+public class SnapshotCommand implements CliCommand {
+    @CliArgument(name = "file", desc = "File to write the snapshot to.", position = 0)
+    private String file;
+
+    @Override
+    public void execute(CliExecutionContext ctx) throws AbortRuntimeException {
+        long count = new BeanExporter().exportSnapshot(ImportCommand.resolve(ctx, file));
+        ctx.getConsole().out("Wrote snapshot of " + count + " beans to " + file + ".");
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * Compare benchmark results with a baseline, both written by JMH as csv
+ * (-rf csv). A score is reported as a regression only if it is worse than
+ * the baseline and the confidence intervals (score +- "Score Error (99.9%)")
+ * of the two runs do not overlap. Scores without an error, e.g. from a single
+ * iteration, can never be told apart from noise and are reported as such.
+ * <pre>
+ * java -jar target/benchmarks.jar -rf csv -rff results.csv
+ * java -cp target/benchmarks.jar org.deephacks.tools4j.config.benchmark.BaselineComparison baseline.csv results.csv
+ * </pre>
+ * Baselines are only comparable to results from the same machine and JVM,
+ * so the committed baseline.csv has no scores. Record a baseline (copy the
+ * results of a run with the default iterations) on the machine that run the
+ * comparison, and again when the machine or JVM change.
+ */
+public final class BaselineComparison {
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: BaselineComparison <baseline.csv> <results.csv>");
+            System.exit(2);
+        }
+        Map<String, Score> baseline = read(new File(args[0]));
+        Map<String, Score> results = read(new File(args[1]));
+        int regressions = 0;
+        for (Map.Entry<String, Score> entry : results.entrySet()) {
+            Score base = baseline.get(entry.getKey());
+            Score result = entry.getValue();
+            if (base == null) {
+                System.out.println(String.format("NEW        %s %.3f +- %.3f %s", entry.getKey(),
+                        result.value, result.error, result.unit));
+                continue;
+            }
+            String status;
+            if (Double.isNaN(base.error) || Double.isNaN(result.error)) {
+                status = "NO ERROR";
+            } else if (result.worseThan(base) > 0 && !result.overlaps(base)) {
+                status = "REGRESSION";
+                regressions++;
+            } else {
+                status = "OK";
+            }
+            System.out.println(String.format("%-10s %s %.3f +- %.3f -> %.3f +- %.3f %s (%+.1f%%)",
+                    status, entry.getKey(), base.value, base.error, result.value, result.error,
+                    result.unit, result.worseThan(base)));
+        }
+        System.exit(regressions == 0 ? 0 : 1);
+    }
+
+    /**
+     * @return scores keyed on benchmark, mode and parameters.
+     */
+    static Map<String, Score> read(File csv) throws IOException {
+        Map<String, Score> scores = new LinkedHashMap<String, Score>();
+        List<String> lines = Files.readLines(csv, Charsets.UTF_8);
+        if (lines.isEmpty()) {
+            return scores;
+        }
+        List<String> header = split(lines.get(0));
+        int benchmark = header.indexOf("Benchmark");
+        int mode = header.indexOf("Mode");
+        int score = header.indexOf("Score");
+        int error = header.indexOf("Score Error (99.9%)");
+        int unit = header.indexOf("Unit");
+        for (String line : lines.subList(1, lines.size())) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            List<String> fields = split(line);
+            StringBuilder key = new StringBuilder(fields.get(benchmark)).append(' ').append(
+                    fields.get(mode));
+            for (int i = 0; i < header.size(); i++) {
+                if (header.get(i).startsWith("Param: ") && !fields.get(i).isEmpty()) {
+                    key.append(' ').append(header.get(i).substring(7)).append('=')
+                            .append(fields.get(i));
+                }
+            }
+            double scoreError = error < 0 ? Double.NaN : parse(fields.get(error));
+            scores.put(key.toString(), new Score(fields.get(mode), parse(fields.get(score)),
+                    scoreError, fields.get(unit)));
+        }
+        return scores;
+    }
+
+    private static double parse(String number) {
+        if (number.isEmpty()) {
+            return Double.NaN;
+        }
+        // some locales write decimal commas
+        return Double.parseDouble(number.replace(',', '.'));
+    }
+
+    private static List<String> split(String line) {
+        List<String> fields = new ArrayList<String>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (char c : line.toCharArray()) {
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                fields.add(field.toString().trim());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString().trim());
+        return fields;
+    }
+
+    static final class Score {
+        private final String mode;
+        private final double value;
+        /** half width of the confidence interval, NaN if unknown */
+        private final double error;
+        private final String unit;
+
+        Score(String mode, double value, double error, String unit) {
+            this.mode = mode;
+            this.value = value;
+            this.error = error;
+            this.unit = unit;
+        }
+
+        /**
+         * @return true if the confidence intervals of the scores overlap.
+         */
+        boolean overlaps(Score other) {
+            return value - error <= other.value + other.error
+                    && other.value - other.error <= value + error;
+        }
+
+        /**
+         * @return percent this score is worse than another, negative if better.
+         */
+        double worseThan(Score other) {
+            if (other.value == 0) {
+                return 0;
+            }
+            double change = (value - other.value) / other.value * 100;
+            // throughput is better when higher, times are better when lower
+            return "thrpt".equals(mode) ? -change : change;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.deephacks.tools4j.config.RuntimeContext;
+import org.deephacks.tools4j.config.admin.AdminContext;
+import org.deephacks.tools4j.config.model.Bean;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Bulk creates into empty storage. Creates change the storage they are
+ * measured against, so each iteration is a single create into storage that
+ * is recreated before the iteration.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@State(Scope.Thread)
+public class BulkBenchmark {
+    @Param({ "XML", "JPA" })
+    private Storage storage;
+    @Param({ "100", "1000" })
+    private int count;
+    @Param({ "1", "5" })
+    private int depth;
+    private AdminContext admin;
+    private List<Bean> beans;
+
+    @Setup(Level.Iteration)
+    public void setup() {
+        storage.open();
+        RuntimeContext runtime = RuntimeContext.get();
+        admin = AdminContext.get();
+        runtime.register(Node.class);
+        beans = new Graph("node", count, depth).beans();
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        storage.close();
+    }
+
+    @Benchmark
+    public void create() {
+        admin.create(beans);
+    }
+}
@@ -0,0 +1,112 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.deephacks.tools4j.config.RuntimeContext;
+import org.deephacks.tools4j.config.internal.core.runtime.BeanToObjectConverter;
+import org.deephacks.tools4j.config.model.Bean;
+import org.deephacks.tools4j.config.model.Bean.BeanId;
+import org.deephacks.tools4j.config.model.BeanUtils;
+import org.deephacks.tools4j.config.model.Schema;
+import org.deephacks.tools4j.config.test.ObjectToBeanConverter;
+import org.deephacks.tools4j.support.conversion.Conversion;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Conversion between beans and objects, and of classes into schemas and their
+ * registration, without any bean storage involved.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Thread)
+public class ConversionBenchmark {
+    @Param({ "100", "1000" })
+    private int count;
+    @Param({ "1", "5" })
+    private int depth;
+    private final Storage storage = Storage.XML;
+    private final Conversion conversion = Conversion.get();
+    private final BeanToObjectConverter beanToObject = new BeanToObjectConverter();
+    private RuntimeContext runtime;
+    private List<Bean> beans;
+    private List<Node> objects;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        storage.open();
+        // the runtime context register the converters of core
+        runtime = RuntimeContext.get();
+        runtime.register(Node.class);
+        conversion.register(new ObjectToBeanConverter());
+        Schema schema = conversion.convert(Node.class, Schema.class);
+        beans = new Graph("node", count, depth).beans();
+        Map<BeanId, Bean> indexed = BeanUtils.uniqueIndex(beans);
+        for (Bean bean : beans) {
+            bean.set(schema);
+            for (BeanId id : bean.getReferences()) {
+                id.setBean(indexed.get(id));
+            }
+        }
+        objects = beanToObject.convertAll(beans, Node.class);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        storage.close();
+    }
+
+    @Benchmark
+    public List<Node> beanToObject() {
+        return beanToObject.convertAll(beans, Node.class);
+    }
+
+    @Benchmark
+    public List<Bean> objectToBean() {
+        List<Bean> result = new ArrayList<Bean>(objects.size());
+        for (Node node : objects) {
+            result.add(conversion.convert(node, Bean.class));
+        }
+        return result;
+    }
+
+    @Benchmark
+    public Schema classToSchema() {
+        return conversion.convert(Node.class, Schema.class);
+    }
+
+    @Benchmark
+    public void registerSchema() {
+        runtime.register(Node.class);
+    }
+}
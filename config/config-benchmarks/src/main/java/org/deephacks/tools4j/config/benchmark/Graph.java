@@ -0,0 +1,87 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.deephacks.tools4j.config.model.Bean;
+import org.deephacks.tools4j.config.model.Bean.BeanId;
+
+/**
+ * Graph generate the beans of a benchmark. Beans are laid out in chains of
+ * the given depth, where each bean reference the next bean of its chain, so
+ * that reading the root of a chain eagerly read the whole chain.
+ */
+public final class Graph {
+    /** number of distinct values of the indexed group property */
+    public static final int GROUPS = 10;
+    private final String prefix;
+    private final int count;
+    private final int depth;
+
+    /**
+     * @param prefix prefix of the instance ids, to separate graphs.
+     * @param count number of beans.
+     * @param depth length of each chain, 1 for no references.
+     */
+    public Graph(String prefix, int count, int depth) {
+        this.prefix = prefix;
+        this.count = count;
+        this.depth = Math.max(1, Math.min(depth, count));
+    }
+
+    public List<Bean> beans() {
+        List<Bean> beans = new ArrayList<Bean>(count);
+        for (int i = 0; i < count; i++) {
+            Bean bean = Bean.create(id(i));
+            bean.setProperty("group", group(i));
+            bean.setProperty("value", Integer.toString(i));
+            bean.addProperty("tags", "tag" + (i % 3));
+            bean.addProperty("tags", "tag" + (i % 5));
+            if (i % depth < depth - 1 && i + 1 < count) {
+                bean.addReference("children", id(i + 1));
+            }
+            beans.add(bean);
+        }
+        return beans;
+    }
+
+    /**
+     * @return the beans that are not referenced by other beans.
+     */
+    public List<BeanId> roots() {
+        List<BeanId> roots = new ArrayList<BeanId>();
+        for (int i = 0; i < count; i += depth) {
+            roots.add(id(i));
+        }
+        return roots;
+    }
+
+    public BeanId id(int i) {
+        return BeanId.create(prefix + i, Node.SCHEMA_NAME);
+    }
+
+    public static String group(int i) {
+        return "group" + (i % GROUPS);
+    }
+
+    public int getCount() {
+        return count;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+}
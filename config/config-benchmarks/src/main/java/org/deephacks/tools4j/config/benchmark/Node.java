@@ -0,0 +1,79 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.deephacks.tools4j.config.Config;
+import org.deephacks.tools4j.config.Id;
+
+/**
+ * Configurable used by the benchmarks. Nodes form chains through their
+ * children, as deep as the graph depth of a benchmark.
+ */
+@Config(name = Node.SCHEMA_NAME, desc = "A node of a benchmark graph.")
+public class Node {
+    public static final String SCHEMA_NAME = "BenchmarkNode";
+
+    @Id(desc = "id")
+    private String id;
+
+    @Config(desc = "group of the node", index = true)
+    private String group;
+
+    @Config(desc = "some value")
+    private Integer value = 0;
+
+    @Config(desc = "some values")
+    private List<String> tags = new ArrayList<String>();
+
+    @Config(desc = "child nodes")
+    private List<Node> children = new ArrayList<Node>();
+
+    public Node() {
+    }
+
+    public Node(String id) {
+        this.id = id;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getGroup() {
+        return group;
+    }
+
+    public void setGroup(String group) {
+        this.group = group;
+    }
+
+    public Integer getValue() {
+        return value;
+    }
+
+    public void setValue(Integer value) {
+        this.value = value;
+    }
+
+    public List<String> getTags() {
+        return tags;
+    }
+
+    public List<Node> getChildren() {
+        return children;
+    }
+}
@@ -0,0 +1,100 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.deephacks.tools4j.config.RuntimeContext;
+import org.deephacks.tools4j.config.admin.AdminContext;
+import org.deephacks.tools4j.config.model.Bean;
+import org.deephacks.tools4j.config.model.Bean.BeanId;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Read-heavy lookups of the runtime context, and merges from the admin context,
+ * over storage that is populated once per trial.
+ * <p>
+ * Get read the root of a chain, so deeper graphs read more beans per call.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Thread)
+public class RuntimeBenchmark {
+    @Param({ "XML", "JPA" })
+    private Storage storage;
+    @Param({ "100", "1000" })
+    private int count;
+    @Param({ "1", "5" })
+    private int depth;
+    private RuntimeContext runtime;
+    private AdminContext admin;
+    private List<BeanId> roots;
+    private int next = 0;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        storage.open();
+        runtime = RuntimeContext.get();
+        admin = AdminContext.get();
+        runtime.register(Node.class);
+        Graph graph = new Graph("node", count, depth);
+        admin.create(graph.beans());
+        roots = graph.roots();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        storage.close();
+    }
+
+    @Benchmark
+    public Node get() {
+        BeanId id = roots.get(next++ % roots.size());
+        return runtime.get(id.getInstanceId(), Node.class);
+    }
+
+    @Benchmark
+    public List<Node> all() {
+        return runtime.all(Node.class);
+    }
+
+    @Benchmark
+    public List<Node> getByIndex() {
+        return runtime.getByIndex("group", Graph.group(next++), Node.class);
+    }
+
+    @Benchmark
+    public void merge() {
+        BeanId id = roots.get(next++ % roots.size());
+        Bean bean = Bean.create(id);
+        bean.setProperty("value", Integer.toString(next));
+        admin.merge(bean);
+    }
+}
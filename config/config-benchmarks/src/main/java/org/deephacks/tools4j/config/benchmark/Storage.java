@@ -0,0 +1,115 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.deephacks.tools4j.config.internal.core.jpa.Jpa20BeanManager;
+import org.deephacks.tools4j.config.internal.core.xml.XmlBeanManager;
+import org.deephacks.tools4j.config.internal.core.xml.XmlSchemaManager;
+import org.deephacks.tools4j.config.spi.BeanManager;
+import org.deephacks.tools4j.config.spi.SchemaManager;
+import org.deephacks.tools4j.support.lookup.MockLookup;
+import org.deephacks.tools4j.support.test.Database;
+import org.deephacks.tools4j.support.web.jpa.EntityManagerFactoryCreator;
+import org.deephacks.tools4j.support.web.jpa.ThreadLocalEntityManager;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.io.Files;
+import com.google.common.io.Resources;
+
+/**
+ * Storage that benchmarks run against, created empty in a directory of its
+ * own. Schemas are always kept in xml, like the tck does for every provider.
+ * <p>
+ * JPA run EclipseLink against an embedded in-memory Derby database, which is
+ * installed with the same ddl as production databases.
+ */
+public enum Storage {
+    XML {
+        @Override
+        void open(File dir) {
+            MockLookup.setMockInstances(BeanManager.class, new XmlBeanManager());
+        }
+    },
+    JPA {
+        private static final String UNIT_NAME = "tools4j-config-jpa-unit";
+        private EntityManagerFactory factory;
+
+        @Override
+        void open(File dir) throws IOException {
+            for (String ddl : Arrays.asList("install_derby.ddl", "uninstall_derby.ddl")) {
+                Files.write(Resources.toByteArray(Resources.getResource("META-INF/" + ddl)),
+                        new File(dir, ddl));
+            }
+            Database database = Database.create(Database.DERBY, dir);
+            File properties = new File(dir, "jpa.properties");
+            Files.write(Joiner.on('\n').join(
+                    "javax.persistence.provider=org.eclipse.persistence.jpa.PersistenceProvider",
+                    "javax.persistence.jdbc.url=" + database.getUrl(),
+                    "javax.persistence.jdbc.driver=" + database.getDriver(),
+                    "javax.persistence.jdbc.user=" + database.getUsername(),
+                    "javax.persistence.jdbc.password=" + database.getPassword(),
+                    "javax.persistence.transactionType=RESOURCE_LOCAL",
+                    "eclipselink.persistence-context.flush-mode=COMMIT"), properties,
+                    Charsets.UTF_8);
+            System.setProperty(EntityManagerFactoryCreator.JPA_PROPERTIES_FILE,
+                    properties.getAbsolutePath());
+            database.initalize();
+            factory = EntityManagerFactoryCreator.createFactory(UNIT_NAME);
+            ThreadLocalEntityManager.createEm(factory);
+            MockLookup.setMockInstances(BeanManager.class, new Jpa20BeanManager());
+        }
+
+        @Override
+        public void close() {
+            ThreadLocalEntityManager.close();
+            factory.close();
+        }
+    };
+
+    /**
+     * Create empty storage and register its managers for lookup. Contexts must
+     * be created after storage have been opened.
+     *
+     * @return directory of the storage.
+     */
+    public File open() {
+        try {
+            File dir = Files.createTempDir();
+            System.setProperty("config.spi.schema.xml.dir", dir.getAbsolutePath());
+            Files.write("<schema-xml></schema-xml>", new File(dir, "schema.xml"), Charsets.UTF_8);
+            System.setProperty("config.spi.bean.xml.dir", dir.getAbsolutePath());
+            Files.write("<bean-xml></bean-xml>", new File(dir, "bean.xml"), Charsets.UTF_8);
+            open(dir);
+            MockLookup.addMockInstances(SchemaManager.class, new XmlSchemaManager());
+            return dir;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    abstract void open(File dir) throws IOException;
+
+    /**
+     * Release resources of the storage. Files are left for inspection.
+     */
+    public void close() {
+    }
+}
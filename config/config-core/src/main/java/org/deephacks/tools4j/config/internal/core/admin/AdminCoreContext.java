@@ -14,21 +14,27 @@
 package org.deephacks.tools4j.config.internal.core.admin;
 
 import static org.deephacks.tools4j.config.internal.core.admin.SchemaValidator.validateSchema;
+import static org.deephacks.tools4j.config.model.Criteria.field;
+import static org.deephacks.tools4j.config.model.Criteria.in;
 import static org.deephacks.tools4j.config.model.Events.CFG101_SCHEMA_NOT_EXIST;
+import static org.deephacks.tools4j.config.model.Events.CFG311_UNIQUE_INDEX_VIOLATION;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.deephacks.tools4j.config.admin.AdminContext;
+import org.deephacks.tools4j.config.internal.core.metrics.Metrics;
 import org.deephacks.tools4j.config.internal.core.runtime.BeanToObjectConverter;
 import org.deephacks.tools4j.config.internal.core.xml.XmlBeanManager;
 import org.deephacks.tools4j.config.model.Bean;
 import org.deephacks.tools4j.config.model.Bean.BeanId;
 import org.deephacks.tools4j.config.model.BeanUtils;
+import org.deephacks.tools4j.config.model.Criteria;
 import org.deephacks.tools4j.config.model.Schema;
 import org.deephacks.tools4j.config.model.Schema.SchemaPropertyRef;
 import org.deephacks.tools4j.config.spi.BeanManager;
@@ -41,7 +47,8 @@ import org.deephacks.tools4j.support.lookup.Lookup;
 /**
  * AdminCoreContext is responsible for separating the admin and runtime 
  * context so that no dependencies (compile nor runtime) exist between them.
- *   
+ * <p>
+ * If {@link Metrics#ENABLED_PROP} is set, calls to the managers are measured.
  */
 public class AdminCoreContext extends AdminContext {
     private BeanManager beanManager;
@@ -53,6 +60,10 @@ public class AdminCoreContext extends AdminContext {
         beanManager = lookupBeanManager();
         schemaManager = Lookup.get().lookup(SchemaManager.class);
         validationManager = Lookup.get().lookup(ValidationManager.class);
+        Metrics metrics = Metrics.lookup();
+        beanManager = Metrics.meter(beanManager, metrics);
+        schemaManager = Metrics.meter(schemaManager, metrics);
+        validationManager = Metrics.meter(validationManager, metrics);
         conversion.register(new BeanToObjectConverter());
     }
 
@@ -76,6 +87,13 @@ public class AdminCoreContext extends AdminContext {
         return new ArrayList<Bean>(result.values());
     }
 
+    @Override
+    public List<Bean> query(String schemaName, Criteria criteria) {
+        Map<BeanId, Bean> beans = beanManager.query(schemaName, criteria);
+        setSchema(schemaManager.getSchemas(), beans);
+        return new ArrayList<Bean>(beans.values());
+    }
+
     @Override
     public Bean get(BeanId beanId) {
         Bean bean = beanManager.getEager(beanId);
@@ -89,6 +107,7 @@ public class AdminCoreContext extends AdminContext {
     public void create(Bean bean) {
         setSchema(schemaManager.getSchemas(), bean);
         validateSchema(bean);
+        validateUnique(beanManager, Arrays.asList(bean));
         if (validationManager != null) {
             initReferences(Arrays.asList(bean));
             validationManager.validate(Arrays.asList(bean));
@@ -100,6 +119,7 @@ public class AdminCoreContext extends AdminContext {
     public void create(Collection<Bean> beans) {
         setSchema(schemaManager.getSchemas(), beans);
         validateSchema(beans);
+        validateUnique(beanManager, beans);
         if (validationManager != null) {
             initReferences(beans);
             validationManager.validate(beans);
@@ -111,6 +131,7 @@ public class AdminCoreContext extends AdminContext {
     public void set(Bean bean) {
         setSchema(schemaManager.getSchemas(), bean);
         validateSchema(bean);
+        validateUnique(beanManager, Arrays.asList(bean));
         if (validationManager != null) {
             initReferences(Arrays.asList(bean));
             validateSet(bean);
@@ -122,6 +143,7 @@ public class AdminCoreContext extends AdminContext {
     public void set(Collection<Bean> beans) {
         setSchema(schemaManager.getSchemas(), beans);
         validateSchema(beans);
+        validateUnique(beanManager, beans);
         if (validationManager != null) {
             initReferences(beans);
             for (Bean bean : beans) {
@@ -135,6 +157,7 @@ public class AdminCoreContext extends AdminContext {
     public void merge(Bean bean) {
         setSchema(schemaManager.getSchemas(), bean);
         validateSchema(bean);
+        validateUnique(beanManager, Arrays.asList(bean));
         if (validationManager != null) {
             validateMerge(bean);
         }
@@ -145,6 +168,7 @@ public class AdminCoreContext extends AdminContext {
     public void merge(Collection<Bean> beans) {
         setSchema(schemaManager.getSchemas(), beans);
         validateSchema(beans);
+        validateUnique(beanManager, beans);
         // ok to not have validation manager available
         if (validationManager != null) {
             for (Bean bean : beans) {
@@ -159,6 +183,11 @@ public class AdminCoreContext extends AdminContext {
         beanManager.delete(beanId);
     }
 
+    @Override
+    public void delete(Bean bean) {
+        beanManager.delete(bean);
+    }
+
     @Override
     public void delete(String name, Collection<String> instances) {
         beanManager.delete(name, instances);
@@ -170,6 +199,67 @@ public class AdminCoreContext extends AdminContext {
         return schemas;
     }
 
+    /**
+     * Check that values of unique properties are not used by other beans, neither
+     * in storage nor among the beans themselves. Values are looked up using the
+     * index of the bean manager, with one query per unique property and schema.
+     * <p>
+     * The check is not atomic with the write that follow, so concurrent writers
+     * of the same value may both succeed.
+     */
+    static void validateUnique(BeanManager beanManager, Collection<Bean> beans) {
+        Map<BeanId, Bean> indexed = new HashMap<BeanId, Bean>();
+        for (Bean bean : beans) {
+            indexed.put(bean.getId(), bean);
+        }
+        // schema name and property name -> value -> bean that use the value
+        Map<List<String>, Map<String, BeanId>> used = new LinkedHashMap<List<String>, Map<String, BeanId>>();
+        for (Bean bean : beans) {
+            String schemaName = bean.getId().getSchemaName();
+            for (String name : bean.getSchema().getUniqueNames()) {
+                List<String> values = bean.getValues(name);
+                if (values == null) {
+                    continue;
+                }
+                List<String> key = Arrays.asList(schemaName, name);
+                Map<String, BeanId> users = used.get(key);
+                if (users == null) {
+                    users = new HashMap<String, BeanId>();
+                    used.put(key, users);
+                }
+                for (String value : values) {
+                    BeanId existing = users.put(value, bean.getId());
+                    if (existing != null && !existing.equals(bean.getId())) {
+                        throw CFG311_UNIQUE_INDEX_VIOLATION(bean.getId(), name, value, existing);
+                    }
+                }
+            }
+        }
+        for (Map.Entry<List<String>, Map<String, BeanId>> entry : used.entrySet()) {
+            String name = entry.getKey().get(1);
+            Map<String, BeanId> users = entry.getValue();
+            Map<BeanId, Bean> stored = beanManager.query(entry.getKey().get(0),
+                    field(name).is(in(users.keySet())));
+            for (Bean other : stored.values()) {
+                Bean changed = indexed.get(other.getId());
+                if (changed != null && changed.getValues(name) != null) {
+                    // value is changed by the same operation and checked above
+                    continue;
+                }
+                List<String> values = other.getValues(name);
+                if (values == null) {
+                    continue;
+                }
+                for (String value : values) {
+                    BeanId beanId = users.get(value);
+                    if (beanId != null && !beanId.equals(other.getId())) {
+                        throw CFG311_UNIQUE_INDEX_VIOLATION(beanId, name, value, other.getId());
+                    }
+                }
+            }
+        }
+    }
+
     private void initReferences(Collection<Bean> beans) {
         Map<BeanId, Bean> indexed = BeanUtils.uniqueIndex(beans);
         for (Bean bean : beans) {
@@ -347,14 +437,15 @@ public class AdminCoreContext extends AdminContext {
         }
     }
 
-    private static BeanManager lookupBeanManager() {
+    static BeanManager lookupBeanManager() {
         Collection<BeanManager> beanManagers = Lookup.get().lookupAll(BeanManager.class);
         if (beanManagers.size() == 1) {
             return beanManagers.iterator().next();
         }
         String preferedBeanManager = SystemProperties.createDefault().get("config.beanmanager");
         if (preferedBeanManager == null || "".equals(preferedBeanManager)) {
-            return beanManagers.iterator().next();
+            // lookup order is not defined, xml is the default storage of config-core
+            preferedBeanManager = XmlBeanManager.class.getName();
         }
         for (BeanManager beanManager : beanManagers) {
             if (beanManager.getClass().getName().equals(preferedBeanManager)) {
@@ -0,0 +1,328 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.internal.core.admin;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.deephacks.tools4j.config.admin.AdminContext;
+import org.deephacks.tools4j.config.admin.AsyncAdminContext;
+import org.deephacks.tools4j.config.model.Bean;
+import org.deephacks.tools4j.config.model.Bean.BeanId;
+import org.deephacks.tools4j.support.SystemProperties;
+
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * AsyncAdminCoreContext queue operations and let a single thread write them
+ * through an {@link AdminCoreContext}.
+ * <p>
+ * The thread wait at most {@link #WINDOW_PROP} milliseconds after the first
+ * operation of a batch for more operations to arrive, or until the batch hold
+ * {@link #BATCH_SIZE_PROP} operations. Consecutive operations of the same kind
+ * within a batch are then given to the admin context as one collection, which
+ * validate them together and write them in one storage write.
+ * <p>
+ * Bean managers write collections all or nothing. So if a group fail, nothing
+ * have been written and each operation of the group is written on its own instead,
+ * in order to report the error to the operation that caused it.
+ */
+public class AsyncAdminCoreContext extends AsyncAdminContext {
+    public static final String WINDOW_PROP = "config.admin.async.window";
+    public static final String BATCH_SIZE_PROP = "config.admin.async.batch.size";
+    private static final long DEFAULT_WINDOW = 2;
+    private static final int DEFAULT_BATCH_SIZE = 1000;
+    private static final SystemProperties PROP = SystemProperties.createDefault();
+    /** marks the end of the queue */
+    private static final Request CLOSE = new Request(Op.CREATE, Collections.<Bean> emptyList(),
+            Collections.<BeanId> emptyList());
+
+    private final AdminContext admin;
+    private final BlockingQueue<Request> queue = new LinkedBlockingQueue<Request>();
+    private final long windowNanos;
+    private final int batchSize;
+    private final Thread committer;
+    private boolean closed = false;
+
+    public AsyncAdminCoreContext() {
+        this(AdminContext.get());
+    }
+
+    AsyncAdminCoreContext(AdminContext admin) {
+        this.admin = admin;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(readLong(WINDOW_PROP, DEFAULT_WINDOW));
+        this.batchSize = (int) readLong(BATCH_SIZE_PROP, DEFAULT_BATCH_SIZE);
+        this.committer = new Thread(new Committer(), "config-admin-async");
+        this.committer.setDaemon(true);
+        this.committer.start();
+    }
+
+    @Override
+    public Future<Void> create(Bean bean) {
+        return create(Arrays.asList(bean));
+    }
+
+    @Override
+    public Future<Void> create(Collection<Bean> beans) {
+        return submit(new Request(Op.CREATE, beans, ids(beans)));
+    }
+
+    @Override
+    public Future<Void> set(Bean bean) {
+        return set(Arrays.asList(bean));
+    }
+
+    @Override
+    public Future<Void> set(Collection<Bean> beans) {
+        return submit(new Request(Op.SET, beans, ids(beans)));
+    }
+
+    @Override
+    public Future<Void> merge(Bean bean) {
+        return merge(Arrays.asList(bean));
+    }
+
+    @Override
+    public Future<Void> merge(Collection<Bean> beans) {
+        return submit(new Request(Op.MERGE, beans, ids(beans)));
+    }
+
+    @Override
+    public Future<Void> delete(BeanId beanId) {
+        return submit(new Request(Op.DELETE, Collections.<Bean> emptyList(),
+                Arrays.asList(beanId)));
+    }
+
+    @Override
+    public Future<Void> delete(Bean bean) {
+        return submit(new Request(Op.DELETE_VERSION, Arrays.asList(bean), ids(Arrays.asList(bean))));
+    }
+
+    @Override
+    public Future<Void> delete(String schemaName, Collection<String> instanceIds) {
+        List<BeanId> ids = new ArrayList<BeanId>();
+        for (String instanceId : instanceIds) {
+            ids.add(BeanId.create(instanceId, schemaName));
+        }
+        return submit(new Request(Op.DELETE, Collections.<Bean> emptyList(), ids));
+    }
+
+    @Override
+    public void close() {
+        synchronized (this) {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            queue.add(CLOSE);
+        }
+        try {
+            committer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private synchronized Future<Void> submit(Request request) {
+        if (closed) {
+            throw new IllegalStateException("AsyncAdminContext is closed.");
+        }
+        queue.add(request);
+        return request.future;
+    }
+
+    /**
+     * Split the batch into groups of consecutive operations that can be
+     * written together and write each group.
+     */
+    private void commit(List<Request> batch) {
+        List<Request> group = new ArrayList<Request>();
+        Set<BeanId> ids = new HashSet<BeanId>();
+        for (Request request : batch) {
+            if (!group.isEmpty() && !request.canJoin(group.get(0), ids)) {
+                commitGroup(group);
+                group = new ArrayList<Request>();
+                ids.clear();
+            }
+            group.add(request);
+            ids.addAll(request.ids);
+        }
+        if (!group.isEmpty()) {
+            commitGroup(group);
+        }
+    }
+
+    private void commitGroup(List<Request> group) {
+        if (group.size() == 1) {
+            execute(group.get(0));
+            return;
+        }
+        try {
+            executeTogether(group);
+        } catch (Throwable e) {
+            // nothing was written, find out which operations that fail
+            for (Request request : group) {
+                execute(request);
+            }
+            return;
+        }
+        for (Request request : group) {
+            request.future.set(null);
+        }
+    }
+
+    private void execute(Request request) {
+        try {
+            executeTogether(Arrays.asList(request));
+        } catch (Throwable e) {
+            request.future.setException(e);
+            return;
+        }
+        request.future.set(null);
+    }
+
+    private void executeTogether(List<Request> group) {
+        Op op = group.get(0).op;
+        List<Bean> beans = new ArrayList<Bean>();
+        List<String> instanceIds = new ArrayList<String>();
+        String schemaName = null;
+        for (Request request : group) {
+            beans.addAll(request.beans);
+            for (BeanId id : request.ids) {
+                instanceIds.add(id.getInstanceId());
+                schemaName = id.getSchemaName();
+            }
+        }
+        switch (op) {
+        case CREATE:
+            admin.create(beans);
+            break;
+        case SET:
+            admin.set(beans);
+            break;
+        case MERGE:
+            admin.merge(beans);
+            break;
+        case DELETE:
+            if (schemaName != null) {
+                admin.delete(schemaName, instanceIds);
+            }
+            break;
+        case DELETE_VERSION:
+            for (Bean bean : beans) {
+                admin.delete(bean);
+            }
+            break;
+        default:
+            throw new UnsupportedOperationException(op.toString());
+        }
+    }
+
+    private static List<BeanId> ids(Collection<Bean> beans) {
+        List<BeanId> ids = new ArrayList<BeanId>();
+        for (Bean bean : beans) {
+            ids.add(bean.getId());
+        }
+        return ids;
+    }
+
+    private static long readLong(String property, long defaultValue) {
+        String value = PROP.get(property);
+        if (value == null || "".equals(value.trim())) {
+            return defaultValue;
+        }
+        return Long.parseLong(value.trim());
+    }
+
+    private final class Committer implements Runnable {
+
+        @Override
+        public void run() {
+            boolean closing = false;
+            while (!closing) {
+                List<Request> batch = new ArrayList<Request>();
+                try {
+                    Request request = queue.take();
+                    long deadline = System.nanoTime() + windowNanos;
+                    while (request != null) {
+                        if (request == CLOSE) {
+                            closing = true;
+                            break;
+                        }
+                        batch.add(request);
+                        if (batch.size() >= batchSize) {
+                            break;
+                        }
+                        long remaining = deadline - System.nanoTime();
+                        request = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS)
+                                : queue.poll();
+                    }
+                } catch (InterruptedException e) {
+                    closing = true;
+                }
+                commit(batch);
+            }
+        }
+    }
+
+    private static enum Op {
+        CREATE, SET, MERGE, DELETE, DELETE_VERSION
+    }
+
+    private static final class Request {
+        private final Op op;
+        private final Collection<Bean> beans;
+        private final List<BeanId> ids;
+        private final SettableFuture<Void> future = SettableFuture.create();
+
+        private Request(Op op, Collection<Bean> beans, List<BeanId> ids) {
+            this.op = op;
+            this.beans = beans;
+            this.ids = ids;
+        }
+
+        /**
+         * Operations can be written together if they are of the same kind and
+         * does not touch the same beans, in which case the order between them
+         * matter. Deletes are only written together within the same schema and
+         * deletes of versioned beans are always written on their own.
+         */
+        private boolean canJoin(Request first, Set<BeanId> groupIds) {
+            if (op != first.op || op == Op.DELETE_VERSION) {
+                return false;
+            }
+            if (op == Op.DELETE && !ids.isEmpty() && !groupIds.isEmpty()) {
+                String schemaName = groupIds.iterator().next().getSchemaName();
+                if (!ids.get(0).getSchemaName().equals(schemaName)) {
+                    return false;
+                }
+            }
+            for (BeanId id : ids) {
+                if (groupIds.contains(id)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.internal.core.admin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.deephacks.tools4j.config.internal.core.metrics.Metrics;
+import org.deephacks.tools4j.config.internal.core.snapshot.Snapshot;
+import org.deephacks.tools4j.config.internal.core.xml.XmlBeanWriter;
+import org.deephacks.tools4j.config.model.Bean;
+import org.deephacks.tools4j.config.model.Bean.BeanId;
+import org.deephacks.tools4j.config.spi.BeanManager;
+import org.deephacks.tools4j.config.spi.SchemaManager;
+import org.deephacks.tools4j.support.lookup.Lookup;
+
+/**
+ * BeanExporter write all beans of a schema to a file that can be imported by
+ * {@link BeanImporter}. Beans are written in chunks as they are converted,
+ * references are written as ids.
+ */
+public class BeanExporter {
+    private final BeanManager beanManager;
+    private final SchemaManager schemaManager;
+    private int chunkSize = BeanImporter.DEFAULT_CHUNK_SIZE;
+    private BulkProgress progress;
+
+    public BeanExporter() {
+        this(Metrics.meter(AdminCoreContext.lookupBeanManager(), Metrics.lookup()), Lookup.get()
+                .lookup(SchemaManager.class));
+    }
+
+    BeanExporter(BeanManager beanManager, SchemaManager schemaManager) {
+        this.beanManager = beanManager;
+        this.schemaManager = schemaManager;
+    }
+
+    /**
+     * Number of beans written between each progress report.
+     */
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    public void setProgress(BulkProgress progress) {
+        this.progress = progress;
+    }
+
+    /**
+     * Export all beans of a schema, overwriting the file if it exist.
+     *
+     * @return number of beans exported.
+     */
+    public long exportFile(String schemaName, File file) {
+        // fail early if the schema does not exist
+        schemaManager.getSchema(schemaName);
+        Map<BeanId, Bean> beans = beanManager.list(schemaName);
+        XmlBeanWriter writer = new XmlBeanWriter(file);
+        long count = 0;
+        try {
+            List<Bean> chunk = new ArrayList<Bean>();
+            for (Bean bean : beans.values()) {
+                chunk.add(bean);
+                if (chunk.size() >= chunkSize) {
+                    count += write(writer, chunk, count);
+                }
+            }
+            count += write(writer, chunk, count);
+        } finally {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Write a snapshot of all schemas and beans, that can be used to bootstrap
+     * the runtime context.
+     *
+     * @see org.deephacks.tools4j.config.internal.core.snapshot.SnapshotBootstrap
+     * @return number of beans written.
+     */
+    public long exportSnapshot(File file) {
+        return Snapshot.write(file, schemaManager, beanManager);
+    }
+
+    private int write(XmlBeanWriter writer, List<Bean> chunk, long count) {
+        int size = chunk.size();
+        if (size == 0) {
+            return 0;
+        }
+        writer.write(chunk);
+        chunk.clear();
+        if (progress != null) {
+            progress.progress(count + size);
+        }
+        return size;
+    }
+}
@@ -0,0 +1,279 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.internal.core.admin;
+
+import static org.deephacks.tools4j.config.internal.core.admin.AdminCoreContext.validateUnique;
+import static org.deephacks.tools4j.config.internal.core.admin.SchemaValidator.validateSchema;
+import static org.deephacks.tools4j.config.model.Events.CFG101_SCHEMA_NOT_EXIST;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.deephacks.tools4j.config.internal.core.metrics.Metrics;
+import org.deephacks.tools4j.config.internal.core.xml.XmlBeanReader;
+import org.deephacks.tools4j.config.model.Bean;
+import org.deephacks.tools4j.config.model.Bean.BeanId;
+import org.deephacks.tools4j.config.model.Schema;
+import org.deephacks.tools4j.config.spi.BeanManager;
+import org.deephacks.tools4j.config.spi.SchemaManager;
+import org.deephacks.tools4j.config.spi.ValidationManager;
+import org.deephacks.tools4j.support.lookup.Lookup;
+
+import com.google.common.io.Files;
+
+/**
+ * BeanImporter create beans from a file written by {@link BeanExporter}, or any
+ * file in the format of the xml bean storage.
+ * <p>
+ * The file is read in chunks. The next chunk is read while the current chunk is
+ * validated, in parallel, and created through
+ * {@link BeanManager#create(java.util.Collection)}. So only a few chunks are kept
+ * in memory at any time. Beans must be placed after the beans they reference,
+ * unless they are in the same chunk.
+ * <p>
+ * Beans are validated the same way as {@link AdminCoreContext#create(java.util.Collection)}
+ * does, against their schemas, unique properties and the {@link ValidationManager}, if any.
+ * <p>
+ * The number of created beans is kept in a file next to the imported file, with
+ * suffix {@value #PROGRESS_FILE_SUFFIX}, which is removed when the import
+ * complete. An import that failed can be resumed from the last committed chunk.
+ */
+public class BeanImporter {
+    public static final String PROGRESS_FILE_SUFFIX = ".progress";
+    public static final int DEFAULT_CHUNK_SIZE = 1000;
+    private final BeanManager beanManager;
+    private final SchemaManager schemaManager;
+    private final ValidationManager validationManager;
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private boolean resume = false;
+    private BulkProgress progress;
+
+    public BeanImporter() {
+        this(Metrics.meter(AdminCoreContext.lookupBeanManager(), Metrics.lookup()), Lookup.get()
+                .lookup(SchemaManager.class), Metrics.meter(
+                Lookup.get().lookup(ValidationManager.class), Metrics.lookup()));
+    }
+
+    /**
+     * @param validationManager null if beans are not validated by a validation manager.
+     */
+    BeanImporter(BeanManager beanManager, SchemaManager schemaManager,
+            ValidationManager validationManager) {
+        this.beanManager = beanManager;
+        this.schemaManager = schemaManager;
+        this.validationManager = validationManager;
+    }
+
+    /**
+     * Number of beans created in each storage write.
+     */
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Number of threads that validate beans.
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Continue after the beans that were created by an earlier import of the
+     * same file, if any.
+     */
+    public void setResume(boolean resume) {
+        this.resume = resume;
+    }
+
+    public void setProgress(BulkProgress progress) {
+        this.progress = progress;
+    }
+
+    /**
+     * Import all beans of the file.
+     *
+     * @return total number of beans that have been imported from the file,
+     * including beans of earlier imports that were resumed.
+     */
+    public long importFile(File file) {
+        File progressFile = new File(file.getPath() + PROGRESS_FILE_SUFFIX);
+        long count = resume ? readProgress(progressFile) : 0;
+        Map<String, Schema> schemas = schemaManager.getSchemas();
+        ExecutorService reads = Executors.newSingleThreadExecutor();
+        ExecutorService validations = Executors.newFixedThreadPool(Math.max(threads, 1));
+        final XmlBeanReader reader = new XmlBeanReader(file);
+        try {
+            reader.skip(count);
+            Callable<List<Bean>> read = new Callable<List<Bean>>() {
+                @Override
+                public List<Bean> call() throws Exception {
+                    return reader.read(chunkSize);
+                }
+            };
+            List<Bean> chunk = get(reads.submit(read));
+            while (!chunk.isEmpty()) {
+                Future<List<Bean>> next = reads.submit(read);
+                validate(chunk, schemas, validations);
+                beanManager.create(chunk);
+                count += chunk.size();
+                writeProgress(progressFile, count);
+                if (progress != null) {
+                    progress.progress(count);
+                }
+                chunk = get(next);
+            }
+        } finally {
+            reads.shutdownNow();
+            validations.shutdownNow();
+            reader.close();
+        }
+        progressFile.delete();
+        return count;
+    }
+
+    private void validate(final List<Bean> chunk, final Map<String, Schema> schemas,
+            ExecutorService validations) {
+        int sliceSize = Math.max(1, (chunk.size() + threads - 1) / Math.max(threads, 1));
+        List<List<Bean>> slices = new ArrayList<List<Bean>>();
+        for (int i = 0; i < chunk.size(); i += sliceSize) {
+            slices.add(chunk.subList(i, Math.min(i + sliceSize, chunk.size())));
+        }
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (final List<Bean> slice : slices) {
+            futures.add(validations.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for (Bean bean : slice) {
+                        Schema schema = schemas.get(bean.getId().getSchemaName());
+                        if (schema == null) {
+                            throw CFG101_SCHEMA_NOT_EXIST(bean.getId().getSchemaName());
+                        }
+                        bean.set(schema);
+                        validateSchema(bean);
+                    }
+                    return null;
+                }
+            }));
+        }
+        getAll(futures);
+        // values must also be unique among the beans of the chunk, so it is checked whole
+        futures.add(validations.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                validateUnique(beanManager, chunk);
+                return null;
+            }
+        }));
+        if (validationManager != null) {
+            // duplicate ids are left for the bean manager to reject
+            final Map<BeanId, Bean> indexed = new HashMap<BeanId, Bean>();
+            for (Bean bean : chunk) {
+                indexed.put(bean.getId(), bean);
+            }
+            for (final List<Bean> slice : slices) {
+                futures.add(validations.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        initReferences(slice, indexed, schemas);
+                        validationManager.validate(slice);
+                        return null;
+                    }
+                }));
+            }
+        }
+        getAll(futures);
+    }
+
+    /**
+     * References to beans that are not in the chunk are read from storage, since
+     * they were created before the chunk.
+     */
+    private void initReferences(List<Bean> slice, Map<BeanId, Bean> chunk,
+            Map<String, Schema> schemas) {
+        for (Bean bean : slice) {
+            for (String name : bean.getReferenceNames()) {
+                List<BeanId> ids = bean.getReference(name);
+                if (ids == null) {
+                    continue;
+                }
+                for (BeanId id : ids) {
+                    Bean ref = chunk.get(id);
+                    if (ref == null) {
+                        ref = beanManager.getLazy(id);
+                        ref.set(schemas.get(id.getSchemaName()));
+                    }
+                    id.setBean(ref);
+                }
+            }
+        }
+    }
+
+    /**
+     * Wait for the futures in order, they are removed even if one of them fail.
+     */
+    private static void getAll(List<Future<Void>> futures) {
+        try {
+            for (Future<Void> future : futures) {
+                get(future);
+            }
+        } finally {
+            futures.clear();
+        }
+    }
+
+    private static <T> T get(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private static long readProgress(File progressFile) {
+        if (!progressFile.exists()) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(Files.toString(progressFile, Charset.forName("UTF-8")).trim());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void writeProgress(File progressFile, long count) {
+        try {
+            Files.write(String.valueOf(count), progressFile, Charset.forName("UTF-8"));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.internal.core.invalidation;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+import org.deephacks.tools4j.config.model.Bean.BeanId;
+import org.deephacks.tools4j.config.spi.InvalidationBroadcaster;
+
+/**
+ * LoopbackBroadcaster deliver invalidations between nodes within the same
+ * class loader, which is mostly useful for simulating several nodes in one
+ * process. Every instance is a node, and nodes that use the same channel
+ * receive the broadcasts of each other.
+ * <p>
+ * Broadcasts are delivered synchronously, in the thread that broadcast.
+ */
+public class LoopbackBroadcaster extends InvalidationBroadcaster {
+    public static final String DEFAULT_CHANNEL = "default";
+    private static final ConcurrentMap<String, Set<LoopbackBroadcaster>> CHANNELS = new ConcurrentHashMap<String, Set<LoopbackBroadcaster>>();
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+    private final Set<LoopbackBroadcaster> channel;
+
+    public LoopbackBroadcaster() {
+        this(DEFAULT_CHANNEL);
+    }
+
+    public LoopbackBroadcaster(String channelName) {
+        Set<LoopbackBroadcaster> created = new CopyOnWriteArraySet<LoopbackBroadcaster>();
+        Set<LoopbackBroadcaster> existing = CHANNELS.putIfAbsent(channelName, created);
+        channel = existing != null ? existing : created;
+        channel.add(this);
+    }
+
+    @Override
+    public void broadcast(Collection<BeanId> ids) {
+        Collection<BeanId> unmodifiable = Collections.unmodifiableCollection(ids);
+        for (LoopbackBroadcaster node : channel) {
+            if (node != this) {
+                for (Listener listener : node.listeners) {
+                    listener.invalidate(unmodifiable);
+                }
+            }
+        }
+    }
+
+    @Override
+    public void broadcastAll() {
+        for (LoopbackBroadcaster node : channel) {
+            if (node != this) {
+                for (Listener listener : node.listeners) {
+                    listener.invalidateAll();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public void close() {
+        channel.remove(this);
+    }
+}
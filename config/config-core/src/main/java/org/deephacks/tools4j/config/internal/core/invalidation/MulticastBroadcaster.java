@@ -0,0 +1,234 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.internal.core.invalidation;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.InetAddress;
+import java.net.MulticastSocket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.deephacks.tools4j.config.model.Bean.BeanId;
+import org.deephacks.tools4j.config.spi.InvalidationBroadcaster;
+import org.deephacks.tools4j.support.SystemProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * MulticastBroadcaster send invalidations as UDP multicast datagrams to every
+ * node that have joined the same group and port, given by {@link #GROUP_PROP}
+ * and {@link #PORT_PROP}.
+ * <p>
+ * Ids are packed into as few datagrams as possible, each small enough to not
+ * be fragmented. Datagrams may be lost, so caches that must not stay stale
+ * should also expire or catch up by other means, like the changes of the bean
+ * manager.
+ */
+public class MulticastBroadcaster extends InvalidationBroadcaster {
+    public static final String GROUP_PROP = "config.invalidation.multicast.group";
+    public static final String PORT_PROP = "config.invalidation.multicast.port";
+    static final String DEFAULT_GROUP = "239.255.74.74";
+    static final int DEFAULT_PORT = 4446;
+    static final int MAGIC = 0x54344A49;
+    static final int MAX_DATAGRAM_SIZE = 1400;
+    /** magic, node, type and count */
+    static final int HEADER_SIZE = 4 + 16 + 1 + 4;
+    static final byte TYPE_IDS = 1;
+    static final byte TYPE_ALL = 2;
+    private static final Logger log = LoggerFactory.getLogger(MulticastBroadcaster.class);
+    private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+    private final UUID node = UUID.randomUUID();
+    private final InetAddress group;
+    private final int port;
+    private final MulticastSocket socket;
+    private final Thread receiver;
+    private volatile boolean closed = false;
+
+    public MulticastBroadcaster() throws IOException {
+        this(InetAddress.getByName(property(GROUP_PROP, DEFAULT_GROUP)), Integer
+                .parseInt(property(PORT_PROP, String.valueOf(DEFAULT_PORT))));
+    }
+
+    public MulticastBroadcaster(InetAddress group, int port) throws IOException {
+        this.group = group;
+        this.port = port;
+        socket = new MulticastSocket(port);
+        // nodes on the same host must receive each other
+        socket.setLoopbackMode(false);
+        socket.joinGroup(group);
+        receiver = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                receive();
+            }
+        }, "config-invalidation-" + port);
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    @Override
+    public void broadcast(Collection<BeanId> ids) {
+        try {
+            for (byte[] datagram : encode(ids)) {
+                send(datagram);
+            }
+        } catch (IOException e) {
+            log.warn("Could not broadcast invalidation of {}", ids, e);
+        }
+    }
+
+    @Override
+    public void broadcastAll() {
+        try {
+            send(header(TYPE_ALL, 0).toByteArray());
+        } catch (IOException e) {
+            log.warn("Could not broadcast invalidation of all beans", e);
+        }
+    }
+
+    @Override
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            socket.leaveGroup(group);
+        } catch (IOException e) {
+            // closing anyway
+        }
+        socket.close();
+    }
+
+    /**
+     * Pack ids into datagrams. Ids that do not fit in a datagram of their own
+     * invalidate all beans instead.
+     */
+    List<byte[]> encode(Collection<BeanId> ids) throws IOException {
+        List<byte[]> datagrams = new ArrayList<byte[]>();
+        List<byte[]> entries = new ArrayList<byte[]>();
+        int size = HEADER_SIZE;
+        for (BeanId id : ids) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeUTF(id.getSchemaName());
+            out.writeUTF(id.getInstanceId());
+            byte[] entry = bytes.toByteArray();
+            if (HEADER_SIZE + entry.length > MAX_DATAGRAM_SIZE) {
+                datagrams.clear();
+                datagrams.add(header(TYPE_ALL, 0).toByteArray());
+                return datagrams;
+            }
+            if (size + entry.length > MAX_DATAGRAM_SIZE) {
+                datagrams.add(datagram(entries));
+                entries.clear();
+                size = HEADER_SIZE;
+            }
+            entries.add(entry);
+            size += entry.length;
+        }
+        if (!entries.isEmpty()) {
+            datagrams.add(datagram(entries));
+        }
+        return datagrams;
+    }
+
+    private byte[] datagram(List<byte[]> entries) throws IOException {
+        ByteArrayOutputStream bytes = header(TYPE_IDS, entries.size());
+        for (byte[] entry : entries) {
+            bytes.write(entry);
+        }
+        return bytes.toByteArray();
+    }
+
+    private ByteArrayOutputStream header(byte type, int count) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(MAX_DATAGRAM_SIZE);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeLong(node.getMostSignificantBits());
+        out.writeLong(node.getLeastSignificantBits());
+        out.writeByte(type);
+        out.writeInt(count);
+        return bytes;
+    }
+
+    private void send(byte[] datagram) throws IOException {
+        socket.send(new DatagramPacket(datagram, datagram.length, group, port));
+    }
+
+    private void receive() {
+        byte[] buffer = new byte[MAX_DATAGRAM_SIZE];
+        while (!closed) {
+            DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+            try {
+                socket.receive(packet);
+                deliver(packet.getData(), packet.getOffset(), packet.getLength());
+            } catch (IOException e) {
+                if (!closed) {
+                    log.warn("Could not receive invalidation", e);
+                }
+            } catch (RuntimeException e) {
+                log.warn("Invalidation listener failed", e);
+            }
+        }
+    }
+
+    private void deliver(byte[] datagram, int offset, int length) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(datagram, offset,
+                length));
+        if (length < HEADER_SIZE || in.readInt() != MAGIC) {
+            return;
+        }
+        UUID sender = new UUID(in.readLong(), in.readLong());
+        if (node.equals(sender)) {
+            return;
+        }
+        byte type = in.readByte();
+        int count = in.readInt();
+        if (type == TYPE_ALL) {
+            for (Listener listener : listeners) {
+                listener.invalidateAll();
+            }
+            return;
+        }
+        List<BeanId> ids = new ArrayList<BeanId>(count);
+        for (int i = 0; i < count; i++) {
+            String schemaName = in.readUTF();
+            ids.add(BeanId.create(in.readUTF(), schemaName));
+        }
+        for (Listener listener : listeners) {
+            listener.invalidate(ids);
+        }
+    }
+
+    private static String property(String name, String defaultValue) {
+        String value = SystemProperties.createDefault().get(name);
+        return value == null || "".equals(value.trim()) ? defaultValue : value.trim();
+    }
+}
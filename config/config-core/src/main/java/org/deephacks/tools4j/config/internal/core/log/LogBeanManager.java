@@ -0,0 +1,512 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.internal.core.log;
+
+import static org.deephacks.tools4j.config.model.Events.CFG301_MISSING_RUNTIME_REF;
+import static org.deephacks.tools4j.config.model.Events.CFG302_CANNOT_DELETE_BEAN;
+import static org.deephacks.tools4j.config.model.Events.CFG303_BEAN_ALREADY_EXIST;
+import static org.deephacks.tools4j.config.model.Events.CFG304_BEAN_DOESNT_EXIST;
+import static org.deephacks.tools4j.config.model.Events.CFG307_SINGELTON_REMOVAL;
+import static org.deephacks.tools4j.config.model.Events.CFG308_SINGELTON_CREATION;
+import static org.deephacks.tools4j.config.model.Events.CFG310_CONCURRENT_MODIFICATION;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.Lock;
+
+import org.deephacks.tools4j.config.model.Bean;
+import org.deephacks.tools4j.config.model.Bean.BeanId;
+import org.deephacks.tools4j.config.model.Criteria;
+import org.deephacks.tools4j.config.spi.BeanManager;
+import org.deephacks.tools4j.support.ServiceProvider;
+import org.deephacks.tools4j.support.SystemProperties;
+import org.deephacks.tools4j.support.event.AbortRuntimeException;
+
+/**
+ * LogBeanManager is responsible for storing config bean instances in a local
+ * log-structured store, see {@link LogStore}.
+ * <p>
+ * Writes only append to the log and reads are served through an in-memory index,
+ * which make this manager suitable for write heavy deployments with frequent merges.
+ * <p>
+ * {@link org.deephacks.tools4j.config.internal.core.xml.XmlBeanManager} remain the default,
+ * this manager is used only if selected with the config.beanmanager property.
+ */
+@ServiceProvider(service = BeanManager.class)
+public class LogBeanManager extends BeanManager {
+    public static final String LOG_BEAN_STORAGE_DIR_PROP = "config.spi.bean.log.dir";
+    /** maximum size in bytes of a segment before a new segment is started */
+    public static final String LOG_BEAN_SEGMENT_SIZE_PROP = "config.spi.bean.log.segment.size";
+    /** force every write to disk, true or false */
+    public static final String LOG_BEAN_SYNC_PROP = "config.spi.bean.log.sync";
+    /** milliseconds between checks for compaction, 0 disable background compaction */
+    public static final String LOG_BEAN_COMPACTION_INTERVAL_PROP = "config.spi.bean.log.compaction.interval";
+    public static final String LOG_BEAN_DIR_NAME = "bean-log";
+    private static final long DEFAULT_SEGMENT_SIZE = 16 * 1024 * 1024;
+    private static final long DEFAULT_COMPACTION_INTERVAL = 60 * 1000;
+    private static final SystemProperties PROP = SystemProperties.createDefault();
+    private static final long serialVersionUID = 3806311012468093573L;
+    private transient volatile LogStore store;
+
+    @Override
+    public Bean getEager(BeanId id) {
+        LogStore store = store();
+        Lock lock = store.lock().readLock();
+        lock.lock();
+        try {
+            Bean bean = getEagerly(id, store, new HashMap<BeanId, Bean>());
+            if (bean == null) {
+                throw CFG304_BEAN_DOESNT_EXIST(id);
+            }
+            return bean;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Beans that have already been read are shared between references, which also
+     * terminate cyclic references.
+     */
+    private Bean getEagerly(BeanId id, LogStore store, Map<BeanId, Bean> assembled) {
+        Bean result = assembled.get(id);
+        if (result != null) {
+            return result;
+        }
+        result = store.get(id);
+        if (result == null) {
+            return null;
+        }
+        assembled.put(result.getId(), result);
+        // bean found, initalize references.
+        for (BeanId refId : result.getReferences()) {
+            Bean b = getEagerly(refId, store, assembled);
+            if (b == null) {
+                throw CFG301_MISSING_RUNTIME_REF(result.getId(), refId);
+            }
+            refId.setBean(b);
+        }
+        return result;
+    }
+
+    @Override
+    public Bean getLazy(BeanId id) throws AbortRuntimeException {
+        LogStore store = store();
+        Lock lock = store.lock().readLock();
+        lock.lock();
+        try {
+            Bean result = store.get(id);
+            if (result == null) {
+                throw CFG304_BEAN_DOESNT_EXIST(id);
+            }
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Map<BeanId, Bean> getBeanToValidate(Bean bean) throws AbortRuntimeException {
+        return new HashMap<BeanId, Bean>();
+    }
+
+    @Override
+    public Bean getSingleton(String schemaName) throws IllegalArgumentException {
+        LogStore store = store();
+        Lock lock = store.lock().readLock();
+        lock.lock();
+        try {
+            Set<BeanId> ids = store.list(schemaName);
+            if (ids.isEmpty()) {
+                return null;
+            }
+            BeanId singletonId = ids.iterator().next();
+            if (!singletonId.isSingleton()) {
+                throw new IllegalArgumentException("Schema [" + schemaName
+                        + "] is not a singleton.");
+            }
+            Bean singleton = getEagerly(singletonId, store, new HashMap<BeanId, Bean>());
+            if (singleton == null) {
+                throw CFG304_BEAN_DOESNT_EXIST(singletonId);
+            }
+            return singleton;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Map<BeanId, Bean> list(String name) {
+        LogStore store = store();
+        Lock lock = store.lock().readLock();
+        lock.lock();
+        try {
+            Map<BeanId, Bean> assembled = new HashMap<BeanId, Bean>();
+            Map<BeanId, Bean> result = new HashMap<BeanId, Bean>();
+            for (BeanId id : store.list(name)) {
+                Bean bean = getEagerly(id, store, assembled);
+                result.put(bean.getId(), bean);
+            }
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public Map<BeanId, Bean> query(String schemaName, Criteria criteria) {
+        LogStore store = store();
+        Lock lock = store.lock().readLock();
+        lock.lock();
+        try {
+            Map<BeanId, Bean> assembled = new HashMap<BeanId, Bean>();
+            Map<BeanId, Bean> result = new HashMap<BeanId, Bean>();
+            for (BeanId id : store.query(schemaName, criteria)) {
+                Bean bean = getEagerly(id, store, assembled);
+                result.put(bean.getId(), bean);
+            }
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void create(Bean bean) {
+        LogStore store = store();
+        Lock lock = store.lock().writeLock();
+        lock.lock();
+        try {
+            checkReferencesExist(bean, store, Collections.<BeanId, Bean> emptyMap());
+            checkCreateSingleton(bean, store);
+            checkUniquness(bean, store);
+            bean.setVersion(1);
+            store.write(Arrays.asList(bean), Collections.<BeanId> emptyList());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void create(Collection<Bean> set) {
+        LogStore store = store();
+        Lock lock = store.lock().writeLock();
+        lock.lock();
+        try {
+            // first check uniquness towards storage
+            for (Bean bean : set) {
+                checkUniquness(bean, store);
+                checkCreateSingleton(bean, store);
+            }
+            // references may not exist in storage, but are provided
+            // as part of the transactions, so include them when validating references.
+            Map<BeanId, Bean> provided = uniqueIndex(set);
+            for (Bean bean : set) {
+                checkReferencesExist(bean, store, provided);
+            }
+            for (Bean bean : set) {
+                bean.setVersion(1);
+            }
+            store.write(provided.values(), Collections.<BeanId> emptyList());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void createSingleton(BeanId singleton) {
+        LogStore store = store();
+        Lock lock = store.lock().writeLock();
+        lock.lock();
+        try {
+            if (store.contains(singleton)) {
+                return;
+            }
+            Bean bean = Bean.create(singleton);
+            bean.setVersion(1);
+            store.write(Arrays.asList(bean), Collections.<BeanId> emptyList());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void set(Bean bean) {
+        LogStore store = store();
+        Lock lock = store.lock().writeLock();
+        lock.lock();
+        try {
+            Bean stored = store.get(bean.getId());
+            if (stored == null) {
+                throw CFG304_BEAN_DOESNT_EXIST(bean.getId());
+            }
+            checkVersion(bean, stored);
+            checkReferencesExist(bean, store, Collections.<BeanId, Bean> emptyMap());
+            bean.setVersion(stored.getVersion() + 1);
+            store.write(Arrays.asList(bean), Collections.<BeanId> emptyList());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void set(Collection<Bean> set) {
+        LogStore store = store();
+        Lock lock = store.lock().writeLock();
+        lock.lock();
+        try {
+            Map<BeanId, Long> versions = new HashMap<BeanId, Long>();
+            for (Bean bean : set) {
+                Bean stored = store.get(bean.getId());
+                if (stored == null) {
+                    throw CFG304_BEAN_DOESNT_EXIST(bean.getId());
+                }
+                checkVersion(bean, stored);
+                versions.put(stored.getId(), stored.getVersion());
+            }
+            Map<BeanId, Bean> provided = uniqueIndex(set);
+            for (Bean bean : set) {
+                checkReferencesExist(bean, store, provided);
+            }
+            for (Bean bean : set) {
+                bean.setVersion(versions.get(bean.getId()) + 1);
+            }
+            store.write(provided.values(), Collections.<BeanId> emptyList());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void merge(Bean bean) {
+        merge(Arrays.asList(bean));
+    }
+
+    @Override
+    public void merge(Collection<Bean> beans) {
+        LogStore store = store();
+        Lock lock = store.lock().writeLock();
+        lock.lock();
+        try {
+            Map<BeanId, Bean> merged = new LinkedHashMap<BeanId, Bean>();
+            for (Bean replace : beans) {
+                Bean target = merged.get(replace.getId());
+                if (target == null) {
+                    target = store.get(replace.getId());
+                    if (target == null) {
+                        throw CFG304_BEAN_DOESNT_EXIST(replace.getId());
+                    }
+                    checkVersion(replace, target);
+                }
+                checkReferencesExist(replace, store, merged);
+                replace(target, replace);
+                merged.put(target.getId(), target);
+            }
+            for (Bean target : merged.values()) {
+                target.setVersion(target.getVersion() + 1);
+            }
+            for (Bean replace : beans) {
+                replace.setVersion(merged.get(replace.getId()).getVersion());
+            }
+            store.write(merged.values(), Collections.<BeanId> emptyList());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void replace(Bean target, Bean replace) {
+        for (String name : replace.getPropertyNames()) {
+            List<String> values = replace.getValues(name);
+            if (values == null || values.size() == 0) {
+                // null/empty indicates a remove/reset-to-default op
+                target.remove(name);
+            } else {
+                target.setProperty(name, values);
+            }
+        }
+        for (String name : replace.getReferenceNames()) {
+            List<BeanId> values = replace.getReference(name);
+            if (values == null || values.size() == 0) {
+                // null/empty indicates a remove/reset-to-default op
+                target.remove(name);
+            } else {
+                target.setReferences(name, values);
+            }
+        }
+    }
+
+    @Override
+    public void delete(BeanId id) {
+        delete(id.getSchemaName(), Arrays.asList(id.getInstanceId()));
+    }
+
+    @Override
+    public void delete(Bean bean) {
+        LogStore store = store();
+        Lock lock = store.lock().writeLock();
+        lock.lock();
+        try {
+            Bean stored = store.get(bean.getId());
+            if (stored == null) {
+                throw CFG304_BEAN_DOESNT_EXIST(bean.getId());
+            }
+            checkVersion(bean, stored);
+            checkDeleteSingleton(stored.getId());
+            checkNoReferencesExist(stored.getId(), store, Collections.singleton(stored.getId()));
+            store.write(Collections.<Bean> emptyList(), Arrays.asList(stored.getId()));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void delete(String schemaName, Collection<String> instanceIds) {
+        LogStore store = store();
+        Lock lock = store.lock().writeLock();
+        lock.lock();
+        try {
+            Set<BeanId> deleted = new HashSet<BeanId>();
+            for (String instance : instanceIds) {
+                deleted.add(BeanId.create(instance, schemaName));
+            }
+            List<BeanId> existing = new ArrayList<BeanId>();
+            for (BeanId id : deleted) {
+                if (!store.contains(id)) {
+                    continue;
+                }
+                // the stored id know if the bean is a singleton
+                checkDeleteSingleton(store.get(id).getId());
+                checkNoReferencesExist(id, store, deleted);
+                existing.add(id);
+            }
+            store.write(Collections.<Bean> emptyList(), existing);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Rewrite the log to only contain live beans. Compaction normally happen in
+     * the background, but can be triggered manually, e.g. after a large import.
+     */
+    public void compact() {
+        store().compact();
+    }
+
+    LogStore store() {
+        LogStore current = store;
+        if (current == null || current.isClosed()) {
+            synchronized (this) {
+                current = store;
+                if (current == null || current.isClosed()) {
+                    current = LogStore.open(getStorageDir(), getLong(LOG_BEAN_SEGMENT_SIZE_PROP,
+                            DEFAULT_SEGMENT_SIZE), Boolean.parseBoolean(PROP
+                            .get(LOG_BEAN_SYNC_PROP)), getLong(
+                            LOG_BEAN_COMPACTION_INTERVAL_PROP, DEFAULT_COMPACTION_INTERVAL));
+                    store = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    private static File getStorageDir() {
+        String dirValue = PROP.get(LOG_BEAN_STORAGE_DIR_PROP);
+        if (dirValue == null || "".equals(dirValue)) {
+            return new File(System.getProperty("java.io.tmpdir"), LOG_BEAN_DIR_NAME);
+        }
+        return new File(dirValue);
+    }
+
+    private static long getLong(String name, long defaultValue) {
+        String value = PROP.get(name);
+        if (value == null || "".equals(value.trim())) {
+            return defaultValue;
+        }
+        return Long.parseLong(value.trim());
+    }
+
+    private static Map<BeanId, Bean> uniqueIndex(Collection<Bean> beans) {
+        Map<BeanId, Bean> index = new LinkedHashMap<BeanId, Bean>();
+        for (Bean bean : beans) {
+            index.put(bean.getId(), bean);
+        }
+        return index;
+    }
+
+    private static void checkNoReferencesExist(BeanId deleted, LogStore store,
+            Set<BeanId> deletedTogether) {
+        for (BeanId predecessor : store.getPredecessors(deleted)) {
+            if (!deletedTogether.contains(predecessor)) {
+                throw CFG302_CANNOT_DELETE_BEAN(Arrays.asList(deleted));
+            }
+        }
+    }
+
+    private static void checkReferencesExist(Bean bean, LogStore store,
+            Map<BeanId, Bean> provided) {
+        Collection<BeanId> missingReferences = new ArrayList<BeanId>();
+        for (BeanId beanId : bean.getReferences()) {
+            if (beanId.getInstanceId() == null) {
+                continue;
+            }
+            if (!store.contains(beanId) && !provided.containsKey(beanId)) {
+                missingReferences.add(beanId);
+            }
+        }
+        if (missingReferences.size() > 0) {
+            throw CFG301_MISSING_RUNTIME_REF(bean.getId(), missingReferences);
+        }
+    }
+
+    /**
+     * Versioned beans must have the same version as the stored bean, otherwise
+     * someone else changed it since it was read.
+     */
+    private static void checkVersion(Bean bean, Bean stored) {
+        if (bean.getVersion() != 0 && bean.getVersion() != stored.getVersion()) {
+            throw CFG310_CONCURRENT_MODIFICATION(bean.getId(), bean.getVersion(),
+                    stored.getVersion());
+        }
+    }
+
+    private static void checkUniquness(Bean bean, LogStore store) {
+        if (store.contains(bean.getId())) {
+            throw CFG303_BEAN_ALREADY_EXIST(bean.getId());
+        }
+    }
+
+    private static void checkCreateSingleton(Bean bean, LogStore store) {
+        for (BeanId id : store.list(bean.getId().getSchemaName())) {
+            if (id.isSingleton()) {
+                throw CFG308_SINGELTON_CREATION(bean.getId());
+            }
+        }
+    }
+
+    private static void checkDeleteSingleton(BeanId id) {
+        if (id.isSingleton()) {
+            throw CFG307_SINGELTON_REMOVAL(id);
+        }
+    }
+}
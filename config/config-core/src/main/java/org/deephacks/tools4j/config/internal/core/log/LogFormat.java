@@ -0,0 +1,257 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.internal.core.log;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.deephacks.tools4j.config.model.Bean;
+import org.deephacks.tools4j.config.model.Bean.BeanId;
+
+import com.google.common.io.ByteStreams;
+
+/**
+ * Binary format of segment files written by {@link LogStore}.
+ * <p>
+ * A segment starts with a fixed size header followed by records. Each record
+ * is a length prefixed, CRC32 checksummed batch of entries that are applied
+ * atomically, so a record that was torn by a crash is discarded as a whole
+ * during recovery.
+ * <pre>
+ * header  := MAGIC:int VERSION:short flags:short
+ * record  := length:int crc:int payload
+ * payload := count:int (op:byte length:int entry)*
+ * entry   := bean | beanId
+ * bean    := beanId properties references version:long
+ * </pre>
+ * <p>
+ * The encoding of beans is shared with snapshot files.
+ */
+public final class LogFormat {
+    static final int MAGIC = 0x54344A42;
+    static final short VERSION = 1;
+    /** segment was produced by compaction and supersedes all older segments */
+    static final short FLAG_COMPACTED = 1;
+    static final int HEADER_SIZE = 8;
+    static final int RECORD_HEADER_SIZE = 8;
+    /** size of op and length that precede each entry */
+    static final int ENTRY_HEADER_SIZE = 5;
+    static final byte OP_PUT = 1;
+    static final byte OP_DELETE = 2;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private LogFormat() {
+        // no instances
+    }
+
+    static byte[] header(short flags) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_SIZE);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeShort(flags);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static byte[] encode(Bean bean) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            writeId(bean.getId(), out);
+            List<String> propertyNames = bean.getPropertyNames();
+            out.writeInt(propertyNames.size());
+            for (String name : propertyNames) {
+                writeString(name, out);
+                List<String> values = bean.getValues(name);
+                if (values == null) {
+                    out.writeInt(-1);
+                    continue;
+                }
+                out.writeInt(values.size());
+                for (String value : values) {
+                    writeString(value, out);
+                }
+            }
+            List<String> referenceNames = bean.getReferenceNames();
+            out.writeInt(referenceNames.size());
+            for (String name : referenceNames) {
+                writeString(name, out);
+                List<BeanId> refs = bean.getReference(name);
+                if (refs == null) {
+                    out.writeInt(-1);
+                    continue;
+                }
+                out.writeInt(refs.size());
+                for (BeanId ref : refs) {
+                    writeId(ref, out);
+                }
+            }
+            out.writeLong(bean.getVersion());
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    static byte[] encode(BeanId id) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try {
+            writeId(id, new DataOutputStream(bytes));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    public static Bean decodeBean(byte[] entry) {
+        DataInputStream in = newDataInput(entry, 0, entry.length);
+        try {
+            Bean bean = Bean.create(readId(in));
+            int numProperties = in.readInt();
+            for (int i = 0; i < numProperties; i++) {
+                String name = readString(in);
+                int numValues = in.readInt();
+                if (numValues < 0) {
+                    bean.setProperty(name, (List<String>) null);
+                    continue;
+                }
+                List<String> values = new ArrayList<String>(numValues);
+                for (int j = 0; j < numValues; j++) {
+                    values.add(readString(in));
+                }
+                bean.setProperty(name, values);
+            }
+            int numReferences = in.readInt();
+            for (int i = 0; i < numReferences; i++) {
+                String name = readString(in);
+                int numRefs = in.readInt();
+                if (numRefs < 0) {
+                    bean.setReferences(name, null);
+                    continue;
+                }
+                List<BeanId> refs = new ArrayList<BeanId>(numRefs);
+                for (int j = 0; j < numRefs; j++) {
+                    refs.add(readId(in));
+                }
+                bean.setReferences(name, refs);
+            }
+            bean.setVersion(in.readLong());
+            return bean;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static BeanId decodeId(byte[] entry) {
+        try {
+            return readId(ByteStreams.newDataInput(entry));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Wrap entries into a record. Every entry is prefixed with its op and length.
+     */
+    static byte[] record(List<byte[]> entries, List<Byte> ops) {
+        int payloadSize = 4;
+        for (byte[] entry : entries) {
+            payloadSize += ENTRY_HEADER_SIZE + entry.length;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(RECORD_HEADER_SIZE + payloadSize);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(payloadSize);
+            // placeholder for crc
+            out.writeInt(0);
+            out.writeInt(entries.size());
+            for (int i = 0; i < entries.size(); i++) {
+                out.writeByte(ops.get(i));
+                out.writeInt(entries.get(i).length);
+                out.write(entries.get(i));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        byte[] record = bytes.toByteArray();
+        int crc = crc(record, RECORD_HEADER_SIZE, payloadSize);
+        record[4] = (byte) (crc >>> 24);
+        record[5] = (byte) (crc >>> 16);
+        record[6] = (byte) (crc >>> 8);
+        record[7] = (byte) crc;
+        return record;
+    }
+
+    static int crc(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private static void writeId(BeanId id, DataOutput out) throws IOException {
+        writeString(id.getInstanceId(), out);
+        writeString(id.getSchemaName(), out);
+        out.writeBoolean(id.isSingleton());
+    }
+
+    private static BeanId readId(DataInput in) throws IOException {
+        String instanceId = readString(in);
+        String schemaName = readString(in);
+        if (in.readBoolean()) {
+            return BeanId.createSingleton(instanceId, schemaName);
+        }
+        return BeanId.create(instanceId, schemaName);
+    }
+
+    /**
+     * Strings are not written with writeUTF since it is limited to 64k. Null, like the
+     * instance id of a singleton reference, is written as length -1.
+     */
+    private static void writeString(String value, DataOutput out) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, UTF8);
+    }
+
+    static DataInputStream newDataInput(byte[] bytes, int offset, int length) {
+        return new DataInputStream(new ByteArrayInputStream(bytes, offset, length));
+    }
+}
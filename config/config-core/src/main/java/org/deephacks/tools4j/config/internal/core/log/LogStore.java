@@ -0,0 +1,827 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.internal.core.log;
+
+import static org.deephacks.tools4j.config.internal.core.log.LogFormat.ENTRY_HEADER_SIZE;
+import static org.deephacks.tools4j.config.internal.core.log.LogFormat.FLAG_COMPACTED;
+import static org.deephacks.tools4j.config.internal.core.log.LogFormat.HEADER_SIZE;
+import static org.deephacks.tools4j.config.internal.core.log.LogFormat.OP_DELETE;
+import static org.deephacks.tools4j.config.internal.core.log.LogFormat.OP_PUT;
+import static org.deephacks.tools4j.config.internal.core.log.LogFormat.RECORD_HEADER_SIZE;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.deephacks.tools4j.config.model.Bean;
+import org.deephacks.tools4j.config.model.Bean.BeanId;
+import org.deephacks.tools4j.config.model.Criteria;
+import org.deephacks.tools4j.config.model.Criteria.Restriction;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * LogStore keep beans in append-only segment files in a directory.
+ * <p>
+ * Every write is appended to the active segment and an in-memory hash index
+ * map each bean id to the position of its latest entry. Segments are sealed
+ * when they exceed a maximum size and sealed segments are periodically
+ * compacted by a background thread into a single segment that only contain
+ * live entries.
+ * <p>
+ * Property values are also kept sorted in memory per schema, so that queries
+ * only read matching beans from disk.
+ * <p>
+ * The index, schema index, value index and reference index are rebuilt by replaying all
+ * segments when the store is opened. Records that was torn by a crash are
+ * detected by their checksum and truncated from the tail of the log.
+ * <p>
+ * Stores are shared per directory within the JVM, since the in-memory index
+ * must be the only writer of the files.
+ */
+final class LogStore {
+    private static final Logger log = LoggerFactory.getLogger(LogStore.class);
+    private static final Map<File, LogStore> STORES = new HashMap<File, LogStore>();
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String COMPACT_SUFFIX = ".compact";
+    /** compaction copy live entries in records of at most this size */
+    private static final int COMPACT_RECORD_SIZE = 1024 * 1024;
+
+    private final File dir;
+    private final long maxSegmentSize;
+    private final boolean sync;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Object compactionLock = new Object();
+    private final TreeMap<Integer, Segment> segments = new TreeMap<Integer, Segment>();
+    private final HashMap<BeanId, Pointer> index = new HashMap<BeanId, Pointer>();
+    private final HashMap<String, Set<BeanId>> schemas = new HashMap<String, Set<BeanId>>();
+    /** bean id -> beans referenced by the bean */
+    private final HashMap<BeanId, Set<BeanId>> outgoing = new HashMap<BeanId, Set<BeanId>>();
+    /** bean id -> beans that reference the bean */
+    private final HashMap<BeanId, Set<BeanId>> incoming = new HashMap<BeanId, Set<BeanId>>();
+    /** schema name, property name, value and the beans that have that value */
+    private final HashMap<String, Map<String, TreeMap<String, Set<BeanId>>>> values = new HashMap<String, Map<String, TreeMap<String, Set<BeanId>>>>();
+    /** bean id -> property values of the bean, used to unindex old values */
+    private final HashMap<BeanId, Map<String, List<String>>> properties = new HashMap<BeanId, Map<String, List<String>>>();
+    private ScheduledExecutorService compactor;
+    private Segment active;
+    private volatile boolean closed = false;
+
+    private LogStore(File dir, long maxSegmentSize, boolean sync) {
+        this.dir = dir;
+        this.maxSegmentSize = maxSegmentSize;
+        this.sync = sync;
+    }
+
+    /**
+     * Open the store in the directory or return it if already open.
+     */
+    static LogStore open(File dir, long maxSegmentSize, boolean sync, long compactionIntervalMs) {
+        synchronized (STORES) {
+            File key = dir.getAbsoluteFile();
+            LogStore store = STORES.get(key);
+            if (store != null) {
+                return store;
+            }
+            store = new LogStore(key, maxSegmentSize, sync);
+            store.recover();
+            if (compactionIntervalMs > 0) {
+                store.startCompactor(compactionIntervalMs);
+            }
+            STORES.put(key, store);
+            return store;
+        }
+    }
+
+    ReentrantReadWriteLock lock() {
+        return lock;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    boolean contains(BeanId id) {
+        return index.containsKey(id);
+    }
+
+    int size() {
+        return index.size();
+    }
+
+    /**
+     * Read the latest entry of a bean from disk. References are not initialized.
+     *
+     * @return a new bean instance or null if the bean does not exist.
+     */
+    Bean get(BeanId id) {
+        Pointer pointer = index.get(id);
+        if (pointer == null) {
+            return null;
+        }
+        Segment segment = segments.get(pointer.segment);
+        return LogFormat.decodeBean(segment.read(pointer.offset, pointer.length));
+    }
+
+    Set<BeanId> list(String schemaName) {
+        Set<BeanId> ids = schemas.get(schemaName);
+        if (ids == null) {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableSet(ids);
+    }
+
+    /**
+     * Find beans that match a criteria. A criteria without restrictions match all
+     * beans of the schema.
+     */
+    Set<BeanId> query(String schemaName, Criteria criteria) {
+        Map<String, TreeMap<String, Set<BeanId>>> schemaValues = values.get(schemaName);
+        Set<BeanId> result = null;
+        for (Entry<String, List<Restriction>> entry : criteria.getRestrictions().entrySet()) {
+            TreeMap<String, Set<BeanId>> sorted = schemaValues == null ? null : schemaValues
+                    .get(entry.getKey());
+            if (sorted == null) {
+                return new HashSet<BeanId>();
+            }
+            for (Restriction restriction : entry.getValue()) {
+                Set<BeanId> matches = match(sorted, restriction);
+                if (result == null) {
+                    result = matches;
+                } else {
+                    result.retainAll(matches);
+                }
+                if (result.isEmpty()) {
+                    return result;
+                }
+            }
+        }
+        if (result == null) {
+            result = new HashSet<BeanId>(list(schemaName));
+        }
+        return result;
+    }
+
+    /**
+     * Beans that have references to the bean id.
+     */
+    Set<BeanId> getPredecessors(BeanId id) {
+        Set<BeanId> ids = incoming.get(id);
+        if (ids == null) {
+            return Collections.emptySet();
+        }
+        return Collections.unmodifiableSet(ids);
+    }
+
+    /**
+     * Append beans and deletions as one atomic record. Must be called while
+     * holding the write lock.
+     */
+    void write(Collection<Bean> puts, Collection<BeanId> deletes) {
+        checkOpen();
+        List<byte[]> entries = new ArrayList<byte[]>(puts.size() + deletes.size());
+        List<Byte> ops = new ArrayList<Byte>(puts.size() + deletes.size());
+        for (Bean bean : puts) {
+            entries.add(LogFormat.encode(bean));
+            ops.add(OP_PUT);
+        }
+        for (BeanId id : deletes) {
+            entries.add(LogFormat.encode(id));
+            ops.add(OP_DELETE);
+        }
+        if (entries.isEmpty()) {
+            return;
+        }
+        byte[] record = LogFormat.record(entries, ops);
+        long position = active.append(record, sync);
+        long offset = position + RECORD_HEADER_SIZE + 4;
+        int i = 0;
+        for (Bean bean : puts) {
+            byte[] entry = entries.get(i++);
+            offset += ENTRY_HEADER_SIZE;
+            put(bean, new Pointer(active.id, offset, entry.length));
+            offset += entry.length;
+        }
+        for (BeanId id : deletes) {
+            delete(id);
+        }
+        if (active.size >= maxSegmentSize) {
+            active = newSegment(active.id + 1, (short) 0);
+        }
+    }
+
+    /**
+     * Rewrite live entries of all sealed segments into a single segment and
+     * remove the sealed segments. Writers are only blocked while the index is
+     * switched over to the compacted segment.
+     */
+    void compact() {
+        synchronized (compactionLock) {
+            Map<BeanId, Pointer> live = new HashMap<BeanId, Pointer>();
+            TreeMap<Integer, Segment> sealed;
+            lock.readLock().lock();
+            try {
+                checkOpen();
+                sealed = new TreeMap<Integer, Segment>(segments.headMap(active.id));
+                if (sealed.isEmpty()) {
+                    return;
+                }
+                for (Entry<BeanId, Pointer> entry : index.entrySet()) {
+                    if (entry.getValue().segment < active.id) {
+                        live.put(entry.getKey(), entry.getValue());
+                    }
+                }
+            } finally {
+                lock.readLock().unlock();
+            }
+            int targetId = sealed.lastKey();
+            File tmp = new File(dir, fileName(targetId) + COMPACT_SUFFIX);
+            Segment target = Segment.create(tmp, targetId, FLAG_COMPACTED);
+            Map<BeanId, Pointer> moved = new HashMap<BeanId, Pointer>();
+            try {
+                copyLive(live, sealed, target, moved);
+                target.channel.force(true);
+            } catch (IOException e) {
+                target.close();
+                tmp.delete();
+                throw new RuntimeException(e);
+            }
+            lock.writeLock().lock();
+            try {
+                target.close();
+                File file = new File(dir, fileName(targetId));
+                sealed.get(targetId).close();
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                for (Segment segment : sealed.values()) {
+                    segment.close();
+                    segments.remove(segment.id);
+                    if (segment.id != targetId) {
+                        segment.file.delete();
+                    }
+                }
+                Segment compacted = Segment.open(file, targetId);
+                segments.put(targetId, compacted);
+                for (Entry<BeanId, Pointer> entry : moved.entrySet()) {
+                    Pointer current = index.get(entry.getKey());
+                    Pointer old = live.get(entry.getKey());
+                    if (current == old) {
+                        index.put(entry.getKey(), entry.getValue());
+                        compacted.live += entry.getValue().length;
+                    }
+                }
+                log.debug("Compacted {} segments into {}", sealed.size(), file);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+    }
+
+    /**
+     * Fraction of the sealed segments that is occupied by dead entries.
+     */
+    double garbageRatio() {
+        lock.readLock().lock();
+        try {
+            long size = 0;
+            long live = 0;
+            for (Segment segment : segments.headMap(active.id).values()) {
+                size += segment.size - HEADER_SIZE;
+                live += segment.live;
+            }
+            if (size == 0) {
+                return 0;
+            }
+            return (double) (size - live) / size;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    void close() {
+        synchronized (STORES) {
+            STORES.remove(dir);
+        }
+        if (compactor != null) {
+            compactor.shutdownNow();
+        }
+        lock.writeLock().lock();
+        try {
+            for (Segment segment : segments.values()) {
+                segment.close();
+            }
+            segments.clear();
+            closed = true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void copyLive(Map<BeanId, Pointer> live, Map<Integer, Segment> sealed,
+            Segment target, Map<BeanId, Pointer> moved) throws IOException {
+        List<byte[]> entries = new ArrayList<byte[]>();
+        List<Byte> ops = new ArrayList<Byte>();
+        List<BeanId> ids = new ArrayList<BeanId>();
+        int recordSize = 0;
+        for (Entry<BeanId, Pointer> entry : live.entrySet()) {
+            Pointer p = entry.getValue();
+            entries.add(sealed.get(p.segment).read(p.offset, p.length));
+            ops.add(OP_PUT);
+            ids.add(entry.getKey());
+            recordSize += p.length;
+            if (recordSize >= COMPACT_RECORD_SIZE) {
+                appendCopies(target, entries, ops, ids, moved);
+                recordSize = 0;
+            }
+        }
+        appendCopies(target, entries, ops, ids, moved);
+    }
+
+    private static void appendCopies(Segment target, List<byte[]> entries, List<Byte> ops,
+            List<BeanId> ids, Map<BeanId, Pointer> moved) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        long offset = target.append(LogFormat.record(entries, ops), false) + RECORD_HEADER_SIZE
+                + 4;
+        for (int i = 0; i < entries.size(); i++) {
+            offset += ENTRY_HEADER_SIZE;
+            moved.put(ids.get(i), new Pointer(target.id, offset, entries.get(i).length));
+            offset += entries.get(i).length;
+        }
+        entries.clear();
+        ops.clear();
+        ids.clear();
+    }
+
+    private void startCompactor(long intervalMs) {
+        compactor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "config-log-compactor " + dir.getName());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        compactor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    if (garbageRatio() >= 0.5) {
+                        compact();
+                    }
+                } catch (Exception e) {
+                    log.warn("Compaction of " + dir + " failed.", e);
+                }
+            }
+        }, intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Rebuild the indexes from the segments on disk.
+     */
+    private void recover() {
+        if (!dir.exists() && !dir.mkdirs()) {
+            throw new RuntimeException("Could not create directory " + dir);
+        }
+        for (File tmp : dir.listFiles(filter(COMPACT_SUFFIX))) {
+            // compaction did not finish, the original segments are still intact.
+            tmp.delete();
+        }
+        TreeMap<Integer, File> files = new TreeMap<Integer, File>();
+        for (File file : dir.listFiles(filter(SEGMENT_SUFFIX))) {
+            String name = file.getName();
+            files.put(Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length()
+                    - SEGMENT_SUFFIX.length())), file);
+        }
+        try {
+            // a compacted segment supersede all segments before it.
+            for (Integer id : files.descendingKeySet()) {
+                if (Segment.isCompacted(files.get(id))) {
+                    for (File old : new ArrayList<File>(files.headMap(id).values())) {
+                        old.delete();
+                    }
+                    files.headMap(id).clear();
+                    break;
+                }
+            }
+            for (Entry<Integer, File> entry : files.entrySet()) {
+                Segment segment = Segment.open(entry.getValue(), entry.getKey());
+                segments.put(segment.id, segment);
+                replay(segment, entry.getKey().equals(files.lastKey()));
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        if (segments.isEmpty()) {
+            active = newSegment(1, (short) 0);
+        } else {
+            active = newSegment(segments.lastKey() + 1, (short) 0);
+        }
+    }
+
+    private void replay(Segment segment, boolean last) throws IOException {
+        long position = HEADER_SIZE;
+        byte[] recordHeader = new byte[RECORD_HEADER_SIZE];
+        while (position < segment.size) {
+            int length = -1;
+            int crc = 0;
+            byte[] payload = null;
+            if (segment.size - position >= RECORD_HEADER_SIZE) {
+                segment.readFully(recordHeader, position);
+                DataInputStream in = LogFormat.newDataInput(recordHeader, 0, RECORD_HEADER_SIZE);
+                length = in.readInt();
+                crc = in.readInt();
+            }
+            if (length >= 4 && position + RECORD_HEADER_SIZE + length <= segment.size) {
+                payload = new byte[length];
+                segment.readFully(payload, position + RECORD_HEADER_SIZE);
+            }
+            if (payload == null || LogFormat.crc(payload, 0, length) != crc) {
+                if (!last) {
+                    throw new RuntimeException("Corrupt record at position " + position + " in "
+                            + segment.file);
+                }
+                log.warn("Truncating torn record at position {} in {}", position, segment.file);
+                segment.truncate(position);
+                return;
+            }
+            DataInputStream in = LogFormat.newDataInput(payload, 0, length);
+            int count = in.readInt();
+            long offset = position + RECORD_HEADER_SIZE + 4;
+            for (int i = 0; i < count; i++) {
+                byte op = in.readByte();
+                int entryLength = in.readInt();
+                byte[] entry = new byte[entryLength];
+                in.readFully(entry);
+                offset += ENTRY_HEADER_SIZE;
+                if (op == OP_PUT) {
+                    Bean bean = LogFormat.decodeBean(entry);
+                    put(bean, new Pointer(segment.id, offset, entryLength));
+                } else if (op == OP_DELETE) {
+                    delete(LogFormat.decodeId(entry));
+                }
+                offset += entryLength;
+            }
+            position += RECORD_HEADER_SIZE + length;
+        }
+    }
+
+    private void put(Bean bean, Pointer pointer) {
+        BeanId id = copy(bean.getId());
+        Pointer old = index.put(id, pointer);
+        if (old != null) {
+            segments.get(old.segment).live -= old.length;
+        }
+        segments.get(pointer.segment).live += pointer.length;
+        Set<BeanId> ids = schemas.get(id.getSchemaName());
+        if (ids == null) {
+            ids = new HashSet<BeanId>();
+            schemas.put(id.getSchemaName(), ids);
+        }
+        ids.add(id);
+        removeValues(id);
+        addValues(id, bean);
+        removeOutgoing(id);
+        List<BeanId> references = bean.getReferences();
+        if (references.isEmpty()) {
+            return;
+        }
+        Set<BeanId> targets = new HashSet<BeanId>();
+        for (BeanId ref : references) {
+            targets.add(copy(ref));
+        }
+        outgoing.put(id, targets);
+        for (BeanId target : targets) {
+            Set<BeanId> sources = incoming.get(target);
+            if (sources == null) {
+                sources = new HashSet<BeanId>();
+                incoming.put(target, sources);
+            }
+            sources.add(id);
+        }
+    }
+
+    private void delete(BeanId id) {
+        Pointer old = index.remove(id);
+        if (old == null) {
+            return;
+        }
+        segments.get(old.segment).live -= old.length;
+        Set<BeanId> ids = schemas.get(id.getSchemaName());
+        if (ids != null) {
+            ids.remove(id);
+            if (ids.isEmpty()) {
+                schemas.remove(id.getSchemaName());
+            }
+        }
+        removeValues(id);
+        removeOutgoing(id);
+    }
+
+    private void addValues(BeanId id, Bean bean) {
+        Map<String, List<String>> beanValues = new HashMap<String, List<String>>();
+        for (String name : bean.getPropertyNames()) {
+            List<String> propertyValues = bean.getValues(name);
+            if (propertyValues == null || propertyValues.isEmpty()) {
+                continue;
+            }
+            beanValues.put(name, new ArrayList<String>(propertyValues));
+            Map<String, TreeMap<String, Set<BeanId>>> schemaValues = values.get(id.getSchemaName());
+            if (schemaValues == null) {
+                schemaValues = new HashMap<String, TreeMap<String, Set<BeanId>>>();
+                values.put(id.getSchemaName(), schemaValues);
+            }
+            TreeMap<String, Set<BeanId>> sorted = schemaValues.get(name);
+            if (sorted == null) {
+                sorted = new TreeMap<String, Set<BeanId>>();
+                schemaValues.put(name, sorted);
+            }
+            for (String value : propertyValues) {
+                if (value == null) {
+                    continue;
+                }
+                Set<BeanId> ids = sorted.get(value);
+                if (ids == null) {
+                    ids = new HashSet<BeanId>();
+                    sorted.put(value, ids);
+                }
+                ids.add(id);
+            }
+        }
+        if (!beanValues.isEmpty()) {
+            properties.put(id, beanValues);
+        }
+    }
+
+    private void removeValues(BeanId id) {
+        Map<String, List<String>> beanValues = properties.remove(id);
+        if (beanValues == null) {
+            return;
+        }
+        Map<String, TreeMap<String, Set<BeanId>>> schemaValues = values.get(id.getSchemaName());
+        for (Entry<String, List<String>> entry : beanValues.entrySet()) {
+            TreeMap<String, Set<BeanId>> sorted = schemaValues.get(entry.getKey());
+            for (String value : entry.getValue()) {
+                Set<BeanId> ids = value == null ? null : sorted.get(value);
+                if (ids != null) {
+                    ids.remove(id);
+                    if (ids.isEmpty()) {
+                        sorted.remove(value);
+                    }
+                }
+            }
+            if (sorted.isEmpty()) {
+                schemaValues.remove(entry.getKey());
+            }
+        }
+        if (schemaValues.isEmpty()) {
+            values.remove(id.getSchemaName());
+        }
+    }
+
+    private static Set<BeanId> match(TreeMap<String, Set<BeanId>> sorted, Restriction restriction) {
+        Set<BeanId> matches = new HashSet<BeanId>();
+        switch (restriction.getType()) {
+        case EQUAL:
+        case IN:
+            for (String value : restriction.getValues()) {
+                Set<BeanId> ids = sorted.get(value);
+                if (ids != null) {
+                    matches.addAll(ids);
+                }
+            }
+            return matches;
+        case PREFIX:
+            String prefix = restriction.getValues().get(0);
+            for (Entry<String, Set<BeanId>> entry : sorted.tailMap(prefix, true).entrySet()) {
+                if (!entry.getKey().startsWith(prefix)) {
+                    break;
+                }
+                matches.addAll(entry.getValue());
+            }
+            return matches;
+        case RANGE:
+            if (restriction.isNumeric()) {
+                // values are sorted as strings, not as numbers
+                for (Entry<String, Set<BeanId>> entry : sorted.entrySet()) {
+                    if (restriction.apply(entry.getKey())) {
+                        matches.addAll(entry.getValue());
+                    }
+                }
+                return matches;
+            }
+            NavigableMap<String, Set<BeanId>> range = sorted;
+            if (restriction.getLower() != null) {
+                range = range.tailMap(restriction.getLower(), true);
+            }
+            if (restriction.getUpper() != null) {
+                range = range.headMap(restriction.getUpper(), true);
+            }
+            for (Set<BeanId> ids : range.values()) {
+                matches.addAll(ids);
+            }
+            return matches;
+        default:
+            throw new IllegalArgumentException("Unknown type " + restriction.getType());
+        }
+    }
+
+    private void removeOutgoing(BeanId id) {
+        Set<BeanId> targets = outgoing.remove(id);
+        if (targets == null) {
+            return;
+        }
+        for (BeanId target : targets) {
+            Set<BeanId> sources = incoming.get(target);
+            if (sources != null) {
+                sources.remove(id);
+                if (sources.isEmpty()) {
+                    incoming.remove(target);
+                }
+            }
+        }
+    }
+
+    private Segment newSegment(int id, short flags) {
+        Segment segment = Segment.create(new File(dir, fileName(id)), id, flags);
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Store " + dir + " is closed.");
+        }
+    }
+
+    /**
+     * Ids used as keys must not hold on to bean instances.
+     */
+    private static BeanId copy(BeanId id) {
+        if (id.isSingleton()) {
+            return BeanId.createSingleton(id.getInstanceId(), id.getSchemaName());
+        }
+        return BeanId.create(id.getInstanceId(), id.getSchemaName());
+    }
+
+    private static String fileName(int id) {
+        return SEGMENT_PREFIX + String.format("%010d", id) + SEGMENT_SUFFIX;
+    }
+
+    private static FilenameFilter filter(final String suffix) {
+        return new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(SEGMENT_PREFIX) && name.endsWith(suffix);
+            }
+        };
+    }
+
+    /**
+     * Position of an entry in a segment.
+     */
+    private static final class Pointer {
+        private final int segment;
+        private final long offset;
+        private final int length;
+
+        private Pointer(int segment, long offset, int length) {
+            this.segment = segment;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private static final class Segment {
+        private final int id;
+        private final File file;
+        private final RandomAccessFile raf;
+        private final FileChannel channel;
+        private long size;
+        /** number of bytes of live entries */
+        private long live;
+
+        private Segment(int id, File file) throws IOException {
+            this.id = id;
+            this.file = file;
+            this.raf = new RandomAccessFile(file, "rw");
+            this.channel = raf.getChannel();
+            this.size = channel.size();
+        }
+
+        static Segment create(File file, int id, short flags) {
+            try {
+                Segment segment = new Segment(id, file);
+                segment.channel.truncate(0);
+                segment.size = 0;
+                segment.append(LogFormat.header(flags), true);
+                return segment;
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+
+        static Segment open(File file, int id) throws IOException {
+            return new Segment(id, file);
+        }
+
+        static boolean isCompacted(File file) throws IOException {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            try {
+                if (raf.length() < HEADER_SIZE || raf.readInt() != LogFormat.MAGIC) {
+                    return false;
+                }
+                raf.readShort();
+                return (raf.readShort() & FLAG_COMPACTED) != 0;
+            } finally {
+                raf.close();
+            }
+        }
+
+        long append(byte[] bytes, boolean sync) {
+            long position = size;
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            try {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer, position + buffer.position());
+                }
+                if (sync) {
+                    channel.force(false);
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            size += bytes.length;
+            return position;
+        }
+
+        byte[] read(long offset, int length) {
+            byte[] bytes = new byte[length];
+            try {
+                readFully(bytes, offset);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            return bytes;
+        }
+
+        void readFully(byte[] bytes, long offset) throws IOException {
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    throw new IOException("Unexpected end of " + file);
+                }
+            }
+        }
+
+        void truncate(long position) throws IOException {
+            channel.truncate(position);
+            size = position;
+        }
+
+        void close() {
+            try {
+                raf.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+    }
+}
@@ -0,0 +1,283 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.internal.core.metrics;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.deephacks.tools4j.config.model.Bean;
+import org.deephacks.tools4j.config.model.Bean.BeanId;
+import org.deephacks.tools4j.config.model.BeanChange;
+import org.deephacks.tools4j.config.model.Criteria;
+import org.deephacks.tools4j.config.spi.BeanManager;
+import org.deephacks.tools4j.support.event.AbortRuntimeException;
+
+/**
+ * MeteredBeanManager measure every call to a bean manager, which is also
+ * every round trip to storage as seen from the contexts, and the number of
+ * beans read or written by each call.
+ */
+final class MeteredBeanManager extends BeanManager {
+    private static final long serialVersionUID = -4417330593366786217L;
+    private static final String PREFIX = "BeanManager.";
+    private final BeanManager delegate;
+    private final Timer create;
+    private final Timer createSingleton;
+    private final Timer set;
+    private final Timer merge;
+    private final Timer getEager;
+    private final Timer getLazy;
+    private final Timer getBeanToValidate;
+    private final Timer getSingleton;
+    private final Timer list;
+    private final Timer query;
+    private final Timer delete;
+    private final Timer getChangesSince;
+
+    MeteredBeanManager(BeanManager delegate, Metrics metrics) {
+        this.delegate = delegate;
+        create = metrics.timer(PREFIX + "create");
+        createSingleton = metrics.timer(PREFIX + "createSingleton");
+        set = metrics.timer(PREFIX + "set");
+        merge = metrics.timer(PREFIX + "merge");
+        getEager = metrics.timer(PREFIX + "getEager");
+        getLazy = metrics.timer(PREFIX + "getLazy");
+        getBeanToValidate = metrics.timer(PREFIX + "getBeanToValidate");
+        getSingleton = metrics.timer(PREFIX + "getSingleton");
+        list = metrics.timer(PREFIX + "list");
+        query = metrics.timer(PREFIX + "query");
+        delete = metrics.timer(PREFIX + "delete");
+        getChangesSince = metrics.timer(PREFIX + "getChangesSince");
+    }
+
+    @Override
+    public void create(Bean bean) throws AbortRuntimeException {
+        long start = System.nanoTime();
+        try {
+            delegate.create(bean);
+            create.record(start, 1);
+        } catch (RuntimeException e) {
+            create.failed(start);
+            throw e;
+        }
+    }
+
+    @Override
+    public void create(Collection<Bean> beans) throws AbortRuntimeException {
+        long start = System.nanoTime();
+        try {
+            delegate.create(beans);
+            create.record(start, beans.size());
+        } catch (RuntimeException e) {
+            create.failed(start);
+            throw e;
+        }
+    }
+
+    @Override
+    public void createSingleton(BeanId singleton) {
+        long start = System.nanoTime();
+        try {
+            delegate.createSingleton(singleton);
+            createSingleton.record(start, 1);
+        } catch (RuntimeException e) {
+            createSingleton.failed(start);
+            throw e;
+        }
+    }
+
+    @Override
+    public void set(Bean bean) {
+        long start = System.nanoTime();
+        try {
+            delegate.set(bean);
+            set.record(start, 1);
+        } catch (RuntimeException e) {
+            set.failed(start);
+            throw e;
+        }
+    }
+
+    @Override
+    public void set(Collection<Bean> beans) throws AbortRuntimeException {
+        long start = System.nanoTime();
+        try {
+            delegate.set(beans);
+            set.record(start, beans.size());
+        } catch (RuntimeException e) {
+            set.failed(start);
+            throw e;
+        }
+    }
+
+    @Override
+    public void merge(Bean bean) throws AbortRuntimeException {
+        long start = System.nanoTime();
+        try {
+            delegate.merge(bean);
+            merge.record(start, 1);
+        } catch (RuntimeException e) {
+            merge.failed(start);
+            throw e;
+        }
+    }
+
+    @Override
+    public void merge(Collection<Bean> beans) throws AbortRuntimeException {
+        long start = System.nanoTime();
+        try {
+            delegate.merge(beans);
+            merge.record(start, beans.size());
+        } catch (RuntimeException e) {
+            merge.failed(start);
+            throw e;
+        }
+    }
+
+    @Override
+    public Bean getEager(BeanId id) throws AbortRuntimeException {
+        long start = System.nanoTime();
+        try {
+            Bean bean = delegate.getEager(id);
+            getEager.record(start, bean == null ? 0 : 1);
+            return bean;
+        } catch (RuntimeException e) {
+            getEager.failed(start);
+            throw e;
+        }
+    }
+
+    @Override
+    public Bean getLazy(BeanId id) throws AbortRuntimeException {
+        long start = System.nanoTime();
+        try {
+            Bean bean = delegate.getLazy(id);
+            getLazy.record(start, bean == null ? 0 : 1);
+            return bean;
+        } catch (RuntimeException e) {
+            getLazy.failed(start);
+            throw e;
+        }
+    }
+
+    @Override
+    public Map<BeanId, Bean> getBeanToValidate(Bean bean) throws AbortRuntimeException {
+        long start = System.nanoTime();
+        try {
+            Map<BeanId, Bean> beans = delegate.getBeanToValidate(bean);
+            getBeanToValidate.record(start, beans.size());
+            return beans;
+        } catch (RuntimeException e) {
+            getBeanToValidate.failed(start);
+            throw e;
+        }
+    }
+
+    @Override
+    public Bean getSingleton(String schemaName) throws IllegalArgumentException {
+        long start = System.nanoTime();
+        try {
+            Bean bean = delegate.getSingleton(schemaName);
+            getSingleton.record(start, bean == null ? 0 : 1);
+            return bean;
+        } catch (RuntimeException e) {
+            getSingleton.failed(start);
+            throw e;
+        }
+    }
+
+    @Override
+    public Map<BeanId, Bean> list(String schemaName) throws AbortRuntimeException {
+        long start = System.nanoTime();
+        try {
+            Map<BeanId, Bean> beans = delegate.list(schemaName);
+            list.record(start, beans.size());
+            return beans;
+        } catch (RuntimeException e) {
+            list.failed(start);
+            throw e;
+        }
+    }
+
+    @Override
+    public Map<BeanId, Bean> query(String schemaName, Criteria criteria)
+            throws AbortRuntimeException {
+        long start = System.nanoTime();
+        try {
+            Map<BeanId, Bean> beans = delegate.query(schemaName, criteria);
+            query.record(start, beans.size());
+            return beans;
+        } catch (RuntimeException e) {
+            query.failed(start);
+            throw e;
+        }
+    }
+
+    @Override
+    public void delete(BeanId id) throws AbortRuntimeException {
+        long start = System.nanoTime();
+        try {
+            delegate.delete(id);
+            delete.record(start, 1);
+        } catch (RuntimeException e) {
+            delete.failed(start);
+            throw e;
+        }
+    }
+
+    @Override
+    public void delete(Bean bean) throws AbortRuntimeException {
+        long start = System.nanoTime();
+        try {
+            delegate.delete(bean);
+            delete.record(start, 1);
+        } catch (RuntimeException e) {
+            delete.failed(start);
+            throw e;
+        }
+    }
+
+    @Override
+    public void delete(String schemaName, Collection<String> instanceIds)
+            throws AbortRuntimeException {
+        long start = System.nanoTime();
+        try {
+            delegate.delete(schemaName, instanceIds);
+            delete.record(start, instanceIds.size());
+        } catch (RuntimeException e) {
+            delete.failed(start);
+            throw e;
+        }
+    }
+
+    @Override
+    public List<BeanChange> getChangesSince(long sequence, int max)
+            throws AbortRuntimeException {
+        long start = System.nanoTime();
+        try {
+            List<BeanChange> changes = delegate.getChangesSince(sequence, max);
+            getChangesSince.record(start, changes.size());
+            return changes;
+        } catch (RuntimeException e) {
+            getChangesSince.failed(start);
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean isChangeLogSupported() {
+        return delegate.isChangeLogSupported();
+    }
+}
@@ -0,0 +1,90 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.internal.core.metrics;
+
+import java.util.Map;
+
+import org.deephacks.tools4j.config.model.Schema;
+import org.deephacks.tools4j.config.spi.SchemaManager;
+
+/**
+ * MeteredSchemaManager measure every call to a schema manager.
+ */
+final class MeteredSchemaManager extends SchemaManager {
+    private static final long serialVersionUID = 6209587950376125839L;
+    private static final String PREFIX = "SchemaManager.";
+    private final SchemaManager delegate;
+    private final Timer getSchemas;
+    private final Timer getSchema;
+    private final Timer registerSchema;
+    private final Timer removeSchema;
+
+    MeteredSchemaManager(SchemaManager delegate, Metrics metrics) {
+        this.delegate = delegate;
+        getSchemas = metrics.timer(PREFIX + "getSchemas");
+        getSchema = metrics.timer(PREFIX + "getSchema");
+        registerSchema = metrics.timer(PREFIX + "registerSchema");
+        removeSchema = metrics.timer(PREFIX + "removeSchema");
+    }
+
+    @Override
+    public Map<String, Schema> getSchemas() {
+        long start = System.nanoTime();
+        try {
+            Map<String, Schema> schemas = delegate.getSchemas();
+            getSchemas.record(start, 0);
+            return schemas;
+        } catch (RuntimeException e) {
+            getSchemas.failed(start);
+            throw e;
+        }
+    }
+
+    @Override
+    public Schema getSchema(String schemaName) {
+        long start = System.nanoTime();
+        try {
+            Schema schema = delegate.getSchema(schemaName);
+            getSchema.record(start, 0);
+            return schema;
+        } catch (RuntimeException e) {
+            getSchema.failed(start);
+            throw e;
+        }
+    }
+
+    @Override
+    public void regsiterSchema(Schema... schema) {
+        long start = System.nanoTime();
+        try {
+            delegate.regsiterSchema(schema);
+            registerSchema.record(start, 0);
+        } catch (RuntimeException e) {
+            registerSchema.failed(start);
+            throw e;
+        }
+    }
+
+    @Override
+    public void removeSchema(String schemaName) {
+        long start = System.nanoTime();
+        try {
+            delegate.removeSchema(schemaName);
+            removeSchema.record(start, 0);
+        } catch (RuntimeException e) {
+            removeSchema.failed(start);
+            throw e;
+        }
+    }
+}
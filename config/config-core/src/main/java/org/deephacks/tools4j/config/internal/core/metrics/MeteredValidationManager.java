@@ -0,0 +1,66 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.internal.core.metrics;
+
+import java.util.Collection;
+
+import org.deephacks.tools4j.config.model.Bean;
+import org.deephacks.tools4j.config.spi.ValidationManager;
+import org.deephacks.tools4j.support.event.AbortRuntimeException;
+
+/**
+ * MeteredValidationManager measure time spent validating beans. Beans that
+ * fail validation are counted as failures.
+ */
+final class MeteredValidationManager extends ValidationManager {
+    private static final String PREFIX = "ValidationManager.";
+    private final ValidationManager delegate;
+    private final Timer register;
+    private final Timer validate;
+
+    MeteredValidationManager(ValidationManager delegate, Metrics metrics) {
+        this.delegate = delegate;
+        register = metrics.timer(PREFIX + "register");
+        validate = metrics.timer(PREFIX + "validate");
+    }
+
+    @Override
+    public void register(String schemaName, Class<?> clazz) throws AbortRuntimeException {
+        long start = System.nanoTime();
+        try {
+            delegate.register(schemaName, clazz);
+            register.record(start, 0);
+        } catch (RuntimeException e) {
+            register.failed(start);
+            throw e;
+        }
+    }
+
+    @Override
+    public void validate(Collection<Bean> beans) throws AbortRuntimeException {
+        long start = System.nanoTime();
+        try {
+            delegate.validate(beans);
+            validate.record(start, beans.size());
+        } catch (RuntimeException e) {
+            validate.failed(start);
+            throw e;
+        }
+    }
+
+    @Override
+    public void unregister(String name) {
+        delegate.unregister(name);
+    }
+}
@@ -0,0 +1,146 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.internal.core.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.deephacks.tools4j.config.spi.BeanManager;
+import org.deephacks.tools4j.config.spi.MetricsSink;
+import org.deephacks.tools4j.config.spi.SchemaManager;
+import org.deephacks.tools4j.config.spi.ValidationManager;
+import org.deephacks.tools4j.support.SystemProperties;
+import org.deephacks.tools4j.support.lookup.Lookup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Metrics keep the timers of the config subsystem, one for each call that is
+ * measured, and register each timer as an MBean named
+ * {@value #DOMAIN}:type=Metrics,name=&lt;call&gt;.
+ * <p>
+ * Metrics are disabled unless {@link #ENABLED_PROP} is true. Contexts
+ * check this once when created and only decorate the managers they use if
+ * enabled, so that disabled metrics cost nothing on the calls themselves.
+ * Measurements are also given to a {@link MetricsSink} if one is registered
+ * for lookup.
+ */
+public final class Metrics {
+    public static final String ENABLED_PROP = "config.metrics.enabled";
+    static final String DOMAIN = "org.deephacks.tools4j.config";
+    private static final Logger log = LoggerFactory.getLogger(Metrics.class);
+    private static Metrics instance;
+    private final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<String, Timer>();
+    private final MetricsSink sink;
+    private final MBeanServer server;
+
+    Metrics(MetricsSink sink, MBeanServer server) {
+        this.sink = sink;
+        this.server = server;
+    }
+
+    /**
+     * @return metrics shared by all contexts or null if metrics are disabled.
+     */
+    public static synchronized Metrics lookup() {
+        if (!Boolean.parseBoolean(SystemProperties.createDefault().get(ENABLED_PROP))) {
+            return null;
+        }
+        if (instance == null) {
+            instance = new Metrics(Lookup.get().lookup(MetricsSink.class),
+                    ManagementFactory.getPlatformMBeanServer());
+        }
+        return instance;
+    }
+
+    /**
+     * Get the timer of a call, created and registered the first time.
+     */
+    public Timer timer(String name) {
+        Timer timer = timers.get(name);
+        if (timer != null) {
+            return timer;
+        }
+        timer = new Timer(name, sink);
+        Timer existing = timers.putIfAbsent(name, timer);
+        if (existing != null) {
+            return existing;
+        }
+        register(timer);
+        return timer;
+    }
+
+    public Collection<Timer> getTimers() {
+        return Collections.unmodifiableCollection(timers.values());
+    }
+
+    /**
+     * @return a bean manager that measure the calls to the bean manager given,
+     *         or the bean manager itself if metrics is null.
+     */
+    public static BeanManager meter(BeanManager beanManager, Metrics metrics) {
+        if (metrics == null || beanManager == null) {
+            return beanManager;
+        }
+        return new MeteredBeanManager(beanManager, metrics);
+    }
+
+    /**
+     * @return a schema manager that measure the calls to the schema manager given,
+     *         or the schema manager itself if metrics is null.
+     */
+    public static SchemaManager meter(SchemaManager schemaManager, Metrics metrics) {
+        if (metrics == null || schemaManager == null) {
+            return schemaManager;
+        }
+        return new MeteredSchemaManager(schemaManager, metrics);
+    }
+
+    /**
+     * @return a validation manager that measure the calls to the validation manager
+     *         given, or the validation manager itself if metrics is null.
+     */
+    public static ValidationManager meter(ValidationManager validationManager, Metrics metrics) {
+        if (metrics == null || validationManager == null) {
+            return validationManager;
+        }
+        return new MeteredValidationManager(validationManager, metrics);
+    }
+
+    static ObjectName objectName(String name) throws Exception {
+        return new ObjectName(DOMAIN + ":type=Metrics,name=" + ObjectName.quote(name));
+    }
+
+    private void register(Timer timer) {
+        if (server == null) {
+            return;
+        }
+        try {
+            ObjectName name = objectName(timer.getName());
+            if (server.isRegistered(name)) {
+                // left by metrics of another class loader
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(timer, name);
+        } catch (Exception e) {
+            log.warn("Could not register MBean for {}", timer.getName(), e);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.internal.core.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.deephacks.tools4j.config.spi.MetricsSink;
+
+/**
+ * Timer count calls, failures and beans of a certain call and keep a histogram
+ * of its latency. Nothing is locked, each measurement is a handful of atomic
+ * updates.
+ * <p>
+ * The histogram have one bucket per power of two nanoseconds, so percentiles
+ * are approximate but cost no more to record than a counter.
+ */
+public final class Timer implements TimerMXBean {
+    /** bucket i count latencies between 2^i and 2^(i+1) nanoseconds */
+    static final int BUCKETS = 64;
+    private final String name;
+    private final MetricsSink sink;
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+    private final AtomicLong size = new AtomicLong();
+    private final AtomicLong nanos = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    Timer(String name, MetricsSink sink) {
+        this.name = name;
+        this.sink = sink;
+    }
+
+    /**
+     * Record a successful call.
+     *
+     * @param start value of {@link System#nanoTime()} when the call started.
+     * @param size number of beans read or written.
+     */
+    public void record(long start, int size) {
+        record(System.nanoTime() - start, size, false);
+    }
+
+    /**
+     * Record a call that threw an exception.
+     *
+     * @param start value of {@link System#nanoTime()} when the call started.
+     */
+    public void failed(long start) {
+        record(System.nanoTime() - start, 0, true);
+    }
+
+    void record(long elapsed, int size, boolean failed) {
+        elapsed = Math.max(0, elapsed);
+        count.incrementAndGet();
+        if (failed) {
+            failures.incrementAndGet();
+        }
+        this.size.addAndGet(size);
+        nanos.addAndGet(elapsed);
+        long current = max.get();
+        while (elapsed > current && !max.compareAndSet(current, elapsed)) {
+            current = max.get();
+        }
+        buckets.incrementAndGet(bucket(elapsed));
+        if (sink != null) {
+            sink.record(name, elapsed, size, failed);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public long getCount() {
+        return count.get();
+    }
+
+    @Override
+    public long getFailures() {
+        return failures.get();
+    }
+
+    @Override
+    public long getTotalSize() {
+        return size.get();
+    }
+
+    @Override
+    public long getTotalMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(nanos.get());
+    }
+
+    @Override
+    public long getMeanMicros() {
+        long n = count.get();
+        return n == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(nanos.get() / n);
+    }
+
+    @Override
+    public long getMaxMicros() {
+        return TimeUnit.NANOSECONDS.toMicros(max.get());
+    }
+
+    @Override
+    public long getMedianMicros() {
+        return getPercentileMicros(0.5);
+    }
+
+    @Override
+    public long get99thPercentileMicros() {
+        return getPercentileMicros(0.99);
+    }
+
+    /**
+     * @return upper bound of the bucket that hold the percentile.
+     */
+    long getPercentileMicros(double percentile) {
+        long[] counts = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(percentile * total);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                long upper = i >= 62 ? Long.MAX_VALUE : 1L << (i + 1);
+                return Math.min(TimeUnit.NANOSECONDS.toMicros(upper),
+                        TimeUnit.NANOSECONDS.toMicros(max.get()));
+            }
+        }
+        return getMaxMicros();
+    }
+
+    @Override
+    public void reset() {
+        count.set(0);
+        failures.set(0);
+        size.set(0);
+        nanos.set(0);
+        max.set(0);
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+    }
+
+    static int bucket(long nanos) {
+        return nanos <= 1 ? 0 : 63 - Long.numberOfLeadingZeros(nanos);
+    }
+}
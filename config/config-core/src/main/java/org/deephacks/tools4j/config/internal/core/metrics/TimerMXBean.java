@@ -0,0 +1,44 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.internal.core.metrics;
+
+/**
+ * JMX view of the measurements of a call. Times are in microseconds and
+ * percentiles are upper bounds, accurate within a factor of two.
+ */
+public interface TimerMXBean {
+
+    String getName();
+
+    long getCount();
+
+    long getFailures();
+
+    /**
+     * @return number of beans read or written by all calls.
+     */
+    long getTotalSize();
+
+    long getTotalMicros();
+
+    long getMeanMicros();
+
+    long getMaxMicros();
+
+    long getMedianMicros();
+
+    long get99thPercentileMicros();
+
+    void reset();
+}
@@ -42,19 +42,66 @@ import org.deephacks.tools4j.support.conversion.Conversion;
 import org.deephacks.tools4j.support.conversion.Converter;
 import org.deephacks.tools4j.support.reflections.BeanInstance;
 
+import com.google.common.base.Supplier;
+
+/**
+ * Convert beans into instances of their configurable classes.
+ * <p>
+ * Each conversion keep track of the instances it has created so that a bean
+ * that is referenced several times within the converted graph becomes exactly one
+ * instance. Referencing objects therefore see the same instance, which also 
+ * allow cyclic references to be converted.
+ */
 public class BeanToObjectConverter implements Converter<Bean, Object> {
     private Conversion conversion = Conversion.get();
 
     @Override
     public Object convert(Bean source, Class<? extends Object> specificType) {
+        return convert(source, specificType, new Graph(null));
+    }
+
+    /**
+     * Convert a collection of beans where beans referenced from several beans in 
+     * the collection are converted into one instance.
+     */
+    public <T> List<T> convertAll(Collection<Bean> sources, Class<T> specificType) {
+        Graph graph = new Graph(null);
+        List<T> result = new ArrayList<T>();
+        for (Bean source : sources) {
+            result.add(specificType.cast(convert(source, specificType, graph)));
+        }
+        return result;
+    }
+
+    /**
+     * Convert a bean without requiring the beans it reference to be initalized. 
+     * Referenced beans are instead loaded through the resolver. Collections and 
+     * maps of references that are declared as interfaces are loaded first when 
+     * they are accessed. Single references are loaded directly, since configurable 
+     * classes cannot be proxied, but their own collections are lazy.
+     */
+    public <T> T convertLazy(Bean source, Class<T> specificType, ReferenceResolver resolver) {
+        Graph graph = new Graph(resolver);
+        synchronized (graph) {
+            return specificType.cast(convert(source, specificType, graph));
+        }
+    }
+
+    private Object convert(Bean source, Class<?> specificType, Graph graph) {
+        Object converted = graph.instances.get(source.getId());
+        if (converted != null) {
+            return converted;
+        }
         BeanInstance<?> instance = BeanInstance.create(specificType);
+        // register before references are converted in case they point back to this bean
+        graph.instances.put(source.getId(), instance.get());
         Schema schema = source.getSchema();
         Map<String, Object> values = new HashMap<String, Object>();
         convertProperty(source, schema, values);
         convertPropertyList(source, schema, values);
-        convertPropertyRef(source, schema, values);
-        convertPropertyRefList(source, schema, values);
-        convertPropertyRefMap(source, schema, values);
+        convertPropertyRef(source, schema, values, graph);
+        convertPropertyRefList(source, schema, values, graph);
+        convertPropertyRefMap(source, schema, values, graph);
         if (!schema.getId().isSingleton()) {
             // do not try to inject singleton id: the field is static final
             values.put(getIdField(specificType), source.getId().getInstanceId());
@@ -65,61 +112,108 @@ public class BeanToObjectConverter implements Converter<Bean, Object> {
 
     }
 
-    private void convertPropertyRefMap(Bean source, Schema schema, Map<String, Object> values) {
+    private void convertPropertyRefMap(Bean source, Schema schema, Map<String, Object> values,
+            final Graph graph) {
         for (SchemaPropertyRefMap prop : schema.get(SchemaPropertyRefMap.class)) {
-            List<BeanId> beans = source.getReference(prop.getName());
+            final List<BeanId> beans = source.getReference(prop.getName());
             if (beans == null) {
                 continue;
             }
-            Map<Object, Object> c = newMap(forName(prop.getMapType()));
-            for (BeanId beanId : beans) {
-                Bean b = beanId.getBean();
-                if (b != null) {
-                    Object beanInstance = conversion.convert(b, forName(b.getSchema().getType()));
-                    c.put(beanId.getInstanceId(), beanInstance);
-                }
+            final Class<?> mapType = forName(prop.getMapType());
+            if (graph.isLazy() && mapType.isInterface()) {
+                values.put(prop.getFieldName(), LazyReferences.map(new Supplier<Map<Object, Object>>() {
+                    @Override
+                    public Map<Object, Object> get() {
+                        synchronized (graph) {
+                            return convertRefMap(beans, mapType, graph);
+                        }
+                    }
+                }));
+            } else {
+                values.put(prop.getFieldName(), convertRefMap(beans, mapType, graph));
             }
-            values.put(prop.getFieldName(), c);
         }
     }
 
-    private void convertPropertyRefList(Bean source, Schema schema, Map<String, Object> values) {
+    private Map<Object, Object> convertRefMap(List<BeanId> beans, Class<?> mapType, Graph graph) {
+        Map<Object, Object> c = newMap(mapType);
+        for (BeanId beanId : beans) {
+            Object beanInstance = convertRef(beanId, graph);
+            if (beanInstance != null) {
+                c.put(beanId.getInstanceId(), beanInstance);
+            }
+        }
+        return c;
+    }
+
+    private void convertPropertyRefList(Bean source, Schema schema, Map<String, Object> values,
+            final Graph graph) {
         for (SchemaPropertyRefList prop : schema.get(SchemaPropertyRefList.class)) {
-            List<BeanId> beans = source.getReference(prop.getName());
+            final List<BeanId> beans = source.getReference(prop.getName());
             if (beans == null) {
                 continue;
             }
-            Collection<Object> c = newCollection(forName(prop.getCollectionType()));
-            for (BeanId beanId : beans) {
-                Bean b = beanId.getBean();
-                if (b != null) {
-                    String type = b.getSchema().getType();
-                    Object beanInstance = conversion.convert(b, forName(type));
-                    c.add(beanInstance);
-                }
+            final Class<?> collectionType = forName(prop.getCollectionType());
+            if (graph.isLazy() && collectionType.isInterface()) {
+                values.put(prop.getFieldName(),
+                        LazyReferences.collection(collectionType, new Supplier<Collection<Object>>() {
+                            @Override
+                            public Collection<Object> get() {
+                                synchronized (graph) {
+                                    return convertRefList(beans, collectionType, graph);
+                                }
+                            }
+                        }));
+            } else {
+                values.put(prop.getFieldName(), convertRefList(beans, collectionType, graph));
+            }
+        }
+    }
+
+    private Collection<Object> convertRefList(List<BeanId> beans, Class<?> collectionType,
+            Graph graph) {
+        Collection<Object> c = newCollection(collectionType);
+        for (BeanId beanId : beans) {
+            Object beanInstance = convertRef(beanId, graph);
+            if (beanInstance != null) {
+                c.add(beanInstance);
             }
-            values.put(prop.getFieldName(), c);
         }
+        return c;
     }
 
-    private void convertPropertyRef(Bean source, Schema schema, Map<String, Object> values) {
+    private void convertPropertyRef(Bean source, Schema schema, Map<String, Object> values,
+            Graph graph) {
         for (SchemaPropertyRef prop : schema.get(SchemaPropertyRef.class)) {
             BeanId id = source.getFirstReference(prop.getName());
             if (id == null) {
                 continue;
             }
-            Bean ref = id.getBean();
-            if (ref == null) {
+            Object beanInstance = convertRef(id, graph);
+            if (beanInstance == null) {
                 continue;
             }
-            Schema refSchema = ref.getSchema();
             SchemaPropertyRef schemaRef = schema.get(SchemaPropertyRef.class, prop.getName());
-            Object beanInstance = conversion.convert(ref, forName(refSchema.getType()));
             values.put(schemaRef.getFieldName(), beanInstance);
 
         }
     }
 
+    /**
+     * @return instance of a referenced bean or null if the bean is not available. 
+     */
+    private Object convertRef(BeanId id, Graph graph) {
+        Object converted = graph.instances.get(id);
+        if (converted != null) {
+            return converted;
+        }
+        Bean ref = graph.resolve(id);
+        if (ref == null) {
+            return null;
+        }
+        return convert(ref, forName(ref.getSchema().getType()), graph);
+    }
+
     private void convertPropertyList(Bean source, Schema schema, Map<String, Object> values) {
         for (SchemaPropertyList prop : schema.get(SchemaPropertyList.class)) {
             List<String> vals = source.getValues(prop.getName());
@@ -191,4 +285,40 @@ public class BeanToObjectConverter implements Converter<Bean, Object> {
         }
         throw new UnsupportedOperationException("Class [" + clazz + "] is not supported.");
     }
+
+    /**
+     * Load beans that are referenced from beans that are converted lazily.
+     */
+    public static interface ReferenceResolver {
+        /**
+         * @return the referenced bean with its schema set, or null if it does 
+         * not exist.
+         */
+        Bean resolve(BeanId id);
+    }
+
+    /**
+     * Instances created during the conversion of one object graph. Lazy references
+     * may be loaded by any thread that access them, so a lazy graph is only converted
+     * while holding its lock.
+     */
+    private static final class Graph {
+        private final Map<BeanId, Object> instances = new HashMap<BeanId, Object>();
+        private final ReferenceResolver resolver;
+
+        private Graph(ReferenceResolver resolver) {
+            this.resolver = resolver;
+        }
+
+        private boolean isLazy() {
+            return resolver != null;
+        }
+
+        private Bean resolve(BeanId id) {
+            if (resolver == null) {
+                return id.getBean();
+            }
+            return resolver.resolve(id);
+        }
+    }
 }
@@ -19,7 +19,10 @@ import static org.deephacks.tools4j.config.model.Events.CFG108_ILLEGAL_MODIFIERS
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 import org.deephacks.tools4j.config.Config;
 import org.deephacks.tools4j.config.Id;
@@ -30,12 +33,63 @@ import org.deephacks.tools4j.support.conversion.Conversion;
 import org.deephacks.tools4j.support.conversion.Converter;
 import org.deephacks.tools4j.support.reflections.ClassIntrospector;
 import org.deephacks.tools4j.support.reflections.ClassIntrospector.FieldWrap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+/**
+ * Convert configurable classes into schemas. Classes that were compiled with the 
+ * ConfigSchemaAnnotationProcessor have their schema read from a descriptor 
+ * generated at build time, which is loaded once per class. Other classes are 
+ * introspected every time they are converted, as are classes with a descriptor 
+ * that does not match the class anymore.
+ */
 public class ClassToSchemaConverter implements Converter<Class<?>, Schema> {
+    private static final Logger log = LoggerFactory.getLogger(ClassToSchemaConverter.class);
     private Conversion conversion = Conversion.get();
+    /** null values for classes that have no descriptor */
+    private final Map<Class<?>, SchemaDescriptor> descriptors = Collections
+            .synchronizedMap(new WeakHashMap<Class<?>, SchemaDescriptor>());
 
     @Override
     public Schema convert(Class<?> source, Class<? extends Schema> specificType) {
+        SchemaDescriptor descriptor = getDescriptor(source);
+        if (descriptor != null) {
+            try {
+                return descriptor.toSchema();
+            } catch (IllegalArgumentException e) {
+                ignoreDescriptor(source, e);
+            }
+        }
+        return introspect(source);
+    }
+
+    private SchemaDescriptor getDescriptor(Class<?> source) {
+        if (descriptors.containsKey(source)) {
+            return descriptors.get(source);
+        }
+        SchemaDescriptor descriptor;
+        try {
+            descriptor = SchemaDescriptor.load(source);
+        } catch (IllegalArgumentException e) {
+            ignoreDescriptor(source, e);
+            return null;
+        }
+        descriptors.put(source, descriptor);
+        return descriptor;
+    }
+
+    /**
+     * A descriptor that was generated for an older version of the class is not used again.
+     */
+    private void ignoreDescriptor(Class<?> source, IllegalArgumentException e) {
+        log.warn("Ignoring stale schema descriptor of {}: {}", source.getName(), e.getMessage());
+        descriptors.put(source, null);
+    }
+
+    /**
+     * Create the schema by reflecting on the class.
+     */
+    Schema introspect(Class<?> source) {
         ClassIntrospector introspector = new ClassIntrospector(source);
         Config config = introspector.getAnnotation(Config.class);
         if (config == null) {
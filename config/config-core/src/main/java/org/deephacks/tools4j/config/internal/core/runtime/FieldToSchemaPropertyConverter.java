@@ -15,6 +15,7 @@ package org.deephacks.tools4j.config.internal.core.runtime;
 
 import static org.deephacks.tools4j.config.model.Events.CFG104_UNSUPPORTED_PROPERTY;
 import static org.deephacks.tools4j.config.model.Events.CFG109_ILLEGAL_MAP;
+import static org.deephacks.tools4j.config.model.Events.CFG112_ILLEGAL_INDEX;
 
 import java.util.ArrayList;
 import java.util.Collection;
@@ -67,6 +68,8 @@ public class FieldToSchemaPropertyConverter implements
         if (name == null || "".equals(name)) {
             name = fieldName;
         }
+        boolean index = source.getAnnotation().index();
+        boolean unique = source.getAnnotation().unique();
         Class<?> type = source.getType();
         validateField(source);
         try {
@@ -77,11 +80,12 @@ public class FieldToSchemaPropertyConverter implements
 
                 return SchemaPropertyList.create(name, fieldName, type.getName(), desc, source
                         .isFinal(), source.isEnum(), defaultValues, source.getCollRawType()
-                        .getName());
+                        .getName(), index, unique);
             } else {
                 return SchemaProperty.create(name, fieldName, type.getName(), desc,
                         source.isFinal(), source.isEnum(),
-                        conversion.convert(source.getDefaultValue(), String.class));
+                        conversion.convert(source.getDefaultValue(), String.class), index,
+                        unique);
             }
         } catch (ConversionException e) {
             throw CFG104_UNSUPPORTED_PROPERTY(String.class, name, type);
@@ -95,6 +99,10 @@ public class FieldToSchemaPropertyConverter implements
         if (name == null || "".equals(name)) {
             name = fieldName;
         }
+        if (source.getAnnotation().index() || source.getAnnotation().unique()) {
+            // references are looked up by id, not by value
+            throw CFG112_ILLEGAL_INDEX(name);
+        }
         Class<?> type = source.getType();
         if (source.isCollection()) {
             return SchemaPropertyRefList.create(name, fieldName, getSchemaName(type), desc,
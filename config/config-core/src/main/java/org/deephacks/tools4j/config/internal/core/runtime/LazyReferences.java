@@ -0,0 +1,77 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.internal.core.runtime;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ForwardingCollection;
+import com.google.common.collect.ForwardingList;
+import com.google.common.collect.ForwardingMap;
+import com.google.common.collect.ForwardingSet;
+
+/**
+ * Collections and maps of referenced configurables that are not loaded until
+ * they are accessed the first time. Loading happens at most once.
+ */
+final class LazyReferences {
+
+    private LazyReferences() {
+        // static factories only
+    }
+
+    /**
+     * Create a lazy collection that implement the interface of the field it
+     * will be injected into.
+     */
+    static Collection<Object> collection(Class<?> type, Supplier<? extends Collection<Object>> loader) {
+        final Supplier<? extends Collection<Object>> memoized = Suppliers.memoize(loader);
+        if (List.class.isAssignableFrom(type)) {
+            return new ForwardingList<Object>() {
+                @Override
+                protected List<Object> delegate() {
+                    return (List<Object>) memoized.get();
+                }
+            };
+        }
+        if (Set.class.isAssignableFrom(type)) {
+            return new ForwardingSet<Object>() {
+                @Override
+                protected Set<Object> delegate() {
+                    return (Set<Object>) memoized.get();
+                }
+            };
+        }
+        return new ForwardingCollection<Object>() {
+            @Override
+            protected Collection<Object> delegate() {
+                return memoized.get();
+            }
+        };
+    }
+
+    static Map<Object, Object> map(Supplier<Map<Object, Object>> loader) {
+        final Supplier<Map<Object, Object>> memoized = Suppliers.memoize(loader);
+        return new ForwardingMap<Object, Object>() {
+            @Override
+            protected Map<Object, Object> delegate() {
+                return memoized.get();
+            }
+        };
+    }
+}
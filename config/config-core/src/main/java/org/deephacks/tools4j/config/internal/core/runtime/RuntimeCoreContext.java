@@ -13,13 +13,23 @@
  */
 package org.deephacks.tools4j.config.internal.core.runtime;
 
+import static org.deephacks.tools4j.config.model.Criteria.equal;
+import static org.deephacks.tools4j.config.model.Criteria.field;
+
 import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.deephacks.tools4j.config.Config;
 import org.deephacks.tools4j.config.Id;
 import org.deephacks.tools4j.config.RuntimeContext;
+import org.deephacks.tools4j.config.internal.core.metrics.Metrics;
+import org.deephacks.tools4j.config.internal.core.metrics.Timer;
+import org.deephacks.tools4j.config.internal.core.runtime.BeanToObjectConverter.ReferenceResolver;
+import org.deephacks.tools4j.config.internal.core.snapshot.SnapshotBootstrap;
 import org.deephacks.tools4j.config.internal.core.xml.XmlBeanManager;
 import org.deephacks.tools4j.config.model.Bean;
 import org.deephacks.tools4j.config.model.Bean.BeanId;
@@ -35,25 +45,44 @@ import org.deephacks.tools4j.support.lookup.Lookup;
 import org.deephacks.tools4j.support.reflections.ClassIntrospector;
 import org.deephacks.tools4j.support.reflections.ClassIntrospector.FieldWrap;
 
-import com.google.common.collect.Lists;
-
 /**
  * RuntimeCoreContext is responsible for separating the admin, runtime and spi 
  * context so that no dependencies (compile nor runtime) exist between them.
+ * <p>
+ * If a snapshot file is configured with {@link SnapshotBootstrap#SNAPSHOT_FILE_PROP},
+ * schemas and beans are read from the snapshot until storage have caught up.
+ * <p>
+ * If {@link Metrics#ENABLED_PROP} is set, calls to the managers and conversion
+ * of beans into objects are measured.
  */
 public class RuntimeCoreContext extends RuntimeContext {
     private Conversion conversion = Conversion.get();
+    private BeanToObjectConverter objectConverter = new BeanToObjectConverter();
     private SchemaManager schemaManager;
     private BeanManager beanManager;
     private ValidationManager validationManager;
+    /** null if metrics are disabled */
+    private Timer conversionTimer;
 
     public RuntimeCoreContext() {
         conversion.register(new ClassToSchemaConverter());
         conversion.register(new FieldToSchemaPropertyConverter());
-        conversion.register(new BeanToObjectConverter());
+        conversion.register(objectConverter);
         schemaManager = Lookup.get().lookup(SchemaManager.class);
         beanManager = lookupBeanManager();
+        SnapshotBootstrap snapshot = SnapshotBootstrap.load(schemaManager, beanManager);
+        if (snapshot != null) {
+            schemaManager = snapshot.getSchemaManager();
+            beanManager = snapshot.getBeanManager();
+        }
         validationManager = Lookup.get().lookup(ValidationManager.class);
+        Metrics metrics = Metrics.lookup();
+        if (metrics != null) {
+            schemaManager = Metrics.meter(schemaManager, metrics);
+            beanManager = Metrics.meter(beanManager, metrics);
+            validationManager = Metrics.meter(validationManager, metrics);
+            conversionTimer = metrics.timer("Conversion.beanToObject");
+        }
     }
 
     @Override
@@ -88,10 +117,13 @@ public class RuntimeCoreContext extends RuntimeContext {
         Schema schema = conversion.convert(configurable, Schema.class);
         BeanId singleton = getSingletonId(schema, configurable);
         Map<String, Schema> schemas = schemaManager.getSchemas();
+        if (isLazy(configurable)) {
+            return getLazy(singleton, configurable, schemas);
+        }
         Bean bean = beanManager.getEager(singleton);
         bean.set(schema);
         setSingletonReferences(bean, schemas);
-        return conversion.convert(bean, configurable);
+        return convert(bean, configurable);
     }
 
     @Override
@@ -103,7 +135,7 @@ public class RuntimeCoreContext extends RuntimeContext {
         for (Bean bean : beans.values()) {
             setSingletonReferences(bean, schemas);
         }
-        return Lists.newArrayList(conversion.convert(beans.values(), clazz));
+        return convertAll(beans.values(), clazz);
     }
 
     @Override
@@ -111,23 +143,111 @@ public class RuntimeCoreContext extends RuntimeContext {
         Schema s = schemaManager.getSchema(clazz.getAnnotation(Config.class).name());
         Map<String, Schema> schemas = schemaManager.getSchemas();
         BeanId beanId = BeanId.create(id, s.getName());
+        if (isLazy(clazz)) {
+            return getLazy(beanId, clazz, schemas);
+        }
         Bean bean = beanManager.getEager(beanId);
         if (bean == null) {
             throw Events.CFG304_BEAN_DOESNT_EXIST(beanId);
         }
         setSchema(bean, schemas);
         setSingletonReferences(bean, schemas);
-        return conversion.convert(bean, clazz);
+        return convert(bean, clazz);
+    }
+
+    @Override
+    public <T> T getLazy(String id, Class<T> clazz) {
+        Schema s = schemaManager.getSchema(clazz.getAnnotation(Config.class).name());
+        Map<String, Schema> schemas = schemaManager.getSchemas();
+        return getLazy(BeanId.create(id, s.getName()), clazz, schemas);
+    }
+
+    @Override
+    public <T> List<T> getByIndex(String propertyName, Object value, Class<T> clazz) {
+        Schema s = schemaManager.getSchema(clazz.getAnnotation(Config.class).name());
+        if (!s.getIndexedNames().contains(propertyName)) {
+            throw Events.CFG113_PROP_NOT_INDEXED(propertyName);
+        }
+        Map<String, Schema> schemas = schemaManager.getSchemas();
+        String converted = conversion.convert(value, String.class);
+        Map<BeanId, Bean> beans = beanManager.query(s.getName(),
+                field(propertyName).is(equal(converted)));
+        setSchema(beans, schemas);
+        for (Bean bean : beans.values()) {
+            setSingletonReferences(bean, schemas);
+        }
+        return convertAll(beans.values(), clazz);
+    }
+
+    private <T> T getLazy(BeanId beanId, Class<T> clazz, final Map<String, Schema> schemas) {
+        Bean bean = beanManager.getLazy(beanId);
+        initLazy(bean, schemas);
+        return objectConverter.convertLazy(bean, clazz, new ReferenceResolver() {
+
+            @Override
+            public Bean resolve(BeanId id) {
+                Bean bean = beanManager.getLazy(id);
+                initLazy(bean, schemas);
+                return bean;
+            }
+        });
+    }
+
+    private <T> T convert(Bean bean, Class<T> clazz) {
+        if (conversionTimer == null) {
+            return conversion.convert(bean, clazz);
+        }
+        long start = System.nanoTime();
+        T object = conversion.convert(bean, clazz);
+        conversionTimer.record(start, 1);
+        return object;
+    }
+
+    private <T> List<T> convertAll(Collection<Bean> beans, Class<T> clazz) {
+        if (conversionTimer == null) {
+            return objectConverter.convertAll(beans, clazz);
+        }
+        long start = System.nanoTime();
+        List<T> objects = objectConverter.convertAll(beans, clazz);
+        conversionTimer.record(start, beans.size());
+        return objects;
+    }
+
+    /**
+     * References of lazy beans are resolved when they are converted and 
+     * so only the bean itself need to be initalized.
+     */
+    private void initLazy(Bean bean, Map<String, Schema> schemas) {
+        Schema s = schemas.get(bean.getId().getSchemaName());
+        if (s == null) {
+            throw new UnsupportedOperationException(
+                    "Schema must always be available for any beans. This is a programming error/bug.");
+        }
+        bean.set(s);
+        setSingletonReferences(bean, schemas);
+    }
+
+    private static boolean isLazy(Class<?> configurable) {
+        Config config = configurable.getAnnotation(Config.class);
+        return config != null && config.lazy();
     }
 
     private static void setSchema(Bean b, Map<String, Schema> schemas) {
-        List<String> names = b.getReferenceNames();
-        for (String name : names) {
-            for (BeanId id : b.getReference(name)) {
-                Bean ref = id.getBean();
-                if (ref != null) {
-                    setSchema(ref, schemas);
-                }
+        setSchema(b, schemas, Collections.newSetFromMap(new IdentityHashMap<Bean, Boolean>()));
+    }
+
+    /**
+     * Beans may be shared between references and references may be cyclic, so 
+     * remember which beans have been visited.
+     */
+    private static void setSchema(Bean b, Map<String, Schema> schemas, Set<Bean> visited) {
+        if (!visited.add(b)) {
+            return;
+        }
+        for (BeanId id : b.getReferences()) {
+            Bean ref = id.getBean();
+            if (ref != null) {
+                setSchema(ref, schemas, visited);
             }
         }
         Schema s = schemas.get(b.getId().getSchemaName());
@@ -139,8 +259,9 @@ public class RuntimeCoreContext extends RuntimeContext {
     }
 
     private static void setSchema(Map<BeanId, Bean> beans, Map<String, Schema> schemas) {
+        Set<Bean> visited = Collections.newSetFromMap(new IdentityHashMap<Bean, Boolean>());
         for (Bean b : beans.values()) {
-            setSchema(b, schemas);
+            setSchema(b, schemas, visited);
         }
     }
 
@@ -179,7 +300,8 @@ public class RuntimeCoreContext extends RuntimeContext {
         }
         String preferedBeanManager = SystemProperties.createDefault().get("config.beanmanager");
         if (preferedBeanManager == null || "".equals(preferedBeanManager)) {
-            return beanManagers.iterator().next();
+            // lookup order is not defined, xml is the default storage of config-core
+            preferedBeanManager = XmlBeanManager.class.getName();
         }
         for (BeanManager beanManager : beanManagers) {
             if (beanManager.getClass().getName().equals(preferedBeanManager)) {
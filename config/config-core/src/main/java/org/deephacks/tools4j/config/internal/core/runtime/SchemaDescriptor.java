@@ -0,0 +1,242 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.internal.core.runtime;
+
+import static org.deephacks.tools4j.config.ConfigSchemaAnnotationProcessor.CLASS;
+import static org.deephacks.tools4j.config.ConfigSchemaAnnotationProcessor.COLLECTION_TYPE;
+import static org.deephacks.tools4j.config.ConfigSchemaAnnotationProcessor.DECLARING_CLASS;
+import static org.deephacks.tools4j.config.ConfigSchemaAnnotationProcessor.DEFAULT;
+import static org.deephacks.tools4j.config.ConfigSchemaAnnotationProcessor.DESC;
+import static org.deephacks.tools4j.config.ConfigSchemaAnnotationProcessor.ENUM;
+import static org.deephacks.tools4j.config.ConfigSchemaAnnotationProcessor.FIELD;
+import static org.deephacks.tools4j.config.ConfigSchemaAnnotationProcessor.FIELD_DESC;
+import static org.deephacks.tools4j.config.ConfigSchemaAnnotationProcessor.FIELD_NAME;
+import static org.deephacks.tools4j.config.ConfigSchemaAnnotationProcessor.FINAL;
+import static org.deephacks.tools4j.config.ConfigSchemaAnnotationProcessor.ID_DESC;
+import static org.deephacks.tools4j.config.ConfigSchemaAnnotationProcessor.ID_NAME;
+import static org.deephacks.tools4j.config.ConfigSchemaAnnotationProcessor.ID_SINGLETON;
+import static org.deephacks.tools4j.config.ConfigSchemaAnnotationProcessor.INDEX;
+import static org.deephacks.tools4j.config.ConfigSchemaAnnotationProcessor.KIND;
+import static org.deephacks.tools4j.config.ConfigSchemaAnnotationProcessor.NAME;
+import static org.deephacks.tools4j.config.ConfigSchemaAnnotationProcessor.OUTPUT_DIR;
+import static org.deephacks.tools4j.config.ConfigSchemaAnnotationProcessor.PROPERTY;
+import static org.deephacks.tools4j.config.ConfigSchemaAnnotationProcessor.PROPERTY_LIST;
+import static org.deephacks.tools4j.config.ConfigSchemaAnnotationProcessor.REF;
+import static org.deephacks.tools4j.config.ConfigSchemaAnnotationProcessor.REF_LIST;
+import static org.deephacks.tools4j.config.ConfigSchemaAnnotationProcessor.REF_MAP;
+import static org.deephacks.tools4j.config.ConfigSchemaAnnotationProcessor.SINGLETON;
+import static org.deephacks.tools4j.config.ConfigSchemaAnnotationProcessor.TYPE;
+import static org.deephacks.tools4j.config.ConfigSchemaAnnotationProcessor.UNIQUE;
+import static org.deephacks.tools4j.config.model.Events.CFG104_UNSUPPORTED_PROPERTY;
+import static org.deephacks.tools4j.support.reflections.Reflections.getParameterizedType;
+import static org.deephacks.tools4j.support.reflections.Reflections.newInstance;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.deephacks.tools4j.config.ConfigSchemaAnnotationProcessor;
+import org.deephacks.tools4j.config.model.Schema;
+import org.deephacks.tools4j.config.model.Schema.AbstractSchemaProperty;
+import org.deephacks.tools4j.config.model.Schema.SchemaId;
+import org.deephacks.tools4j.config.model.Schema.SchemaProperty;
+import org.deephacks.tools4j.config.model.Schema.SchemaPropertyList;
+import org.deephacks.tools4j.config.model.Schema.SchemaPropertyRef;
+import org.deephacks.tools4j.config.model.Schema.SchemaPropertyRefList;
+import org.deephacks.tools4j.config.model.Schema.SchemaPropertyRefMap;
+import org.deephacks.tools4j.support.conversion.Conversion;
+import org.deephacks.tools4j.support.conversion.ConversionException;
+
+/**
+ * Schema of a configurable class as generated at build time by the
+ * {@link ConfigSchemaAnnotationProcessor}. Default values that are not constants
+ * are read from an instance of the class when the descriptor is loaded, so
+ * that schemas can be created from the descriptor any number of times without
+ * reflection.
+ */
+final class SchemaDescriptor {
+    private final Properties properties;
+    private final List<String> fieldNames = new ArrayList<String>();
+    /** default values of simple fields, null if none */
+    private final Map<String, String> defaultValues = new HashMap<String, String>();
+    /** default values of collections of simple fields */
+    private final Map<String, List<String>> defaultLists = new HashMap<String, List<String>>();
+
+    private SchemaDescriptor(Properties properties) {
+        this.properties = properties;
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(FIELD) && key.endsWith(KIND)) {
+                fieldNames.add(key.substring(FIELD.length(), key.length() - KIND.length()));
+            }
+        }
+    }
+
+    /**
+     * @return descriptor generated for the class or null if the class have none.
+     */
+    static SchemaDescriptor load(Class<?> clazz) {
+        ClassLoader cl = clazz.getClassLoader();
+        if (cl == null) {
+            return null;
+        }
+        InputStream in = cl.getResourceAsStream(OUTPUT_DIR + clazz.getName());
+        if (in == null) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try {
+            properties.load(in);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            try {
+                in.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+        if (!clazz.getName().equals(properties.getProperty(CLASS))) {
+            return null;
+        }
+        SchemaDescriptor descriptor = new SchemaDescriptor(properties);
+        descriptor.readDefaultValues(clazz);
+        return descriptor;
+    }
+
+    /**
+     * @return a new schema each time.
+     */
+    Schema toSchema() {
+        SchemaId id = SchemaId.create(get(ID_NAME), get(ID_DESC), getBoolean(ID_SINGLETON));
+        Schema schema = Schema.create(id, get(CLASS), get(NAME), get(DESC));
+        for (String fieldName : fieldNames) {
+            schema.add(toProperty(fieldName));
+        }
+        return schema;
+    }
+
+    private AbstractSchemaProperty toProperty(String fieldName) {
+        String prefix = FIELD + fieldName;
+        String kind = get(prefix + KIND);
+        String name = get(prefix + FIELD_NAME);
+        String desc = get(prefix + FIELD_DESC);
+        String type = get(prefix + TYPE);
+        boolean isFinal = getBoolean(prefix + FINAL);
+        if (PROPERTY.equals(kind)) {
+            return SchemaProperty.create(name, fieldName, type, desc, isFinal,
+                    getBoolean(prefix + ENUM), defaultValues.get(fieldName),
+                    getBoolean(prefix + INDEX), getBoolean(prefix + UNIQUE));
+        } else if (PROPERTY_LIST.equals(kind)) {
+            return SchemaPropertyList.create(name, fieldName, type, desc, isFinal,
+                    getBoolean(prefix + ENUM), new ArrayList<String>(defaultLists.get(fieldName)),
+                    get(prefix + COLLECTION_TYPE), getBoolean(prefix + INDEX),
+                    getBoolean(prefix + UNIQUE));
+        } else if (REF.equals(kind)) {
+            return SchemaPropertyRef.create(name, fieldName, type, desc, isFinal,
+                    getBoolean(prefix + SINGLETON));
+        } else if (REF_LIST.equals(kind)) {
+            return SchemaPropertyRefList.create(name, fieldName, type, desc, isFinal,
+                    get(prefix + COLLECTION_TYPE));
+        } else if (REF_MAP.equals(kind)) {
+            return SchemaPropertyRefMap.create(name, fieldName, type, desc, isFinal,
+                    get(prefix + COLLECTION_TYPE));
+        }
+        throw new IllegalArgumentException("Unknown kind [" + kind + "] of field [" + fieldName
+                + "] in schema descriptor of " + get(CLASS));
+    }
+
+    /**
+     * Read default values the same way as FieldToSchemaPropertyConverter does,
+     * from an instance of the class that declare the field.
+     */
+    private void readDefaultValues(Class<?> clazz) {
+        Conversion conversion = Conversion.get();
+        Map<Class<?>, Object> instances = new HashMap<Class<?>, Object>();
+        for (String fieldName : fieldNames) {
+            String prefix = FIELD + fieldName;
+            String kind = get(prefix + KIND);
+            if (PROPERTY.equals(kind) && properties.containsKey(prefix + DEFAULT)) {
+                defaultValues.put(fieldName, get(prefix + DEFAULT));
+                continue;
+            }
+            if (!PROPERTY.equals(kind) && !PROPERTY_LIST.equals(kind)) {
+                continue;
+            }
+            Field field = getField(clazz, get(prefix + DECLARING_CLASS), fieldName);
+            Object value = getValue(field, instances);
+            String name = get(prefix + FIELD_NAME);
+            try {
+                if (PROPERTY.equals(kind)) {
+                    defaultValues.put(fieldName, conversion.convert(value, String.class));
+                } else {
+                    @SuppressWarnings("unchecked")
+                    Collection<Object> values = (Collection<Object>) value;
+                    defaultLists.put(fieldName,
+                            new ArrayList<String>(conversion.convert(values, String.class)));
+                }
+            } catch (ConversionException e) {
+                if (PROPERTY.equals(kind)) {
+                    throw CFG104_UNSUPPORTED_PROPERTY(String.class, name, field.getType());
+                }
+                throw CFG104_UNSUPPORTED_PROPERTY(String.class, name,
+                        getParameterizedType(field).get(0));
+            }
+        }
+    }
+
+    private static Field getField(Class<?> clazz, String declaringClass, String fieldName) {
+        for (Class<?> current = clazz; current != null; current = current.getSuperclass()) {
+            if (current.getName().equals(declaringClass)) {
+                try {
+                    Field field = current.getDeclaredField(fieldName);
+                    field.setAccessible(true);
+                    return field;
+                } catch (NoSuchFieldException e) {
+                    break;
+                }
+            }
+        }
+        throw new IllegalArgumentException("Field [" + fieldName + "] of schema descriptor "
+                + "does not exist in " + declaringClass + ", recompile " + clazz.getName());
+    }
+
+    private static Object getValue(Field field, Map<Class<?>, Object> instances) {
+        Class<?> declaringClass = field.getDeclaringClass();
+        try {
+            Object instance = instances.get(declaringClass);
+            if (instance == null) {
+                instance = newInstance(declaringClass);
+                instances.put(declaringClass, instance);
+            }
+            return field.get(instance);
+        } catch (Exception e) {
+            throw new UnsupportedOperationException("Cannot access default values "
+                    + "from fields of class which cannot be constructed.", e);
+        }
+    }
+
+    private String get(String key) {
+        return properties.getProperty(key);
+    }
+
+    private boolean getBoolean(String key) {
+        return Boolean.parseBoolean(properties.getProperty(key));
+    }
+}
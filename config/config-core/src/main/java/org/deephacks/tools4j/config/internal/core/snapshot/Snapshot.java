@@ -0,0 +1,235 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.internal.core.snapshot;
+
+import static org.deephacks.tools4j.config.model.Events.CFG204_SNAPSHOT_CORRUPT;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.deephacks.tools4j.config.internal.core.log.LogFormat;
+import org.deephacks.tools4j.config.model.Bean;
+import org.deephacks.tools4j.config.model.Bean.BeanId;
+import org.deephacks.tools4j.config.model.Schema;
+import org.deephacks.tools4j.config.spi.BeanManager;
+import org.deephacks.tools4j.config.spi.SchemaManager;
+
+import com.google.common.io.Files;
+
+/**
+ * Snapshot is a compact, checksummed copy of all schemas and beans in a single
+ * file, that is read with one sequential read.
+ * <pre>
+ * snapshot := MAGIC:int VERSION:short flags:short created:long length:int crc:int payload
+ * payload  := length:int schemas count:int (length:int bean)*
+ * schemas  := serialized map of schemas
+ * bean     := as encoded by LogFormat
+ * </pre>
+ * Beans are kept encoded in memory, grouped by schema, and decoded into a new
+ * instance every time they are read.
+ */
+public final class Snapshot {
+    static final int MAGIC = 0x54344A53;
+    static final short VERSION = 1;
+    static final int HEADER_SIZE = 24;
+    private final long created;
+    private final Map<String, Schema> schemas;
+    private final Map<String, Map<BeanId, byte[]>> beans;
+
+    private Snapshot(long created, Map<String, Schema> schemas,
+            Map<String, Map<BeanId, byte[]>> beans) {
+        this.created = created;
+        this.schemas = schemas;
+        this.beans = beans;
+    }
+
+    /**
+     * Write a snapshot of all schemas and their beans. The file is replaced
+     * atomically, so a snapshot can be written while others read it.
+     *
+     * @return number of beans written.
+     */
+    public static long write(File file, SchemaManager schemaManager, BeanManager beanManager) {
+        Map<String, Schema> schemas = new HashMap<String, Schema>(schemaManager.getSchemas());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        long count = 0;
+        try {
+            DataOutputStream out = new DataOutputStream(bytes);
+            // header is written when the payload is complete
+            out.write(new byte[HEADER_SIZE]);
+            byte[] serialized = serialize(schemas);
+            out.writeInt(serialized.length);
+            out.write(serialized);
+            Map<BeanId, byte[]> encoded = new HashMap<BeanId, byte[]>();
+            for (String schemaName : schemas.keySet()) {
+                for (Bean bean : beanManager.list(schemaName).values()) {
+                    encoded.put(bean.getId(), LogFormat.encode(bean));
+                }
+            }
+            out.writeInt(encoded.size());
+            for (byte[] bean : encoded.values()) {
+                out.writeInt(bean.length);
+                out.write(bean);
+            }
+            count = encoded.size();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        byte[] snapshot = bytes.toByteArray();
+        int length = snapshot.length - HEADER_SIZE;
+        byte[] header = header(System.currentTimeMillis(), length,
+                crc(snapshot, HEADER_SIZE, length));
+        System.arraycopy(header, 0, snapshot, 0, HEADER_SIZE);
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            Files.write(snapshot, tmp);
+            java.nio.file.Files.move(tmp.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return count;
+    }
+
+    /**
+     * Read a snapshot.
+     *
+     * @throws org.deephacks.tools4j.support.event.AbortRuntimeException with
+     * {@link org.deephacks.tools4j.config.model.Events#CFG204} if the file is
+     * corrupt.
+     */
+    public static Snapshot read(File file) {
+        byte[] snapshot;
+        try {
+            snapshot = Files.toByteArray(file);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(snapshot));
+            if (snapshot.length < HEADER_SIZE || in.readInt() != MAGIC
+                    || in.readShort() != VERSION) {
+                throw CFG204_SNAPSHOT_CORRUPT(file);
+            }
+            // flags
+            in.readShort();
+            long created = in.readLong();
+            int length = in.readInt();
+            int crc = in.readInt();
+            if (length != snapshot.length - HEADER_SIZE
+                    || crc != crc(snapshot, HEADER_SIZE, length)) {
+                throw CFG204_SNAPSHOT_CORRUPT(file);
+            }
+            byte[] serialized = new byte[in.readInt()];
+            in.readFully(serialized);
+            Map<String, Schema> schemas = deserialize(serialized);
+            Map<String, Map<BeanId, byte[]>> beans = new HashMap<String, Map<BeanId, byte[]>>();
+            for (String schemaName : schemas.keySet()) {
+                beans.put(schemaName, new HashMap<BeanId, byte[]>());
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                byte[] bean = new byte[in.readInt()];
+                in.readFully(bean);
+                // beans start with their id
+                BeanId id = LogFormat.decodeId(bean);
+                Map<BeanId, byte[]> schemaBeans = beans.get(id.getSchemaName());
+                if (schemaBeans == null) {
+                    throw CFG204_SNAPSHOT_CORRUPT(file);
+                }
+                schemaBeans.put(id, bean);
+            }
+            return new Snapshot(created, schemas, beans);
+        } catch (IOException e) {
+            throw CFG204_SNAPSHOT_CORRUPT(file);
+        }
+    }
+
+    /**
+     * @return time in milliseconds when the snapshot was written.
+     */
+    public long getCreated() {
+        return created;
+    }
+
+    public Map<String, Schema> getSchemas() {
+        return Collections.unmodifiableMap(schemas);
+    }
+
+    /**
+     * @return encoded beans of each schema.
+     */
+    Map<String, Map<BeanId, byte[]>> getBeans() {
+        return beans;
+    }
+
+    private static byte[] header(long created, int length, int crc) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(HEADER_SIZE);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeShort(0);
+            out.writeLong(created);
+            out.writeInt(length);
+            out.writeInt(crc);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static int crc(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+
+    private static byte[] serialize(Map<String, Schema> schemas) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(schemas);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Schema> deserialize(byte[] serialized) throws IOException {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized));
+        try {
+            return (Map<String, Schema>) in.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Snapshot" + Arrays.asList(created, schemas.keySet());
+    }
+}
@@ -0,0 +1,235 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.internal.core.snapshot;
+
+import static org.deephacks.tools4j.config.model.Events.CFG301_MISSING_RUNTIME_REF;
+import static org.deephacks.tools4j.config.model.Events.CFG304_BEAN_DOESNT_EXIST;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.deephacks.tools4j.config.internal.core.log.LogFormat;
+import org.deephacks.tools4j.config.model.Bean;
+import org.deephacks.tools4j.config.model.Bean.BeanId;
+import org.deephacks.tools4j.config.model.BeanChange;
+import org.deephacks.tools4j.config.model.Criteria;
+import org.deephacks.tools4j.config.spi.BeanManager;
+import org.deephacks.tools4j.support.event.AbortRuntimeException;
+
+/**
+ * SnapshotBeanManager serve reads of the schemas in a snapshot from memory,
+ * until the snapshot is released. Everything else is delegated to storage.
+ * <p>
+ * Any write release the snapshot, so that beans are never read from a snapshot
+ * that is older than the writes of this manager.
+ */
+final class SnapshotBeanManager extends BeanManager {
+    private static final long serialVersionUID = 2830372424404937545L;
+    private final SnapshotBootstrap bootstrap;
+    private final BeanManager delegate;
+
+    SnapshotBeanManager(SnapshotBootstrap bootstrap, BeanManager delegate) {
+        this.bootstrap = bootstrap;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void create(Bean bean) throws AbortRuntimeException {
+        bootstrap.release();
+        delegate.create(bean);
+    }
+
+    @Override
+    public void create(Collection<Bean> beans) throws AbortRuntimeException {
+        bootstrap.release();
+        delegate.create(beans);
+    }
+
+    @Override
+    public void createSingleton(BeanId singleton) {
+        Map<BeanId, byte[]> beans = beans(singleton.getSchemaName());
+        if (beans != null && beans.containsKey(singleton)) {
+            // singletons are created at every registration, avoid the write
+            return;
+        }
+        bootstrap.release();
+        delegate.createSingleton(singleton);
+    }
+
+    @Override
+    public void set(Bean bean) {
+        bootstrap.release();
+        delegate.set(bean);
+    }
+
+    @Override
+    public void set(Collection<Bean> bean) throws AbortRuntimeException {
+        bootstrap.release();
+        delegate.set(bean);
+    }
+
+    @Override
+    public void merge(Bean bean) throws AbortRuntimeException {
+        bootstrap.release();
+        delegate.merge(bean);
+    }
+
+    @Override
+    public void merge(Collection<Bean> bean) throws AbortRuntimeException {
+        bootstrap.release();
+        delegate.merge(bean);
+    }
+
+    @Override
+    public Bean getEager(BeanId id) throws AbortRuntimeException {
+        Snapshot snapshot = bootstrap.getSnapshot();
+        if (snapshot == null || !snapshot.getBeans().containsKey(id.getSchemaName())) {
+            return delegate.getEager(id);
+        }
+        Bean bean = getEagerly(id, snapshot, new HashMap<BeanId, Bean>());
+        if (bean == null) {
+            throw CFG304_BEAN_DOESNT_EXIST(id);
+        }
+        return bean;
+    }
+
+    /**
+     * Decode and initalize references of a bean recursively. Beans that have
+     * already been decoded are shared between references.
+     */
+    private Bean getEagerly(BeanId id, Snapshot snapshot, Map<BeanId, Bean> assembled) {
+        Bean result = assembled.get(id);
+        if (result != null) {
+            return result;
+        }
+        Map<BeanId, byte[]> beans = snapshot.getBeans().get(id.getSchemaName());
+        if (beans == null || !beans.containsKey(id)) {
+            return null;
+        }
+        result = LogFormat.decodeBean(beans.get(id));
+        assembled.put(result.getId(), result);
+        for (BeanId refId : result.getReferences()) {
+            Bean b = getEagerly(refId, snapshot, assembled);
+            if (b == null) {
+                throw CFG301_MISSING_RUNTIME_REF(result.getId(), refId);
+            }
+            refId.setBean(b);
+        }
+        return result;
+    }
+
+    @Override
+    public Bean getLazy(BeanId id) throws AbortRuntimeException {
+        Map<BeanId, byte[]> beans = beans(id.getSchemaName());
+        if (beans == null) {
+            return delegate.getLazy(id);
+        }
+        byte[] bean = beans.get(id);
+        if (bean == null) {
+            throw CFG304_BEAN_DOESNT_EXIST(id);
+        }
+        return LogFormat.decodeBean(bean);
+    }
+
+    @Override
+    public Map<BeanId, Bean> getBeanToValidate(Bean bean) throws AbortRuntimeException {
+        return delegate.getBeanToValidate(bean);
+    }
+
+    @Override
+    public Bean getSingleton(String schemaName) throws IllegalArgumentException {
+        Snapshot snapshot = bootstrap.getSnapshot();
+        Map<BeanId, byte[]> beans = snapshot == null ? null : snapshot.getBeans().get(schemaName);
+        if (beans == null) {
+            return delegate.getSingleton(schemaName);
+        }
+        for (BeanId id : beans.keySet()) {
+            if (!id.isSingleton()) {
+                throw new IllegalArgumentException("Schema [" + schemaName
+                        + "] is not a singleton.");
+            }
+            return getEagerly(id, snapshot, new HashMap<BeanId, Bean>());
+        }
+        return null;
+    }
+
+    /**
+     * Beans of a snapshot are filtered in memory, otherwise the query is delegated
+     * so that indexes of the storage are used.
+     */
+    @Override
+    public Map<BeanId, Bean> query(String schemaName, Criteria criteria)
+            throws AbortRuntimeException {
+        if (beans(schemaName) == null) {
+            return delegate.query(schemaName, criteria);
+        }
+        return super.query(schemaName, criteria);
+    }
+
+    @Override
+    public Map<BeanId, Bean> list(String schemaName) throws AbortRuntimeException {
+        Snapshot snapshot = bootstrap.getSnapshot();
+        Map<BeanId, byte[]> beans = snapshot == null ? null : snapshot.getBeans().get(schemaName);
+        if (beans == null) {
+            return delegate.list(schemaName);
+        }
+        Map<BeanId, Bean> assembled = new HashMap<BeanId, Bean>();
+        Map<BeanId, Bean> result = new HashMap<BeanId, Bean>();
+        for (BeanId id : beans.keySet()) {
+            Bean bean = getEagerly(id, snapshot, assembled);
+            result.put(bean.getId(), bean);
+        }
+        return result;
+    }
+
+    @Override
+    public void delete(BeanId id) throws AbortRuntimeException {
+        bootstrap.release();
+        delegate.delete(id);
+    }
+
+    @Override
+    public void delete(Bean bean) throws AbortRuntimeException {
+        bootstrap.release();
+        delegate.delete(bean);
+    }
+
+    @Override
+    public void delete(String schemaName, Collection<String> instanceIds)
+            throws AbortRuntimeException {
+        bootstrap.release();
+        delegate.delete(schemaName, instanceIds);
+    }
+
+    /**
+     * Changes are never served from the snapshot.
+     */
+    @Override
+    public List<BeanChange> getChangesSince(long sequence, int max)
+            throws AbortRuntimeException {
+        return delegate.getChangesSince(sequence, max);
+    }
+
+    @Override
+    public boolean isChangeLogSupported() {
+        return delegate.isChangeLogSupported();
+    }
+
+    private Map<BeanId, byte[]> beans(String schemaName) {
+        Snapshot snapshot = bootstrap.getSnapshot();
+        return snapshot == null ? null : snapshot.getBeans().get(schemaName);
+    }
+}
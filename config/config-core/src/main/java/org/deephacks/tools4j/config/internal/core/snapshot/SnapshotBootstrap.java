@@ -0,0 +1,162 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.internal.core.snapshot;
+
+import java.io.File;
+import java.util.Collection;
+
+import org.deephacks.tools4j.config.model.Bean.BeanId;
+import org.deephacks.tools4j.config.spi.BeanManager;
+import org.deephacks.tools4j.config.spi.InvalidationBroadcaster;
+import org.deephacks.tools4j.config.spi.SchemaManager;
+import org.deephacks.tools4j.support.SystemProperties;
+import org.deephacks.tools4j.support.event.AbortRuntimeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * SnapshotBootstrap load the snapshot file given by {@value #SNAPSHOT_FILE_PROP},
+ * if any, and serve schemas and beans from it while storage catch up in the
+ * background.
+ * <p>
+ * Catching up read every schema of the snapshot from storage once, which warm
+ * up storage and its caches, and then release the snapshot so that all reads
+ * go to storage from then on. Until then, reads see configuration as it was
+ * when the snapshot was written, except when the snapshot is released early by
+ * a write, or by a write of another node that is broadcast through the
+ * {@link InvalidationBroadcaster}.
+ */
+public final class SnapshotBootstrap {
+    public static final String SNAPSHOT_FILE_PROP = "config.snapshot.file";
+    private static final Logger log = LoggerFactory.getLogger(SnapshotBootstrap.class);
+    private volatile Snapshot snapshot;
+    private final SnapshotSchemaManager schemaManager;
+    private final SnapshotBeanManager beanManager;
+    private final BeanManager storage;
+    private InvalidationBroadcaster broadcaster;
+    private final InvalidationBroadcaster.Listener listener = new InvalidationBroadcaster.Listener() {
+
+        @Override
+        public void invalidate(Collection<BeanId> ids) {
+            release();
+        }
+
+        @Override
+        public void invalidateAll() {
+            release();
+        }
+    };
+
+    SnapshotBootstrap(Snapshot snapshot, SchemaManager schemaManager, BeanManager beanManager) {
+        this.snapshot = snapshot;
+        this.storage = beanManager;
+        this.schemaManager = new SnapshotSchemaManager(this, schemaManager, snapshot.getSchemas());
+        this.beanManager = new SnapshotBeanManager(this, beanManager);
+    }
+
+    /**
+     * Load the snapshot file and start catching up with storage.
+     *
+     * @return null if no snapshot is configured, or if it cannot be used.
+     */
+    public static SnapshotBootstrap load(SchemaManager schemaManager, BeanManager beanManager) {
+        String fileName = SystemProperties.createDefault().get(SNAPSHOT_FILE_PROP);
+        if (fileName == null || "".equals(fileName)) {
+            return null;
+        }
+        File file = new File(fileName);
+        if (!file.exists()) {
+            log.info("Snapshot file {} does not exist, reading from storage.", file);
+            return null;
+        }
+        Snapshot snapshot;
+        try {
+            snapshot = Snapshot.read(file);
+        } catch (AbortRuntimeException e) {
+            log.warn(e.getEvent().getMessage() + ", reading from storage.");
+            return null;
+        }
+        final SnapshotBootstrap bootstrap = new SnapshotBootstrap(snapshot, schemaManager,
+                beanManager);
+        bootstrap.listen(InvalidationBroadcaster.lookup());
+        Thread catchUp = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                bootstrap.catchUp();
+            }
+        }, "config-snapshot-catchup");
+        catchUp.setDaemon(true);
+        catchUp.start();
+        return bootstrap;
+    }
+
+    public SchemaManager getSchemaManager() {
+        return schemaManager;
+    }
+
+    public BeanManager getBeanManager() {
+        return beanManager;
+    }
+
+    /**
+     * Read every schema of the snapshot from storage and release the snapshot.
+     */
+    void catchUp() {
+        Snapshot current = snapshot;
+        try {
+            if (current != null) {
+                for (String schemaName : current.getBeans().keySet()) {
+                    if (snapshot == null) {
+                        return;
+                    }
+                    storage.list(schemaName);
+                }
+            }
+        } catch (RuntimeException e) {
+            log.warn("Catching up with storage failed.", e);
+        } finally {
+            release();
+        }
+    }
+
+    /**
+     * Release the snapshot when another node change any bean.
+     */
+    synchronized void listen(InvalidationBroadcaster broadcaster) {
+        if (broadcaster != null && snapshot != null) {
+            this.broadcaster = broadcaster;
+            broadcaster.addListener(listener);
+        }
+    }
+
+    /**
+     * @return the snapshot, or null if it have been released.
+     */
+    Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Stop serving from the snapshot and let it be garbage collected.
+     */
+    void release() {
+        snapshot = null;
+        synchronized (this) {
+            if (broadcaster != null) {
+                broadcaster.removeListener(listener);
+                broadcaster = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.internal.core.snapshot;
+
+import static org.deephacks.tools4j.config.model.Events.CFG101_SCHEMA_NOT_EXIST;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.deephacks.tools4j.config.model.Schema;
+import org.deephacks.tools4j.config.spi.SchemaManager;
+
+/**
+ * SnapshotSchemaManager serve schemas of a snapshot from memory, until the
+ * snapshot is released. Schemas are always written through to storage.
+ */
+final class SnapshotSchemaManager extends SchemaManager {
+    private static final long serialVersionUID = -5412230489357361840L;
+    private final SnapshotBootstrap bootstrap;
+    private final SchemaManager delegate;
+    private final Map<String, Schema> schemas;
+
+    SnapshotSchemaManager(SnapshotBootstrap bootstrap, SchemaManager delegate,
+            Map<String, Schema> schemas) {
+        this.bootstrap = bootstrap;
+        this.delegate = delegate;
+        this.schemas = new ConcurrentHashMap<String, Schema>(schemas);
+    }
+
+    @Override
+    public Map<String, Schema> getSchemas() {
+        if (bootstrap.getSnapshot() == null) {
+            return delegate.getSchemas();
+        }
+        return new HashMap<String, Schema>(schemas);
+    }
+
+    @Override
+    public Schema getSchema(String schemaName) {
+        if (bootstrap.getSnapshot() == null) {
+            return delegate.getSchema(schemaName);
+        }
+        Schema schema = schemas.get(schemaName);
+        if (schema == null) {
+            throw CFG101_SCHEMA_NOT_EXIST(schemaName);
+        }
+        return schema;
+    }
+
+    @Override
+    public void regsiterSchema(Schema... schema) {
+        delegate.regsiterSchema(schema);
+        for (Schema s : schema) {
+            schemas.put(s.getName(), s);
+        }
+    }
+
+    @Override
+    public void removeSchema(String schemaName) {
+        delegate.removeSchema(schemaName);
+        schemas.remove(schemaName);
+    }
+}
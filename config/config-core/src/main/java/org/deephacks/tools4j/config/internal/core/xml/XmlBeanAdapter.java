@@ -45,22 +45,7 @@ public class XmlBeanAdapter {
         public List<Bean> getBeans() {
             ArrayList<Bean> result = new ArrayList<Bean>();
             for (XmlBean b : beans) {
-                Bean bean = null;
-                if (b.singleton) {
-                    bean = Bean.create(BeanId.createSingleton(b.id, b.name));
-                } else {
-                    bean = Bean.create(BeanId.create(b.id, b.name));
-                }
-
-                for (XmlBeanPropertyList p : b.properties) {
-                    if (p.values != null)
-                        bean.addProperty(p.name, p.values);
-                }
-                for (XmlBeanPropertyRefList p : b.references) {
-                    if (p.refs != null)
-                        bean.addReference(p.name, p.getReferences());
-                }
-                result.add(bean);
+                result.add(b.toBean());
             }
             return result;
         }
@@ -73,6 +58,8 @@ public class XmlBeanAdapter {
             public String name;
             @XmlAttribute
             public boolean singleton;
+            @XmlAttribute
+            public long version;
             @XmlElement(name = "prop")
             public List<XmlBeanPropertyList> properties = new ArrayList<XmlBeanPropertyList>();
             @XmlElement(name = "ref")
@@ -86,6 +73,7 @@ public class XmlBeanAdapter {
                 this.id = bean.getId().getInstanceId();
                 this.name = bean.getId().getSchemaName();
                 this.singleton = bean.getId().isSingleton();
+                this.version = bean.getVersion();
                 for (String name : bean.getPropertyNames()) {
                     List<String> values = bean.getValues(name);
                     if (values == null || values.size() == 0) {
@@ -104,6 +92,26 @@ public class XmlBeanAdapter {
                 }
 
             }
+
+            public Bean toBean() {
+                Bean bean = null;
+                if (singleton) {
+                    bean = Bean.create(BeanId.createSingleton(id, name));
+                } else {
+                    bean = Bean.create(BeanId.create(id, name));
+                }
+                bean.setVersion(version);
+
+                for (XmlBeanPropertyList p : properties) {
+                    if (p.values != null)
+                        bean.addProperty(p.name, p.values);
+                }
+                for (XmlBeanPropertyRefList p : references) {
+                    if (p.refs != null)
+                        bean.addReference(p.name, p.getReferences());
+                }
+                return bean;
+            }
         }
 
         @XmlAccessorType(XmlAccessType.FIELD)
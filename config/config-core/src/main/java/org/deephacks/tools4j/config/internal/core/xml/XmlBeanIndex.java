@@ -0,0 +1,252 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.internal.core.xml;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.deephacks.tools4j.config.model.Bean;
+import org.deephacks.tools4j.config.model.Bean.BeanId;
+import org.deephacks.tools4j.config.model.Criteria;
+import org.deephacks.tools4j.config.model.Criteria.Restriction;
+
+import com.google.common.base.Function;
+import com.google.common.collect.Maps;
+
+/**
+ * XmlBeanIndex keep the beans of an xml storage file in memory, together with
+ * the values of every property sorted per schema, so that queries can find
+ * matching beans without reading the file.
+ * <p>
+ * An index belong to a certain version of the file, identified by its file key,
+ * size and modification time. Writes replace the file, so an index that no longer
+ * match the file is rebuilt by the next query. Indexed beans are never handed out,
+ * matching beans are copied.
+ */
+final class XmlBeanIndex {
+    private static final ConcurrentMap<File, XmlBeanIndex> INDEXES = new ConcurrentHashMap<File, XmlBeanIndex>();
+    private final Object stamp;
+    private final Map<BeanId, Bean> beans;
+    /** schema name, property name, value and the beans that have that value */
+    private final Map<String, Map<String, TreeMap<String, Set<BeanId>>>> values = new HashMap<String, Map<String, TreeMap<String, Set<BeanId>>>>();
+
+    private XmlBeanIndex(Object stamp, Map<BeanId, Bean> beans) {
+        this.stamp = stamp;
+        this.beans = beans;
+        for (Bean bean : beans.values()) {
+            String schemaName = bean.getId().getSchemaName();
+            Map<String, TreeMap<String, Set<BeanId>>> properties = values.get(schemaName);
+            if (properties == null) {
+                properties = new HashMap<String, TreeMap<String, Set<BeanId>>>();
+                values.put(schemaName, properties);
+            }
+            for (String name : bean.getPropertyNames()) {
+                List<String> propertyValues = bean.getValues(name);
+                if (propertyValues == null) {
+                    continue;
+                }
+                TreeMap<String, Set<BeanId>> sorted = properties.get(name);
+                if (sorted == null) {
+                    sorted = new TreeMap<String, Set<BeanId>>();
+                    properties.put(name, sorted);
+                }
+                for (String value : propertyValues) {
+                    if (value == null) {
+                        continue;
+                    }
+                    Set<BeanId> ids = sorted.get(value);
+                    if (ids == null) {
+                        ids = new HashSet<BeanId>();
+                        sorted.put(value, ids);
+                    }
+                    ids.add(bean.getId());
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the index of a file if it is still up to date. The caller must hold
+     * (at least) the read lock of the file.
+     *
+     * @return the index or null if the file have changed since it was indexed.
+     */
+    static XmlBeanIndex get(File file) {
+        XmlBeanIndex index = INDEXES.get(file.getAbsoluteFile());
+        if (index == null || !index.stamp.equals(stamp(file))) {
+            return null;
+        }
+        return index;
+    }
+
+    /**
+     * Index the beans of a file. The caller must hold (at least) the read lock
+     * of the file, and the beans must have been read under that lock and must
+     * not be changed afterwards.
+     */
+    static XmlBeanIndex create(File file, Map<BeanId, Bean> beans) {
+        XmlBeanIndex index = new XmlBeanIndex(stamp(file), beans);
+        INDEXES.put(file.getAbsoluteFile(), index);
+        return index;
+    }
+
+    /**
+     * Find beans that match a criteria. A criteria without restrictions match all
+     * beans of the schema.
+     */
+    Set<BeanId> query(String schemaName, Criteria criteria) {
+        Map<String, TreeMap<String, Set<BeanId>>> properties = values.get(schemaName);
+        Set<BeanId> result = null;
+        for (Map.Entry<String, List<Restriction>> entry : criteria.getRestrictions().entrySet()) {
+            TreeMap<String, Set<BeanId>> sorted = properties == null ? null : properties
+                    .get(entry.getKey());
+            if (sorted == null) {
+                return new HashSet<BeanId>();
+            }
+            for (Restriction restriction : entry.getValue()) {
+                Set<BeanId> matches = match(sorted, restriction);
+                if (result == null) {
+                    result = matches;
+                } else {
+                    result.retainAll(matches);
+                }
+                if (result.isEmpty()) {
+                    return result;
+                }
+            }
+        }
+        if (result == null) {
+            result = new HashSet<BeanId>();
+            for (BeanId id : beans.keySet()) {
+                if (id.getSchemaName().equals(schemaName)) {
+                    result.add(id);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * A view of the indexed beans where each bean is copied when fetched.
+     */
+    Map<BeanId, Bean> copies() {
+        return Maps.transformValues(beans, new Function<Bean, Bean>() {
+            @Override
+            public Bean apply(Bean bean) {
+                return copy(bean);
+            }
+        });
+    }
+
+    private static Set<BeanId> match(TreeMap<String, Set<BeanId>> sorted, Restriction restriction) {
+        Set<BeanId> matches = new HashSet<BeanId>();
+        switch (restriction.getType()) {
+        case EQUAL:
+        case IN:
+            for (String value : restriction.getValues()) {
+                Set<BeanId> ids = sorted.get(value);
+                if (ids != null) {
+                    matches.addAll(ids);
+                }
+            }
+            return matches;
+        case PREFIX:
+            String prefix = restriction.getValues().get(0);
+            for (Map.Entry<String, Set<BeanId>> entry : sorted.tailMap(prefix, true).entrySet()) {
+                if (!entry.getKey().startsWith(prefix)) {
+                    break;
+                }
+                matches.addAll(entry.getValue());
+            }
+            return matches;
+        case RANGE:
+            if (restriction.isNumeric()) {
+                // values are sorted as strings, not as numbers
+                for (Map.Entry<String, Set<BeanId>> entry : sorted.entrySet()) {
+                    if (restriction.apply(entry.getKey())) {
+                        matches.addAll(entry.getValue());
+                    }
+                }
+                return matches;
+            }
+            NavigableMap<String, Set<BeanId>> range = sorted;
+            if (restriction.getLower() != null) {
+                range = range.tailMap(restriction.getLower(), true);
+            }
+            if (restriction.getUpper() != null) {
+                range = range.headMap(restriction.getUpper(), true);
+            }
+            for (Set<BeanId> ids : range.values()) {
+                matches.addAll(ids);
+            }
+            return matches;
+        default:
+            throw new IllegalArgumentException("Unknown type " + restriction.getType());
+        }
+    }
+
+    private static Bean copy(Bean bean) {
+        Bean copy = Bean.create(copy(bean.getId()));
+        copy.setVersion(bean.getVersion());
+        for (String name : bean.getPropertyNames()) {
+            List<String> values = bean.getValues(name);
+            copy.setProperty(name, values == null ? null : new ArrayList<String>(values));
+        }
+        for (String name : bean.getReferenceNames()) {
+            List<BeanId> refs = bean.getReference(name);
+            if (refs == null) {
+                copy.setReferences(name, null);
+                continue;
+            }
+            List<BeanId> refCopies = new ArrayList<BeanId>();
+            for (BeanId ref : refs) {
+                refCopies.add(copy(ref));
+            }
+            copy.setReferences(name, refCopies);
+        }
+        return copy;
+    }
+
+    private static BeanId copy(BeanId id) {
+        if (id.isSingleton()) {
+            return BeanId.createSingleton(id.getInstanceId(), id.getSchemaName());
+        }
+        return BeanId.create(id.getInstanceId(), id.getSchemaName());
+    }
+
+    private static Object stamp(File file) {
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file.toPath(),
+                    BasicFileAttributes.class);
+            return Arrays.asList(attributes.fileKey(), attributes.size(),
+                    attributes.lastModifiedTime());
+        } catch (IOException e) {
+            // the file does not exist (yet)
+            return Arrays.asList();
+        }
+    }
+}
@@ -20,13 +20,13 @@ import static org.deephacks.tools4j.config.model.Events.CFG303_BEAN_ALREADY_EXIS
 import static org.deephacks.tools4j.config.model.Events.CFG304_BEAN_DOESNT_EXIST;
 import static org.deephacks.tools4j.config.model.Events.CFG307_SINGELTON_REMOVAL;
 import static org.deephacks.tools4j.config.model.Events.CFG308_SINGELTON_CREATION;
+import static org.deephacks.tools4j.config.model.Events.CFG310_CONCURRENT_MODIFICATION;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -43,17 +43,25 @@ import javax.xml.bind.Unmarshaller;
 import org.deephacks.tools4j.config.internal.core.xml.XmlBeanAdapter.XmlBeans;
 import org.deephacks.tools4j.config.model.Bean;
 import org.deephacks.tools4j.config.model.Bean.BeanId;
+import org.deephacks.tools4j.config.model.Criteria;
 import org.deephacks.tools4j.config.model.Events;
 import org.deephacks.tools4j.config.spi.BeanManager;
 import org.deephacks.tools4j.support.ServiceProvider;
 import org.deephacks.tools4j.support.SystemProperties;
 import org.deephacks.tools4j.support.event.AbortRuntimeException;
 
-import com.google.common.io.Files;
+import com.google.common.io.Closeables;
 
 /**
  * ConfigBeanManagerDefault is responsible for storing config bean instances in 
  * XML format.
+ * <p>
+ * Beans are read under a shared lock and written under an exclusive lock, which
+ * also coordinate processes that share the storage directory, see {@link XmlFileLock}.
+ * All beans are stored in one file, so writes of different schemas are exclusive
+ * to each other as well. 
+ * <p>
+ * Queries are answered from an in-memory index of the file, see {@link XmlBeanIndex}.
  */
 @ServiceProvider(service = BeanManager.class)
 public class XmlBeanManager extends BeanManager {
@@ -61,55 +69,63 @@ public class XmlBeanManager extends BeanManager {
     public static final String XML_BEAN_FILE_NAME = "bean.xml";
     private static final SystemProperties PROP = SystemProperties.createDefault();
     private static final long serialVersionUID = -4292817727054404604L;
+    private static volatile JAXBContext context;
 
     @Override
     public Bean getEager(BeanId id) {
-        List<Bean> all = readValues();
-        Bean bean = getEagerly(id, all);
-        if (bean == null) {
-            throw CFG304_BEAN_DOESNT_EXIST(id);
+        XmlFileLock lock = lock();
+        lock.lockRead();
+        try {
+            Map<BeanId, Bean> all = readValuesAsMap();
+            Bean bean = getEagerly(id, all, new HashMap<BeanId, Bean>());
+            if (bean == null) {
+                throw CFG304_BEAN_DOESNT_EXIST(id);
+            }
+            return bean;
+        } finally {
+            lock.unlockRead();
         }
-        return bean;
     }
 
-    private Bean getEagerly(BeanId id, List<Bean> all) {
-        Bean result = null;
-        for (Bean b : all) {
-            if (b.getId().equals(id)) {
-                result = b;
-                break;
-            }
+    /**
+     * Initalize references of a bean recursively. Beans that have already been 
+     * initalized are kept in the assembled map and shared between references, 
+     * so that each bean is only visited once and cyclic references terminate.
+     */
+    private Bean getEagerly(BeanId id, Map<BeanId, Bean> all, Map<BeanId, Bean> assembled) {
+        Bean result = assembled.get(id);
+        if (result != null) {
+            return result;
         }
+        result = all.get(id);
         if (result == null) {
             return null;
         }
+        assembled.put(result.getId(), result);
         // bean found, initalize references.
-        for (String name : result.getReferenceNames()) {
-            for (BeanId refId : result.getReference(name)) {
-                Bean b = getBean(refId, all);
-                if (b == null) {
-                    throw CFG301_MISSING_RUNTIME_REF(result.getId(), refId);
-                }
-                refId.setBean(b);
+        for (BeanId refId : result.getReferences()) {
+            Bean b = getEagerly(refId, all, assembled);
+            if (b == null) {
+                throw CFG301_MISSING_RUNTIME_REF(result.getId(), refId);
             }
+            refId.setBean(b);
         }
         return result;
     }
 
     @Override
     public Bean getLazy(BeanId id) throws AbortRuntimeException {
-        List<Bean> all = readValues();
-        Bean result = null;
-        for (Bean b : all) {
-            if (b.getId().equals(id)) {
-                result = b;
-                break;
+        XmlFileLock lock = lock();
+        lock.lockRead();
+        try {
+            Bean result = readValuesAsMap().get(id);
+            if (result == null) {
+                throw CFG304_BEAN_DOESNT_EXIST(id);
             }
+            return result;
+        } finally {
+            lock.unlockRead();
         }
-        if (result == null) {
-            throw CFG304_BEAN_DOESNT_EXIST(id);
-        }
-        return result;
     }
 
     @Override
@@ -119,150 +135,237 @@ public class XmlBeanManager extends BeanManager {
 
     @Override
     public Bean getSingleton(String schemaName) throws IllegalArgumentException {
-        List<Bean> all = readValues();
-        for (Bean bean : all) {
-            if (bean.getId().getSchemaName().equals(schemaName)) {
-                if (!bean.getId().isSingleton()) {
-                    throw new IllegalArgumentException("Schema [" + schemaName
-                            + "] is not a singleton.");
-                }
-                BeanId singletonId = bean.getId();
-                Bean singleton = getEagerly(singletonId, all);
-                if (singleton == null) {
-                    throw CFG304_BEAN_DOESNT_EXIST(singletonId);
+        XmlFileLock lock = lock();
+        lock.lockRead();
+        try {
+            Map<BeanId, Bean> all = readValuesAsMap();
+            for (Bean bean : all.values()) {
+                if (bean.getId().getSchemaName().equals(schemaName)) {
+                    if (!bean.getId().isSingleton()) {
+                        throw new IllegalArgumentException("Schema [" + schemaName
+                                + "] is not a singleton.");
+                    }
+                    BeanId singletonId = bean.getId();
+                    Bean singleton = getEagerly(singletonId, all, new HashMap<BeanId, Bean>());
+                    if (singleton == null) {
+                        throw CFG304_BEAN_DOESNT_EXIST(singletonId);
+                    }
+                    return singleton;
                 }
-                return singleton;
             }
+            return null;
+        } finally {
+            lock.unlockRead();
         }
-        return null;
     }
 
-    private Bean getBean(BeanId ref, List<Bean> all) {
-        for (Bean bean : all) {
-            if (ref.equals(bean.getId())) {
-                // recurse down the tree.
-                return getEagerly(ref, all);
+    @Override
+    public Map<BeanId, Bean> list(String name) {
+        XmlFileLock lock = lock();
+        lock.lockRead();
+        try {
+            Map<BeanId, Bean> all = readValuesAsMap();
+            Map<BeanId, Bean> assembled = new HashMap<BeanId, Bean>();
+            Map<BeanId, Bean> result = new HashMap<BeanId, Bean>();
+            for (BeanId id : all.keySet()) {
+                if (id.getSchemaName().equals(name)) {
+                    Bean bean = getEagerly(id, all, assembled);
+                    result.put(bean.getId(), bean);
+                }
             }
+            return result;
+        } finally {
+            lock.unlockRead();
         }
-        return null;
     }
 
     @Override
-    public Map<BeanId, Bean> list(String name) {
-        List<Bean> all = readValues();
-        Map<BeanId, Bean> result = new HashMap<BeanId, Bean>();
-        for (Bean b : all) {
-            if (b.getId().getSchemaName().equals(name)) {
-                Bean bean = getEagerly(b.getId(), all);
+    public Map<BeanId, Bean> query(String schemaName, Criteria criteria) {
+        XmlFileLock lock = lock();
+        lock.lockRead();
+        try {
+            XmlBeanIndex index = XmlBeanIndex.get(getFile());
+            if (index == null) {
+                index = XmlBeanIndex.create(getFile(), readValuesAsMap());
+            }
+            Map<BeanId, Bean> all = index.copies();
+            Map<BeanId, Bean> assembled = new HashMap<BeanId, Bean>();
+            Map<BeanId, Bean> result = new HashMap<BeanId, Bean>();
+            for (BeanId id : index.query(schemaName, criteria)) {
+                Bean bean = getEagerly(id, all, assembled);
                 result.put(bean.getId(), bean);
             }
+            return result;
+        } finally {
+            lock.unlockRead();
         }
-        return result;
     }
 
     @Override
     public void create(Bean bean) {
-        Map<BeanId, Bean> values = readValuesAsMap();
-        checkReferencesExist(bean, values);
-        checkCreateSingleton(bean, values);
-        checkUniquness(bean, values);
-        values.put(bean.getId(), bean);
-        writeValues(values);
+        XmlFileLock lock = lock();
+        lock.lockWrite();
+        try {
+            Map<BeanId, Bean> values = readValuesAsMap();
+            checkReferencesExist(bean, values);
+            checkCreateSingleton(bean, values);
+            checkUniquness(bean, values);
+            bean.setVersion(1);
+            values.put(bean.getId(), bean);
+            writeValues(values);
+        } finally {
+            lock.unlockWrite();
+        }
     }
 
     @Override
     public void create(Collection<Bean> set) {
-        Map<BeanId, Bean> beans = readValuesAsMap();
-        // first check uniquness towards storage
-        for (Bean bean : set) {
-            checkUniquness(bean, beans);
-            checkCreateSingleton(bean, beans);
-        }
-        // TODO: check that provided beans are unique among themselves.
+        XmlFileLock lock = lock();
+        lock.lockWrite();
+        try {
+            Map<BeanId, Bean> beans = readValuesAsMap();
+            // first check uniquness towards storage
+            for (Bean bean : set) {
+                checkUniquness(bean, beans);
+                checkCreateSingleton(bean, beans);
+            }
+            // TODO: check that provided beans are unique among themselves.
 
-        // references may not exist in storage, but are provided 
-        // as part of the transactions, so add them before validating references.
-        for (Bean bean : set) {
-            beans.put(bean.getId(), bean);
-        }
-        for (Bean bean : set) {
-            checkReferencesExist(bean, beans);
+            // references may not exist in storage, but are provided 
+            // as part of the transactions, so add them before validating references.
+            for (Bean bean : set) {
+                bean.setVersion(1);
+                beans.put(bean.getId(), bean);
+            }
+            for (Bean bean : set) {
+                checkReferencesExist(bean, beans);
+            }
+            writeValues(beans);
+        } finally {
+            lock.unlockWrite();
         }
-        writeValues(beans);
-
     }
 
     @Override
     public void createSingleton(BeanId singleton) {
-        Map<BeanId, Bean> values = readValuesAsMap();
-        Bean bean = Bean.create(singleton);
+        XmlFileLock lock = lock();
+        lock.lockWrite();
         try {
-            checkUniquness(bean, values);
-        } catch (AbortRuntimeException e) {
-            // ignore and return silently.
-            return;
+            Map<BeanId, Bean> values = readValuesAsMap();
+            Bean bean = Bean.create(singleton);
+            try {
+                checkUniquness(bean, values);
+            } catch (AbortRuntimeException e) {
+                // ignore and return silently.
+                return;
+            }
+            bean.setVersion(1);
+            values.put(singleton, bean);
+            writeValues(values);
+        } finally {
+            lock.unlockWrite();
         }
-        values.put(singleton, bean);
-        writeValues(values);
     }
 
     @Override
     public void set(Bean bean) {
-        Map<BeanId, Bean> values = readValuesAsMap();
-        Bean existing = values.get(bean.getId());
-        if (existing == null) {
-            throw CFG304_BEAN_DOESNT_EXIST(bean.getId());
+        XmlFileLock lock = lock();
+        lock.lockWrite();
+        try {
+            Map<BeanId, Bean> values = readValuesAsMap();
+            Bean existing = values.get(bean.getId());
+            if (existing == null) {
+                throw CFG304_BEAN_DOESNT_EXIST(bean.getId());
 
+            }
+            checkVersion(bean, existing);
+            checkReferencesExist(bean, values);
+            checkInstanceExist(bean, values);
+            bean.setVersion(existing.getVersion() + 1);
+            values.put(bean.getId(), bean);
+            writeValues(values);
+        } finally {
+            lock.unlockWrite();
         }
-        checkReferencesExist(bean, values);
-        checkInstanceExist(bean, values);
-        values.put(bean.getId(), bean);
-        writeValues(values);
     }
 
     @Override
     public void set(Collection<Bean> set) {
-        Map<BeanId, Bean> beans = readValuesAsMap();
-        // TODO: check that provided beans are unique among themselves.
-
-        // references may not exist in storage, but are provided 
-        // as part of the transactions, so add them before validating references.
-        for (Bean bean : set) {
-            Bean existing = beans.get(bean.getId());
-            if (existing == null) {
-                throw CFG304_BEAN_DOESNT_EXIST(bean.getId());
+        XmlFileLock lock = lock();
+        lock.lockWrite();
+        try {
+            Map<BeanId, Bean> beans = readValuesAsMap();
+            // TODO: check that provided beans are unique among themselves.
+
+            // references may not exist in storage, but are provided 
+            // as part of the transactions, so add them before validating references.
+            for (Bean bean : set) {
+                Bean existing = beans.get(bean.getId());
+                if (existing == null) {
+                    throw CFG304_BEAN_DOESNT_EXIST(bean.getId());
+                }
+                checkVersion(bean, existing);
+                bean.setVersion(existing.getVersion() + 1);
+                beans.put(bean.getId(), bean);
+            }
+            for (Bean bean : set) {
+                checkReferencesExist(bean, beans);
             }
-            beans.put(bean.getId(), bean);
-        }
-        for (Bean bean : set) {
-            checkReferencesExist(bean, beans);
-        }
 
-        writeValues(beans);
+            writeValues(beans);
+        } finally {
+            lock.unlockWrite();
+        }
     }
 
     @Override
     public void merge(Bean bean) {
-        Map<BeanId, Bean> beans = readValuesAsMap();
-        Bean b = beans.get(bean.getId());
-        if (b == null) {
-            throw CFG304_BEAN_DOESNT_EXIST(bean.getId());
+        XmlFileLock lock = lock();
+        lock.lockWrite();
+        try {
+            Map<BeanId, Bean> beans = readValuesAsMap();
+            Bean b = beans.get(bean.getId());
+            if (b == null) {
+                throw CFG304_BEAN_DOESNT_EXIST(bean.getId());
+            }
+            checkVersion(bean, b);
+            replace(b, bean, beans);
+            b.setVersion(b.getVersion() + 1);
+            bean.setVersion(b.getVersion());
+            writeValues(beans);
+        } finally {
+            lock.unlockWrite();
         }
-        replace(b, bean, beans);
-        writeValues(beans);
     }
 
     @Override
     public void merge(Collection<Bean> bean) {
-        Map<BeanId, Bean> beans = readValuesAsMap();
-        for (Bean replace : bean) {
-            Bean target = beans.get(replace.getId());
-            if (target == null) {
-                throw Events.CFG304_BEAN_DOESNT_EXIST(replace.getId());
+        XmlFileLock lock = lock();
+        lock.lockWrite();
+        try {
+            Map<BeanId, Bean> beans = readValuesAsMap();
+            Map<BeanId, Bean> merged = new HashMap<BeanId, Bean>();
+            for (Bean replace : bean) {
+                Bean target = beans.get(replace.getId());
+                if (target == null) {
+                    throw Events.CFG304_BEAN_DOESNT_EXIST(replace.getId());
+                }
+                if (!merged.containsKey(target.getId())) {
+                    checkVersion(replace, target);
+                }
+                replace(target, replace, beans);
+                merged.put(target.getId(), target);
+            }
+            for (Bean target : merged.values()) {
+                target.setVersion(target.getVersion() + 1);
             }
-            replace(target, replace, beans);
+            for (Bean replace : bean) {
+                replace.setVersion(merged.get(replace.getId()).getVersion());
+            }
+            writeValues(beans);
+        } finally {
+            lock.unlockWrite();
         }
-        writeValues(beans);
     }
 
     private void replace(Bean target, Bean replace, Map<BeanId, Bean> all) {
@@ -296,37 +399,66 @@ public class XmlBeanManager extends BeanManager {
 
     @Override
     public void delete(BeanId id) {
-        Map<BeanId, Bean> beans = readValuesAsMap();
-        checkNoReferencesExist(id, beans);
-        checkDeleteSingleton(beans.get(id));
-        beans.remove(id);
-        writeValues(beans);
+        XmlFileLock lock = lock();
+        lock.lockWrite();
+        try {
+            Map<BeanId, Bean> beans = readValuesAsMap();
+            checkNoReferencesExist(id, beans);
+            checkDeleteSingleton(beans.get(id));
+            beans.remove(id);
+            writeValues(beans);
+        } finally {
+            lock.unlockWrite();
+        }
+    }
+
+    @Override
+    public void delete(Bean bean) {
+        XmlFileLock lock = lock();
+        lock.lockWrite();
+        try {
+            Map<BeanId, Bean> beans = readValuesAsMap();
+            Bean existing = beans.get(bean.getId());
+            if (existing == null) {
+                throw CFG304_BEAN_DOESNT_EXIST(bean.getId());
+            }
+            checkVersion(bean, existing);
+            checkNoReferencesExist(bean.getId(), beans);
+            checkDeleteSingleton(existing);
+            beans.remove(bean.getId());
+            writeValues(beans);
+        } finally {
+            lock.unlockWrite();
+        }
     }
 
     @Override
     public void delete(String schemaName, Collection<String> instanceIds) {
-        Map<BeanId, Bean> beans = readValuesAsMap();
-        for (String instance : instanceIds) {
-            checkDeleteSingleton(beans.get(BeanId.create(instance, schemaName)));
-            checkNoReferencesExist(BeanId.create(instance, schemaName), beans);
-            beans.remove(BeanId.create(instance, schemaName));
+        XmlFileLock lock = lock();
+        lock.lockWrite();
+        try {
+            Map<BeanId, Bean> beans = readValuesAsMap();
+            for (String instance : instanceIds) {
+                checkDeleteSingleton(beans.get(BeanId.create(instance, schemaName)));
+                checkNoReferencesExist(BeanId.create(instance, schemaName), beans);
+                beans.remove(BeanId.create(instance, schemaName));
+            }
+            writeValues(beans);
+        } finally {
+            lock.unlockWrite();
         }
-        writeValues(beans);
     }
 
     private List<Bean> readValues() {
-        String dirValue = PROP.get(XML_BEAN_FILE_STORAGE_DIR_PROP);
-        if (dirValue == null || "".equals(dirValue)) {
-            dirValue = System.getProperty("java.io.tmpdir");
-        }
-        File file = new File(new File(dirValue), XML_BEAN_FILE_NAME);
+        File file = getFile();
+        FileInputStream in = null;
         try {
             if (!file.exists()) {
-                Files.write("<bean-xml></bean-xml>", file, Charset.defaultCharset());
+                // readers never write, the file is created by the first write
+                return new ArrayList<Bean>();
             }
-            FileInputStream in = new FileInputStream(file);
-            JAXBContext context = JAXBContext.newInstance(XmlBeans.class);
-            Unmarshaller unmarshaller = context.createUnmarshaller();
+            in = new FileInputStream(file);
+            Unmarshaller unmarshaller = getContext().createUnmarshaller();
             XmlBeans beans = (XmlBeans) unmarshaller.unmarshal(in);
             return beans.getBeans();
         } catch (JAXBException e) {
@@ -335,6 +467,8 @@ public class XmlBeanManager extends BeanManager {
             throw CFG202_XML_SCHEMA_FILE_MISSING(file);
         } catch (IOException e) {
             throw new RuntimeException(e);
+        } finally {
+            Closeables.closeQuietly(in);
         }
 
     }
@@ -353,28 +487,27 @@ public class XmlBeanManager extends BeanManager {
         writeValues(new ArrayList<Bean>(map.values()));
     }
 
+    /**
+     * Write to a temporary file that replace the storage file when complete, so
+     * that the storage file is never seen half written.
+     */
     private void writeValues(List<Bean> beans) {
-        String dirValue = PROP.get(XML_BEAN_FILE_STORAGE_DIR_PROP);
-        if (dirValue == null || "".equals(dirValue)) {
-            dirValue = System.getProperty("java.io.tmpdir");
-        }
-        File dir = new File(dirValue);
+        File file = getFile();
+        File dir = file.getParentFile();
         if (!dir.exists()) {
-            try {
-                dir.createNewFile();
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
+            dir.mkdirs();
         }
-        File file = new File(dir, XML_BEAN_FILE_NAME);
+        File tmp = new File(dir, XML_BEAN_FILE_NAME + ".tmp");
         PrintWriter pw = null;
         try {
             XmlBeans xmlbeans = new XmlBeans(beans);
-            pw = new PrintWriter(file, "UTF-8");
-            JAXBContext context = JAXBContext.newInstance(XmlBeans.class);
-            Marshaller marshaller = context.createMarshaller();
+            pw = new PrintWriter(tmp, "UTF-8");
+            Marshaller marshaller = getContext().createMarshaller();
             marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
             marshaller.marshal(xmlbeans, pw);
+            pw.close();
+            pw = null;
+            XmlFileLock.replace(tmp, file);
         } catch (PropertyException e) {
             throw new RuntimeException(e);
         } catch (JAXBException e) {
@@ -383,13 +516,36 @@ public class XmlBeanManager extends BeanManager {
             throw new RuntimeException(e);
         } finally {
             if (pw != null) {
-                pw.flush();
                 pw.close();
             }
         }
 
     }
 
+    private static File getFile() {
+        String dirValue = PROP.get(XML_BEAN_FILE_STORAGE_DIR_PROP);
+        if (dirValue == null || "".equals(dirValue)) {
+            dirValue = System.getProperty("java.io.tmpdir");
+        }
+        return new File(new File(dirValue), XML_BEAN_FILE_NAME);
+    }
+
+    private static XmlFileLock lock() {
+        return XmlFileLock.get(getFile());
+    }
+
+    /**
+     * JAXBContext is thread safe and expensive to create, marshallers are not.
+     */
+    private static JAXBContext getContext() throws JAXBException {
+        JAXBContext result = context;
+        if (result == null) {
+            result = JAXBContext.newInstance(XmlBeans.class);
+            context = result;
+        }
+        return result;
+    }
+
     private static void checkNoReferencesExist(BeanId deleted, Map<BeanId, Bean> storage) {
         Collection<BeanId> hasReferences = new ArrayList<BeanId>();
         for (Bean b : storage.values()) {
@@ -442,6 +598,17 @@ public class XmlBeanManager extends BeanManager {
 
     }
 
+    /**
+     * Versioned beans must have the same version as the stored bean, otherwise
+     * someone else changed it since it was read.
+     */
+    private static void checkVersion(Bean bean, Bean stored) {
+        if (bean.getVersion() != 0 && bean.getVersion() != stored.getVersion()) {
+            throw CFG310_CONCURRENT_MODIFICATION(bean.getId(), bean.getVersion(),
+                    stored.getVersion());
+        }
+    }
+
     private static void checkUniquness(Bean bean, Map<BeanId, Bean> storage) {
         Collection<Bean> beans = storage.values();
 
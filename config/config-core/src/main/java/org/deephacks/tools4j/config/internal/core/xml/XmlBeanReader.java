@@ -0,0 +1,123 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.internal.core.xml;
+
+import static org.deephacks.tools4j.config.model.Events.CFG203_BULK_FILE_MISSING;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Unmarshaller;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.deephacks.tools4j.config.internal.core.xml.XmlBeanAdapter.XmlBeans.XmlBean;
+import org.deephacks.tools4j.config.model.Bean;
+
+import com.google.common.io.Closeables;
+
+/**
+ * XmlBeanReader read beans from a file in the same format as the
+ * {@link XmlBeanManager} storage file, a few beans at a time, so that files
+ * larger than memory can be read.
+ */
+public class XmlBeanReader implements Closeable {
+    private static final String BEAN_ELEMENT = "bean";
+    private final InputStream in;
+    private final XMLStreamReader reader;
+    private final Unmarshaller unmarshaller;
+
+    public XmlBeanReader(File file) {
+        try {
+            this.in = new FileInputStream(file);
+        } catch (FileNotFoundException e) {
+            throw CFG203_BULK_FILE_MISSING(file);
+        }
+        try {
+            this.reader = XMLInputFactory.newInstance().createXMLStreamReader(in);
+            this.unmarshaller = JAXBContext.newInstance(XmlBean.class).createUnmarshaller();
+        } catch (XMLStreamException e) {
+            Closeables.closeQuietly(in);
+            throw new RuntimeException(e);
+        } catch (JAXBException e) {
+            Closeables.closeQuietly(in);
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Read the next beans of the file.
+     *
+     * @param max maximum number of beans to read.
+     * @return beans in the order of the file, empty if the end of the file is reached.
+     */
+    public List<Bean> read(int max) {
+        List<Bean> beans = new ArrayList<Bean>();
+        try {
+            while (beans.size() < max && reader.hasNext()) {
+                if (reader.getEventType() == XMLStreamConstants.START_ELEMENT
+                        && BEAN_ELEMENT.equals(reader.getLocalName())) {
+                    // leaves the reader at the event after the bean
+                    XmlBean bean = unmarshaller.unmarshal(reader, XmlBean.class).getValue();
+                    beans.add(bean.toBean());
+                    continue;
+                }
+                reader.next();
+            }
+            return beans;
+        } catch (XMLStreamException e) {
+            throw new RuntimeException(e);
+        } catch (JAXBException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Skip beans at the current position of the file.
+     *
+     * @return number of beans skipped, less than count if the end of the file is reached.
+     */
+    public long skip(long count) {
+        long skipped = 0;
+        while (skipped < count) {
+            int chunk = (int) Math.min(count - skipped, 1000);
+            int read = read(chunk).size();
+            skipped += read;
+            if (read < chunk) {
+                break;
+            }
+        }
+        return skipped;
+    }
+
+    @Override
+    public void close() {
+        try {
+            reader.close();
+        } catch (XMLStreamException e) {
+            // ignore
+        } finally {
+            Closeables.closeQuietly(in);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.internal.core.xml;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collection;
+
+import javax.xml.bind.JAXBContext;
+import javax.xml.bind.JAXBElement;
+import javax.xml.bind.JAXBException;
+import javax.xml.bind.Marshaller;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.deephacks.tools4j.config.internal.core.xml.XmlBeanAdapter.XmlBeans.XmlBean;
+import org.deephacks.tools4j.config.model.Bean;
+
+import com.google.common.io.Closeables;
+
+/**
+ * XmlBeanWriter write beans to a file in the same format as the
+ * {@link XmlBeanManager} storage file, a few beans at a time, so that the
+ * whole file never need to be kept in memory.
+ */
+public class XmlBeanWriter implements Closeable {
+    private static final String ROOT_ELEMENT = "bean-xml";
+    private static final QName BEAN_ELEMENT = new QName("bean");
+    private final OutputStream out;
+    private final XMLStreamWriter writer;
+    private final Marshaller marshaller;
+
+    public XmlBeanWriter(File file) {
+        try {
+            this.out = new BufferedOutputStream(new FileOutputStream(file));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        try {
+            this.writer = XMLOutputFactory.newInstance().createXMLStreamWriter(out, "UTF-8");
+            this.marshaller = JAXBContext.newInstance(XmlBean.class).createMarshaller();
+            this.marshaller.setProperty(Marshaller.JAXB_FRAGMENT, true);
+            writer.writeStartDocument("UTF-8", "1.0");
+            writer.writeStartElement(ROOT_ELEMENT);
+        } catch (XMLStreamException e) {
+            Closeables.closeQuietly(out);
+            throw new RuntimeException(e);
+        } catch (JAXBException e) {
+            Closeables.closeQuietly(out);
+            throw new RuntimeException(e);
+        }
+    }
+
+    public void write(Collection<Bean> beans) {
+        try {
+            for (Bean bean : beans) {
+                marshaller.marshal(new JAXBElement<XmlBean>(BEAN_ELEMENT, XmlBean.class,
+                        new XmlBean(bean)), writer);
+            }
+        } catch (JAXBException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Complete the file and close it.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.close();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        } finally {
+            out.close();
+        }
+    }
+}
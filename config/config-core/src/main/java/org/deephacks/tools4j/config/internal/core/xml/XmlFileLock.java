@@ -0,0 +1,184 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.internal.core.xml;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * XmlFileLock coordinate access to an xml storage file, between threads as well
+ * as between processes that share the same storage directory.
+ * <p>
+ * Reads run concurrently with each other while writes are exclusive. There is one
+ * lock per file in the class loader, shared by all managers that use that file.
+ * Other processes are coordinated through a {@link FileLock} on a sibling file
+ * with suffix {@value #LOCK_FILE_SUFFIX}, held shared by readers and exclusive by
+ * writers. File locks are held on behalf of the whole JVM, so the shared file lock
+ * is taken by the first reader and released by the last. Readers open the lock
+ * file read-only and do not create it, so that storage in a read-only directory
+ * can still be read.
+ * <p>
+ * A thread that hold the write lock may also take the read lock, but not the
+ * other way around.
+ */
+final class XmlFileLock {
+    static final String LOCK_FILE_SUFFIX = ".lock";
+    private static final ConcurrentMap<File, XmlFileLock> LOCKS = new ConcurrentHashMap<File, XmlFileLock>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final File lockFile;
+    /** number of read locks held in this process */
+    private int readers = 0;
+    private FileChannel channel;
+    /** true if the channel was opened for writing */
+    private boolean writable;
+    private FileLock fileLock;
+
+    private XmlFileLock(File lockFile) {
+        this.lockFile = lockFile;
+    }
+
+    static XmlFileLock get(File file) {
+        File key = file.getAbsoluteFile();
+        XmlFileLock lock = LOCKS.get(key);
+        if (lock != null) {
+            return lock;
+        }
+        lock = new XmlFileLock(new File(key.getPath() + LOCK_FILE_SUFFIX));
+        XmlFileLock existing = LOCKS.putIfAbsent(key, lock);
+        return existing != null ? existing : lock;
+    }
+
+    /**
+     * Replace the target file with the source file, atomically if supported by
+     * the file system.
+     */
+    static void replace(File source, File target) throws IOException {
+        try {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    void lockRead() {
+        lock.readLock().lock();
+        if (lock.isWriteLockedByCurrentThread()) {
+            // the exclusive file lock is already held
+            return;
+        }
+        try {
+            synchronized (this) {
+                if (readers == 0) {
+                    acquire(true);
+                }
+                readers++;
+            }
+        } catch (RuntimeException e) {
+            lock.readLock().unlock();
+            throw e;
+        }
+    }
+
+    void unlockRead() {
+        if (lock.isWriteLockedByCurrentThread()) {
+            lock.readLock().unlock();
+            return;
+        }
+        try {
+            synchronized (this) {
+                if (--readers == 0) {
+                    release();
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    void lockWrite() {
+        lock.writeLock().lock();
+        if (lock.getWriteHoldCount() > 1) {
+            return;
+        }
+        try {
+            synchronized (this) {
+                acquire(false);
+            }
+        } catch (RuntimeException e) {
+            lock.writeLock().unlock();
+            throw e;
+        }
+    }
+
+    void unlockWrite() {
+        if (lock.getWriteHoldCount() > 1) {
+            lock.writeLock().unlock();
+            return;
+        }
+        try {
+            synchronized (this) {
+                release();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private void acquire(boolean shared) {
+        try {
+            if (channel != null && channel.isOpen() && !shared && !writable) {
+                // a channel opened by readers cannot hold an exclusive lock
+                channel.close();
+            }
+            if (channel == null || !channel.isOpen()) {
+                File dir = lockFile.getParentFile();
+                if (shared && !lockFile.exists() && (dir == null || !dir.canWrite())) {
+                    // no lock file can be created, hence there can be no writers
+                    return;
+                }
+                if (!shared && dir != null && !dir.exists()) {
+                    dir.mkdirs();
+                }
+                writable = !shared || !lockFile.exists();
+                channel = new RandomAccessFile(lockFile, writable ? "rw" : "r").getChannel();
+            }
+            fileLock = channel.lock(0, Long.MAX_VALUE, shared);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private void release() {
+        if (fileLock == null) {
+            return;
+        }
+        try {
+            fileLock.release();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            fileLock = null;
+        }
+    }
+}
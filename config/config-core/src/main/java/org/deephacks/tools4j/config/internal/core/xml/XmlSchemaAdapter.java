@@ -57,11 +57,12 @@ public class XmlSchemaAdapter {
                         b.desc);
                 for (XmlSchemaProperty p : b.properties) {
                     schema.add(SchemaProperty.create(p.name, p.fieldName, p.type, p.desc,
-                            p.isImmutable, p.isEnum, p.defaultValue));
+                            p.isImmutable, p.isEnum, p.defaultValue, p.isIndexed, p.isUnique));
                 }
                 for (XmlSchemaCollection p : b.collection) {
                     schema.add(SchemaPropertyList.create(p.name, p.fieldName, p.parameterizedType,
-                            p.desc, p.isImmutable, p.isEnum, p.defaultValues, p.collectionType));
+                            p.desc, p.isImmutable, p.isEnum, p.defaultValues, p.collectionType,
+                            p.isIndexed, p.isUnique));
                 }
                 for (XmlSchemaRef p : b.ref) {
                     schema.add(SchemaPropertyRef.create(p.name, p.fieldName, p.schemaName, p.desc,
@@ -165,6 +166,10 @@ public class XmlSchemaAdapter {
             private boolean isImmutable;
             @XmlAttribute(name = "enum")
             private boolean isEnum;
+            @XmlAttribute(name = "index")
+            private boolean isIndexed;
+            @XmlAttribute(name = "unique")
+            private boolean isUnique;
             @XmlElement(name = "default")
             private String defaultValue;
 
@@ -180,6 +185,8 @@ public class XmlSchemaAdapter {
                 this.desc = p.getDesc();
                 this.isImmutable = p.isImmutable();
                 this.isEnum = p.isEnum();
+                this.isIndexed = p.isIndexed();
+                this.isUnique = p.isUnique();
             }
         }
 
@@ -197,6 +204,10 @@ public class XmlSchemaAdapter {
             private boolean isEnum;
             @XmlAttribute(name = "collection-type")
             public String collectionType;
+            @XmlAttribute(name = "index")
+            private boolean isIndexed;
+            @XmlAttribute(name = "unique")
+            private boolean isUnique;
             @XmlAttribute
             private String desc;
             @XmlElement(name = "default")
@@ -213,6 +224,8 @@ public class XmlSchemaAdapter {
                 this.desc = p.getDesc();
                 this.isImmutable = p.isImmutable();
                 this.isImmutable = p.isEnum();
+                this.isIndexed = p.isIndexed();
+                this.isUnique = p.isUnique();
                 this.defaultValues = p.getDefaultValues();
             }
         }
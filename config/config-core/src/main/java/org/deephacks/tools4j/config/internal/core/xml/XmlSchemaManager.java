@@ -21,7 +21,7 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.PrintWriter;
-import java.nio.charset.Charset;
+import java.util.HashMap;
 import java.util.Map;
 
 import javax.xml.bind.JAXBContext;
@@ -36,60 +36,85 @@ import org.deephacks.tools4j.config.spi.SchemaManager;
 import org.deephacks.tools4j.support.ServiceProvider;
 import org.deephacks.tools4j.support.SystemProperties;
 
-import com.google.common.io.Files;
+import com.google.common.io.Closeables;
 
+/**
+ * XmlSchemaManager store schemas in XML format, with the same locking as
+ * {@link XmlBeanManager}.
+ */
 @ServiceProvider(service = SchemaManager.class)
 public class XmlSchemaManager extends SchemaManager {
     public static final String XML_CONFIG_SCHEMA_FILE_STORAGE_DIR_PROP = "config.spi.schema.xml.dir";
     public static final String XML_SCHEMA_FILE_NAME = "schema.xml";
     private static final SystemProperties PROP = SystemProperties.createDefault();
     private static final long serialVersionUID = 8979172640204086999L;
+    private static volatile JAXBContext context;
 
     @Override
     public Map<String, Schema> getSchemas() {
-        return readValues();
+        XmlFileLock lock = lock();
+        lock.lockRead();
+        try {
+            return readValues();
+        } finally {
+            lock.unlockRead();
+        }
     }
 
     @Override
     public Schema getSchema(String schemaName) {
-        Map<String, Schema> values = readValues();
-        Schema schema = values.get(schemaName);
-        if (schema == null) {
-            throw CFG101_SCHEMA_NOT_EXIST(schemaName);
+        XmlFileLock lock = lock();
+        lock.lockRead();
+        try {
+            Map<String, Schema> values = readValues();
+            Schema schema = values.get(schemaName);
+            if (schema == null) {
+                throw CFG101_SCHEMA_NOT_EXIST(schemaName);
+            }
+            return schema;
+        } finally {
+            lock.unlockRead();
         }
-        return schema;
     }
 
     @Override
     public void regsiterSchema(Schema... schemas) {
-        Map<String, Schema> values = readValues();
-        for (Schema schema : schemas) {
-            values.put(schema.getName(), schema);
+        XmlFileLock lock = lock();
+        lock.lockWrite();
+        try {
+            Map<String, Schema> values = readValues();
+            for (Schema schema : schemas) {
+                values.put(schema.getName(), schema);
+            }
             writeValues(values);
+        } finally {
+            lock.unlockWrite();
         }
     }
 
     @Override
     public void removeSchema(String schemaName) {
-        Map<String, Schema> values = readValues();
-        values.remove(schemaName);
-        writeValues(values);
+        XmlFileLock lock = lock();
+        lock.lockWrite();
+        try {
+            Map<String, Schema> values = readValues();
+            values.remove(schemaName);
+            writeValues(values);
+        } finally {
+            lock.unlockWrite();
+        }
     }
 
     private Map<String, Schema> readValues() {
-        String dirValue = PROP.get(XML_CONFIG_SCHEMA_FILE_STORAGE_DIR_PROP);
-        if (dirValue == null || "".equals(dirValue)) {
-            dirValue = System.getProperty("java.io.tmpdir");
-        }
-        File file = new File(new File(dirValue), XML_SCHEMA_FILE_NAME);
-
+        File file = getFile();
+        FileInputStream in = null;
         try {
             if (!file.exists()) {
-                Files.write("<schema-xml></schema-xml>", file, Charset.defaultCharset());
+                // readers never write, the file is created by the first write
+                return new HashMap<String, Schema>();
             }
-            FileInputStream in = new FileInputStream(file);
-            JAXBContext context = JAXBContext.newInstance(XmlSchemas.class);
-            Unmarshaller unmarshaller = context.createUnmarshaller();
+            in = new FileInputStream(file);
+            Unmarshaller unmarshaller = getContext().createUnmarshaller();
             XmlSchemas schemas = (XmlSchemas) unmarshaller.unmarshal(in);
             return schemas.getSchemas();
 
@@ -99,32 +124,33 @@ public class XmlSchemaManager extends SchemaManager {
             throw CFG202_XML_SCHEMA_FILE_MISSING(file);
         } catch (IOException e) {
             throw new RuntimeException(e);
+        } finally {
+            Closeables.closeQuietly(in);
         }
 
     }
 
+    /**
+     * Write to a temporary file that replace the storage file when complete, so
+     * that the storage file is never seen half written.
+     */
     private void writeValues(Map<String, Schema> values) {
-        String dirValue = PROP.get(XML_CONFIG_SCHEMA_FILE_STORAGE_DIR_PROP);
-        if (dirValue == null || "".equals(dirValue)) {
-            dirValue = System.getProperty("java.io.tmpdir");
-        }
-        File dir = new File(dirValue);
+        File file = getFile();
+        File dir = file.getParentFile();
         if (!dir.exists()) {
-            try {
-                dir.createNewFile();
-            } catch (IOException e) {
-                throw new RuntimeException(e);
-            }
+            dir.mkdirs();
         }
-        File file = new File(dir, XML_SCHEMA_FILE_NAME);
+        File tmp = new File(dir, XML_SCHEMA_FILE_NAME + ".tmp");
         PrintWriter pw = null;
         try {
             XmlSchemas schemas = new XmlSchemas(values);
-            pw = new PrintWriter(file, "UTF-8");
-            JAXBContext context = JAXBContext.newInstance(XmlSchemas.class);
-            Marshaller marshaller = context.createMarshaller();
+            pw = new PrintWriter(tmp, "UTF-8");
+            Marshaller marshaller = getContext().createMarshaller();
             marshaller.setProperty(Marshaller.JAXB_FORMATTED_OUTPUT, true);
             marshaller.marshal(schemas, pw);
+            pw.close();
+            pw = null;
+            XmlFileLock.replace(tmp, file);
         } catch (PropertyException e) {
             throw new RuntimeException(e);
         } catch (JAXBException e) {
@@ -133,11 +159,31 @@ public class XmlSchemaManager extends SchemaManager {
             throw new RuntimeException(e);
         } finally {
             if (pw != null) {
-                pw.flush();
                 pw.close();
             }
         }
 
     }
 
+    private static File getFile() {
+        String dirValue = PROP.get(XML_CONFIG_SCHEMA_FILE_STORAGE_DIR_PROP);
+        if (dirValue == null || "".equals(dirValue)) {
+            dirValue = System.getProperty("java.io.tmpdir");
+        }
+        return new File(new File(dirValue), XML_SCHEMA_FILE_NAME);
+    }
+
+    private static XmlFileLock lock() {
+        return XmlFileLock.get(getFile());
+    }
+
+    private static JAXBContext getContext() throws JAXBException {
+        JAXBContext result = context;
+        if (result == null) {
+            result = JAXBContext.newInstance(XmlSchemas.class);
+            context = result;
+        }
+        return result;
+    }
+
 }
@@ -0,0 +1,123 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.internal.core.admin;
+
+import static org.deephacks.tools4j.config.model.Events.CFG303;
+import static org.deephacks.tools4j.config.test.BeanUnitils.toBean;
+import static org.deephacks.tools4j.config.test.ConfigTestData.CHILD_SCHEMA_NAME;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import org.deephacks.tools4j.config.admin.AsyncAdminContext;
+import org.deephacks.tools4j.config.internal.core.xml.XmlBeanManager;
+import org.deephacks.tools4j.config.internal.core.xml.XmlSchemaManager;
+import org.deephacks.tools4j.config.model.Bean;
+import org.deephacks.tools4j.config.spi.BeanManager;
+import org.deephacks.tools4j.config.spi.SchemaManager;
+import org.deephacks.tools4j.config.test.ConfigDefaultSetup;
+import org.deephacks.tools4j.config.test.XmlStorageHelper;
+import org.deephacks.tools4j.support.event.AbortRuntimeException;
+import org.deephacks.tools4j.support.lookup.MockLookup;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AsyncAdminCoreContextTest extends ConfigDefaultSetup {
+    private CountingBeanManager beanManager = new CountingBeanManager();
+    private AsyncAdminContext async;
+
+    @Before
+    public void before() {
+        XmlStorageHelper.clearAndInit(AsyncAdminCoreContextTest.class);
+        MockLookup.setMockInstances(BeanManager.class, beanManager);
+        MockLookup.addMockInstances(SchemaManager.class, new XmlSchemaManager());
+        setupDefaultConfigData();
+        // wide window to make sure that all creates end up in the same batch
+        System.setProperty(AsyncAdminCoreContext.WINDOW_PROP, "500");
+        async = AsyncAdminContext.get();
+    }
+
+    @After
+    public void after() {
+        async.close();
+        System.clearProperty(AsyncAdminCoreContext.WINDOW_PROP);
+    }
+
+    @Test
+    public void test_group_commit() throws Exception {
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (int i = 0; i < 10; i++) {
+            futures.add(async.create(toBean(testdata.getChild("c" + i))));
+        }
+        for (Future<Void> future : futures) {
+            future.get();
+        }
+        assertThat(admin.list(CHILD_SCHEMA_NAME).size(), is(10));
+        assertThat(beanManager.creates, is(1));
+    }
+
+    @Test
+    public void test_error_per_operation() throws Exception {
+        admin.create(toBean(c1));
+        Future<Void> first = async.create(toBean(testdata.getChild("x1")));
+        Future<Void> existing = async.create(toBean(c1));
+        Future<Void> last = async.create(toBean(testdata.getChild("x2")));
+        first.get();
+        last.get();
+        try {
+            existing.get();
+            fail("Bean already exist");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof AbortRuntimeException);
+            assertThat(((AbortRuntimeException) e.getCause()).getEvent().getCode(), is(CFG303));
+        }
+        assertThat(admin.list(CHILD_SCHEMA_NAME).size(), is(3));
+    }
+
+    @Test
+    public void test_operations_keep_order() throws Exception {
+        Bean bean = toBean(c1);
+        async.create(bean);
+        Bean merged = Bean.create(bean.getId());
+        merged.setProperty("prop1", "merged");
+        async.merge(merged);
+        async.delete(bean.getId()).get();
+        assertThat(admin.list(CHILD_SCHEMA_NAME).size(), is(0));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void test_closed() {
+        async.close();
+        async.create(toBean(c1));
+    }
+
+    private static class CountingBeanManager extends XmlBeanManager {
+        private static final long serialVersionUID = 1L;
+        private int creates = 0;
+
+        @Override
+        public void create(Collection<Bean> beans) {
+            creates++;
+            super.create(beans);
+        }
+    }
+}
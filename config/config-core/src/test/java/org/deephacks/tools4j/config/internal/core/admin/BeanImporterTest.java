@@ -0,0 +1,195 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.internal.core.admin;
+
+import static org.deephacks.tools4j.config.model.Events.CFG101;
+import static org.deephacks.tools4j.config.model.Events.CFG309;
+import static org.deephacks.tools4j.config.model.Events.CFG311;
+import static org.deephacks.tools4j.config.test.BeanUnitils.toBeans;
+import static org.deephacks.tools4j.config.test.ConfigTestData.CHILD_SCHEMA_NAME;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.deephacks.tools4j.config.Config;
+import org.deephacks.tools4j.config.Id;
+import org.deephacks.tools4j.config.internal.core.xml.XmlBeanManager;
+import org.deephacks.tools4j.config.internal.core.xml.XmlBeanWriter;
+import org.deephacks.tools4j.config.internal.core.xml.XmlSchemaManager;
+import org.deephacks.tools4j.config.model.Bean;
+import org.deephacks.tools4j.config.model.Bean.BeanId;
+import org.deephacks.tools4j.config.model.Events;
+import org.deephacks.tools4j.config.spi.BeanManager;
+import org.deephacks.tools4j.config.spi.SchemaManager;
+import org.deephacks.tools4j.config.spi.ValidationManager;
+import org.deephacks.tools4j.config.test.ConfigDefaultSetup;
+import org.deephacks.tools4j.config.test.XmlStorageHelper;
+import org.deephacks.tools4j.support.event.AbortRuntimeException;
+import org.deephacks.tools4j.support.lookup.MockLookup;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.io.Files;
+
+public class BeanImporterTest extends ConfigDefaultSetup {
+    private static final String UNIQUE_SCHEMA_NAME = "importunique";
+    private XmlBeanManager beanManager = new XmlBeanManager();
+    private XmlSchemaManager schemaManager = new XmlSchemaManager();
+    private File file;
+
+    @Before
+    public void before() {
+        XmlStorageHelper.clearAndInit(BeanImporterTest.class);
+        MockLookup.setMockInstances(BeanManager.class, beanManager);
+        MockLookup.addMockInstances(SchemaManager.class, schemaManager);
+        setupDefaultConfigData();
+        file = new File(Files.createTempDir(), "export.xml");
+    }
+
+    @Test
+    public void test_export_and_import() {
+        admin.create(toBeans(c1, c2));
+        final List<Long> progress = new ArrayList<Long>();
+        BeanExporter exporter = new BeanExporter(beanManager, schemaManager);
+        exporter.setChunkSize(1);
+        exporter.setProgress(new BulkProgress() {
+            @Override
+            public void progress(long count) {
+                progress.add(count);
+            }
+        });
+        assertThat(exporter.exportFile(CHILD_SCHEMA_NAME, file), is(2L));
+        assertThat(progress.size(), is(2));
+
+        clearBeans();
+        BeanImporter importer = new BeanImporter(beanManager, schemaManager, null);
+        importer.setChunkSize(1);
+        importer.setThreads(2);
+        assertThat(importer.importFile(file), is(2L));
+        assertThat(admin.list(CHILD_SCHEMA_NAME).size(), is(2));
+        assertFalse(new File(file.getPath() + BeanImporter.PROGRESS_FILE_SUFFIX).exists());
+    }
+
+    @Test
+    public void test_resume() throws Exception {
+        admin.create(toBeans(c1, c2));
+        new BeanExporter(beanManager, schemaManager).exportFile(CHILD_SCHEMA_NAME, file);
+        clearBeans();
+        // pretend that an earlier import created the first bean before it failed
+        File progressFile = new File(file.getPath() + BeanImporter.PROGRESS_FILE_SUFFIX);
+        Files.write("1", progressFile, Charset.forName("UTF-8"));
+
+        BeanImporter importer = new BeanImporter(beanManager, schemaManager, null);
+        importer.setResume(true);
+        assertThat(importer.importFile(file), is(2L));
+        assertThat(admin.list(CHILD_SCHEMA_NAME).size(), is(1));
+    }
+
+    @Test
+    public void test_schema_validation() throws Exception {
+        Bean bean = Bean.create(BeanId.create("x", "doesNotExist"));
+        writeBeans(bean);
+        try {
+            new BeanImporter(beanManager, schemaManager, null).importFile(file);
+            fail("Schema does not exist");
+        } catch (AbortRuntimeException e) {
+            assertThat(e.getEvent().getCode(), is(CFG101));
+        }
+    }
+
+    @Test
+    public void test_unique_validation() throws Exception {
+        runtime.register(UniqueConfig.class);
+        writeBeans(unique("a", "a@host"), unique("b", "a@host"));
+        try {
+            new BeanImporter(beanManager, schemaManager, null).importFile(file);
+            fail("Unique value should not be used twice");
+        } catch (AbortRuntimeException e) {
+            assertThat(e.getEvent().getCode(), is(CFG311));
+        }
+        assertThat(admin.list(UNIQUE_SCHEMA_NAME).size(), is(0));
+    }
+
+    @Test
+    public void test_validation_manager() throws Exception {
+        runtime.register(UniqueConfig.class);
+        writeBeans(unique("a", "a@host"), unique("b", "invalid"));
+        final List<BeanId> validated = new CopyOnWriteArrayList<BeanId>();
+        ValidationManager validationManager = new ValidationManager() {
+            @Override
+            public void validate(Collection<Bean> beans) {
+                for (Bean bean : beans) {
+                    validated.add(bean.getId());
+                    if ("invalid".equals(bean.getSingleValue("email"))) {
+                        throw Events.CFG309_VALIDATION_ERROR("invalid email");
+                    }
+                }
+            }
+
+            @Override
+            public void register(String schemaName, Class<?> clazz) {
+            }
+
+            @Override
+            public void unregister(String name) {
+            }
+        };
+        BeanImporter importer = new BeanImporter(beanManager, schemaManager, validationManager);
+        importer.setThreads(2);
+        try {
+            importer.importFile(file);
+            fail("Bean is not valid");
+        } catch (AbortRuntimeException e) {
+            assertThat(e.getEvent().getCode(), is(CFG309));
+        }
+        assertThat(validated.size(), is(2));
+        assertThat(admin.list(UNIQUE_SCHEMA_NAME).size(), is(0));
+    }
+
+    private static Bean unique(String id, String email) {
+        Bean bean = Bean.create(BeanId.create(id, UNIQUE_SCHEMA_NAME));
+        bean.setProperty("email", email);
+        return bean;
+    }
+
+    private void writeBeans(Bean... beans) throws Exception {
+        XmlBeanWriter writer = new XmlBeanWriter(file);
+        writer.write(Arrays.asList(beans));
+        writer.close();
+    }
+
+    private void clearBeans() {
+        for (Bean bean : admin.list(CHILD_SCHEMA_NAME)) {
+            admin.delete(bean.getId());
+        }
+    }
+
+    @Config(name = UNIQUE_SCHEMA_NAME, desc = "")
+    final class UniqueConfig {
+        @Id(desc = "")
+        private String id;
+
+        @Config(desc = "", unique = true)
+        private String email;
+    }
+}
@@ -0,0 +1,163 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.internal.core.invalidation;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.deephacks.tools4j.config.model.Bean.BeanId;
+import org.deephacks.tools4j.config.spi.InvalidationBroadcaster;
+import org.deephacks.tools4j.config.spi.InvalidationBroadcaster.Listener;
+import org.junit.Assume;
+import org.junit.Test;
+
+public class InvalidationBroadcasterTest {
+    private final BeanId c1 = BeanId.create("c1", "Child");
+    private final BeanId c2 = BeanId.create("c2", "Child");
+
+    @Test
+    public void test_loopback_nodes() {
+        LoopbackBroadcaster node1 = new LoopbackBroadcaster("test_loopback_nodes");
+        LoopbackBroadcaster node2 = new LoopbackBroadcaster("test_loopback_nodes");
+        LoopbackBroadcaster node3 = new LoopbackBroadcaster("test_loopback_nodes");
+        LoopbackBroadcaster other = new LoopbackBroadcaster("other");
+        RecordingListener listener1 = listen(node1);
+        RecordingListener listener2 = listen(node2);
+        RecordingListener listener3 = listen(node3);
+        RecordingListener otherListener = listen(other);
+
+        node1.broadcast(Arrays.asList(c1, c2));
+        assertEquals(0, listener1.ids.size());
+        assertEquals(Arrays.asList(c1, c2), listener2.ids);
+        assertEquals(Arrays.asList(c1, c2), listener3.ids);
+        assertEquals(0, otherListener.ids.size());
+
+        node3.close();
+        node2.broadcastAll();
+        assertEquals(1, listener1.all);
+        assertEquals(0, listener3.all);
+        node1.close();
+        node2.close();
+        other.close();
+    }
+
+    @Test
+    public void test_multicast_nodes() throws Exception {
+        InetAddress group = InetAddress.getByName(MulticastBroadcaster.DEFAULT_GROUP);
+        int port = MulticastBroadcaster.DEFAULT_PORT + 1;
+        MulticastBroadcaster node1;
+        MulticastBroadcaster node2;
+        try {
+            node1 = new MulticastBroadcaster(group, port);
+            node2 = new MulticastBroadcaster(group, port);
+        } catch (IOException e) {
+            // multicast is not available on this host
+            Assume.assumeNoException(e);
+            return;
+        }
+        try {
+            RecordingListener listener1 = listen(node1);
+            RecordingListener listener2 = listen(node2);
+            List<BeanId> ids = new ArrayList<BeanId>();
+            // more ids than fit in one datagram
+            for (int i = 0; i < 200; i++) {
+                ids.add(BeanId.create("bean" + i, "Child"));
+            }
+            listener2.expect(ids.size());
+            node1.broadcast(ids);
+            boolean received = listener2.await();
+            // datagrams may be dropped by the network
+            Assume.assumeTrue(received);
+            // datagrams may arrive in any order
+            assertEquals(new HashSet<BeanId>(ids), new HashSet<BeanId>(listener2.ids));
+            assertEquals(0, listener1.ids.size());
+        } finally {
+            node1.close();
+            node2.close();
+        }
+    }
+
+    @Test
+    public void test_datagrams_are_split() throws Exception {
+        MulticastBroadcaster node;
+        try {
+            node = new MulticastBroadcaster(
+                    InetAddress.getByName(MulticastBroadcaster.DEFAULT_GROUP),
+                    MulticastBroadcaster.DEFAULT_PORT + 2);
+        } catch (IOException e) {
+            Assume.assumeNoException(e);
+            return;
+        }
+        try {
+            List<BeanId> ids = new ArrayList<BeanId>();
+            for (int i = 0; i < 200; i++) {
+                ids.add(BeanId.create("bean" + i, "Child"));
+            }
+            List<byte[]> datagrams = node.encode(ids);
+            assertTrue(datagrams.size() > 1);
+            for (byte[] datagram : datagrams) {
+                assertTrue(datagram.length <= MulticastBroadcaster.MAX_DATAGRAM_SIZE);
+            }
+        } finally {
+            node.close();
+        }
+    }
+
+    private static RecordingListener listen(InvalidationBroadcaster broadcaster) {
+        RecordingListener listener = new RecordingListener();
+        broadcaster.addListener(listener);
+        return listener;
+    }
+
+    private static class RecordingListener implements Listener {
+        private final List<BeanId> ids = new ArrayList<BeanId>();
+        private int all = 0;
+        private CountDownLatch latch = new CountDownLatch(0);
+
+        @Override
+        public synchronized void invalidate(Collection<BeanId> ids) {
+            this.ids.addAll(ids);
+            for (int i = 0; i < ids.size(); i++) {
+                latch.countDown();
+            }
+        }
+
+        @Override
+        public synchronized void invalidateAll() {
+            all++;
+        }
+
+        synchronized void expect(int count) {
+            latch = new CountDownLatch(count);
+        }
+
+        boolean await() throws InterruptedException {
+            CountDownLatch current;
+            synchronized (this) {
+                current = latch;
+            }
+            return current.await(5, TimeUnit.SECONDS);
+        }
+    }
+}
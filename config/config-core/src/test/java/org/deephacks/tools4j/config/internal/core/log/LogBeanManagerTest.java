@@ -0,0 +1,204 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.internal.core.log;
+
+import static org.deephacks.tools4j.config.model.Criteria.equal;
+import static org.deephacks.tools4j.config.model.Criteria.field;
+import static org.deephacks.tools4j.config.model.Criteria.startsWith;
+import static org.deephacks.tools4j.config.model.Events.CFG304;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.deephacks.tools4j.config.model.Bean;
+import org.deephacks.tools4j.config.model.Bean.BeanId;
+import org.deephacks.tools4j.support.event.AbortRuntimeException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LogBeanManagerTest {
+
+    private LogBeanManager manager;
+
+    @Before
+    public void before() {
+        System.setProperty(LogBeanManager.LOG_BEAN_SEGMENT_SIZE_PROP, "4096");
+        System.setProperty(LogBeanManager.LOG_BEAN_COMPACTION_INTERVAL_PROP, "0");
+        manager = LogConfigTckTest.clearAndInit(LogBeanManagerTest.class);
+    }
+
+    @After
+    public void after() {
+        manager.store().close();
+        System.clearProperty(LogBeanManager.LOG_BEAN_SEGMENT_SIZE_PROP);
+        System.clearProperty(LogBeanManager.LOG_BEAN_COMPACTION_INTERVAL_PROP);
+    }
+
+    @Test
+    public void testRecover() {
+        List<Bean> beans = generateBeans(10, 2);
+        manager.create(beans);
+        Bean merge = Bean.create(BeanId.create("beanId1", "beanType"));
+        merge.setProperty("propName0", "merged");
+        manager.merge(merge);
+        manager.delete(BeanId.create("beanId2", "beanType"));
+
+        reopen();
+
+        assertThat(manager.list("beanType").size(), is(9));
+        assertEquals("merged", manager.getLazy(merge.getId()).getSingleValue("propName0"));
+        assertEquals("1", manager.getLazy(BeanId.create("beanId3", "beanType")).getValues(
+                "propName1").get(1));
+        try {
+            manager.getLazy(BeanId.create("beanId2", "beanType"));
+            fail("Bean was deleted before recovery.");
+        } catch (AbortRuntimeException e) {
+            assertThat(e.getEvent().getCode(), is(CFG304));
+        }
+    }
+
+    @Test
+    public void testTornRecordIsTruncated() throws IOException {
+        manager.create(generateBeans(2, 2));
+        manager.store().close();
+        File last = lastSegment();
+        FileOutputStream out = new FileOutputStream(last, true);
+        try {
+            // a record header that claim more bytes than was written
+            out.write(new byte[] { 0, 0, 1, 0, 1, 2, 3, 4, 5 });
+        } finally {
+            out.close();
+        }
+        long tornLength = last.length();
+        manager = new LogBeanManager();
+        assertThat(manager.list("beanType").size(), is(2));
+        assertTrue(last.length() < tornLength);
+
+        manager.create(generateBeans(3, 2).subList(2, 3));
+        reopen();
+        assertThat(manager.list("beanType").size(), is(3));
+    }
+
+    @Test
+    public void testCompaction() {
+        manager.create(generateBeans(10, 2));
+        for (int i = 0; i < 500; i++) {
+            Bean merge = Bean.create(BeanId.create("beanId" + (i % 10), "beanType"));
+            merge.setProperty("propName0", Integer.toString(i));
+            manager.merge(merge);
+        }
+        manager.delete(BeanId.create("beanId0", "beanType"));
+        int before = segments().length;
+        assertTrue(manager.store().garbageRatio() > 0.5);
+
+        manager.compact();
+
+        assertTrue(segments().length < before);
+        assertThat(manager.list("beanType").size(), is(9));
+        reopen();
+        Map<BeanId, Bean> beans = manager.list("beanType");
+        assertThat(beans.size(), is(9));
+        assertNull(beans.get(BeanId.create("beanId0", "beanType")));
+        assertEquals("499", beans.get(BeanId.create("beanId9", "beanType")).getSingleValue(
+                "propName0"));
+    }
+
+    @Test
+    public void testQueryFollowWritesAndRecovery() {
+        manager.create(generateBeans(10, 2));
+        Bean merge = Bean.create(BeanId.create("beanId1", "beanType"));
+        merge.setProperty("propName0", "merged");
+        manager.merge(merge);
+        manager.delete(BeanId.create("beanId2", "beanType"));
+
+        for (int i = 0; i < 2; i++) {
+            Map<BeanId, Bean> merged = manager.query("beanType",
+                    field("propName0").is(equal("merged")));
+            assertThat(merged.keySet().iterator().next(), is(merge.getId()));
+            assertThat(merged.size(), is(1));
+            assertThat(manager.query("beanType", field("propName0").is(startsWith("mer"))).size(),
+                    is(1));
+            assertThat(manager.query("beanType", field("propName0").is(equal("0"))).size(), is(8));
+            assertThat(manager.query("beanType", field("propName1").is(equal("0"))).size(), is(9));
+            assertThat(manager.query("otherType", field("propName0").is(equal("0"))).size(), is(0));
+            reopen();
+        }
+    }
+
+    @Test
+    public void testGetEagerlyCyclicReferences() {
+        Bean a = Bean.create(BeanId.create("a", "cycle"));
+        Bean b = Bean.create(BeanId.create("b", "cycle"));
+        a.addReference("ref", b.getId());
+        b.addReference("ref", a.getId());
+        manager.create(Arrays.asList(a, b));
+
+        Bean result = manager.getEager(a.getId());
+        Bean refB = result.getFirstReference("ref").getBean();
+        assertThat(refB.getId(), is(b.getId()));
+        assertSame(result, refB.getFirstReference("ref").getBean());
+    }
+
+    @Test
+    public void testVersionSurviveRecovery() {
+        Bean bean = generateBeans(1, 1).get(0);
+        manager.create(bean);
+        manager.merge(bean);
+        assertEquals(2, bean.getVersion());
+
+        reopen();
+
+        assertEquals(2, manager.getLazy(bean.getId()).getVersion());
+    }
+
+    private void reopen() {
+        manager.store().close();
+        manager = new LogBeanManager();
+    }
+
+    private File[] segments() {
+        return new File(System.getProperty(LogBeanManager.LOG_BEAN_STORAGE_DIR_PROP)).listFiles();
+    }
+
+    private File lastSegment() {
+        File[] segments = segments();
+        Arrays.sort(segments);
+        return segments[segments.length - 1];
+    }
+
+    public List<Bean> generateBeans(int numBeans, int numProps) {
+        ArrayList<Bean> beans = new ArrayList<Bean>();
+        for (int i = 0; i < numBeans; i++) {
+            Bean bean = Bean.create(BeanId.create("beanId" + i, "beanType"));
+            for (int j = 0; j < numProps; j++) {
+                bean.addProperty("propName" + j, Arrays.asList("0", "1", "2"));
+            }
+            beans.add(bean);
+        }
+        return beans;
+    }
+}
@@ -0,0 +1,52 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.internal.core.log;
+
+import java.io.File;
+
+import org.deephacks.tools4j.config.internal.core.xml.XmlSchemaManager;
+import org.deephacks.tools4j.config.spi.BeanManager;
+import org.deephacks.tools4j.config.spi.SchemaManager;
+import org.deephacks.tools4j.config.spi.ValidationManager;
+import org.deephacks.tools4j.config.test.ConfigTckTests;
+import org.deephacks.tools4j.config.test.XmlStorageHelper;
+import org.deephacks.tools4j.internal.core.jsr303.Jsr303ValidationManager;
+import org.deephacks.tools4j.support.lookup.MockLookup;
+import org.deephacks.tools4j.support.test.JUnitUtils;
+
+public class LogConfigTckTest extends ConfigTckTests {
+
+    @Override
+    public void before() {
+        XmlStorageHelper.clearAndInit(LogConfigTckTest.class);
+        MockLookup.setMockInstances(BeanManager.class, clearAndInit(LogConfigTckTest.class));
+        MockLookup.addMockInstances(SchemaManager.class, new XmlSchemaManager());
+        MockLookup.addMockInstances(ValidationManager.class, new Jsr303ValidationManager());
+    }
+
+    /**
+     * Close the store and remove all segments of a log bean manager that 
+     * store its beans in the target directory of the project.
+     */
+    static LogBeanManager clearAndInit(Class<?> projectLocalClass) {
+        File dir = JUnitUtils.getMavenProjectChildFile(projectLocalClass, "target");
+        dir = new File(dir, LogBeanManager.LOG_BEAN_DIR_NAME);
+        System.setProperty(LogBeanManager.LOG_BEAN_STORAGE_DIR_PROP, dir.getAbsolutePath());
+        new LogBeanManager().store().close();
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        return new LogBeanManager();
+    }
+}
@@ -0,0 +1,113 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.internal.core.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.management.MBeanServer;
+
+import org.deephacks.tools4j.config.internal.core.xml.XmlBeanManager;
+import org.deephacks.tools4j.config.model.Bean;
+import org.deephacks.tools4j.config.model.Bean.BeanId;
+import org.deephacks.tools4j.config.spi.BeanManager;
+import org.deephacks.tools4j.config.spi.MetricsSink;
+import org.deephacks.tools4j.config.test.XmlStorageHelper;
+import org.deephacks.tools4j.support.event.AbortRuntimeException;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MetricsTest {
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    private final RecordingSink sink = new RecordingSink();
+    private Metrics metrics;
+
+    @Before
+    public void before() {
+        XmlStorageHelper.clearAndInit(MetricsTest.class);
+        metrics = new Metrics(sink, server);
+    }
+
+    @Test
+    public void test_timer() {
+        Timer timer = metrics.timer("test");
+        assertSame(timer, metrics.timer("test"));
+        for (int i = 0; i < 99; i++) {
+            timer.record(1000, 2, false);
+        }
+        timer.record(1000000, 0, true);
+        assertEquals(100, timer.getCount());
+        assertEquals(1, timer.getFailures());
+        assertEquals(198, timer.getTotalSize());
+        assertEquals(1000, timer.getMaxMicros());
+        // 1000 nanos is counted in the bucket up to 1024 nanos
+        assertEquals(1, timer.getMedianMicros());
+        assertEquals(1, timer.get99thPercentileMicros());
+        assertEquals(1000, timer.getPercentileMicros(1.0));
+        timer.reset();
+        assertEquals(0, timer.getCount());
+        assertEquals(0, timer.get99thPercentileMicros());
+    }
+
+    @Test
+    public void test_bean_manager_calls() throws Exception {
+        BeanManager manager = Metrics.meter(new XmlBeanManager(), metrics);
+        Bean b1 = Bean.create(BeanId.create("b1", "java.lang.String"));
+        Bean b2 = Bean.create(BeanId.create("b2", "java.lang.String"));
+        manager.create(Arrays.asList(b1, b2));
+        manager.list("java.lang.String");
+        try {
+            manager.create(b1);
+            fail("Bean already exist");
+        } catch (AbortRuntimeException e) {
+            // expected
+        }
+        Timer create = metrics.timer("BeanManager.create");
+        assertEquals(2, create.getCount());
+        assertEquals(1, create.getFailures());
+        assertEquals(2, create.getTotalSize());
+        Timer list = metrics.timer("BeanManager.list");
+        assertEquals(1, list.getCount());
+        assertEquals(2, list.getTotalSize());
+
+        assertEquals(2L, server.getAttribute(Metrics.objectName("BeanManager.create"), "Count"));
+        assertEquals(3, sink.names.size());
+        assertTrue(sink.names.contains("BeanManager.list"));
+    }
+
+    @Test
+    public void test_disabled() {
+        System.clearProperty(Metrics.ENABLED_PROP);
+        assertNull(Metrics.lookup());
+        BeanManager manager = new XmlBeanManager();
+        assertSame(manager, Metrics.meter(manager, null));
+    }
+
+    private static class RecordingSink extends MetricsSink {
+        private final List<String> names = new ArrayList<String>();
+
+        @Override
+        public synchronized void record(String name, long nanos, int size, boolean failed) {
+            names.add(name);
+        }
+    }
+}
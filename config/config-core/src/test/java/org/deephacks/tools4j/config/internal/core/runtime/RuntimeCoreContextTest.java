@@ -14,9 +14,14 @@
 package org.deephacks.tools4j.config.internal.core.runtime;
 
 import static org.deephacks.tools4j.config.model.Events.CFG108;
+import static org.deephacks.tools4j.config.model.Events.CFG112;
+import static org.deephacks.tools4j.config.model.Events.CFG113;
 import static org.deephacks.tools4j.config.model.Events.CFG306;
+import static org.deephacks.tools4j.config.model.Events.CFG311;
+import static org.junit.Assert.assertEquals;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 import static org.unitils.reflectionassert.ReflectionAssert.assertReflectionEquals;
@@ -26,6 +31,7 @@ import java.util.List;
 
 import org.deephacks.tools4j.config.Config;
 import org.deephacks.tools4j.config.Id;
+import org.deephacks.tools4j.config.RuntimeContext;
 import org.deephacks.tools4j.config.internal.core.xml.XmlBeanManager;
 import org.deephacks.tools4j.config.internal.core.xml.XmlSchemaManager;
 import org.deephacks.tools4j.config.model.Bean;
@@ -73,6 +79,62 @@ public class RuntimeCoreContextTest extends ConfigDefaultSetup {
         assertReflectionEquals(g_list, all, ReflectionComparatorMode.LENIENT_ORDER);
     }
 
+    /**
+     * Test that a bean referenced several times is converted into one instance.
+     */
+    @Test
+    public void test_shared_references() {
+        admin.create(defaultBeans);
+        Grandfather g2_runtime = runtime.get("g2", Grandfather.class);
+        assertSame(g2_runtime.prop20.get("p1"), g2_runtime.prop7.get(0));
+
+        List<Grandfather> all = runtime.all(Grandfather.class);
+        assertThat(all.size(), is(2));
+        assertSame(all.get(0).prop7.get(0), all.get(1).prop7.get(0));
+        assertSame(all.get(0).prop7.get(1), all.get(1).prop7.get(1));
+    }
+
+    /**
+     * Test that references are not loaded until they are accessed.
+     */
+    @Test
+    public void test_get_lazy() {
+        admin.create(defaultBeans);
+        CountingBeanManager counting = new CountingBeanManager();
+        MockLookup.setMockInstances(BeanManager.class, counting);
+        MockLookup.addMockInstances(SchemaManager.class, new XmlSchemaManager());
+        RuntimeContext lazyRuntime = new RuntimeCoreContext();
+
+        Grandfather g2_runtime = lazyRuntime.getLazy("g2", Grandfather.class);
+        assertThat(counting.lazy, is(1));
+        assertThat(g2_runtime.prop7.size(), is(2));
+        // two parents and their single reference children, but not their child lists
+        assertThat(counting.lazy, is(5));
+        assertThat(counting.eager, is(0));
+        // already converted parents are not loaded again
+        assertSame(g2_runtime.prop7.get(0), g2_runtime.prop20.get("p1"));
+        assertThat(counting.lazy, is(5));
+        assertReflectionEquals(g2, g2_runtime, ReflectionComparatorMode.LENIENT_ORDER);
+    }
+
+    private static class CountingBeanManager extends XmlBeanManager {
+        private static final long serialVersionUID = 1L;
+        private int eager = 0;
+        private int lazy = 0;
+
+        @Override
+        public Bean getEager(BeanId id) {
+            eager++;
+            return super.getEager(id);
+        }
+
+        @Override
+        public Bean getLazy(BeanId id) {
+            lazy++;
+            return super.getLazy(id);
+        }
+    }
+
     /**
      * Test that final @Property are treated as immutable, that AdminContext should not be able
      * to set it.
@@ -173,6 +235,97 @@ public class RuntimeCoreContextTest extends ConfigDefaultSetup {
 
     }
 
+    @Test
+    public void test_get_by_index() {
+        runtime.register(IndexedConfig.class);
+        admin.create(Arrays.asList(indexed("a", "a@host", "80"), indexed("b", "b@host", "80"),
+                indexed("c", "c@host", "81")));
+        List<IndexedConfig> byEmail = runtime.getByIndex("email", "b@host", IndexedConfig.class);
+        assertEquals(1, byEmail.size());
+        assertEquals("b", byEmail.get(0).id);
+        List<IndexedConfig> byPort = runtime.getByIndex("port", 80, IndexedConfig.class);
+        assertEquals(2, byPort.size());
+        assertEquals(0, runtime.getByIndex("port", 82, IndexedConfig.class).size());
+        try {
+            runtime.getByIndex("desc", "desc", IndexedConfig.class);
+            fail("Lookup on a property that is not indexed should not be allowed");
+        } catch (AbortRuntimeException e) {
+            assertThat(e.getEvent().getCode(), is(CFG113));
+        }
+    }
+
+    @Test
+    public void test_unique_index_violation() {
+        runtime.register(IndexedConfig.class);
+        admin.create(Arrays.asList(indexed("a", "a@host", "80"), indexed("b", "b@host", "80")));
+        try {
+            admin.create(indexed("c", "a@host", "81"));
+            fail("Unique value should not be used twice");
+        } catch (AbortRuntimeException e) {
+            assertThat(e.getEvent().getCode(), is(CFG311));
+        }
+        try {
+            admin.create(Arrays.asList(indexed("c", "c@host", "81"),
+                    indexed("d", "c@host", "81")));
+            fail("Unique value should not be used twice");
+        } catch (AbortRuntimeException e) {
+            assertThat(e.getEvent().getCode(), is(CFG311));
+        }
+        Bean merge = Bean.create(BeanId.create("b", "indexed"));
+        merge.setProperty("email", "a@host");
+        try {
+            admin.merge(merge);
+            fail("Unique value should not be used twice");
+        } catch (AbortRuntimeException e) {
+            assertThat(e.getEvent().getCode(), is(CFG311));
+        }
+        // a bean can keep its own value and values can be swapped
+        admin.set(indexed("a", "a@host", "81"));
+        admin.set(Arrays.asList(indexed("a", "b@host", "80"), indexed("b", "a@host", "80")));
+        assertEquals("b", runtime.getByIndex("email", "a@host", IndexedConfig.class).get(0).id);
+    }
+
+    @Test
+    public void test_illegal_index() {
+        try {
+            runtime.register(IllegalIndexConfig.class);
+            fail("References should not be indexed");
+        } catch (AbortRuntimeException e) {
+            assertThat(e.getEvent().getCode(), is(CFG112));
+        }
+    }
+
+    private static Bean indexed(String id, String email, String port) {
+        Bean bean = Bean.create(BeanId.create(id, "indexed"));
+        bean.setProperty("email", email);
+        bean.setProperty("port", port);
+        return bean;
+    }
+
+    @Config(name = "indexed", desc = "")
+    final class IndexedConfig {
+        @Id(desc = "")
+        private String id;
+
+        @Config(desc = "", unique = true)
+        private String email;
+
+        @Config(desc = "", index = true)
+        private Integer port;
+
+        @Config(desc = "")
+        private String desc;
+    }
+
+    @Config(name = "illegalindex", desc = "")
+    final class IllegalIndexConfig {
+        @Id(desc = "")
+        private String id;
+
+        @Config(desc = "", index = true)
+        private Grandfather grandfather;
+    }
+
     @Test
     public void test_singleton() {
         @Config(desc = "")
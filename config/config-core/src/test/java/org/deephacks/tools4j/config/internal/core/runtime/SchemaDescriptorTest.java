@@ -0,0 +1,194 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.internal.core.runtime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.Properties;
+
+import javax.tools.JavaCompiler;
+import javax.tools.JavaCompiler.CompilationTask;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.deephacks.tools4j.config.Config;
+import org.deephacks.tools4j.config.ConfigSchemaAnnotationProcessor;
+import org.deephacks.tools4j.config.model.Schema;
+import org.deephacks.tools4j.config.model.Schema.SchemaProperty;
+import org.deephacks.tools4j.config.model.Schema.SchemaPropertyList;
+import org.deephacks.tools4j.config.model.Schema.SchemaPropertyRef;
+import org.deephacks.tools4j.config.model.Schema.SchemaPropertyRefList;
+import org.deephacks.tools4j.config.model.Schema.SchemaPropertyRefMap;
+import org.deephacks.tools4j.support.conversion.Conversion;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.io.Files;
+
+/**
+ * Compile configurables with the {@link ConfigSchemaAnnotationProcessor} and check
+ * that schemas of the generated descriptors are the same as those created by
+ * reflection.
+ */
+public class SchemaDescriptorTest {
+    private static final String[] SOURCE = {
+            "package descriptor;",
+            "import java.util.*;",
+            "import org.deephacks.tools4j.config.*;",
+            "public class Sample {",
+            "  public enum Color { RED, BLUE }",
+            "  @Config(desc = \"base\") public class Base {",
+            "    @Id(desc = \"id\") String id;",
+            "    @Config(desc = \"inherited\") String inherited = \"base\";",
+            "  }",
+            "  @Config(name = \"parent\", desc = \"a parent\") public class Parent extends Base {",
+            "    @Config(desc = \"constant\") final int constant = 5;",
+            "    @Config(name = \"text\", desc = \"desc with = and \\u00e5\", index = true) String string = \"v\";",
+            "    @Config(desc = \"no default\", unique = true) Integer none;",
+            "    @Config(desc = \"primitive\") long primitive;",
+            "    @Config(desc = \"negative\") double negative = -1;",
+            "    @Config(desc = \"enum\") Color color = Color.BLUE;",
+            "    @Config(desc = \"static\") static final String STATIC = \"s\";",
+            "    @Config(desc = \"list\") List<String> list = Arrays.asList(\"a\", \"b\");",
+            "    @Config(desc = \"empty\") Set<Color> colors;",
+            "    @Config(desc = \"ref\") Child child;",
+            "    @Config(desc = \"singleton\") Single single;",
+            "    @Config(desc = \"refs\") List<Child> children;",
+            "    @Config(desc = \"map\") Map<String, Child> map;",
+            "  }",
+            "  @Config(desc = \"child\") public class Child {",
+            "    @Id(name = \"childId\", desc = \"id\") String id;",
+            "  }",
+            "  @Config(name = \"single\", desc = \"singleton\") public class Single {",
+            "    @Id(desc = \"id\") static final String id = \"single\";",
+            "  }",
+            "  @Config(desc = \"invalid\") public class Invalid {",
+            "    @Id(desc = \"id\") String id;",
+            "    @Config(desc = \"transient\") transient String value;",
+            "  }",
+            "}" };
+    private static File classes;
+    private static ClassLoader classLoader;
+
+    @BeforeClass
+    public static void compile() throws Exception {
+        File dir = Files.createTempDir();
+        classes = dir;
+        File source = new File(dir, "Sample.java");
+        Files.write(Joiner.on('\n').join(SOURCE), source, Charsets.UTF_8);
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        StandardJavaFileManager files = compiler.getStandardFileManager(null, null, null);
+        String classpath = new File(Config.class.getProtectionDomain().getCodeSource()
+                .getLocation().toURI()).getAbsolutePath();
+        CompilationTask task = compiler.getTask(null, files, null,
+                Arrays.asList("-d", dir.getAbsolutePath(), "-cp", classpath),
+                null, files.getJavaFileObjects(source));
+        task.setProcessors(Arrays.asList(new ConfigSchemaAnnotationProcessor()));
+        assertTrue(task.call());
+        files.close();
+        classLoader = new URLClassLoader(new URL[] { dir.toURI().toURL() },
+                SchemaDescriptorTest.class.getClassLoader());
+        Conversion.get().register(new FieldToSchemaPropertyConverter());
+    }
+
+    @Test
+    public void test_descriptor_same_as_reflection() throws Exception {
+        for (String name : new String[] { "Parent", "Child", "Single" }) {
+            Class<?> clazz = classLoader.loadClass("descriptor.Sample$" + name);
+            SchemaDescriptor descriptor = SchemaDescriptor.load(clazz);
+            assertNotNull(name, descriptor);
+            assertSame(new ClassToSchemaConverter().introspect(clazz), descriptor.toSchema());
+        }
+    }
+
+    @Test
+    public void test_descriptor_values() throws Exception {
+        Class<?> clazz = classLoader.loadClass("descriptor.Sample$Parent");
+        Schema schema = new ClassToSchemaConverter().convert(clazz, Schema.class);
+        assertEquals("parent", schema.getName());
+        assertEquals("desc with = and \u00e5", schema.get(SchemaProperty.class, "text").getDesc());
+        assertEquals("base", schema.get(SchemaProperty.class, "inherited").getDefaultValue());
+        assertEquals("5", schema.get(SchemaProperty.class, "constant").getDefaultValue());
+        assertEquals("-1.0", schema.get(SchemaProperty.class, "negative").getDefaultValue());
+        assertNull(schema.get(SchemaProperty.class, "none").getDefaultValue());
+        assertEquals(Arrays.asList("a", "b"), schema.get(SchemaPropertyList.class, "list")
+                .getDefaultValues());
+        assertTrue(schema.get(SchemaPropertyRef.class, "single").isSingleton());
+    }
+
+    @Test
+    public void test_stale_descriptor() throws Exception {
+        String path = ConfigSchemaAnnotationProcessor.OUTPUT_DIR + "descriptor.Sample$Parent";
+        Properties properties = new Properties();
+        InputStream in = classLoader.getResourceAsStream(path);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        // a field that was removed after the descriptor was generated
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith("field.list.")) {
+                properties.setProperty(key.replace("field.list.", "field.removed."),
+                        properties.getProperty(key));
+            }
+        }
+        File stale = Files.createTempDir();
+        File file = new File(stale, path);
+        Files.createParentDirs(file);
+        OutputStream out = new FileOutputStream(file);
+        try {
+            properties.store(out, null);
+        } finally {
+            out.close();
+        }
+        ClassLoader cl = new URLClassLoader(new URL[] { stale.toURI().toURL(),
+                classes.toURI().toURL() }, SchemaDescriptorTest.class.getClassLoader());
+        Class<?> clazz = cl.loadClass("descriptor.Sample$Parent");
+        ClassToSchemaConverter converter = new ClassToSchemaConverter();
+        assertSame(converter.introspect(clazz), converter.convert(clazz, Schema.class));
+    }
+
+    @Test
+    public void test_invalid_configurable_has_no_descriptor() throws Exception {
+        assertNull(SchemaDescriptor.load(classLoader.loadClass("descriptor.Sample$Invalid")));
+    }
+
+    private static void assertSame(Schema expected, Schema actual) {
+        assertEquals(expected.getId().toString(), actual.getId().toString());
+        assertEquals(expected.getId().isSingleton(), actual.getId().isSingleton());
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getType(), actual.getType());
+        assertEquals(expected.getDesc(), actual.getDesc());
+        assertEquals(expected.get(SchemaProperty.class), actual.get(SchemaProperty.class));
+        assertEquals(expected.get(SchemaPropertyList.class), actual.get(SchemaPropertyList.class));
+        assertEquals(expected.get(SchemaPropertyRef.class), actual.get(SchemaPropertyRef.class));
+        assertEquals(expected.get(SchemaPropertyRefList.class),
+                actual.get(SchemaPropertyRefList.class));
+        assertEquals(expected.get(SchemaPropertyRefMap.class),
+                actual.get(SchemaPropertyRefMap.class));
+    }
+}
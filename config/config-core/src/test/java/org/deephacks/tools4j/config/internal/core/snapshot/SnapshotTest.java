@@ -0,0 +1,149 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.internal.core.snapshot;
+
+import static org.deephacks.tools4j.config.model.Criteria.equal;
+import static org.deephacks.tools4j.config.model.Criteria.field;
+import static org.deephacks.tools4j.config.model.Events.CFG204;
+import static org.deephacks.tools4j.config.test.ConfigTestData.CHILD_SCHEMA_NAME;
+import static org.deephacks.tools4j.config.test.ConfigTestData.GRANDFATHER_SCHEMA_NAME;
+import static org.deephacks.tools4j.config.test.ConfigTestData.PARENT_SCHEMA_NAME;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.deephacks.tools4j.config.internal.core.invalidation.LoopbackBroadcaster;
+import org.deephacks.tools4j.config.internal.core.xml.XmlBeanManager;
+import org.deephacks.tools4j.config.internal.core.xml.XmlSchemaManager;
+import org.deephacks.tools4j.config.model.Bean;
+import org.deephacks.tools4j.config.model.Bean.BeanId;
+import org.deephacks.tools4j.config.model.Criteria;
+import org.deephacks.tools4j.config.spi.BeanManager;
+import org.deephacks.tools4j.config.spi.SchemaManager;
+import org.deephacks.tools4j.config.test.ConfigDefaultSetup;
+import org.deephacks.tools4j.config.test.XmlStorageHelper;
+import org.deephacks.tools4j.support.event.AbortRuntimeException;
+import org.deephacks.tools4j.support.lookup.MockLookup;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.io.Files;
+
+public class SnapshotTest extends ConfigDefaultSetup {
+    private static final BeanId G1 = BeanId.create("g1", GRANDFATHER_SCHEMA_NAME);
+    private XmlBeanManager beanManager = new XmlBeanManager();
+    private XmlSchemaManager schemaManager = new XmlSchemaManager();
+    private File file;
+
+    @Before
+    public void before() {
+        XmlStorageHelper.clearAndInit(SnapshotTest.class);
+        MockLookup.setMockInstances(BeanManager.class, beanManager);
+        MockLookup.addMockInstances(SchemaManager.class, schemaManager);
+        setupDefaultConfigData();
+        admin.create(defaultBeans);
+        file = new File(Files.createTempDir(), "config.snapshot");
+    }
+
+    @Test
+    public void test_write_and_read() {
+        assertThat(Snapshot.write(file, schemaManager, beanManager), is(7L));
+        Snapshot snapshot = Snapshot.read(file);
+        assertThat(snapshot.getSchemas(), is(schemaManager.getSchemas()));
+        assertThat(snapshot.getBeans().get(CHILD_SCHEMA_NAME).size(), is(2));
+        assertThat(snapshot.getBeans().get(PARENT_SCHEMA_NAME).size(), is(2));
+    }
+
+    @Test
+    public void test_corrupt_snapshot() throws Exception {
+        Snapshot.write(file, schemaManager, beanManager);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.seek(raf.length() - 1);
+        int b = raf.read();
+        raf.seek(raf.length() - 1);
+        raf.write(b ^ 0xff);
+        raf.close();
+        try {
+            Snapshot.read(file);
+            fail("Snapshot is corrupt");
+        } catch (AbortRuntimeException e) {
+            assertThat(e.getEvent().getCode(), is(CFG204));
+        }
+    }
+
+    @Test
+    public void test_read_from_snapshot_until_released() {
+        Snapshot.write(file, schemaManager, beanManager);
+        SnapshotBootstrap bootstrap = new SnapshotBootstrap(Snapshot.read(file), schemaManager,
+                beanManager);
+        // remove from storage behind the back of the snapshot
+        beanManager.delete(G1);
+
+        BeanManager snapshotBeans = bootstrap.getBeanManager();
+        Bean g1Bean = snapshotBeans.getEager(G1);
+        assertNotNull(g1Bean);
+        // references are assembled from the snapshot
+        for (BeanId ref : g1Bean.getReferences()) {
+            assertNotNull(ref.getBean());
+        }
+        Map<BeanId, Bean> children = snapshotBeans.list(CHILD_SCHEMA_NAME);
+        assertThat(children.size(), is(2));
+        Criteria value = field("prop1").is(equal("value"));
+        assertThat(snapshotBeans.query(GRANDFATHER_SCHEMA_NAME, value).containsKey(G1), is(true));
+        assertThat(bootstrap.getSchemaManager().getSchemas().size(),
+                is(schemaManager.getSchemas().size()));
+        // changes are delegated, xml storage does not keep track of them
+        assertThat(snapshotBeans.isChangeLogSupported(), is(false));
+        assertThat(snapshotBeans.getChangesSince(0, Integer.MAX_VALUE).size(), is(0));
+
+        bootstrap.catchUp();
+        try {
+            snapshotBeans.getEager(G1);
+            fail("Bean has been deleted from storage");
+        } catch (AbortRuntimeException e) {
+            // expected
+        }
+        // queries are delegated once released
+        assertThat(snapshotBeans.query(GRANDFATHER_SCHEMA_NAME, value).containsKey(G1), is(false));
+    }
+
+    @Test
+    public void test_write_releases_snapshot() {
+        Snapshot.write(file, schemaManager, beanManager);
+        SnapshotBootstrap bootstrap = new SnapshotBootstrap(Snapshot.read(file), schemaManager,
+                beanManager);
+        bootstrap.getBeanManager().delete(BeanId.create("g2", GRANDFATHER_SCHEMA_NAME));
+        assertThat(bootstrap.getSnapshot() == null, is(true));
+    }
+
+    @Test
+    public void test_write_of_other_node_releases_snapshot() {
+        Snapshot.write(file, schemaManager, beanManager);
+        SnapshotBootstrap bootstrap = new SnapshotBootstrap(Snapshot.read(file), schemaManager,
+                beanManager);
+        LoopbackBroadcaster node = new LoopbackBroadcaster("test_write_of_other_node");
+        LoopbackBroadcaster other = new LoopbackBroadcaster("test_write_of_other_node");
+        bootstrap.listen(node);
+        other.broadcast(Arrays.asList(G1));
+        assertThat(bootstrap.getSnapshot() == null, is(true));
+        node.close();
+        other.close();
+    }
+}
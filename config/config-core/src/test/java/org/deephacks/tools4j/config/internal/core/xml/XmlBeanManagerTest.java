@@ -15,11 +15,17 @@ package org.deephacks.tools4j.config.internal.core.xml;
 
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.deephacks.tools4j.config.model.Bean;
 import org.deephacks.tools4j.config.model.Bean.BeanId;
@@ -103,6 +109,71 @@ public class XmlBeanManagerTest {
         assertEquals(childBean.getSingleValue("property2"), "false");
     }
 
+    @Test
+    public void testGetEagerlyCyclicReferences() {
+        Bean a = Bean.create(BeanId.create("a", "cycle"));
+        Bean b = Bean.create(BeanId.create("b", "cycle"));
+        a.addReference("ref", b.getId());
+        b.addReference("ref", a.getId());
+        manager.create(Arrays.asList(a, b));
+
+        Bean result = manager.getEager(a.getId());
+        Bean refB = result.getFirstReference("ref").getBean();
+        assertThat(refB.getId(), is(b.getId()));
+        assertSame(result, refB.getFirstReference("ref").getBean());
+    }
+
+    @Test
+    public void testListSharesReferences() {
+        Bean child = Bean.create(BeanId.create("child", "child"));
+        manager.create(child);
+        for (int i = 0; i < 3; i++) {
+            Bean parent = Bean.create(BeanId.create("parent" + i, "parent"));
+            parent.addReference("ref", BeanId.create("child", "child"));
+            manager.create(parent);
+        }
+        Map<BeanId, Bean> parents = manager.list("parent");
+        assertThat(parents.size(), is(3));
+        Bean shared = null;
+        for (Bean parent : parents.values()) {
+            Bean ref = parent.getFirstReference("ref").getBean();
+            if (shared == null) {
+                shared = ref;
+            }
+            assertSame(shared, ref);
+        }
+    }
+
+    @Test
+    public void testConcurrentWriters() throws Exception {
+        final int threads = 4;
+        final int beansPerThread = 10;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (int i = 0; i < threads; i++) {
+                final int thread = i;
+                futures.add(executor.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int j = 0; j < beansPerThread; j++) {
+                            manager.create(Bean.create(BeanId.create(thread + "-" + j, "concurrent")));
+                            manager.list("concurrent");
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        // no write may be lost
+        assertThat(manager.list("concurrent").size(), is(threads * beansPerThread));
+    }
+
     public List<Bean> generateBeans(int numBeans, int numProps) {
         ArrayList<Bean> beans = new ArrayList<Bean>();
         for (int i = 0; i < numBeans; i++) {
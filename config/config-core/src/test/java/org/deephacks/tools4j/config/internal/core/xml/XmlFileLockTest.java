@@ -0,0 +1,69 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.internal.core.xml;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.deephacks.tools4j.support.test.JUnitUtils;
+import org.junit.After;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+public class XmlFileLockTest {
+    private File dir;
+
+    @Before
+    public void before() {
+        dir = JUnitUtils.getMavenProjectChildFile(XmlFileLockTest.class, "target/"
+                + XmlFileLockTest.class.getSimpleName() + "-" + System.nanoTime());
+        assertTrue(dir.mkdirs());
+    }
+
+    @After
+    public void after() {
+        dir.setWritable(true);
+        for (File file : dir.listFiles()) {
+            file.delete();
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void test_write_after_read_of_existing_lock_file() throws IOException {
+        File file = new File(dir, "beans.xml");
+        assertTrue(new File(dir, "beans.xml" + XmlFileLock.LOCK_FILE_SUFFIX).createNewFile());
+        XmlFileLock lock = XmlFileLock.get(file);
+        lock.lockRead();
+        lock.unlockRead();
+        // the channel opened read-only by the reader must be reopened
+        lock.lockWrite();
+        lock.unlockWrite();
+    }
+
+    @Test
+    public void test_read_in_read_only_directory() {
+        File file = new File(dir, "beans.xml");
+        dir.setWritable(false);
+        Assume.assumeTrue(!dir.canWrite());
+        XmlFileLock lock = XmlFileLock.get(file);
+        lock.lockRead();
+        lock.unlockRead();
+        assertFalse(new File(dir, "beans.xml" + XmlFileLock.LOCK_FILE_SUFFIX).exists());
+    }
+}
@@ -48,6 +48,7 @@ public class Bean implements Serializable {
     private static final long serialVersionUID = 887497852221101546L;
     private BeanId id;
     private Schema schema;
+    private long version;
     private HashMap<String, List<String>> properties = new HashMap<String, List<String>>();
     private HashMap<String, List<BeanId>> references = new HashMap<String, List<BeanId>>();
 
@@ -93,6 +94,31 @@ public class Bean implements Serializable {
         this.schema = schema;
     }
 
+    /**
+     * Version stamp of the stored bean instance at the time it was fetched. The
+     * stamp start at 1 when the bean is created and is increased by the bean
+     * manager every time the instance is changed.
+     * 
+     * @return version of the bean, or 0 if the version is not known.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Set the version that the bean instance is expected to have in storage.
+     * <p>
+     * Set, merge and delete operations on a bean with a version will fail if the
+     * stored instance have a different version, meaning that someone else have
+     * changed it since it was read. Version 0 will overwrite any version.
+     * </p>
+     * 
+     * @param version expected version.
+     */
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
     /**
      * Return the list of property names which have values. Properties
      * with default values are not returned.
@@ -403,7 +429,8 @@ public class Bean implements Serializable {
     @Override
     public String toString() {
         return Objects.toStringHelper(Bean.class).add("id", id).add("schema", schema)
-                .add("properties", properties).add("references", references).toString();
+                .add("version", version).add("properties", properties)
+                .add("references", references).toString();
     }
 
     /**
@@ -0,0 +1,99 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.model;
+
+import static com.google.common.base.Objects.equal;
+
+import java.io.Serializable;
+
+import org.deephacks.tools4j.config.model.Bean.BeanId;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+
+/**
+ * <p>
+ * BeanChange record that a bean was changed by a committed transaction.
+ * </p>
+ * <p>
+ * Changes are numbered by a sequence that increase with every change and
+ * follow the order in which changes were committed. A change only tell
+ * which bean changed and how, the state of the bean must be fetched from
+ * the bean manager.
+ * </p>
+ */
+public final class BeanChange implements Serializable {
+    private static final long serialVersionUID = -1882936417493553474L;
+    private final long sequence;
+    private final BeanId id;
+    private final Operation operation;
+    private final long version;
+
+    public static enum Operation {
+        CREATE, SET, MERGE, DELETE
+    }
+
+    private BeanChange(long sequence, BeanId id, Operation operation, long version) {
+        this.sequence = sequence;
+        this.id = Preconditions.checkNotNull(id);
+        this.operation = Preconditions.checkNotNull(operation);
+        this.version = version;
+    }
+
+    /**
+     * @param sequence sequence number of the change.
+     * @param id the bean that was changed.
+     * @param operation how the bean was changed.
+     * @param version version of the bean after the change, 0 if unknown.
+     */
+    public static BeanChange create(long sequence, BeanId id, Operation operation, long version) {
+        return new BeanChange(sequence, id, operation, version);
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public BeanId getId() {
+        return id;
+    }
+
+    public Operation getOperation() {
+        return operation;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (!(obj instanceof BeanChange)) {
+            return false;
+        }
+        BeanChange o = (BeanChange) obj;
+        return sequence == o.sequence && equal(id, o.id) && equal(operation, o.operation);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(sequence, id, operation);
+    }
+
+    @Override
+    public String toString() {
+        return Objects.toStringHelper(BeanChange.class).add("sequence", sequence).add("id", id)
+                .add("operation", operation).add("version", version).toString();
+    }
+}
@@ -0,0 +1,325 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.model;
+
+import static com.google.common.base.Objects.toStringHelper;
+
+import java.io.Serializable;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
+
+/**
+ * <p>
+ * A criteria select beans of a schema by the values of their properties.
+ * </p>
+ * <pre>
+ * Criteria c = field("port").is(between(8000, 8999)).and(field("host").is(startsWith("srv")));
+ * </pre>
+ * <p>
+ * Each restriction must be satisfied by at least one value of its property,
+ * and every restriction must be satisfied for a bean to match. Beans that do not
+ * have the property never match.
+ * </p>
+ * <p>
+ * Restrictions are plain values, rather than code, so that bean managers can
+ * translate them into queries of their storage and only fetch matching beans.
+ * </p>
+ */
+public final class Criteria implements Predicate<Bean>, Serializable {
+    private static final long serialVersionUID = 4312286810327245537L;
+    private final Map<String, List<Restriction>> restrictions = new LinkedHashMap<String, List<Restriction>>();
+    private String fieldName;
+
+    private Criteria(String fieldName, Restriction restriction) {
+        this.fieldName = fieldName;
+        add(fieldName, restriction);
+    }
+
+    public static Builder field(String propertyName) {
+        return new Builder(propertyName);
+    }
+
+    /**
+     * Restrict the property of this criteria further.
+     */
+    public Criteria and(Restriction restriction) {
+        add(fieldName, restriction);
+        return this;
+    }
+
+    /**
+     * Also require the restrictions of another criteria.
+     */
+    public Criteria and(Criteria criteria) {
+        for (String name : criteria.restrictions.keySet()) {
+            for (Restriction restriction : criteria.restrictions.get(name)) {
+                add(name, restriction);
+            }
+        }
+        fieldName = criteria.fieldName;
+        return this;
+    }
+
+    /**
+     * @return restrictions indexed on property name.
+     */
+    public Map<String, List<Restriction>> getRestrictions() {
+        return Collections.unmodifiableMap(restrictions);
+    }
+
+    @Override
+    public boolean apply(Bean bean) {
+        for (String name : restrictions.keySet()) {
+            List<String> values = bean.getValues(name);
+            if (values == null) {
+                return false;
+            }
+            for (Restriction restriction : restrictions.get(name)) {
+                if (!restriction.matchAny(values)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void add(String name, Restriction restriction) {
+        Preconditions.checkNotNull(restriction);
+        List<Restriction> list = restrictions.get(name);
+        if (list == null) {
+            list = new ArrayList<Restriction>();
+            restrictions.put(name, list);
+        }
+        list.add(restriction);
+    }
+
+    @Override
+    public String toString() {
+        return toStringHelper(Criteria.class).add("restrictions", restrictions).toString();
+    }
+
+    public static class Builder {
+        private final String fieldName;
+
+        private Builder(String name) {
+            this.fieldName = Preconditions.checkNotNull(name);
+        }
+
+        public Criteria is(Restriction restriction) {
+            return new Criteria(fieldName, restriction);
+        }
+    }
+
+    /**
+     * If a value is equal to another value.
+     */
+    public static Restriction equal(Object value) {
+        return new Restriction(Restriction.Type.EQUAL, false, toStrings(Arrays.asList(value)));
+    }
+
+    /**
+     * If a value is equal to any of the given values.
+     */
+    public static Restriction in(Object... values) {
+        return in(Arrays.asList(values));
+    }
+
+    /**
+     * If a value is equal to any of the given values.
+     */
+    public static Restriction in(Collection<?> values) {
+        Preconditions.checkArgument(!values.isEmpty(), "At least one value is needed.");
+        return new Restriction(Restriction.Type.IN, false, toStrings(values));
+    }
+
+    /**
+     * If a string starts with another string.
+     */
+    public static Restriction startsWith(String prefix) {
+        return new Restriction(Restriction.Type.PREFIX, false, toStrings(Arrays.asList(prefix)));
+    }
+
+    /**
+     * If a string is between two other strings, both inclusive. A null bound is
+     * unbounded.
+     */
+    public static Restriction between(String lower, String upper) {
+        return new Restriction(Restriction.Type.RANGE, false, Arrays.asList(lower, upper));
+    }
+
+    /**
+     * If a number is between two other numbers, both inclusive. A null bound is
+     * unbounded. Values that are not numbers never match.
+     */
+    public static Restriction between(Number lower, Number upper) {
+        return new Restriction(Restriction.Type.RANGE, true, Arrays.asList(
+                lower == null ? null : lower.toString(), upper == null ? null : upper.toString()));
+    }
+
+    /**
+     * If a number is larger or equals.
+     */
+    public static Restriction largerOrEquals(Number value) {
+        return between(Preconditions.checkNotNull(value), null);
+    }
+
+    /**
+     * If a number is less or equals.
+     */
+    public static Restriction lessOrEquals(Number value) {
+        return between(null, Preconditions.checkNotNull(value));
+    }
+
+    private static List<String> toStrings(Collection<?> values) {
+        List<String> strings = new ArrayList<String>();
+        for (Object value : values) {
+            strings.add(Preconditions.checkNotNull(value).toString());
+        }
+        return strings;
+    }
+
+    /**
+     * A restriction on the values of a property.
+     */
+    public static final class Restriction implements Predicate<String>, Serializable {
+        private static final long serialVersionUID = -3024337287018357428L;
+        private final Type type;
+        private final boolean numeric;
+        private final List<String> values;
+
+        public static enum Type {
+            /** equal to the single value */
+            EQUAL,
+            /** equal to any of the values */
+            IN,
+            /** starts with the single value */
+            PREFIX,
+            /** between the lower and upper value, both inclusive */
+            RANGE
+        }
+
+        private Restriction(Type type, boolean numeric, List<String> values) {
+            this.type = type;
+            this.numeric = numeric;
+            this.values = Collections.unmodifiableList(values);
+            if (numeric) {
+                // fail early on bounds that are not numbers
+                getLowerNumber();
+                getUpperNumber();
+            }
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        /**
+         * @return true if values are compared as numbers rather than strings.
+         */
+        public boolean isNumeric() {
+            return numeric;
+        }
+
+        /**
+         * @return the values of the restriction, lower and upper bound for a range.
+         */
+        public List<String> getValues() {
+            return values;
+        }
+
+        /**
+         * @return lower bound of a range or null if unbounded.
+         */
+        public String getLower() {
+            return type == Type.RANGE ? values.get(0) : null;
+        }
+
+        /**
+         * @return upper bound of a range or null if unbounded.
+         */
+        public String getUpper() {
+            return type == Type.RANGE ? values.get(1) : null;
+        }
+
+        @Override
+        public boolean apply(String value) {
+            if (value == null) {
+                return false;
+            }
+            switch (type) {
+            case EQUAL:
+            case IN:
+                return values.contains(value);
+            case PREFIX:
+                return value.startsWith(values.get(0));
+            case RANGE:
+                return numeric ? applyNumber(value) : applyString(value);
+            default:
+                throw new IllegalArgumentException("Unknown type " + type);
+            }
+        }
+
+        boolean matchAny(List<String> values) {
+            for (String value : values) {
+                if (apply(value)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean applyString(String value) {
+            String lower = getLower();
+            String upper = getUpper();
+            return (lower == null || value.compareTo(lower) >= 0)
+                    && (upper == null || value.compareTo(upper) <= 0);
+        }
+
+        private boolean applyNumber(String value) {
+            BigDecimal number;
+            try {
+                number = new BigDecimal(value.trim());
+            } catch (NumberFormatException e) {
+                return false;
+            }
+            BigDecimal lower = getLowerNumber();
+            BigDecimal upper = getUpperNumber();
+            return (lower == null || number.compareTo(lower) >= 0)
+                    && (upper == null || number.compareTo(upper) <= 0);
+        }
+
+        private BigDecimal getLowerNumber() {
+            return getLower() == null ? null : new BigDecimal(getLower());
+        }
+
+        private BigDecimal getUpperNumber() {
+            return getUpper() == null ? null : new BigDecimal(getUpper());
+        }
+
+        @Override
+        public String toString() {
+            return toStringHelper(Restriction.class).add("type", type).add("numeric", numeric)
+                    .add("values", values).toString();
+        }
+    }
+}
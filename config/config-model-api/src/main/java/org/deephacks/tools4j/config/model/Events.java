@@ -192,6 +192,32 @@ public class Events {
         return new AbortRuntimeException(event);
     }
 
+    /**
+     * {@value} - Index on a property that cannot be indexed. 
+     */
+    public static final int CFG112 = 112;
+    private static final String CFG112_MSG = "Property [{0}] is a reference and cannot be indexed.";
+
+    @EventDoc(module = MODULE_NAME, code = CFG112,
+            desc = "Index on a property that cannot be indexed. Only properties that are not references can be indexed.")
+    public static AbortRuntimeException CFG112_ILLEGAL_INDEX(String propertyName) {
+        Event event = new Event(MODULE_NAME, CFG112, MessageFormat.format(CFG112_MSG, propertyName));
+        return new AbortRuntimeException(event);
+    }
+
+    /**
+     * {@value} - Lookup on a property that is not indexed. 
+     */
+    public static final int CFG113 = 113;
+    private static final String CFG113_MSG = "Property [{0}] is not indexed.";
+
+    @EventDoc(module = MODULE_NAME, code = CFG113,
+            desc = "Lookup on a property that is not indexed.")
+    public static AbortRuntimeException CFG113_PROP_NOT_INDEXED(String propertyName) {
+        Event event = new Event(MODULE_NAME, CFG113, MessageFormat.format(CFG113_MSG, propertyName));
+        return new AbortRuntimeException(event);
+    }
+
     /**
      * {@value} - XML schema storage file does not exist. 
      */
@@ -205,6 +231,32 @@ public class Events {
         throw new AbortRuntimeException(event);
     }
 
+    /**
+     * {@value} - Bulk file does not exist.
+     */
+    public static final int CFG203 = 203;
+    static final String CFG203_MSG = "Bulk file does not exist: {0}";
+
+    @EventDoc(module = MODULE_NAME, code = CFG203, desc = "Bulk file does not exist.")
+    public static AbortRuntimeException CFG203_BULK_FILE_MISSING(File file) {
+        Event event = new Event(MODULE_NAME, CFG203, MessageFormat.format(CFG203_MSG,
+                file.getAbsolutePath()));
+        return new AbortRuntimeException(event);
+    }
+
+    /**
+     * {@value} - Snapshot file is corrupt.
+     */
+    public static final int CFG204 = 204;
+    static final String CFG204_MSG = "Snapshot file is corrupt: {0}";
+
+    @EventDoc(module = MODULE_NAME, code = CFG204, desc = "Snapshot file is corrupt. It was not written by this version or its checksum does not match its content.")
+    public static AbortRuntimeException CFG204_SNAPSHOT_CORRUPT(File file) {
+        Event event = new Event(MODULE_NAME, CFG204, MessageFormat.format(CFG204_MSG,
+                file.getAbsolutePath()));
+        return new AbortRuntimeException(event);
+    }
+
     /**
      * {@value} - Bean have a missing runtime references.
      */
@@ -330,4 +382,32 @@ public class Events {
         Event event = new Event(MODULE_NAME, CFG309, MessageFormat.format(CFG309_MSG, msg));
         return new AbortRuntimeException(event);
     }
+
+    /**
+     * {@value} - Bean have been changed concurrently.
+     */
+    public static final int CFG310 = 310;
+    private static final String CFG310_MSG = "Bean {0} have been changed by someone else, expected version {1} but was {2}.";
+
+    @EventDoc(module = MODULE_NAME, code = CFG310, desc = "Bean have been changed concurrently. The stored version of the bean does not match the version that was expected.")
+    public static AbortRuntimeException CFG310_CONCURRENT_MODIFICATION(BeanId id, long expected,
+            long actual) {
+        Event event = new Event(MODULE_NAME, CFG310, MessageFormat.format(CFG310_MSG, id,
+                String.valueOf(expected), String.valueOf(actual)));
+        return new AbortRuntimeException(event);
+    }
+
+    /**
+     * {@value} - Unique property value is already used by another bean.
+     */
+    public static final int CFG311 = 311;
+    private static final String CFG311_MSG = "Bean {0} cannot have value [{2}] of unique property [{1}], it is already used by {3}.";
+
+    @EventDoc(module = MODULE_NAME, code = CFG311, desc = "Unique property value is already used by another bean of the same schema.")
+    public static AbortRuntimeException CFG311_UNIQUE_INDEX_VIOLATION(BeanId id,
+            String propertyName, String value, BeanId existing) {
+        Event event = new Event(MODULE_NAME, CFG311, MessageFormat.format(CFG311_MSG, id,
+                propertyName, value, existing));
+        return new AbortRuntimeException(event);
+    }
 }
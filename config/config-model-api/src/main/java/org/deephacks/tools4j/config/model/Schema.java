@@ -178,6 +178,42 @@ public class Schema implements Serializable {
         return names;
     }
 
+    /**
+     * Returns names of properties that are indexed, see {@link SchemaProperty#isIndexed()}.
+     */
+    public Set<String> getIndexedNames() {
+        Set<String> names = new HashSet<String>();
+        for (SchemaProperty prop : get(SchemaProperty.class)) {
+            if (prop.isIndexed()) {
+                names.add(prop.getName());
+            }
+        }
+        for (SchemaPropertyList prop : get(SchemaPropertyList.class)) {
+            if (prop.isIndexed()) {
+                names.add(prop.getName());
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Returns names of properties that have a unique index.
+     */
+    public Set<String> getUniqueNames() {
+        Set<String> names = new HashSet<String>();
+        for (SchemaProperty prop : get(SchemaProperty.class)) {
+            if (prop.isUnique()) {
+                names.add(prop.getName());
+            }
+        }
+        for (SchemaPropertyList prop : get(SchemaPropertyList.class)) {
+            if (prop.isUnique()) {
+                names.add(prop.getName());
+            }
+        }
+        return names;
+    }
+
     public String toString() {
         return Objects.toStringHelper(Schema.class).add("id", id).add("name", getName())
                 .add("type", getType()).add("desc", getDesc()).add("properties", properties)
@@ -308,13 +344,18 @@ public class Schema implements Serializable {
         private String defaultValue;
         private String type;
         private boolean isEnum;
+        private boolean isIndexed;
+        private boolean isUnique;
 
         private SchemaProperty(String name, String fieldName, String type, String desc,
-                boolean isImmutable, boolean isEnum, String defaultValue) {
+                boolean isImmutable, boolean isEnum, String defaultValue, boolean isIndexed,
+                boolean isUnique) {
             super(name, fieldName, desc, isImmutable);
             this.defaultValue = defaultValue;
             this.isEnum = isEnum;
             this.type = Preconditions.checkNotNull(type);
+            this.isIndexed = isIndexed || isUnique;
+            this.isUnique = isUnique;
         }
 
         /**
@@ -324,7 +365,18 @@ public class Schema implements Serializable {
                 String desc, boolean isImmutable, boolean isEnum, String defaultValue) {
 
             return new SchemaProperty(name, fieldName, type, desc, isImmutable, isEnum,
-                    defaultValue);
+                    defaultValue, false, false);
+        }
+
+        /**
+         * Not to be used by users.
+         */
+        public static SchemaProperty create(String name, String fieldName, String type,
+                String desc, boolean isImmutable, boolean isEnum, String defaultValue,
+                boolean isIndexed, boolean isUnique) {
+
+            return new SchemaProperty(name, fieldName, type, desc, isImmutable, isEnum,
+                    defaultValue, isIndexed, isUnique);
         }
 
         public String getType() {
@@ -339,9 +391,24 @@ public class Schema implements Serializable {
             return defaultValue;
         }
 
+        /**
+         * @return true if beans can be looked up by the value of this property.
+         */
+        public boolean isIndexed() {
+            return isIndexed;
+        }
+
+        /**
+         * @return true if no two beans of the schema may have the same value.
+         */
+        public boolean isUnique() {
+            return isUnique;
+        }
+
         public String toString() {
             return super.toStringHelper(SchemaProperty.class).add("type", getType())
-                    .add("defaultValue", getDefaultValue()).toString();
+                    .add("defaultValue", getDefaultValue()).add("indexed", isIndexed())
+                    .add("unique", isUnique()).toString();
         }
 
         @Override
@@ -356,7 +423,8 @@ public class Schema implements Serializable {
             }
             SchemaProperty o = (SchemaProperty) obj;
             return super.equals(o) && equal(getDefaultValue(), o.getDefaultValue())
-                    && equal(getType(), o.getType());
+                    && equal(getType(), o.getType()) && isIndexed() == o.isIndexed()
+                    && isUnique() == o.isUnique();
         }
     }
 
@@ -369,15 +437,19 @@ public class Schema implements Serializable {
         private String collectionType;
         private List<String> defaultValues;
         private boolean isEnum;
+        private boolean isIndexed;
+        private boolean isUnique;
 
         private SchemaPropertyList(String name, String fieldName, String type, String desc,
                 boolean isImmutable, boolean isEnum, String collectionType,
-                List<String> defaultValues) {
+                List<String> defaultValues, boolean isIndexed, boolean isUnique) {
             super(name, fieldName, desc, isImmutable);
             this.collectionType = Preconditions.checkNotNull(collectionType);
             this.type = Preconditions.checkNotNull(type);
             this.defaultValues = defaultValues;
             this.isEnum = isEnum;
+            this.isIndexed = isIndexed || isUnique;
+            this.isUnique = isUnique;
         }
 
         /**
@@ -387,7 +459,17 @@ public class Schema implements Serializable {
                 String desc, boolean isImmutable, boolean isEnum, List<String> defaultValues,
                 String collectionType) {
             return new SchemaPropertyList(name, fieldName, type, desc, isImmutable, isEnum,
-                    collectionType, defaultValues);
+                    collectionType, defaultValues, false, false);
+        }
+
+        /**
+         * Not to be used by users.
+         */
+        public static SchemaPropertyList create(String name, String fieldName, String type,
+                String desc, boolean isImmutable, boolean isEnum, List<String> defaultValues,
+                String collectionType, boolean isIndexed, boolean isUnique) {
+            return new SchemaPropertyList(name, fieldName, type, desc, isImmutable, isEnum,
+                    collectionType, defaultValues, isIndexed, isUnique);
         }
 
         public String getType() {
@@ -406,10 +488,25 @@ public class Schema implements Serializable {
             return isEnum;
         }
 
+        /**
+         * @return true if beans can be looked up by any of the values of this property.
+         */
+        public boolean isIndexed() {
+            return isIndexed;
+        }
+
+        /**
+         * @return true if no two beans of the schema may have a value in common.
+         */
+        public boolean isUnique() {
+            return isUnique;
+        }
+
         public String toString() {
             return Objects.toStringHelper(SchemaPropertyList.class)
                     .add("type", getCollectionType()).add("collectionType", getCollectionType())
-                    .add("defaultValue", getDefaultValues()).toString();
+                    .add("defaultValue", getDefaultValues()).add("indexed", isIndexed())
+                    .add("unique", isUnique()).toString();
         }
 
         @Override
@@ -426,7 +523,8 @@ public class Schema implements Serializable {
             SchemaPropertyList o = (SchemaPropertyList) obj;
             return equals(o) && equal(getCollectionType(), o.getCollectionType())
                     && equal(getDefaultValues(), o.getDefaultValues())
-                    && equal(getType(), o.getType());
+                    && equal(getType(), o.getType()) && isIndexed() == o.isIndexed()
+                    && isUnique() == o.isUnique();
         }
     }
 
@@ -15,10 +15,16 @@ package org.deephacks.tools4j.config.spi;
 
 import java.io.Serializable;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import org.deephacks.tools4j.config.model.Bean;
 import org.deephacks.tools4j.config.model.Bean.BeanId;
+import org.deephacks.tools4j.config.model.BeanChange;
+import org.deephacks.tools4j.config.model.Criteria;
+import org.deephacks.tools4j.config.model.Events;
 import org.deephacks.tools4j.support.event.AbortRuntimeException;
 
 /**
@@ -42,6 +48,12 @@ import org.deephacks.tools4j.support.event.AbortRuntimeException;
  * maybe authorized through an external security mechanism.
  * </p>
  * <p>
+ * Bean managers keep a version of every bean that is increased each time the 
+ * bean is changed and returned with fetched beans. Set, merge and delete must  
+ * fail with {@link org.deephacks.tools4j.config.model.Events#CFG310} if the 
+ * version of a provided bean is not 0 and differ from the stored version. 
+ * </p>
+ * <p>
  * Bean managers are free (and encouraged, but not forced) to implement support 
  * for participating in JTA transactions. 
  * </p>
@@ -231,6 +243,37 @@ public abstract class BeanManager implements Serializable {
      */
     public abstract Map<BeanId, Bean> list(String schemaName) throws AbortRuntimeException;
 
+    /**
+     * <p>
+     * List instances of a specific schema type that match a criteria.
+     * </p> 
+     * <p>
+     * Beans will have their basic properties initialized and all references traversed 
+     * and fetched eagerly, just like {@link #list(String)}. 
+     * </p>
+     * <p>
+     * The default implementation list all instances and filter them, bean managers 
+     * should override it to only fetch matching beans from storage.
+     * </p>
+     * 
+     * @param schemaName the type of beans to match.
+     * @param criteria restrictions on property values that beans must match.
+     * @return matching beans.
+     * @exception AbortRuntimeException is thrown when the system itself cannot 
+     * recover from a certain event and must therefore abort execution, see 
+     * {@link org.deephacks.tools4j.config.model.Events}. 
+     */
+    public Map<BeanId, Bean> query(String schemaName, Criteria criteria)
+            throws AbortRuntimeException {
+        Map<BeanId, Bean> result = new HashMap<BeanId, Bean>();
+        for (Bean bean : list(schemaName).values()) {
+            if (criteria.apply(bean)) {
+                result.put(bean.getId(), bean);
+            }
+        }
+        return result;
+    }
+
     /**
      * Delete a bean accoring to id. 
      * <p>
@@ -251,6 +294,31 @@ public abstract class BeanManager implements Serializable {
      */
     public abstract void delete(BeanId id) throws AbortRuntimeException;
 
+    /**
+     * Delete a bean if its version is still the same as the version of the 
+     * provided bean, see {@link #delete(BeanId)}.
+     * <p>
+     * The default implementation read the stored bean, compare versions and then 
+     * delete the bean by id. Bean managers that can check the version and delete 
+     * the bean atomically should override this method.
+     * </p>
+     * 
+     * @param bean delete this bean
+     * @exception AbortRuntimeException is thrown when the system itself cannot 
+     * recover from a certain event and must therefore abort execution, see 
+     * {@link org.deephacks.tools4j.config.model.Events}.  
+     */
+    public void delete(Bean bean) throws AbortRuntimeException {
+        if (bean.getVersion() != 0) {
+            Bean existing = getLazy(bean.getId());
+            if (existing.getVersion() != bean.getVersion()) {
+                throw Events.CFG310_CONCURRENT_MODIFICATION(bean.getId(), bean.getVersion(),
+                        existing.getVersion());
+            }
+        }
+        delete(bean.getId());
+    }
+
     /**
      * This method deletes multiple instances of the same schema type.  
      * 
@@ -263,4 +331,33 @@ public abstract class BeanManager implements Serializable {
     public abstract void delete(String schemaName, Collection<String> instanceId)
             throws AbortRuntimeException;
 
+    /**
+     * Return changes that have been committed after a certain change, so that 
+     * a copy of the beans can be kept up to date by only fetching beans that 
+     * have changed. 
+     * <p>
+     * Bean managers that do not keep track of changes return no changes, which 
+     * is the default, see {@link #isChangeLogSupported()}.
+     * </p>
+     * 
+     * @param sequence return changes with a sequence number greater than this, 
+     * 0 for all changes.
+     * @param max maximum number of changes to return.
+     * @return changes ordered by their sequence number.
+     * @exception AbortRuntimeException is thrown when the system itself cannot 
+     * recover from a certain event and must therefore abort execution, see 
+     * {@link org.deephacks.tools4j.config.model.Events}. 
+     */
+    public List<BeanChange> getChangesSince(long sequence, int max) throws AbortRuntimeException {
+        return Collections.emptyList();
+    }
+
+    /**
+     * @return true if this bean manager keep track of changes, see 
+     * {@link #getChangesSince(long, int)}. False by default.
+     */
+    public boolean isChangeLogSupported() {
+        return false;
+    }
+
 }
@@ -0,0 +1,107 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.spi;
+
+import java.util.Collection;
+
+import org.deephacks.tools4j.config.model.Bean.BeanId;
+import org.deephacks.tools4j.support.SystemProperties;
+import org.deephacks.tools4j.support.lookup.Lookup;
+
+/**
+ * <p>
+ * Invalidation Broadcaster tell other nodes that share the same storage which
+ * beans have been changed, so that they can evict those beans, and listings
+ * of their schemas, from their caches.
+ * </p>
+ * <p>
+ * Broadcasts are delivered to the listeners of every other node, but not to the
+ * listeners of the node that broadcast. Delivery is best effort, how reliable it
+ * is depend on the transport.
+ * </p>
+ *
+ * @author Kristoffer Sjogren
+ */
+public abstract class InvalidationBroadcaster {
+    /** class name of the broadcaster to use if none is registered for lookup */
+    public static final String BROADCASTER_PROP = "config.invalidation.broadcaster";
+    private static InvalidationBroadcaster configured;
+
+    /**
+     * Find the broadcaster of this node, either registered for lookup or given
+     * by {@link #BROADCASTER_PROP}. A broadcaster given by the property is
+     * created once and shared by everyone that look it up.
+     *
+     * @return the broadcaster or null if invalidations are not broadcast.
+     */
+    public static InvalidationBroadcaster lookup() {
+        InvalidationBroadcaster broadcaster = Lookup.get().lookup(InvalidationBroadcaster.class);
+        if (broadcaster != null) {
+            return broadcaster;
+        }
+        String className = SystemProperties.createDefault().get(BROADCASTER_PROP);
+        if (className == null || "".equals(className.trim())) {
+            return null;
+        }
+        synchronized (InvalidationBroadcaster.class) {
+            if (configured != null && configured.getClass().getName().equals(className.trim())) {
+                return configured;
+            }
+            try {
+                configured = (InvalidationBroadcaster) Class.forName(className.trim())
+                        .newInstance();
+                return configured;
+            } catch (Exception e) {
+                throw new IllegalArgumentException("Could not create broadcaster [" + className
+                        + "].", e);
+            }
+        }
+    }
+
+    /**
+     * Tell other nodes that beans have been changed.
+     *
+     * @param ids beans that have been created, changed or deleted.
+     */
+    public abstract void broadcast(Collection<BeanId> ids);
+
+    /**
+     * Tell other nodes that any bean may have changed.
+     */
+    public abstract void broadcastAll();
+
+    public abstract void addListener(Listener listener);
+
+    public abstract void removeListener(Listener listener);
+
+    /**
+     * Stop sending and receiving broadcasts.
+     */
+    public abstract void close();
+
+    /**
+     * Receive invalidations broadcast by other nodes.
+     */
+    public static interface Listener {
+        /**
+         * @param ids beans that have been changed by another node.
+         */
+        void invalidate(Collection<BeanId> ids);
+
+        /**
+         * Any bean may have been changed by another node.
+         */
+        void invalidateAll();
+    }
+}
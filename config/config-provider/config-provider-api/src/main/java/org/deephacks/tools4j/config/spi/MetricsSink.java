@@ -0,0 +1,41 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.spi;
+
+/**
+ * <p>
+ * Metrics Sink receive every measurement taken by the config subsystem when
+ * metrics are enabled, in order to publish them to a monitoring system of
+ * choice. Measurements are also aggregated and exposed through JMX, regardless
+ * if a sink is registered or not.
+ * </p>
+ * <p>
+ * Measurements are recorded on the thread that made the call and so sinks
+ * must be thread safe and must not block.
+ * </p>
+ *
+ * @author Kristoffer Sjogren
+ */
+public abstract class MetricsSink {
+
+    /**
+     * Record a measurement of a call.
+     *
+     * @param name name of the call, like BeanManager.list.
+     * @param nanos time spent in the call.
+     * @param size number of beans read or written, or 0 if not applicable.
+     * @param failed true if the call threw an exception.
+     */
+    public abstract void record(String name, long nanos, int size, boolean failed);
+}
@@ -0,0 +1,406 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.internal.core.jdbc;
+
+import static org.deephacks.tools4j.config.internal.core.jdbc.JdbcBeanQueries.deleteAll;
+import static org.deephacks.tools4j.config.internal.core.jdbc.JdbcBeanQueries.deleteBeans;
+import static org.deephacks.tools4j.config.internal.core.jdbc.JdbcBeanQueries.deleteNamed;
+import static org.deephacks.tools4j.config.internal.core.jdbc.JdbcBeanQueries.findExisting;
+import static org.deephacks.tools4j.config.internal.core.jdbc.JdbcBeanQueries.findIds;
+import static org.deephacks.tools4j.config.internal.core.jdbc.JdbcBeanQueries.findLazy;
+import static org.deephacks.tools4j.config.internal.core.jdbc.JdbcBeanQueries.findPredecessors;
+import static org.deephacks.tools4j.config.internal.core.jdbc.JdbcBeanQueries.findVersions;
+import static org.deephacks.tools4j.config.internal.core.jdbc.JdbcBeanQueries.incrementVersions;
+import static org.deephacks.tools4j.config.internal.core.jdbc.JdbcBeanQueries.initReferences;
+import static org.deephacks.tools4j.config.internal.core.jdbc.JdbcBeanQueries.insertBeans;
+import static org.deephacks.tools4j.config.internal.core.jdbc.JdbcBeanQueries.insertProperties;
+import static org.deephacks.tools4j.config.internal.core.jdbc.JdbcBeanQueries.insertReferences;
+import static org.deephacks.tools4j.config.internal.core.jdbc.JdbcBeanQueries.insertSingleton;
+import static org.deephacks.tools4j.config.internal.core.jdbc.JdbcBeanQueries.isSingleton;
+import static org.deephacks.tools4j.config.internal.core.jdbc.ThreadLocalConnection.begin;
+import static org.deephacks.tools4j.config.internal.core.jdbc.ThreadLocalConnection.commit;
+import static org.deephacks.tools4j.config.internal.core.jdbc.ThreadLocalConnection.rollback;
+import static org.deephacks.tools4j.config.model.Events.CFG301_MISSING_RUNTIME_REF;
+import static org.deephacks.tools4j.config.model.Events.CFG302_CANNOT_DELETE_BEAN;
+import static org.deephacks.tools4j.config.model.Events.CFG303_BEAN_ALREADY_EXIST;
+import static org.deephacks.tools4j.config.model.Events.CFG304_BEAN_DOESNT_EXIST;
+import static org.deephacks.tools4j.config.model.Events.CFG307_SINGELTON_REMOVAL;
+import static org.deephacks.tools4j.config.model.Events.CFG308_SINGELTON_CREATION;
+import static org.deephacks.tools4j.config.model.Events.CFG310_CONCURRENT_MODIFICATION;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.deephacks.tools4j.config.model.Bean;
+import org.deephacks.tools4j.config.model.Bean.BeanId;
+import org.deephacks.tools4j.config.model.Criteria;
+import org.deephacks.tools4j.config.spi.BeanManager;
+import org.deephacks.tools4j.support.ServiceProvider;
+import org.deephacks.tools4j.support.event.AbortRuntimeException;
+
+/**
+ * JdbcBeanManager store beans in the same tables as the JPA bean manager but
+ * talk to the database using plain JDBC, without the overhead of managing
+ * entities and persistence contexts.
+ * <p>
+ * Every operation run in its own transaction on the connection of the current thread,
+ * see {@link ThreadLocalConnection}. Statements are prepared once per connection,
+ * writes are sent as batches and beans are fetched with one query per table
+ * and joined in memory.
+ * <p>
+ * Versions are checked and increased with a conditional update of the bean row,
+ * which also lock the row until the transaction ends.
+ */
+@ServiceProvider(service = BeanManager.class)
+public class JdbcBeanManager extends BeanManager {
+    private static final long serialVersionUID = 2946493545370493733L;
+
+    @Override
+    public void create(Bean bean) {
+        create(Arrays.asList(bean));
+    }
+
+    @Override
+    public void create(Collection<Bean> beans) {
+        try {
+            begin();
+            Map<BeanId, Bean> created = new HashMap<BeanId, Bean>();
+            for (Bean bean : beans) {
+                if (isSingleton(bean.getId().getSchemaName())) {
+                    throw CFG308_SINGELTON_CREATION(bean.getId());
+                }
+                created.put(bean.getId(), bean);
+            }
+            Set<BeanId> existing = findExisting(created.keySet());
+            if (!existing.isEmpty()) {
+                throw CFG303_BEAN_ALREADY_EXIST(existing.iterator().next());
+            }
+            checkReferences(beans, created.keySet());
+            insertBeans(beans);
+            insertProperties(beans);
+            insertReferences(beans);
+            commit();
+            for (Bean bean : beans) {
+                bean.setVersion(1);
+            }
+        } catch (Throwable e) {
+            rollback();
+            throw e;
+        }
+    }
+
+    @Override
+    public void createSingleton(BeanId singleton) {
+        try {
+            begin();
+            if (!findExisting(Arrays.asList(singleton)).isEmpty()) {
+                // return silently.
+                commit();
+                return;
+            }
+            if (!isSingleton(singleton.getSchemaName())) {
+                insertSingleton(singleton.getSchemaName());
+            }
+            insertBeans(Arrays.asList(Bean.create(singleton)));
+            commit();
+        } catch (Throwable e) {
+            rollback();
+            throw e;
+        }
+    }
+
+    @Override
+    public Bean getSingleton(String schemaName) throws IllegalArgumentException {
+        try {
+            begin();
+            if (!isSingleton(schemaName)) {
+                throw new IllegalArgumentException("Schema [" + schemaName
+                        + "] is not a singleton.");
+            }
+            Map<BeanId, Bean> singleton = findLazy(schemaName);
+            if (singleton.isEmpty()) {
+                throw new IllegalArgumentException(
+                        "There is no singleton instance, which is not allowed.");
+            }
+            if (singleton.size() > 1) {
+                throw new IllegalArgumentException(
+                        "There are several singleton instances, which is not allowed.");
+            }
+            initReferences(singleton);
+            commit();
+            return singleton.values().iterator().next();
+        } catch (Throwable e) {
+            rollback();
+            throw e;
+        }
+    }
+
+    @Override
+    public Bean getEager(BeanId id) throws AbortRuntimeException {
+        try {
+            begin();
+            Map<BeanId, Bean> beans = findLazy(Arrays.asList(id));
+            Bean bean = beans.get(id);
+            if (bean == null) {
+                throw CFG304_BEAN_DOESNT_EXIST(id);
+            }
+            initReferences(beans);
+            commit();
+            return bean;
+        } catch (Throwable e) {
+            rollback();
+            throw e;
+        }
+    }
+
+    @Override
+    public Bean getLazy(BeanId id) throws AbortRuntimeException {
+        try {
+            begin();
+            Bean bean = findLazy(Arrays.asList(id)).get(id);
+            if (bean == null) {
+                throw CFG304_BEAN_DOESNT_EXIST(id);
+            }
+            commit();
+            return bean;
+        } catch (Throwable e) {
+            rollback();
+            throw e;
+        }
+    }
+
+    /**
+     * Return the bean together with its direct predecessors, all with references
+     * initialized.
+     */
+    @Override
+    public Map<BeanId, Bean> getBeanToValidate(Bean bean) throws AbortRuntimeException {
+        try {
+            begin();
+            Set<BeanId> ids = findPredecessors(bean.getId());
+            ids.add(bean.getId());
+            Map<BeanId, Bean> beans = findLazy(ids);
+            initReferences(beans);
+            commit();
+            Map<BeanId, Bean> toValidate = new HashMap<BeanId, Bean>();
+            for (BeanId id : ids) {
+                if (beans.containsKey(id)) {
+                    toValidate.put(id, beans.get(id));
+                }
+            }
+            return toValidate;
+        } catch (Throwable e) {
+            rollback();
+            throw e;
+        }
+    }
+
+    @Override
+    public Map<BeanId, Bean> list(String schemaName) {
+        try {
+            begin();
+            Map<BeanId, Bean> beans = findLazy(schemaName);
+            Map<BeanId, Bean> result = new LinkedHashMap<BeanId, Bean>(beans);
+            initReferences(beans);
+            commit();
+            return result;
+        } catch (Throwable e) {
+            rollback();
+            throw e;
+        }
+    }
+
+    @Override
+    public Map<BeanId, Bean> query(String schemaName, Criteria criteria) {
+        try {
+            begin();
+            Map<BeanId, Bean> beans;
+            if (criteria.getRestrictions().isEmpty()) {
+                beans = findLazy(schemaName);
+            } else {
+                beans = findLazy(findIds(schemaName, criteria));
+            }
+            Iterator<Bean> it = beans.values().iterator();
+            while (it.hasNext()) {
+                if (!criteria.apply(it.next())) {
+                    it.remove();
+                }
+            }
+            Map<BeanId, Bean> result = new LinkedHashMap<BeanId, Bean>(beans);
+            initReferences(beans);
+            commit();
+            return result;
+        } catch (Throwable e) {
+            rollback();
+            throw e;
+        }
+    }
+
+    @Override
+    public void merge(Bean bean) {
+        merge(Arrays.asList(bean));
+    }
+
+    @Override
+    public void merge(Collection<Bean> beans) {
+        try {
+            begin();
+            List<BeanId> ids = checkExisting(beans);
+            incrementVersions(beans);
+            checkReferences(beans, new HashSet<BeanId>());
+            deleteNamed(beans);
+            insertProperties(beans);
+            insertReferences(beans);
+            Map<BeanId, Long> versions = findVersions(ids);
+            commit();
+            setVersions(beans, versions);
+        } catch (Throwable e) {
+            rollback();
+            throw e;
+        }
+    }
+
+    @Override
+    public void set(Bean bean) {
+        set(Arrays.asList(bean));
+    }
+
+    @Override
+    public void set(Collection<Bean> beans) {
+        try {
+            begin();
+            List<BeanId> ids = checkExisting(beans);
+            incrementVersions(beans);
+            checkReferences(beans, new HashSet<BeanId>());
+            deleteAll(ids);
+            insertProperties(beans);
+            insertReferences(beans);
+            Map<BeanId, Long> versions = findVersions(ids);
+            commit();
+            setVersions(beans, versions);
+        } catch (Throwable e) {
+            rollback();
+            throw e;
+        }
+    }
+
+    @Override
+    public void delete(BeanId id) {
+        delete(id.getSchemaName(), Arrays.asList(id.getInstanceId()));
+    }
+
+    @Override
+    public void delete(Bean bean) {
+        try {
+            begin();
+            BeanId id = bean.getId();
+            if (isSingleton(id.getSchemaName())) {
+                throw CFG307_SINGELTON_REMOVAL(id);
+            }
+            checkExisting(Arrays.asList(bean));
+            incrementVersions(Arrays.asList(bean));
+            if (!findPredecessors(id).isEmpty()) {
+                throw CFG302_CANNOT_DELETE_BEAN(Arrays.asList(id));
+            }
+            deleteBeans(Arrays.asList(id));
+            commit();
+        } catch (Throwable e) {
+            rollback();
+            throw e;
+        }
+    }
+
+    @Override
+    public void delete(String schemaName, Collection<String> instanceIds) {
+        try {
+            begin();
+            if (isSingleton(schemaName) && !instanceIds.isEmpty()) {
+                throw CFG307_SINGELTON_REMOVAL(BeanId.create(instanceIds.iterator().next(),
+                        schemaName));
+            }
+            Set<BeanId> ids = new HashSet<BeanId>();
+            for (String instanceId : instanceIds) {
+                ids.add(BeanId.create(instanceId, schemaName));
+            }
+            for (BeanId id : ids) {
+                for (BeanId predecessor : findPredecessors(id)) {
+                    if (!ids.contains(predecessor)) {
+                        throw CFG302_CANNOT_DELETE_BEAN(Arrays.asList(id));
+                    }
+                }
+            }
+            deleteBeans(findExisting(ids));
+            commit();
+        } catch (Throwable e) {
+            rollback();
+            throw e;
+        }
+    }
+
+    /**
+     * Check that the beans exist and, for beans that have a version, that the
+     * version is the same as the stored version.
+     */
+    private List<BeanId> checkExisting(Collection<Bean> beans) {
+        List<BeanId> ids = new ArrayList<BeanId>();
+        for (Bean bean : beans) {
+            ids.add(bean.getId());
+        }
+        Map<BeanId, Long> existing = findVersions(ids);
+        for (Bean bean : beans) {
+            Long version = existing.get(bean.getId());
+            if (version == null) {
+                throw CFG304_BEAN_DOESNT_EXIST(bean.getId());
+            }
+            if (bean.getVersion() != 0 && bean.getVersion() != version) {
+                throw CFG310_CONCURRENT_MODIFICATION(bean.getId(), bean.getVersion(), version);
+            }
+        }
+        return ids;
+    }
+
+    private static void setVersions(Collection<Bean> beans, Map<BeanId, Long> versions) {
+        for (Bean bean : beans) {
+            bean.setVersion(versions.get(bean.getId()));
+        }
+    }
+
+    /**
+     * Check that references point to beans that exist in storage or that are
+     * about to be created.
+     */
+    private void checkReferences(Collection<Bean> beans, Set<BeanId> created) {
+        Set<BeanId> targets = new HashSet<BeanId>();
+        for (Bean bean : beans) {
+            targets.addAll(bean.getReferences());
+        }
+        targets.removeAll(created);
+        Set<BeanId> existing = findExisting(targets);
+        for (Bean bean : beans) {
+            for (BeanId ref : bean.getReferences()) {
+                if (!created.contains(ref) && !existing.contains(ref)) {
+                    throw CFG301_MISSING_RUNTIME_REF(bean.getId(), ref);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,660 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.internal.core.jdbc;
+
+import static org.deephacks.tools4j.config.internal.core.jdbc.ThreadLocalConnection.prepare;
+import static org.deephacks.tools4j.config.model.Events.CFG301_MISSING_RUNTIME_REF;
+import static org.deephacks.tools4j.config.model.Events.CFG304_BEAN_DOESNT_EXIST;
+import static org.deephacks.tools4j.config.model.Events.CFG310_CONCURRENT_MODIFICATION;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.UUID;
+
+import org.deephacks.tools4j.config.model.Bean;
+import org.deephacks.tools4j.config.model.Bean.BeanId;
+import org.deephacks.tools4j.config.model.Criteria;
+import org.deephacks.tools4j.config.model.Criteria.Restriction;
+import org.deephacks.tools4j.config.model.Criteria.Restriction.Type;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+
+/**
+ * Statements for the CONFIG_BEAN, CONFIG_BEAN_SINGLETON, CONFIG_PROPERTY and
+ * CONFIG_BEAN_REF tables, which are the same tables that are used by the JPA
+ * provider.
+ * <p>
+ * Beans are fetched with one multi-row query per table and schema, and joined
+ * in memory. Ids are bound to IN lists that are padded to a power of two in
+ * order to keep the number of distinct statements, and hence prepared statements
+ * in the cache, low.
+ */
+final class JdbcBeanQueries {
+    /** maximum number of parameters in an IN list */
+    static final int MAX_IN_SIZE = 256;
+
+    static final String SELECT_SINGLETON = "SELECT BEAN_SCHEMA_NAME FROM CONFIG_BEAN_SINGLETON WHERE BEAN_SCHEMA_NAME = ?";
+    static final String INSERT_SINGLETON = "INSERT INTO CONFIG_BEAN_SINGLETON (BEAN_SCHEMA_NAME) VALUES (?)";
+
+    static final String SELECT_BEANS_IN = "SELECT BEAN_ID, BEAN_VERSION FROM CONFIG_BEAN WHERE BEAN_SCHEMA_NAME = ? AND BEAN_ID IN ({0})";
+    static final String SELECT_BEANS = "SELECT BEAN_ID, BEAN_VERSION FROM CONFIG_BEAN WHERE BEAN_SCHEMA_NAME = ?";
+    static final String INSERT_BEAN = "INSERT INTO CONFIG_BEAN (BEAN_ID, BEAN_SCHEMA_NAME, BEAN_VERSION) VALUES (?, ?, 1)";
+    static final String INCREMENT_VERSION = "UPDATE CONFIG_BEAN SET BEAN_VERSION = BEAN_VERSION + 1 WHERE BEAN_ID = ? AND BEAN_SCHEMA_NAME = ?";
+    static final String COMPARE_AND_INCREMENT_VERSION = "UPDATE CONFIG_BEAN SET BEAN_VERSION = BEAN_VERSION + 1 WHERE BEAN_ID = ? AND BEAN_SCHEMA_NAME = ? AND BEAN_VERSION = ?";
+    static final String DELETE_BEAN = "DELETE FROM CONFIG_BEAN WHERE BEAN_ID = ? AND BEAN_SCHEMA_NAME = ?";
+
+    static final String SELECT_PROPERTIES_IN = "SELECT FK_BEAN_ID, PROP_NAME, PROP_VALUE FROM CONFIG_PROPERTY WHERE FK_BEAN_SCHEMA_NAME = ? AND FK_BEAN_ID IN ({0})";
+    static final String SELECT_PROPERTIES = "SELECT FK_BEAN_ID, PROP_NAME, PROP_VALUE FROM CONFIG_PROPERTY WHERE FK_BEAN_SCHEMA_NAME = ?";
+    static final String SELECT_PROPERTY_BEAN_IDS = "SELECT DISTINCT P0.FK_BEAN_ID FROM {0} WHERE {1}";
+    static final String INSERT_PROPERTY = "INSERT INTO CONFIG_PROPERTY (UUID, FK_BEAN_ID, FK_BEAN_SCHEMA_NAME, PROP_NAME, PROP_VALUE) VALUES (?, ?, ?, ?, ?)";
+    static final String DELETE_PROPERTIES = "DELETE FROM CONFIG_PROPERTY WHERE FK_BEAN_ID = ? AND FK_BEAN_SCHEMA_NAME = ?";
+    static final String DELETE_PROPERTY = "DELETE FROM CONFIG_PROPERTY WHERE FK_BEAN_ID = ? AND FK_BEAN_SCHEMA_NAME = ? AND PROP_NAME = ?";
+
+    static final String SELECT_REFS_IN = "SELECT FK_SOURCE_BEAN_ID, PROP_NAME, FK_TARGET_BEAN_ID, FK_TARGET_BEAN_SCHEMA_NAME FROM CONFIG_BEAN_REF WHERE FK_SOURCE_BEAN_SCHEMA_NAME = ? AND FK_SOURCE_BEAN_ID IN ({0})";
+    static final String SELECT_REFS = "SELECT FK_SOURCE_BEAN_ID, PROP_NAME, FK_TARGET_BEAN_ID, FK_TARGET_BEAN_SCHEMA_NAME FROM CONFIG_BEAN_REF WHERE FK_SOURCE_BEAN_SCHEMA_NAME = ?";
+    static final String SELECT_PREDECESSORS = "SELECT FK_SOURCE_BEAN_ID, FK_SOURCE_BEAN_SCHEMA_NAME FROM CONFIG_BEAN_REF WHERE FK_TARGET_BEAN_ID = ? AND FK_TARGET_BEAN_SCHEMA_NAME = ?";
+    static final String INSERT_REF = "INSERT INTO CONFIG_BEAN_REF (UUID, FK_SOURCE_BEAN_ID, FK_SOURCE_BEAN_SCHEMA_NAME, PROP_NAME, FK_TARGET_BEAN_ID, FK_TARGET_BEAN_SCHEMA_NAME) VALUES (?, ?, ?, ?, ?, ?)";
+    static final String DELETE_REFS = "DELETE FROM CONFIG_BEAN_REF WHERE FK_SOURCE_BEAN_ID = ? AND FK_SOURCE_BEAN_SCHEMA_NAME = ?";
+    static final String DELETE_REF = "DELETE FROM CONFIG_BEAN_REF WHERE FK_SOURCE_BEAN_ID = ? AND FK_SOURCE_BEAN_SCHEMA_NAME = ? AND PROP_NAME = ?";
+
+    private JdbcBeanQueries() {
+        // static statements only
+    }
+
+    static boolean isSingleton(String schemaName) {
+        try {
+            PreparedStatement stmt = prepare(SELECT_SINGLETON);
+            stmt.setString(1, schemaName);
+            ResultSet rs = stmt.executeQuery();
+            try {
+                return rs.next();
+            } finally {
+                rs.close();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    static void insertSingleton(String schemaName) {
+        try {
+            PreparedStatement stmt = prepare(INSERT_SINGLETON);
+            stmt.setString(1, schemaName);
+            stmt.executeUpdate();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Return the ids among the provided ids that exist in storage.
+     */
+    static Set<BeanId> findExisting(Collection<BeanId> ids) {
+        return new HashSet<BeanId>(findVersions(ids).keySet());
+    }
+
+    /**
+     * Return the stored version of the ids that exist in storage.
+     */
+    static Map<BeanId, Long> findVersions(Collection<BeanId> ids) {
+        Map<BeanId, Long> versions = new HashMap<BeanId, Long>();
+        try {
+            for (Entry<String, List<String>> chunk : chunks(ids)) {
+                PreparedStatement stmt = prepareIn(SELECT_BEANS_IN, chunk.getKey(), chunk.getValue());
+                ResultSet rs = stmt.executeQuery();
+                try {
+                    while (rs.next()) {
+                        versions.put(BeanId.create(rs.getString(1), chunk.getKey()), rs.getLong(2));
+                    }
+                } finally {
+                    rs.close();
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        return versions;
+    }
+
+    /**
+     * Fetch beans with properties and reference ids, but references are not
+     * initialized. Ids that does not exist are not included in the result.
+     */
+    static Map<BeanId, Bean> findLazy(Collection<BeanId> ids) {
+        Map<BeanId, Bean> beans = new LinkedHashMap<BeanId, Bean>();
+        try {
+            for (Entry<String, List<String>> chunk : chunks(ids)) {
+                String schemaName = chunk.getKey();
+                List<String> instanceIds = chunk.getValue();
+                readBeans(prepareIn(SELECT_BEANS_IN, schemaName, instanceIds), schemaName, beans);
+                readProperties(prepareIn(SELECT_PROPERTIES_IN, schemaName, instanceIds),
+                        schemaName, beans);
+                readReferences(prepareIn(SELECT_REFS_IN, schemaName, instanceIds), schemaName,
+                        beans);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        return beans;
+    }
+
+    /**
+     * Fetch all beans of a schema with properties and reference ids, but references
+     * are not initialized.
+     */
+    static Map<BeanId, Bean> findLazy(String schemaName) {
+        Map<BeanId, Bean> beans = new LinkedHashMap<BeanId, Bean>();
+        try {
+            PreparedStatement stmt = prepare(SELECT_BEANS);
+            stmt.setString(1, schemaName);
+            readBeans(stmt, schemaName, beans);
+            stmt = prepare(SELECT_PROPERTIES);
+            stmt.setString(1, schemaName);
+            readProperties(stmt, schemaName, beans);
+            stmt = prepare(SELECT_REFS);
+            stmt.setString(1, schemaName);
+            readReferences(stmt, schemaName, beans);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        return beans;
+    }
+
+    /**
+     * Return the ids of beans of a schema that may match a criteria, with one
+     * join on CONFIG_PROPERTY per restriction. Numeric ranges, and IN lists
+     * beyond the first that do not fit into MAX_IN_SIZE, only restrict the
+     * property name, so fetched beans must still be matched against the criteria.
+     * The criteria must have at least one restriction.
+     */
+    static Set<BeanId> findIds(String schemaName, Criteria criteria) {
+        List<String> names = new ArrayList<String>();
+        List<Restriction> restrictions = new ArrayList<Restriction>();
+        for (Entry<String, List<Restriction>> entry : criteria.getRestrictions().entrySet()) {
+            for (Restriction restriction : entry.getValue()) {
+                names.add(entry.getKey());
+                restrictions.add(restriction);
+            }
+        }
+        // the first IN list that is too long is split over several queries
+        int split = -1;
+        List<List<String>> chunks = Collections.singletonList(null);
+        for (int i = 0; i < restrictions.size(); i++) {
+            List<String> values = restrictions.get(i).getValues();
+            if (restrictions.get(i).getType() == Type.IN && values.size() > MAX_IN_SIZE) {
+                split = i;
+                chunks = Lists.partition(values, MAX_IN_SIZE);
+                break;
+            }
+        }
+        Set<BeanId> ids = new HashSet<BeanId>();
+        try {
+            for (List<String> chunk : chunks) {
+                StringBuilder from = new StringBuilder();
+                StringBuilder where = new StringBuilder("P0.FK_BEAN_SCHEMA_NAME = ?");
+                List<String> params = new ArrayList<String>();
+                params.add(schemaName);
+                for (int i = 0; i < restrictions.size(); i++) {
+                    String p = "P" + i;
+                    from.append(i == 0 ? "" : ", ").append("CONFIG_PROPERTY ").append(p);
+                    if (i > 0) {
+                        where.append(" AND ").append(p).append(".FK_BEAN_ID = P0.FK_BEAN_ID AND ")
+                                .append(p).append(".FK_BEAN_SCHEMA_NAME = P0.FK_BEAN_SCHEMA_NAME");
+                    }
+                    where.append(" AND ").append(p).append(".PROP_NAME = ?");
+                    params.add(names.get(i));
+                    Restriction restriction = restrictions.get(i);
+                    appendRestriction(p, restriction, i == split ? chunk : restriction.getValues(),
+                            where, params);
+                }
+                PreparedStatement stmt = prepare(SELECT_PROPERTY_BEAN_IDS.replace("{0}", from)
+                        .replace("{1}", where));
+                for (int i = 0; i < params.size(); i++) {
+                    stmt.setString(i + 1, params.get(i));
+                }
+                ResultSet rs = stmt.executeQuery();
+                try {
+                    while (rs.next()) {
+                        ids.add(BeanId.create(rs.getString(1), schemaName));
+                    }
+                } finally {
+                    rs.close();
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        return ids;
+    }
+
+    private static void appendRestriction(String p, Restriction restriction, List<String> values,
+            StringBuilder where, List<String> params) {
+        switch (restriction.getType()) {
+        case EQUAL:
+        case IN:
+            if (values.size() > MAX_IN_SIZE) {
+                return;
+            }
+            int size = inSize(values.size());
+            where.append(" AND ").append(p).append(".PROP_VALUE IN (").append(inList(size))
+                    .append(")");
+            for (int i = 0; i < size; i++) {
+                params.add(values.get(Math.min(i, values.size() - 1)));
+            }
+            return;
+        case PREFIX:
+            String prefix = values.get(0).replace("!", "!!").replace("%", "!%").replace("_", "!_");
+            where.append(" AND ").append(p).append(".PROP_VALUE LIKE ? ESCAPE '!'");
+            params.add(prefix + "%");
+            return;
+        case RANGE:
+            if (restriction.isNumeric()) {
+                // values are compared as strings, not as numbers
+                return;
+            }
+            if (restriction.getLower() != null) {
+                where.append(" AND ").append(p).append(".PROP_VALUE >= ?");
+                params.add(restriction.getLower());
+            }
+            if (restriction.getUpper() != null) {
+                where.append(" AND ").append(p).append(".PROP_VALUE <= ?");
+                params.add(restriction.getUpper());
+            }
+            return;
+        default:
+            throw new IllegalArgumentException("Unknown type " + restriction.getType());
+        }
+    }
+
+    /**
+     * Initialize references of the beans, level by level, by fetching all beans
+     * that are referenced but not yet fetched in one round trip per level. Beans
+     * are shared between references, which also terminate cyclic references.
+     *
+     * @param beans beans to initialize, beans fetched are added.
+     */
+    static void initReferences(Map<BeanId, Bean> beans) {
+        Collection<Bean> level = new ArrayList<Bean>(beans.values());
+        while (!level.isEmpty()) {
+            Set<BeanId> missing = new HashSet<BeanId>();
+            for (Bean bean : level) {
+                for (BeanId ref : bean.getReferences()) {
+                    if (!beans.containsKey(ref)) {
+                        missing.add(ref);
+                    }
+                }
+            }
+            if (missing.isEmpty()) {
+                break;
+            }
+            Map<BeanId, Bean> fetched = findLazy(missing);
+            beans.putAll(fetched);
+            level = fetched.values();
+        }
+        for (Bean bean : beans.values()) {
+            for (BeanId ref : bean.getReferences()) {
+                Bean target = beans.get(ref);
+                if (target == null) {
+                    throw CFG301_MISSING_RUNTIME_REF(bean.getId(), ref);
+                }
+                ref.setBean(target);
+            }
+        }
+    }
+
+    static Set<BeanId> findPredecessors(BeanId id) {
+        Set<BeanId> predecessors = new HashSet<BeanId>();
+        try {
+            PreparedStatement stmt = prepare(SELECT_PREDECESSORS);
+            stmt.setString(1, id.getInstanceId());
+            stmt.setString(2, id.getSchemaName());
+            ResultSet rs = stmt.executeQuery();
+            try {
+                while (rs.next()) {
+                    predecessors.add(BeanId.create(rs.getString(1), rs.getString(2)));
+                }
+            } finally {
+                rs.close();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        return predecessors;
+    }
+
+    static void insertBeans(Collection<Bean> beans) {
+        try {
+            PreparedStatement stmt = prepare(INSERT_BEAN);
+            for (Bean bean : beans) {
+                stmt.setString(1, bean.getId().getInstanceId());
+                stmt.setString(2, bean.getId().getSchemaName());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Increase the stored version of the beans. Beans that have a version are
+     * only changed if the stored version is still the same, otherwise the bean
+     * have been changed by someone else since it was read.
+     */
+    static void incrementVersions(Collection<Bean> beans) {
+        Map<BeanId, Bean> unique = new LinkedHashMap<BeanId, Bean>();
+        for (Bean bean : beans) {
+            if (!unique.containsKey(bean.getId())) {
+                unique.put(bean.getId(), bean);
+            }
+        }
+        try {
+            PreparedStatement stmt = prepare(INCREMENT_VERSION);
+            PreparedStatement cas = prepare(COMPARE_AND_INCREMENT_VERSION);
+            List<Bean> versioned = new ArrayList<Bean>();
+            boolean batched = false;
+            for (Bean bean : unique.values()) {
+                if (bean.getVersion() == 0) {
+                    stmt.setString(1, bean.getId().getInstanceId());
+                    stmt.setString(2, bean.getId().getSchemaName());
+                    stmt.addBatch();
+                    batched = true;
+                } else {
+                    cas.setString(1, bean.getId().getInstanceId());
+                    cas.setString(2, bean.getId().getSchemaName());
+                    cas.setLong(3, bean.getVersion());
+                    cas.addBatch();
+                    versioned.add(bean);
+                }
+            }
+            if (batched) {
+                stmt.executeBatch();
+            }
+            if (versioned.isEmpty()) {
+                return;
+            }
+            int[] counts = cas.executeBatch();
+            // drivers may answer SUCCESS_NO_INFO instead of an update count, so
+            // rows without a count of 1 are checked against the stored version
+            Map<BeanId, Integer> unknown = new LinkedHashMap<BeanId, Integer>();
+            for (int i = 0; i < counts.length; i++) {
+                if (counts[i] != 1) {
+                    unknown.put(versioned.get(i).getId(), i);
+                }
+            }
+            if (unknown.isEmpty()) {
+                return;
+            }
+            Map<BeanId, Long> actual = findVersions(unknown.keySet());
+            for (Entry<BeanId, Integer> entry : unknown.entrySet()) {
+                BeanId id = entry.getKey();
+                long expected = versioned.get(entry.getValue()).getVersion();
+                Long version = actual.get(id);
+                if (version == null) {
+                    throw CFG304_BEAN_DOESNT_EXIST(id);
+                }
+                if (counts[entry.getValue()] == 0 || version != expected + 1) {
+                    throw CFG310_CONCURRENT_MODIFICATION(id, expected, version);
+                }
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Insert all properties of the beans. Properties with null values are skipped.
+     */
+    static void insertProperties(Collection<Bean> beans) {
+        try {
+            PreparedStatement stmt = prepare(INSERT_PROPERTY);
+            boolean batched = false;
+            for (Bean bean : beans) {
+                for (String name : bean.getPropertyNames()) {
+                    List<String> values = bean.getValues(name);
+                    if (values == null) {
+                        continue;
+                    }
+                    for (String value : values) {
+                        stmt.setString(1, UUID.randomUUID().toString());
+                        stmt.setString(2, bean.getId().getInstanceId());
+                        stmt.setString(3, bean.getId().getSchemaName());
+                        stmt.setString(4, name);
+                        stmt.setString(5, value);
+                        stmt.addBatch();
+                        batched = true;
+                    }
+                }
+            }
+            if (batched) {
+                stmt.executeBatch();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Insert all references of the beans. References with null values are skipped.
+     */
+    static void insertReferences(Collection<Bean> beans) {
+        try {
+            PreparedStatement stmt = prepare(INSERT_REF);
+            boolean batched = false;
+            for (Bean bean : beans) {
+                for (String name : bean.getReferenceNames()) {
+                    List<BeanId> refs = bean.getReference(name);
+                    if (refs == null) {
+                        continue;
+                    }
+                    for (BeanId ref : refs) {
+                        stmt.setString(1, UUID.randomUUID().toString());
+                        stmt.setString(2, bean.getId().getInstanceId());
+                        stmt.setString(3, bean.getId().getSchemaName());
+                        stmt.setString(4, name);
+                        stmt.setString(5, ref.getInstanceId());
+                        stmt.setString(6, ref.getSchemaName());
+                        stmt.addBatch();
+                        batched = true;
+                    }
+                }
+            }
+            if (batched) {
+                stmt.executeBatch();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Delete properties and references of the beans that have the same name as
+     * properties and references present on the beans.
+     */
+    static void deleteNamed(Collection<Bean> beans) {
+        try {
+            PreparedStatement props = prepare(DELETE_PROPERTY);
+            PreparedStatement refs = prepare(DELETE_REF);
+            boolean batchedProps = false;
+            boolean batchedRefs = false;
+            for (Bean bean : beans) {
+                for (String name : bean.getPropertyNames()) {
+                    props.setString(1, bean.getId().getInstanceId());
+                    props.setString(2, bean.getId().getSchemaName());
+                    props.setString(3, name);
+                    props.addBatch();
+                    batchedProps = true;
+                }
+                for (String name : bean.getReferenceNames()) {
+                    refs.setString(1, bean.getId().getInstanceId());
+                    refs.setString(2, bean.getId().getSchemaName());
+                    refs.setString(3, name);
+                    refs.addBatch();
+                    batchedRefs = true;
+                }
+            }
+            if (batchedProps) {
+                props.executeBatch();
+            }
+            if (batchedRefs) {
+                refs.executeBatch();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Delete all properties and references of the beans.
+     */
+    static void deleteAll(Collection<BeanId> ids) {
+        executeBatch(DELETE_PROPERTIES, ids);
+        executeBatch(DELETE_REFS, ids);
+    }
+
+    static void deleteBeans(Collection<BeanId> ids) {
+        deleteAll(ids);
+        executeBatch(DELETE_BEAN, ids);
+    }
+
+    private static void executeBatch(String sql, Collection<BeanId> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        try {
+            PreparedStatement stmt = prepare(sql);
+            for (BeanId id : ids) {
+                stmt.setString(1, id.getInstanceId());
+                stmt.setString(2, id.getSchemaName());
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void readBeans(PreparedStatement stmt, String schemaName,
+            Map<BeanId, Bean> beans) throws SQLException {
+        ResultSet rs = stmt.executeQuery();
+        try {
+            while (rs.next()) {
+                BeanId id = BeanId.create(rs.getString(1), schemaName);
+                Bean bean = Bean.create(id);
+                bean.setVersion(rs.getLong(2));
+                beans.put(id, bean);
+            }
+        } finally {
+            rs.close();
+        }
+    }
+
+    private static void readProperties(PreparedStatement stmt, String schemaName,
+            Map<BeanId, Bean> beans) throws SQLException {
+        ResultSet rs = stmt.executeQuery();
+        try {
+            while (rs.next()) {
+                Bean bean = beans.get(BeanId.create(rs.getString(1), schemaName));
+                if (bean == null) {
+                    continue;
+                }
+                bean.addProperty(rs.getString(2), rs.getString(3));
+            }
+        } finally {
+            rs.close();
+        }
+    }
+
+    private static void readReferences(PreparedStatement stmt, String schemaName,
+            Map<BeanId, Bean> beans) throws SQLException {
+        ResultSet rs = stmt.executeQuery();
+        try {
+            while (rs.next()) {
+                Bean bean = beans.get(BeanId.create(rs.getString(1), schemaName));
+                if (bean == null) {
+                    continue;
+                }
+                bean.addReference(rs.getString(2), BeanId.create(rs.getString(3), rs.getString(4)));
+            }
+        } finally {
+            rs.close();
+        }
+    }
+
+    /**
+     * Bind the schema name and instance ids, padding the IN list by repeating
+     * the last id.
+     */
+    private static PreparedStatement prepareIn(String sql, String schemaName,
+            List<String> instanceIds) throws SQLException {
+        int size = inSize(instanceIds.size());
+        PreparedStatement stmt = prepare(sql.replace("{0}", inList(size)));
+        stmt.setString(1, schemaName);
+        for (int i = 0; i < size; i++) {
+            stmt.setString(i + 2, instanceIds.get(Math.min(i, instanceIds.size() - 1)));
+        }
+        return stmt;
+    }
+
+    /**
+     * Group ids per schema and split them into chunks of at most MAX_IN_SIZE.
+     */
+    private static List<Entry<String, List<String>>> chunks(Collection<BeanId> ids) {
+        Multimap<String, String> schemas = ArrayListMultimap.create();
+        for (BeanId id : new HashSet<BeanId>(ids)) {
+            schemas.put(id.getSchemaName(), id.getInstanceId());
+        }
+        List<Entry<String, List<String>>> chunks = new ArrayList<Entry<String, List<String>>>();
+        for (String schemaName : schemas.keySet()) {
+            List<String> instanceIds = new ArrayList<String>(schemas.get(schemaName));
+            for (int i = 0; i < instanceIds.size(); i += MAX_IN_SIZE) {
+                List<String> chunk = instanceIds.subList(i,
+                        Math.min(i + MAX_IN_SIZE, instanceIds.size()));
+                chunks.add(Maps.immutableEntry(schemaName, chunk));
+            }
+        }
+        return chunks;
+    }
+
+    static int inSize(int size) {
+        int padded = 1;
+        while (padded < size) {
+            padded <<= 1;
+        }
+        return Math.min(padded, MAX_IN_SIZE);
+    }
+
+    private static String inList(int size) {
+        List<String> marks = new ArrayList<String>(size);
+        for (int i = 0; i < size; i++) {
+            marks.add("?");
+        }
+        return Joiner.on(", ").join(marks);
+    }
+}
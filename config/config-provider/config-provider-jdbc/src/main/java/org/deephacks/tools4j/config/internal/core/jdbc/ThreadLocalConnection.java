@@ -0,0 +1,177 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.internal.core.jdbc;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.deephacks.tools4j.support.SystemProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ThreadLocalConnection keep one JDBC connection per thread together with the
+ * prepared statements that have been used on that connection, so that statements
+ * are only parsed and planned once by the database.
+ * <p>
+ * A connection is opened on first use using the url, user and password properties.
+ * Applications that manage connections themselves can bind a connection to the
+ * current thread instead, bound connections are never closed by this class.
+ */
+public class ThreadLocalConnection {
+    public static final String JDBC_URL_PROP = "config.spi.bean.jdbc.url";
+    public static final String JDBC_USER_PROP = "config.spi.bean.jdbc.user";
+    public static final String JDBC_PASSWORD_PROP = "config.spi.bean.jdbc.password";
+    public static final String JDBC_DRIVER_PROP = "config.spi.bean.jdbc.driver";
+    private static final Logger LOG = LoggerFactory.getLogger(ThreadLocalConnection.class);
+    private static final SystemProperties PROP = SystemProperties.createDefault();
+    private static final ThreadLocal<ThreadLocalConnection> THREAD_CONTEXT = new ThreadLocal<ThreadLocalConnection>();
+    private final Connection connection;
+    /** true if the connection is owned by the application */
+    private final boolean bound;
+    private final Map<String, PreparedStatement> statements = new HashMap<String, PreparedStatement>();
+
+    private ThreadLocalConnection(Connection connection, boolean bound) {
+        this.connection = connection;
+        this.bound = bound;
+    }
+
+    /**
+     * Bind a connection to the current thread. Statements cached for a
+     * previously bound connection are closed, but the connection itself
+     * is left to the application.
+     */
+    public static void bind(Connection connection) {
+        close();
+        THREAD_CONTEXT.set(new ThreadLocalConnection(connection, true));
+    }
+
+    public static Connection getConnection() {
+        return get().connection;
+    }
+
+    /**
+     * Return a cached prepared statement for the sql of the connection bound to
+     * the current thread.
+     */
+    static PreparedStatement prepare(String sql) {
+        ThreadLocalConnection current = get();
+        PreparedStatement stmt = current.statements.get(sql);
+        try {
+            if (stmt == null) {
+                stmt = current.connection.prepareStatement(sql);
+                current.statements.put(sql, stmt);
+            } else {
+                stmt.clearParameters();
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+        return stmt;
+    }
+
+    public static void begin() {
+        try {
+            Connection connection = get().connection;
+            if (connection.getAutoCommit()) {
+                connection.setAutoCommit(false);
+            }
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static void commit() {
+        ThreadLocalConnection current = THREAD_CONTEXT.get();
+        if (current == null) {
+            LOG.warn("Cannot commit, no connection was found in thread local.");
+            return;
+        }
+        try {
+            current.connection.commit();
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static void rollback() {
+        ThreadLocalConnection current = THREAD_CONTEXT.get();
+        if (current == null) {
+            LOG.warn("Cannot rollback, no connection was found in thread local.");
+            return;
+        }
+        try {
+            current.connection.rollback();
+        } catch (SQLException e) {
+            LOG.warn("Rollback failed.", e);
+        }
+    }
+
+    /**
+     * Close cached statements and the connection of the current thread. Connections
+     * that were bound by the application are only released from the thread.
+     */
+    public static void close() {
+        ThreadLocalConnection current = THREAD_CONTEXT.get();
+        if (current == null) {
+            return;
+        }
+        THREAD_CONTEXT.remove();
+        for (PreparedStatement stmt : current.statements.values()) {
+            try {
+                stmt.close();
+            } catch (SQLException e) {
+                // ignore
+            }
+        }
+        if (current.bound) {
+            return;
+        }
+        try {
+            current.connection.close();
+        } catch (SQLException e) {
+            LOG.warn("Cannot close connection.", e);
+        }
+    }
+
+    private static ThreadLocalConnection get() {
+        ThreadLocalConnection current = THREAD_CONTEXT.get();
+        if (current != null) {
+            return current;
+        }
+        String url = PROP.get(JDBC_URL_PROP);
+        if (url == null || "".equals(url)) {
+            throw new IllegalStateException("No connection bound to thread and " + JDBC_URL_PROP
+                    + " is not set.");
+        }
+        try {
+            String driver = PROP.get(JDBC_DRIVER_PROP);
+            if (driver != null && !"".equals(driver)) {
+                Class.forName(driver);
+            }
+            current = new ThreadLocalConnection(DriverManager.getConnection(url,
+                    PROP.get(JDBC_USER_PROP), PROP.get(JDBC_PASSWORD_PROP)), false);
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+        THREAD_CONTEXT.set(current);
+        return current;
+    }
+}
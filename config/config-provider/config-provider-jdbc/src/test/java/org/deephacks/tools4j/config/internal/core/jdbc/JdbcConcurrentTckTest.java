@@ -0,0 +1,57 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.internal.core.jdbc;
+
+import static org.deephacks.tools4j.support.test.Database.DERBY;
+
+import java.io.File;
+
+import org.deephacks.tools4j.config.internal.core.xml.XmlSchemaManager;
+import org.deephacks.tools4j.config.spi.BeanManager;
+import org.deephacks.tools4j.config.spi.SchemaManager;
+import org.deephacks.tools4j.config.spi.ValidationManager;
+import org.deephacks.tools4j.config.test.ConfigConcurrentTckTests;
+import org.deephacks.tools4j.config.test.XmlStorageHelper;
+import org.deephacks.tools4j.internal.core.jsr303.Jsr303ValidationManager;
+import org.deephacks.tools4j.support.lookup.MockLookup;
+import org.deephacks.tools4j.support.test.Database;
+import org.deephacks.tools4j.support.test.JUnitUtils;
+
+/**
+ * Run concurrent tck tests targeted at the JdbcBeanManager on an embedded
+ * Derby database. Every worker thread use a connection of its own.
+ */
+public class JdbcConcurrentTckTest extends ConfigConcurrentTckTests {
+    private static final String JPA_SCRIPT_DIR = "../config-provider-jpa20/src/main/resources/META-INF/";
+
+    @Override
+    public void before() {
+        XmlStorageHelper.clearAndInit(JdbcConcurrentTckTest.class);
+        File scriptDir = JUnitUtils.getMavenProjectChildFile(JdbcBeanManager.class, JPA_SCRIPT_DIR);
+        Database database = Database.create(DERBY, scriptDir);
+        ThreadLocalConnection.close();
+        database.initalize();
+        System.setProperty(ThreadLocalConnection.JDBC_URL_PROP, database.getUrl());
+        System.setProperty(ThreadLocalConnection.JDBC_USER_PROP, database.getUsername());
+        System.setProperty(ThreadLocalConnection.JDBC_PASSWORD_PROP, database.getPassword());
+        MockLookup.setMockInstances(BeanManager.class, new JdbcBeanManager());
+        MockLookup.addMockInstances(SchemaManager.class, new XmlSchemaManager());
+        MockLookup.addMockInstances(ValidationManager.class, new Jsr303ValidationManager());
+    }
+
+    @Override
+    protected void afterThread() {
+        ThreadLocalConnection.close();
+    }
+}
@@ -0,0 +1,69 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.internal.core.jdbc;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ThreadLocalConnectionTest {
+    private static final String URL = "jdbc:derby:memory:ThreadLocalConnectionTest;create=true";
+    private Connection first;
+    private Connection second;
+
+    @Before
+    public void before() throws SQLException {
+        first = DriverManager.getConnection(URL);
+        second = DriverManager.getConnection(URL);
+    }
+
+    @After
+    public void after() throws SQLException {
+        ThreadLocalConnection.close();
+        first.close();
+        second.close();
+    }
+
+    @Test
+    public void test_bind_keep_previous_connection_open() throws SQLException {
+        ThreadLocalConnection.bind(first);
+        PreparedStatement stmt = ThreadLocalConnection.prepare("VALUES 1");
+
+        ThreadLocalConnection.bind(second);
+
+        assertFalse(first.isClosed());
+        assertTrue(stmt.isClosed());
+        assertSame(second, ThreadLocalConnection.getConnection());
+    }
+
+    @Test
+    public void test_close_keep_bound_connection_open() throws SQLException {
+        ThreadLocalConnection.bind(first);
+        PreparedStatement stmt = ThreadLocalConnection.prepare("VALUES 1");
+
+        ThreadLocalConnection.close();
+
+        assertFalse(first.isClosed());
+        assertTrue(stmt.isClosed());
+    }
+}
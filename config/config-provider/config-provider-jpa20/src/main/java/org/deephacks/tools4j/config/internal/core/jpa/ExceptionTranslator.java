@@ -16,6 +16,7 @@ package org.deephacks.tools4j.config.internal.core.jpa;
 import static org.deephacks.tools4j.config.model.Events.CFG301_MISSING_RUNTIME_REF;
 import static org.deephacks.tools4j.config.model.Events.CFG302_CANNOT_DELETE_BEAN;
 
+import java.sql.SQLIntegrityConstraintViolationException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
@@ -48,6 +49,19 @@ public class ExceptionTranslator {
         CONSTRAINT_VIOLATION.addAll(Arrays.asList(MYSQL, GENERIC, HIBERNATE));
     }
 
+    /**
+     * @return true if the exception, or any of its causes, is a constraint violation.
+     */
+    public static boolean isConstraintViolation(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SQLIntegrityConstraintViolationException
+                    || CONSTRAINT_VIOLATION.contains(cause.getClass().getName())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public static void translateDelete(Collection<BeanId> ids, Throwable e) {
         LOG.debug("", e);
         Throwable cause = e;
@@ -13,17 +13,29 @@
  */
 package org.deephacks.tools4j.config.internal.core.jpa;
 
+import static org.deephacks.tools4j.config.internal.core.jpa.ExceptionTranslator.isConstraintViolation;
 import static org.deephacks.tools4j.config.internal.core.jpa.ExceptionTranslator.translateDelete;
 import static org.deephacks.tools4j.config.internal.core.jpa.ExceptionTranslator.translateMerge;
 import static org.deephacks.tools4j.config.internal.core.jpa.JpaBean.deleteJpaBean;
 import static org.deephacks.tools4j.config.internal.core.jpa.JpaBean.findEagerJpaBean;
+import static org.deephacks.tools4j.config.internal.core.jpa.JpaBean.findEagerJpaBeans;
+import static org.deephacks.tools4j.config.internal.core.jpa.JpaBean.findExistingJpaBeans;
 import static org.deephacks.tools4j.config.internal.core.jpa.JpaBean.findJpaBeans;
 import static org.deephacks.tools4j.config.internal.core.jpa.JpaBean.findLazyJpaBean;
+import static org.deephacks.tools4j.config.internal.core.jpa.JpaBean.incrementVersion;
 import static org.deephacks.tools4j.config.internal.core.jpa.JpaBeanSingleton.isJpaBeanSingleton;
+import static org.deephacks.tools4j.config.internal.core.jpa.JpaChange.findChangesSince;
+import static org.deephacks.tools4j.config.internal.core.jpa.JpaChange.logChange;
 import static org.deephacks.tools4j.config.internal.core.jpa.JpaProperty.deleteProperties;
 import static org.deephacks.tools4j.config.internal.core.jpa.JpaProperty.deleteProperty;
+import static org.deephacks.tools4j.config.internal.core.jpa.JpaProperty.findBeanIds;
 import static org.deephacks.tools4j.config.internal.core.jpa.JpaRef.deleteReference;
 import static org.deephacks.tools4j.config.internal.core.jpa.JpaRef.deleteReferences;
+import static org.deephacks.tools4j.config.internal.core.jpa.JpaStatements.persist;
+import static org.deephacks.tools4j.config.model.BeanChange.Operation.CREATE;
+import static org.deephacks.tools4j.config.model.BeanChange.Operation.DELETE;
+import static org.deephacks.tools4j.config.model.BeanChange.Operation.MERGE;
+import static org.deephacks.tools4j.config.model.BeanChange.Operation.SET;
 import static org.deephacks.tools4j.config.model.BeanUtils.uniqueIndex;
 import static org.deephacks.tools4j.config.model.Events.CFG301_MISSING_RUNTIME_REF;
 import static org.deephacks.tools4j.config.model.Events.CFG302_CANNOT_DELETE_BEAN;
@@ -31,24 +43,26 @@ import static org.deephacks.tools4j.config.model.Events.CFG303_BEAN_ALREADY_EXIS
 import static org.deephacks.tools4j.config.model.Events.CFG304_BEAN_DOESNT_EXIST;
 import static org.deephacks.tools4j.config.model.Events.CFG307_SINGELTON_REMOVAL;
 import static org.deephacks.tools4j.config.model.Events.CFG308_SINGELTON_CREATION;
-import static org.deephacks.tools4j.support.web.jpa.ThreadLocalEntityManager.begin;
-import static org.deephacks.tools4j.support.web.jpa.ThreadLocalEntityManager.commit;
 import static org.deephacks.tools4j.support.web.jpa.ThreadLocalEntityManager.getEm;
-import static org.deephacks.tools4j.support.web.jpa.ThreadLocalEntityManager.rollback;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.deephacks.tools4j.config.model.Bean;
 import org.deephacks.tools4j.config.model.Bean.BeanId;
+import org.deephacks.tools4j.config.model.BeanChange;
+import org.deephacks.tools4j.config.model.Criteria;
 import org.deephacks.tools4j.config.spi.BeanManager;
 import org.deephacks.tools4j.support.ServiceProvider;
 import org.deephacks.tools4j.support.conversion.Conversion;
 import org.deephacks.tools4j.support.event.AbortRuntimeException;
+import org.deephacks.tools4j.support.web.jpa.ThreadLocalEntityManager;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -58,6 +72,11 @@ import org.slf4j.LoggerFactory;
  * At the moment this Bean Manager is compatible with EclipseLink+Hibernate and MySQL+Postgresql and can
  * be configured to run in any such combination.
  * 
+ * Every change is logged to the CONFIG_CHANGELOG table in the same transaction as 
+ * the change, see {@link #getChangesSince(long, int)}.
+ * 
+ * Statements issued by each call are counted, see {@link JpaStatements}.
+ * 
  *  TODO: Mention container-managed vs standalone deployment. Datasource integration and JTA setups.
  */
 @ServiceProvider(service = BeanManager.class)
@@ -71,68 +90,107 @@ public class Jpa20BeanManager extends BeanManager {
         conversion.register(new JpaBeanToBeanConverter());
     }
 
+    /**
+     * Return the cache of assembled beans of the entity manager factory of the
+     * current thread, see {@link JpaBeanCache#get}.
+     */
+    public JpaBeanCache getCache() {
+        return JpaBeanCache.get(getEm().getEntityManagerFactory());
+    }
+
     @Override
     public void create(Bean bean) {
         try {
-            begin();
+            begin("create");
             if (isJpaBeanSingleton(bean.getId().getSchemaName())) {
                 throw CFG308_SINGELTON_CREATION(bean.getId());
             }
-            createJpaBean(bean);
-            createJpaRefs(bean);
+            createJpaBeans(Arrays.asList(bean));
+            createJpaRefs(Arrays.asList(bean));
+            logChange(CREATE, bean.getId(), 1);
             commit();
+            bean.setVersion(1);
         } catch (Throwable e) {
             rollback();
             throw e;
+        } finally {
+            getCache().invalidate(Arrays.asList(bean.getId()));
         }
     }
 
     @Override
     public void create(Collection<Bean> beans) {
         try {
-            begin();
+            begin("create");
+            Set<String> schemaNames = new HashSet<String>();
             for (Bean bean : beans) {
-                if (isJpaBeanSingleton(bean.getId().getSchemaName())) {
+                String schemaName = bean.getId().getSchemaName();
+                if (schemaNames.add(schemaName) && isJpaBeanSingleton(schemaName)) {
                     throw CFG308_SINGELTON_CREATION(bean.getId());
                 }
-                createJpaBean(bean);
             }
+            createJpaBeans(beans);
             getEm().flush();
+            createJpaRefs(beans);
             for (Bean bean : beans) {
-                createJpaRefs(bean);
+                logChange(CREATE, bean.getId(), 1);
             }
             commit();
+            for (Bean bean : beans) {
+                bean.setVersion(1);
+            }
         } catch (Throwable e) {
             rollback();
             throw e;
+        } finally {
+            getCache().invalidate(ids(beans));
         }
     }
 
     @Override
     public void createSingleton(BeanId singleton) {
         try {
-            begin();
+            begin("createSingleton");
             JpaBean jpaBean = findEagerJpaBean(singleton);
             if (jpaBean != null) {
                 // return silently.
+                commit();
                 return;
             }
             JpaBeanSingleton jpaBeanSingleton = new JpaBeanSingleton(singleton.getSchemaName());
-            getEm().persist(jpaBeanSingleton);
+            persist(jpaBeanSingleton);
 
             jpaBean = new JpaBean(new JpaBeanPk(singleton));
-            getEm().persist(jpaBean);
+            persist(jpaBean);
+            logChange(CREATE, singleton, 1);
             commit();
         } catch (Throwable e) {
             rollback();
+            if (!isConstraintViolation(e)) {
+                throw e;
+            }
+            // another thread may have created the singleton after we looked for it
+            try {
+                begin("createSingleton");
+                JpaBean existing = findEagerJpaBean(singleton);
+                commit();
+                if (existing != null) {
+                    return;
+                }
+            } catch (Throwable lookup) {
+                rollback();
+                e.addSuppressed(lookup);
+            }
             throw e;
+        } finally {
+            getCache().invalidate(Arrays.asList(singleton));
         }
     }
 
     @Override
     public Bean getSingleton(String schemaName) throws IllegalArgumentException {
         try {
-            begin();
+            begin("getSingleton");
             if (!isJpaBeanSingleton(schemaName)) {
                 throw new IllegalArgumentException("Schema [" + schemaName
                         + "] is not a singleton.");
@@ -154,29 +212,35 @@ public class Jpa20BeanManager extends BeanManager {
         }
     }
 
-    private JpaBean createJpaBean(Bean bean) {
-        JpaBean jpaBean = findEagerJpaBean(bean.getId());
-        if (jpaBean != null) {
-            throw CFG303_BEAN_ALREADY_EXIST(bean.getId());
+    private void createJpaBeans(Collection<Bean> beans) {
+        Set<BeanId> existing = findExistingJpaBeans(ids(beans));
+        for (Bean bean : beans) {
+            if (existing.contains(bean.getId())) {
+                throw CFG303_BEAN_ALREADY_EXIST(bean.getId());
+            }
+            persist(new JpaBean(bean));
+            createJpaProperties(bean);
         }
-        jpaBean = new JpaBean(bean);
-        getEm().persist(jpaBean);
-        createJpaProperties(bean);
-        return jpaBean;
     }
 
-    private void createJpaRefs(Bean bean) {
-        for (String name : bean.getReferenceNames()) {
-            List<BeanId> refs = bean.getReference(name);
-            if (refs == null) {
-                continue;
-            }
-            for (BeanId id : refs) {
-                JpaBean target = findEagerJpaBean(id);
-                if (target == null) {
-                    throw CFG301_MISSING_RUNTIME_REF(bean.getId(), id);
+    /**
+     * Create references of beans after checking that every referenced bean 
+     * exist, without fetching them.
+     */
+    private void createJpaRefs(Collection<Bean> beans) {
+        Set<BeanId> existing = findExistingJpaBeans(references(beans));
+        for (Bean bean : beans) {
+            for (String name : bean.getReferenceNames()) {
+                List<BeanId> refs = bean.getReference(name);
+                if (refs == null) {
+                    continue;
+                }
+                for (BeanId id : refs) {
+                    if (!existing.contains(id)) {
+                        throw CFG301_MISSING_RUNTIME_REF(bean.getId(), id);
+                    }
+                    persist(new JpaRef(bean.getId(), id, name));
                 }
-                getEm().persist(new JpaRef(bean.getId(), target.getId(), name));
             }
         }
     }
@@ -188,19 +252,29 @@ public class Jpa20BeanManager extends BeanManager {
                 continue;
             }
             for (String value : values) {
-                getEm().persist(new JpaProperty(bean.getId(), name, value));
+                persist(new JpaProperty(bean.getId(), name, value));
             }
         }
     }
 
     @Override
     public void delete(BeanId id) {
+        delete(Bean.create(id));
+    }
+
+    @Override
+    public void delete(Bean bean) {
+        BeanId id = bean.getId();
         try {
-            begin();
+            begin("delete");
             if (isJpaBeanSingleton(id.getSchemaName())) {
                 throw CFG307_SINGELTON_REMOVAL(id);
             }
+            if (bean.getVersion() != 0) {
+                incrementVersion(bean);
+            }
             deleteJpaBean(id);
+            logChange(DELETE, id, 0);
             commit();
         } catch (AbortRuntimeException e) {
             rollback();
@@ -221,6 +295,8 @@ public class Jpa20BeanManager extends BeanManager {
                 throw CFG302_CANNOT_DELETE_BEAN(Arrays.asList(id));
             }
             translateDelete(Arrays.asList(id), e);
+        } finally {
+            getCache().invalidate(Arrays.asList(id));
         }
     }
 
@@ -228,13 +304,14 @@ public class Jpa20BeanManager extends BeanManager {
     public void delete(String schemaName, Collection<String> ids) {
         BeanId beanId = null;
         try {
-            begin();
+            begin("delete");
             for (String id : ids) {
                 beanId = BeanId.create(id, schemaName);
                 if (isJpaBeanSingleton(schemaName)) {
                     throw CFG307_SINGELTON_REMOVAL(beanId);
                 }
                 deleteJpaBean(beanId);
+                logChange(DELETE, beanId, 0);
             }
             commit();
         } catch (AbortRuntimeException e) {
@@ -256,19 +333,32 @@ public class Jpa20BeanManager extends BeanManager {
                 throw CFG302_CANNOT_DELETE_BEAN(Arrays.asList(beanId));
             }
             translateDelete(ids, schemaName, e);
+        } finally {
+            List<BeanId> beanIds = new ArrayList<BeanId>();
+            for (String id : ids) {
+                beanIds.add(BeanId.create(id, schemaName));
+            }
+            getCache().invalidate(beanIds);
         }
     }
 
     @Override
     public Bean getEager(BeanId id) {
+        Bean cached = getCache().getEager(id);
+        if (cached != null) {
+            return cached;
+        }
+        long generation = getCache().generation();
         try {
-            begin();
+            begin("getEager");
             JpaBean bean = findEagerJpaBean(id);
             if (bean == null) {
                 throw CFG304_BEAN_DOESNT_EXIST(id);
             }
             commit();
-            return conversion.convert(bean, Bean.class);
+            Bean result = conversion.convert(bean, Bean.class);
+            getCache().putEager(result, generation);
+            return result;
         } catch (Throwable e) {
             rollback();
             throw e;
@@ -277,14 +367,21 @@ public class Jpa20BeanManager extends BeanManager {
 
     @Override
     public Bean getLazy(BeanId id) throws AbortRuntimeException {
+        Bean cached = getCache().getLazy(id);
+        if (cached != null) {
+            return cached;
+        }
+        long generation = getCache().generation();
         try {
-            begin();
+            begin("getLazy");
             JpaBean bean = findLazyJpaBean(id);
             if (bean == null) {
                 throw CFG304_BEAN_DOESNT_EXIST(id);
             }
             commit();
-            return conversion.convert(bean, Bean.class);
+            Bean result = conversion.convert(bean, Bean.class);
+            getCache().putLazy(result, generation);
+            return result;
         } catch (Throwable e) {
             rollback();
             throw e;
@@ -330,7 +427,7 @@ public class Jpa20BeanManager extends BeanManager {
     @Override
     public Map<BeanId, Bean> getBeanToValidate(Bean bean) throws AbortRuntimeException {
         try {
-            begin();
+            begin("getBeanToValidate");
             Set<JpaBean> beansToValidate = JpaBean.getBeanToValidate(bean);
             commit();
             Map<BeanId, Bean> beans = new HashMap<BeanId, Bean>();
@@ -346,11 +443,17 @@ public class Jpa20BeanManager extends BeanManager {
 
     @Override
     public Map<BeanId, Bean> list(String schemaName) {
+        Map<BeanId, Bean> cached = getCache().list(schemaName);
+        if (cached != null) {
+            return cached;
+        }
+        long generation = getCache().generation();
         try {
-            begin();
+            begin("list");
             List<JpaBean> beans = findJpaBeans(schemaName);
             Map<BeanId, Bean> map = toBeans(beans);
             commit();
+            getCache().putList(schemaName, map, generation);
             return map;
         } catch (Throwable e) {
             rollback();
@@ -358,75 +461,126 @@ public class Jpa20BeanManager extends BeanManager {
         }
     }
 
+    /**
+     * Matching beans are found by the database, see {@link JpaProperty#findBeanIds}, 
+     * and only those are fetched, unless already cached, together in one fetch.
+     */
+    @Override
+    public Map<BeanId, Bean> query(String schemaName, Criteria criteria) {
+        long generation = getCache().generation();
+        try {
+            begin("query");
+            List<Bean> cached = new ArrayList<Bean>();
+            List<String> missing = new ArrayList<String>();
+            for (String instanceId : findBeanIds(schemaName, criteria)) {
+                Bean bean = getCache().getEager(BeanId.create(instanceId, schemaName));
+                if (bean != null) {
+                    cached.add(bean);
+                } else {
+                    missing.add(instanceId);
+                }
+            }
+            List<JpaBean> fetched = missing.isEmpty() ? new ArrayList<JpaBean>()
+                    : findEagerJpaBeans(schemaName, missing);
+            commit();
+            Map<BeanId, Bean> result = new HashMap<BeanId, Bean>();
+            for (Bean bean : conversion.convert(fetched, Bean.class)) {
+                getCache().putEager(bean, generation);
+                cached.add(bean);
+            }
+            for (Bean bean : cached) {
+                // the database may compare strings less strictly
+                if (criteria.apply(bean)) {
+                    result.put(bean.getId(), bean);
+                }
+            }
+            return result;
+        } catch (Throwable e) {
+            rollback();
+            throw e;
+        }
+    }
+
     @Override
     public void merge(Bean bean) {
         try {
-            begin();
-            mergeJpaBean(bean);
+            begin("merge");
+            long version = mergeJpaBean(bean);
+            logChange(MERGE, bean.getId(), version);
             commit();
+            bean.setVersion(version);
         } catch (AbortRuntimeException e) {
             rollback();
             throw e;
         } catch (Throwable e) {
             rollback();
             translateMerge(bean.getId(), e);
+        } finally {
+            getCache().invalidate(Arrays.asList(bean.getId()));
         }
     }
 
     @Override
     public void merge(Collection<Bean> beans) {
         try {
-            begin();
+            begin("merge");
+            Map<BeanId, Long> versions = new HashMap<BeanId, Long>();
             for (Bean bean : beans) {
-                mergeJpaBean(bean);
+                long version = mergeJpaBean(bean);
+                logChange(MERGE, bean.getId(), version);
+                versions.put(bean.getId(), version);
             }
             commit();
+            setVersions(beans, versions);
         } catch (AbortRuntimeException e) {
             rollback();
             throw e;
         } catch (Throwable e) {
             rollback();
             throw e;
+        } finally {
+            getCache().invalidate(ids(beans));
         }
 
     }
 
-    private void mergeJpaBean(Bean bean) {
-        JpaBean stored = findEagerJpaBean(bean.getId());
-        if (stored == null) {
-            throw CFG304_BEAN_DOESNT_EXIST(bean.getId());
-        }
-        getEm().detach(stored);
-        mergeProperties(bean, stored);
-        mergeReferences(bean, stored);
+    /**
+     * The stored bean is not fetched, incrementing its version fail if it does
+     * not exist.
+     */
+    private long mergeJpaBean(Bean bean) {
+        long version = incrementVersion(bean);
+        mergeProperties(bean);
+        mergeReferences(bean);
+        return version;
     }
 
-    private void mergeReferences(Bean bean, JpaBean stored) {
+    private void mergeReferences(Bean bean) {
+        Set<BeanId> existing = findExistingJpaBeans(references(Arrays.asList(bean)));
         for (String name : bean.getReferenceNames()) {
-            deleteReference(stored.getId(), name);
+            deleteReference(bean.getId(), name);
             List<BeanId> refs = bean.getReference(name);
             if (refs == null) {
                 continue;
             }
             for (BeanId beanId : refs) {
-                JpaBean target = findEagerJpaBean(beanId);
-                if (target == null) {
+                if (!existing.contains(beanId)) {
                     throw CFG301_MISSING_RUNTIME_REF(bean.getId(), beanId);
                 }
-                getEm().persist(new JpaRef(bean.getId(), target.getId(), name));
+                persist(new JpaRef(bean.getId(), beanId, name));
             }
         }
     }
 
-    private void mergeProperties(Bean bean, JpaBean stored) {
+    private void mergeProperties(Bean bean) {
         for (String name : bean.getPropertyNames()) {
-            deleteProperty(stored.getId(), name);
+            deleteProperty(bean.getId(), name);
             List<String> values = bean.getValues(name);
             if (values == null) {
                 continue;
             }
             for (String value : values) {
-                getEm().persist(new JpaProperty(stored.getId(), name, value));
+                persist(new JpaProperty(bean.getId(), name, value));
             }
         }
     }
@@ -434,12 +588,16 @@ public class Jpa20BeanManager extends BeanManager {
     @Override
     public void set(Bean bean) {
         try {
-            begin();
-            setJpaBean(bean);
+            begin("set");
+            long version = setJpaBean(bean);
+            logChange(SET, bean.getId(), version);
             commit();
+            bean.setVersion(version);
         } catch (Throwable e) {
             rollback();
             throw e;
+        } finally {
+            getCache().invalidate(Arrays.asList(bean.getId()));
         }
 
     }
@@ -447,30 +605,110 @@ public class Jpa20BeanManager extends BeanManager {
     @Override
     public void set(Collection<Bean> beans) {
         try {
-            begin();
+            begin("set");
+            Map<BeanId, Long> versions = new HashMap<BeanId, Long>();
             for (Bean bean : beans) {
-                setJpaBean(bean);
+                long version = setJpaBean(bean);
+                logChange(SET, bean.getId(), version);
+                versions.put(bean.getId(), version);
             }
             commit();
+            setVersions(beans, versions);
         } catch (Throwable e) {
             rollback();
             throw e;
+        } finally {
+            getCache().invalidate(ids(beans));
         }
     }
 
-    private void setJpaBean(Bean bean) {
-        JpaBean stored = findEagerJpaBean(bean.getId());
-        if (stored == null) {
-            throw CFG304_BEAN_DOESNT_EXIST(bean.getId());
+    /**
+     * Changes are read from the CONFIG_CHANGELOG table, which is never truncated by
+     * this bean manager.
+     */
+    @Override
+    public List<BeanChange> getChangesSince(long sequence, int max) {
+        try {
+            begin("getChangesSince");
+            List<BeanChange> changes = findChangesSince(sequence, max);
+            commit();
+            return changes;
+        } catch (Throwable e) {
+            rollback();
+            throw e;
         }
+    }
+
+    @Override
+    public boolean isChangeLogSupported() {
+        return true;
+    }
+
+    /**
+     * The stored bean is not fetched, incrementing its version fail if it does
+     * not exist.
+     */
+    private long setJpaBean(Bean bean) {
+        long version = incrementVersion(bean);
         deleteProperties(bean.getId());
         deleteReferences(bean.getId());
         createJpaProperties(bean);
-        createJpaRefs(bean);
+        createJpaRefs(Arrays.asList(bean));
+        return version;
     }
 
     private Map<BeanId, Bean> toBeans(List<JpaBean> jpabeans) {
         return uniqueIndex(conversion.convert(jpabeans, Bean.class));
     }
 
+    private static void setVersions(Collection<Bean> beans, Map<BeanId, Long> versions) {
+        for (Bean bean : beans) {
+            bean.setVersion(versions.get(bean.getId()));
+        }
+    }
+
+    /**
+     * Begin the transaction of a call and count its statements, see
+     * {@link JpaStatements}.
+     */
+    private static void begin(String operation) {
+        JpaStatements.begin(operation);
+        JpaChange.discardChanges();
+        ThreadLocalEntityManager.begin();
+    }
+
+    private static void commit() {
+        try {
+            JpaChange.flushChanges();
+            ThreadLocalEntityManager.commit();
+        } finally {
+            JpaStatements.end();
+        }
+    }
+
+    private static void rollback() {
+        try {
+            JpaChange.discardChanges();
+            ThreadLocalEntityManager.rollback();
+        } finally {
+            JpaStatements.end();
+        }
+    }
+
+    private static List<BeanId> ids(Collection<Bean> beans) {
+        List<BeanId> ids = new ArrayList<BeanId>();
+        for (Bean bean : beans) {
+            ids.add(bean.getId());
+        }
+        return ids;
+    }
+
+    private static Set<BeanId> references(Collection<Bean> beans) {
+        Set<BeanId> references = new HashSet<BeanId>();
+        for (Bean bean : beans) {
+            references.addAll(bean.getReferences());
+        }
+        return references;
+    }
+
 }
@@ -17,14 +17,26 @@ import static com.google.common.base.Objects.equal;
 import static com.google.common.base.Objects.toStringHelper;
 import static org.deephacks.tools4j.config.internal.core.jpa.JpaProperty.deleteProperties;
 import static org.deephacks.tools4j.config.internal.core.jpa.JpaRef.deleteReferences;
+import static org.deephacks.tools4j.config.internal.core.jpa.JpaStatements.executeUpdate;
+import static org.deephacks.tools4j.config.internal.core.jpa.JpaStatements.getResultList;
+import static org.deephacks.tools4j.config.internal.core.jpa.JpaStatements.getSingleResult;
 import static org.deephacks.tools4j.config.model.Events.CFG304_BEAN_DOESNT_EXIST;
+import static org.deephacks.tools4j.config.model.Events.CFG310_CONCURRENT_MODIFICATION;
 import static org.deephacks.tools4j.support.web.jpa.ThreadLocalEntityManager.getEm;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Set;
 
+import javax.persistence.Cacheable;
+import javax.persistence.Column;
 import javax.persistence.EmbeddedId;
 import javax.persistence.Entity;
 import javax.persistence.NamedQueries;
@@ -38,6 +50,7 @@ import org.deephacks.tools4j.config.model.Bean;
 import org.deephacks.tools4j.config.model.Bean.BeanId;
 
 import com.google.common.base.Objects;
+import com.google.common.collect.Iterables;
 
 /**
  * JpaBean is a jpa entity that represent a Bean.
@@ -45,71 +58,215 @@ import com.google.common.base.Objects;
  * @author Kristoffer Sjogren
  */
 @Entity
+@Cacheable
 @Table(name = "CONFIG_BEAN")
 @NamedQueries({
         @NamedQuery(name = JpaBean.FIND_BEAN_FROM_BEANID_NAME,
                 query = JpaBean.FIND_BEAN_FROM_BEANID),
         @NamedQuery(name = JpaBean.FIND_BEANS_FROM_SCHEMA_NAME,
                 query = JpaBean.FIND_BEANS_FROM_SCHEMA),
+        @NamedQuery(name = JpaBean.FIND_BEANS_FROM_IDS_NAME, query = JpaBean.FIND_BEANS_FROM_IDS),
+        @NamedQuery(name = JpaBean.FIND_EXISTING_IDS_NAME, query = JpaBean.FIND_EXISTING_IDS),
+        @NamedQuery(name = JpaBean.FIND_IDS_FROM_SCHEMA_NAME, query = JpaBean.FIND_IDS_FROM_SCHEMA),
         @NamedQuery(name = JpaBean.DELETE_BEAN_USING_BEANID_NAME,
-                query = JpaBean.DELETE_BEAN_USING_BEANID) })
+                query = JpaBean.DELETE_BEAN_USING_BEANID),
+        @NamedQuery(name = JpaBean.FIND_VERSION_FROM_BEANID_NAME,
+                query = JpaBean.FIND_VERSION_FROM_BEANID),
+        @NamedQuery(name = JpaBean.INCREMENT_VERSION_USING_BEANID_NAME,
+                query = JpaBean.INCREMENT_VERSION_USING_BEANID),
+        @NamedQuery(name = JpaBean.COMPARE_AND_INCREMENT_VERSION_USING_BEANID_NAME,
+                query = JpaBean.COMPARE_AND_INCREMENT_VERSION_USING_BEANID) })
 public class JpaBean implements Serializable {
     private static final long serialVersionUID = -4097243985344046349L;
     @EmbeddedId
     private JpaBeanPk pk;
+    @Column(name = "BEAN_VERSION")
+    private long version;
 
     protected static final String FIND_BEAN_FROM_BEANID = "SELECT DISTINCT e FROM JpaBean e WHERE e.pk.id = ?1 AND e.pk.schemaName= ?2";
     protected static final String FIND_BEAN_FROM_BEANID_NAME = "FIND_BEAN_FROM_BEANID_NAME";
+    /** ids of a single IN parameter, databases limit the size of IN lists */
+    static final int MAX_IN_PARAMETERS = 500;
 
     public static JpaBean findEagerJpaBean(BeanId id) {
-        JpaBean bean = getJpaBeanAndProperties(id);
-        if (bean == null) {
-            return null;
-        }
-        List<JpaRef> refs = JpaRef.findReferences(bean.getId());
-        for (JpaRef jpaRef : refs) {
-            JpaBean target = findEagerJpaBean(jpaRef.getTarget());
-            jpaRef.setTargetBean(target);
-        }
-        bean.references.addAll(refs);
-        return bean;
+        List<JpaBean> beans = findEagerJpaBeans(id.getSchemaName(),
+                Arrays.asList(id.getInstanceId()));
+        return beans.isEmpty() ? null : beans.get(0);
     }
 
     public static JpaBean findLazyJpaBean(BeanId id) {
-        JpaBean bean = getJpaBeanAndProperties(id);
-        if (bean == null) {
+        Map<BeanId, JpaBean> fetched = new HashMap<BeanId, JpaBean>();
+        List<JpaBean> beans = fetch(id.getSchemaName(), Arrays.asList(id.getInstanceId()), true,
+                fetched);
+        if (beans.isEmpty()) {
             return null;
         }
-        List<JpaRef> refs = JpaRef.findReferences(bean.getId());
-        for (JpaRef jpaRef : refs) {
-            JpaBean target = getJpaBeanAndProperties(jpaRef.getTarget());
-            jpaRef.setTargetBean(target);
-        }
-        bean.references.addAll(refs);
-        return bean;
+        // targets have their properties but not their references
+        fetchTargets(beans, false, fetched);
+        setTargets(beans, fetched);
+        return beans.get(0);
     }
 
     protected static final String FIND_BEANS_FROM_SCHEMA = "SELECT DISTINCT e FROM JpaBean e WHERE e.pk.schemaName= ?1";
     protected static final String FIND_BEANS_FROM_SCHEMA_NAME = "FIND_BEANS_FROM_SCHEMA_NAME";
 
-    @SuppressWarnings("unchecked")
     public static List<JpaBean> findJpaBeans(String schemaName) {
-        Query query = getEm().createNamedQuery(FIND_BEANS_FROM_SCHEMA_NAME);
-        query.setParameter(1, schemaName);
-        List<JpaBean> beans = (List<JpaBean>) query.getResultList();
+        return findEagerJpaBeans(schemaName, null);
+    }
+
+    /**
+     * Fetch beans of a schema and every bean that they reference, directly or
+     * indirectly. Beans are fetched level by level, with one query each for beans,
+     * properties and references per schema of a level. The number of statements
+     * therefore grow with the depth of the graph rather than the number of beans.
+     * 
+     * @param ids instance ids of the beans, or null for all beans of the schema.
+     */
+    public static List<JpaBean> findEagerJpaBeans(String schemaName, Collection<String> ids) {
+        Map<BeanId, JpaBean> fetched = new HashMap<BeanId, JpaBean>();
+        List<JpaBean> beans = fetch(schemaName, ids, true, fetched);
+        List<JpaBean> level = beans;
+        while (!level.isEmpty()) {
+            level = fetchTargets(level, true, fetched);
+        }
+        setTargets(fetched.values(), fetched);
+        return beans;
+    }
+
+    /**
+     * Fetch the beans that are referenced by some beans and that have not been
+     * fetched already, with one fetch per schema.
+     * 
+     * @return the beans that were fetched.
+     */
+    private static List<JpaBean> fetchTargets(Collection<JpaBean> beans, boolean references,
+            Map<BeanId, JpaBean> fetched) {
+        Map<String, Set<String>> missing = new HashMap<String, Set<String>>();
         for (JpaBean bean : beans) {
-            List<JpaProperty> props = JpaProperty.findProperties(bean.getId());
-            bean.properties.addAll(props);
-            List<JpaRef> refs = JpaRef.findReferences(bean.getId());
-            for (JpaRef jpaRef : refs) {
-                JpaBean target = findEagerJpaBean(jpaRef.getTarget());
-                jpaRef.setTargetBean(target);
+            for (JpaRef ref : bean.references) {
+                BeanId target = ref.getTarget();
+                if (fetched.containsKey(target)) {
+                    continue;
+                }
+                Set<String> ids = missing.get(target.getSchemaName());
+                if (ids == null) {
+                    ids = new HashSet<String>();
+                    missing.put(target.getSchemaName(), ids);
+                }
+                ids.add(target.getInstanceId());
+            }
+        }
+        List<JpaBean> targets = new ArrayList<JpaBean>();
+        for (Entry<String, Set<String>> entry : missing.entrySet()) {
+            targets.addAll(fetch(entry.getKey(), entry.getValue(), references, fetched));
+        }
+        return targets;
+    }
+
+    private static void setTargets(Collection<JpaBean> beans, Map<BeanId, JpaBean> fetched) {
+        for (JpaBean bean : beans) {
+            for (JpaRef ref : bean.references) {
+                ref.setTargetBean(fetched.get(ref.getTarget()));
+            }
+        }
+    }
+
+    protected static final String FIND_BEANS_FROM_IDS = "SELECT DISTINCT e FROM JpaBean e WHERE e.pk.schemaName= ?1 AND e.pk.id IN ?2";
+    protected static final String FIND_BEANS_FROM_IDS_NAME = "FIND_BEANS_FROM_IDS_NAME";
+
+    /**
+     * Fetch beans of a schema with their properties, and optionally their
+     * references, with one query each.
+     * 
+     * @param ids instance ids of the beans, or null for all beans of the schema.
+     * @param fetched beans that have been fetched, which the beans are added to.
+     */
+    @SuppressWarnings("unchecked")
+    private static List<JpaBean> fetch(String schemaName, Collection<String> ids,
+            boolean references, Map<BeanId, JpaBean> fetched) {
+        List<JpaBean> beans = new ArrayList<JpaBean>();
+        if (ids == null) {
+            Query query = getEm().createNamedQuery(FIND_BEANS_FROM_SCHEMA_NAME);
+            query.setParameter(1, schemaName);
+            beans.addAll((List<JpaBean>) getResultList(query));
+        } else {
+            for (List<String> partition : Iterables.partition(ids, MAX_IN_PARAMETERS)) {
+                Query query = getEm().createNamedQuery(FIND_BEANS_FROM_IDS_NAME);
+                query.setParameter(1, schemaName);
+                query.setParameter(2, partition);
+                beans.addAll((List<JpaBean>) getResultList(query));
+            }
+        }
+        if (beans.isEmpty()) {
+            return beans;
+        }
+        for (JpaBean bean : beans) {
+            fetched.put(bean.getId(), bean);
+        }
+        for (JpaProperty property : JpaProperty.findProperties(schemaName, ids)) {
+            JpaBean bean = fetched.get(property.getId());
+            if (bean != null) {
+                bean.properties.add(property);
+            }
+        }
+        if (references) {
+            for (JpaRef ref : JpaRef.findReferences(schemaName, ids)) {
+                JpaBean bean = fetched.get(ref.getSource());
+                if (bean != null) {
+                    bean.references.add(ref);
+                }
             }
-            bean.references.addAll(refs);
         }
         return beans;
     }
 
+    protected static final String FIND_IDS_FROM_SCHEMA = "SELECT e.pk.id FROM JpaBean e WHERE e.pk.schemaName= ?1";
+    protected static final String FIND_IDS_FROM_SCHEMA_NAME = "FIND_IDS_FROM_SCHEMA_NAME";
+
+    /**
+     * @return instance ids of all beans of a schema, without fetching the beans.
+     */
+    @SuppressWarnings("unchecked")
+    public static Set<String> findJpaBeanIds(String schemaName) {
+        Query query = getEm().createNamedQuery(FIND_IDS_FROM_SCHEMA_NAME);
+        query.setParameter(1, schemaName);
+        return new HashSet<String>((List<String>) getResultList(query));
+    }
+
+    protected static final String FIND_EXISTING_IDS = "SELECT e.pk.id FROM JpaBean e WHERE e.pk.schemaName= ?1 AND e.pk.id IN ?2";
+    protected static final String FIND_EXISTING_IDS_NAME = "FIND_EXISTING_IDS_NAME";
+
+    /**
+     * Check which beans exist without fetching them, with one query per schema.
+     * 
+     * @return those of the ids that exist.
+     */
+    @SuppressWarnings("unchecked")
+    public static Set<BeanId> findExistingJpaBeans(Collection<BeanId> ids) {
+        Map<String, Set<String>> schemas = new HashMap<String, Set<String>>();
+        for (BeanId id : ids) {
+            Set<String> instanceIds = schemas.get(id.getSchemaName());
+            if (instanceIds == null) {
+                instanceIds = new HashSet<String>();
+                schemas.put(id.getSchemaName(), instanceIds);
+            }
+            instanceIds.add(id.getInstanceId());
+        }
+        Set<BeanId> existing = new HashSet<BeanId>();
+        for (Entry<String, Set<String>> entry : schemas.entrySet()) {
+            for (List<String> partition : Iterables.partition(entry.getValue(),
+                    MAX_IN_PARAMETERS)) {
+                Query query = getEm().createNamedQuery(FIND_EXISTING_IDS_NAME);
+                query.setParameter(1, entry.getKey());
+                query.setParameter(2, partition);
+                for (String id : (List<String>) getResultList(query)) {
+                    existing.add(BeanId.create(id, entry.getKey()));
+                }
+            }
+        }
+        return existing;
+    }
+
     /**
      * Will return the target bean and its direct predecessors for validation
      */
@@ -154,7 +311,7 @@ public class JpaBean implements Serializable {
         query.setParameter(2, id.getSchemaName());
         JpaBean bean;
         try {
-            bean = (JpaBean) query.getSingleResult();
+            bean = (JpaBean) getSingleResult(query);
         } catch (NoResultException e) {
             return null;
         }
@@ -172,7 +329,61 @@ public class JpaBean implements Serializable {
         Query query = getEm().createNamedQuery(DELETE_BEAN_USING_BEANID_NAME);
         query.setParameter(1, id.getInstanceId());
         query.setParameter(2, id.getSchemaName());
-        query.executeUpdate();
+        executeUpdate(query);
+    }
+
+    protected static final String FIND_VERSION_FROM_BEANID = "SELECT e.version FROM JpaBean e WHERE e.pk.id = ?1 AND e.pk.schemaName= ?2";
+    protected static final String FIND_VERSION_FROM_BEANID_NAME = "FIND_VERSION_FROM_BEANID_NAME";
+
+    /**
+     * Read the version from the database, ignoring the version of entities that
+     * already are managed.
+     * 
+     * @return the stored version or null if the bean does not exist.
+     */
+    public static Long findVersion(BeanId id) {
+        Query query = getEm().createNamedQuery(FIND_VERSION_FROM_BEANID_NAME);
+        query.setParameter(1, id.getInstanceId());
+        query.setParameter(2, id.getSchemaName());
+        try {
+            return ((Number) getSingleResult(query)).longValue();
+        } catch (NoResultException e) {
+            return null;
+        }
+    }
+
+    protected static final String INCREMENT_VERSION_USING_BEANID = "UPDATE JpaBean e SET e.version = e.version + 1 WHERE e.pk.id = ?1 AND e.pk.schemaName= ?2";
+    protected static final String INCREMENT_VERSION_USING_BEANID_NAME = "INCREMENT_VERSION_USING_BEANID_NAME";
+    protected static final String COMPARE_AND_INCREMENT_VERSION_USING_BEANID = "UPDATE JpaBean e SET e.version = e.version + 1 WHERE e.pk.id = ?1 AND e.pk.schemaName= ?2 AND e.version = ?3";
+    protected static final String COMPARE_AND_INCREMENT_VERSION_USING_BEANID_NAME = "COMPARE_AND_INCREMENT_VERSION_USING_BEANID_NAME";
+
+    /**
+     * Increase the stored version of the bean. A bean that have a version is 
+     * only changed if the stored version is still the same, otherwise the bean
+     * have been changed by someone else since it was read. 
+     * 
+     * @return the new version.
+     */
+    public static long incrementVersion(Bean bean) {
+        BeanId id = bean.getId();
+        Query query;
+        if (bean.getVersion() == 0) {
+            query = getEm().createNamedQuery(INCREMENT_VERSION_USING_BEANID_NAME);
+        } else {
+            query = getEm().createNamedQuery(COMPARE_AND_INCREMENT_VERSION_USING_BEANID_NAME);
+            query.setParameter(3, bean.getVersion());
+        }
+        query.setParameter(1, id.getInstanceId());
+        query.setParameter(2, id.getSchemaName());
+        int updated = executeUpdate(query);
+        Long version = findVersion(id);
+        if (version == null) {
+            throw CFG304_BEAN_DOESNT_EXIST(id);
+        }
+        if (updated == 0) {
+            throw CFG310_CONCURRENT_MODIFICATION(id, bean.getVersion(), version);
+        }
+        return version;
     }
 
     @Transient
@@ -186,10 +397,12 @@ public class JpaBean implements Serializable {
 
     JpaBean(Bean b) {
         this.pk = new JpaBeanPk(b.getId());
+        this.version = 1;
     }
 
     JpaBean(JpaBeanPk pk) {
         this.pk = pk;
+        this.version = 1;
     }
 
     public JpaBeanPk getPk() {
@@ -200,6 +413,10 @@ public class JpaBean implements Serializable {
         return BeanId.create(pk.id, pk.schemaName);
     }
 
+    public long getVersion() {
+        return version;
+    }
+
     public Set<JpaRef> getReferences() {
         return references;
     }
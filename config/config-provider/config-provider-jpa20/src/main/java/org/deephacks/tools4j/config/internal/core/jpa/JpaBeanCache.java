@@ -0,0 +1,427 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.internal.core.jpa;
+
+import static com.google.common.base.Objects.toStringHelper;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.deephacks.tools4j.config.model.Bean;
+import org.deephacks.tools4j.config.model.Bean.BeanId;
+import org.deephacks.tools4j.config.spi.InvalidationBroadcaster;
+import org.deephacks.tools4j.config.spi.InvalidationBroadcaster.Listener;
+import org.deephacks.tools4j.support.SystemProperties;
+
+import com.google.common.base.Objects;
+
+/**
+ * JpaBeanCache keep bean graphs that have been assembled by the Jpa20BeanManager,
+ * so that repeated reads of the same beans does not go to the database.
+ * <p>
+ * Graphs are cached per bean id (eager and lazy) and per schema listing. Every
+ * cached graph remember the ids of all beans it contains and is invalidated
+ * when the bean manager write any of those beans, or, for listings, any bean
+ * of the listed schema. Writes that happen outside of the bean manager, like
+ * other processes that share the same database, are not seen by the cache
+ * unless those processes broadcast their invalidations through the
+ * {@link InvalidationBroadcaster} of this cache. Invalidations of this cache are
+ * broadcast to other nodes in turn.
+ * <p>
+ * Cached graphs are never handed out directly. Callers get a copy that they are
+ * free to modify.
+ * <p>
+ * There is one cache per {@link EntityManagerFactory}, and thereby per persistence
+ * unit, shared by all Jpa20BeanManager instances that use it. A cache hold at most
+ * {@link #CACHE_SIZE_PROP} graphs, evicting the least recently used. Size 0 disable
+ * the cache. Without an {@link InvalidationBroadcaster} the cache cannot know about
+ * writes of other nodes and is disabled unless a size is given explicitly.
+ */
+public final class JpaBeanCache {
+    public static final String CACHE_SIZE_PROP = "config.spi.bean.jpa.cache.size";
+    /** size used if invalidations are broadcast and no size is given */
+    private static final int DEFAULT_CACHE_SIZE = 10000;
+    private static final Map<EntityManagerFactory, JpaBeanCache> CACHES = new WeakHashMap<EntityManagerFactory, JpaBeanCache>();
+
+    private final int maxSize;
+    private final LinkedHashMap<Key, CachedGraph> entries;
+    /** keys of the cached graphs that contain a specific bean */
+    private final Map<BeanId, Set<Key>> dependents = new HashMap<BeanId, Set<Key>>();
+    /** changed on every invalidation */
+    private long generation = 0;
+    private long hits = 0;
+    private long misses = 0;
+    private long invalidations = 0;
+    private volatile InvalidationBroadcaster broadcaster;
+    /** invalidations from other nodes are not broadcast again */
+    private final Listener listener = new Listener() {
+
+        @Override
+        public void invalidate(Collection<BeanId> ids) {
+            evict(ids);
+        }
+
+        @Override
+        public void invalidateAll() {
+            evictAll();
+        }
+    };
+
+    JpaBeanCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<Key, CachedGraph>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, CachedGraph> eldest) {
+                if (size() <= JpaBeanCache.this.maxSize) {
+                    return false;
+                }
+                removeDependents(eldest.getKey(), eldest.getValue().ids);
+                return true;
+            }
+        };
+    }
+
+    /**
+     * Return the cache of an entity manager factory, which is created with the
+     * broadcaster of this node the first time it is requested.
+     */
+    public static JpaBeanCache get(EntityManagerFactory factory) {
+        synchronized (CACHES) {
+            JpaBeanCache cache = CACHES.get(factory);
+            if (cache == null) {
+                InvalidationBroadcaster broadcaster = InvalidationBroadcaster.lookup();
+                cache = new JpaBeanCache(readSize(broadcaster != null));
+                cache.setBroadcaster(broadcaster);
+                CACHES.put(factory, cache);
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * Broadcast invalidations to, and receive invalidations from, other nodes
+     * through this broadcaster instead of the current one, if any.
+     *
+     * @param broadcaster null to stop broadcasting.
+     */
+    public void setBroadcaster(InvalidationBroadcaster broadcaster) {
+        InvalidationBroadcaster previous = this.broadcaster;
+        if (previous != null) {
+            previous.removeListener(listener);
+        }
+        if (broadcaster != null) {
+            broadcaster.addListener(listener);
+        }
+        this.broadcaster = broadcaster;
+    }
+
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    public synchronized long getInvalidationCount() {
+        return invalidations;
+    }
+
+    /**
+     * @return hits divided by lookups, or 0 if nothing have been looked up.
+     */
+    public synchronized double getHitRatio() {
+        long lookups = hits + misses;
+        return lookups == 0 ? 0 : (double) hits / lookups;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    public boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * Remove all cached graphs, needed if the database is changed by someone
+     * else than the bean manager.
+     */
+    public void clear() {
+        evictAll();
+        InvalidationBroadcaster current = broadcaster;
+        if (current != null) {
+            current.broadcastAll();
+        }
+    }
+
+    private synchronized void evictAll() {
+        entries.clear();
+        dependents.clear();
+        generation++;
+    }
+
+    /**
+     * Return the current generation, which must be read before the database
+     * is queried and be given back when the result is put into the cache.
+     */
+    synchronized long generation() {
+        return generation;
+    }
+
+    Bean getEager(BeanId id) {
+        return (Bean) lookup(new Key(Key.EAGER, id));
+    }
+
+    Bean getLazy(BeanId id) {
+        return (Bean) lookup(new Key(Key.LAZY, id));
+    }
+
+    @SuppressWarnings("unchecked")
+    Map<BeanId, Bean> list(String schemaName) {
+        return (Map<BeanId, Bean>) lookup(new Key(Key.LIST, schemaName));
+    }
+
+    void putEager(Bean bean, long generation) {
+        put(new Key(Key.EAGER, bean.getId()), bean, Arrays.asList(bean), generation);
+    }
+
+    void putLazy(Bean bean, long generation) {
+        put(new Key(Key.LAZY, bean.getId()), bean, Arrays.asList(bean), generation);
+    }
+
+    void putList(String schemaName, Map<BeanId, Bean> beans, long generation) {
+        put(new Key(Key.LIST, schemaName), beans, beans.values(), generation);
+    }
+
+    /**
+     * Invalidate every graph that contain any of the beans and listings of
+     * their schemas.
+     */
+    void invalidate(Collection<BeanId> ids) {
+        evict(ids);
+        InvalidationBroadcaster current = broadcaster;
+        if (current != null) {
+            current.broadcast(ids);
+        }
+    }
+
+    private synchronized void evict(Collection<BeanId> ids) {
+        generation++;
+        if (!isEnabled()) {
+            return;
+        }
+        Set<Key> keys = new HashSet<Key>();
+        for (BeanId id : ids) {
+            keys.add(new Key(Key.LIST, id.getSchemaName()));
+            Set<Key> dependent = dependents.remove(id);
+            if (dependent != null) {
+                keys.addAll(dependent);
+            }
+        }
+        for (Key key : keys) {
+            CachedGraph entry = entries.remove(key);
+            if (entry != null) {
+                invalidations++;
+                removeDependents(key, entry.ids);
+            }
+        }
+    }
+
+    private synchronized Object lookup(Key key) {
+        if (!isEnabled()) {
+            return null;
+        }
+        CachedGraph entry = entries.get(key);
+        if (entry == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return copy(entry.graph);
+    }
+
+    private synchronized void put(Key key, Object graph, Collection<Bean> roots, long generation) {
+        if (!isEnabled() || this.generation != generation) {
+            // a write happened while the graph was read, it may be stale.
+            return;
+        }
+        Set<BeanId> ids = new HashSet<BeanId>();
+        for (Bean root : roots) {
+            collect(root, ids, new IdentityHashMap<Bean, Bean>());
+        }
+        for (BeanId id : ids) {
+            Set<Key> dependent = dependents.get(id);
+            if (dependent == null) {
+                dependent = new HashSet<Key>();
+                dependents.put(id, dependent);
+            }
+            dependent.add(key);
+        }
+        entries.put(key, new CachedGraph(copy(graph), ids));
+    }
+
+    private void removeDependents(Key key, Set<BeanId> ids) {
+        for (BeanId id : ids) {
+            Set<Key> dependent = dependents.get(id);
+            if (dependent == null) {
+                continue;
+            }
+            dependent.remove(key);
+            if (dependent.isEmpty()) {
+                dependents.remove(id);
+            }
+        }
+    }
+
+    private static void collect(Bean bean, Set<BeanId> ids, IdentityHashMap<Bean, Bean> visited) {
+        if (bean == null || visited.put(bean, bean) != null) {
+            return;
+        }
+        ids.add(bean.getId());
+        for (BeanId ref : bean.getReferences()) {
+            ids.add(ref);
+            collect(ref.getBean(), ids, visited);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Object copy(Object graph) {
+        IdentityHashMap<Bean, Bean> copies = new IdentityHashMap<Bean, Bean>();
+        if (graph instanceof Bean) {
+            return copy((Bean) graph, copies);
+        }
+        Map<BeanId, Bean> beans = new LinkedHashMap<BeanId, Bean>();
+        for (Bean bean : ((Map<BeanId, Bean>) graph).values()) {
+            Bean copy = copy(bean, copies);
+            beans.put(copy.getId(), copy);
+        }
+        return beans;
+    }
+
+    /**
+     * Copy a bean and the beans it reference. Beans that are shared within the
+     * graph are also shared within the copy, which also terminate cycles.
+     */
+    private static Bean copy(Bean bean, IdentityHashMap<Bean, Bean> copies) {
+        Bean copy = copies.get(bean);
+        if (copy != null) {
+            return copy;
+        }
+        copy = Bean.create(copy(bean.getId()));
+        copies.put(bean, copy);
+        copy.setVersion(bean.getVersion());
+        if (bean.getSchema() != null) {
+            copy.set(bean.getSchema());
+        }
+        for (String name : bean.getPropertyNames()) {
+            List<String> values = bean.getValues(name);
+            copy.setProperty(name, values == null ? null : new ArrayList<String>(values));
+        }
+        for (String name : bean.getReferenceNames()) {
+            List<BeanId> refs = bean.getReference(name);
+            if (refs == null) {
+                copy.setReferences(name, null);
+                continue;
+            }
+            List<BeanId> refCopies = new ArrayList<BeanId>();
+            for (BeanId ref : refs) {
+                BeanId refCopy = copy(ref);
+                if (ref.getBean() != null) {
+                    refCopy.setBean(copy(ref.getBean(), copies));
+                }
+                refCopies.add(refCopy);
+            }
+            copy.setReferences(name, refCopies);
+        }
+        return copy;
+    }
+
+    private static BeanId copy(BeanId id) {
+        if (id.isSingleton()) {
+            return BeanId.createSingleton(id.getInstanceId(), id.getSchemaName());
+        }
+        return BeanId.create(id.getInstanceId(), id.getSchemaName());
+    }
+
+    /**
+     * @param broadcast true if invalidations are broadcast to other nodes.
+     */
+    private static int readSize(boolean broadcast) {
+        String value = SystemProperties.createDefault().get(CACHE_SIZE_PROP);
+        if (value == null || "".equals(value.trim())) {
+            return broadcast ? DEFAULT_CACHE_SIZE : 0;
+        }
+        return Integer.parseInt(value.trim());
+    }
+
+    @Override
+    public synchronized String toString() {
+        return toStringHelper(JpaBeanCache.class).add("size", entries.size())
+                .add("hits", hits).add("misses", misses).add("invalidations", invalidations)
+                .toString();
+    }
+
+    private static final class Key {
+        private static final int EAGER = 0;
+        private static final int LAZY = 1;
+        private static final int LIST = 2;
+        private final int type;
+        private final Object value;
+
+        private Key(int type, Object value) {
+            this.type = type;
+            this.value = value;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return type == other.type && value.equals(other.value);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hashCode(type, value);
+        }
+    }
+
+    private static final class CachedGraph {
+        /** a bean or a map of beans */
+        private final Object graph;
+        /** ids of all beans within the graph */
+        private final Set<BeanId> ids;
+
+        private CachedGraph(Object graph, Set<BeanId> ids) {
+            this.graph = graph;
+            this.ids = ids;
+        }
+    }
+}
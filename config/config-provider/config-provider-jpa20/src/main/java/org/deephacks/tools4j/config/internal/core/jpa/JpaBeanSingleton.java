@@ -15,6 +15,7 @@ package org.deephacks.tools4j.config.internal.core.jpa;
 
 import static com.google.common.base.Objects.equal;
 import static com.google.common.base.Objects.toStringHelper;
+import static org.deephacks.tools4j.config.internal.core.jpa.JpaStatements.getSingleResult;
 import static org.deephacks.tools4j.support.web.jpa.ThreadLocalEntityManager.getEm;
 
 import java.io.Serializable;
@@ -46,7 +47,7 @@ public class JpaBeanSingleton implements Serializable {
         Query query = getEm().createNamedQuery(FIND_BEAN_FROM_SCHEMA_NAME);
         query.setParameter(1, schemaName);
         try {
-            query.getSingleResult();
+            getSingleResult(query);
         } catch (NoResultException e) {
             return false;
         }
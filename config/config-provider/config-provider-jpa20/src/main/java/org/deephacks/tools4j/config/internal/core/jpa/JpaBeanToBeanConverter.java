@@ -29,6 +29,7 @@ public class JpaBeanToBeanConverter implements Converter<JpaBean, Bean> {
 
         BeanId id = BeanId.create(source.getPk().id, source.getPk().schemaName);
         Bean bean = Bean.create(id);
+        bean.setVersion(source.getVersion());
         for (JpaRef ref : source.getReferences()) {
             JpaBean target = ref.getTargetBean();
             if (target == null) {
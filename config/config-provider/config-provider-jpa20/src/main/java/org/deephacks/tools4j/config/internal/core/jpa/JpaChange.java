@@ -0,0 +1,169 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.internal.core.jpa;
+
+import static com.google.common.base.Objects.toStringHelper;
+import static org.deephacks.tools4j.config.internal.core.jpa.JpaStatements.executeUpdate;
+import static org.deephacks.tools4j.config.internal.core.jpa.JpaStatements.getResultList;
+import static org.deephacks.tools4j.config.internal.core.jpa.JpaStatements.getSingleResult;
+import static org.deephacks.tools4j.config.internal.core.jpa.JpaStatements.persist;
+import static org.deephacks.tools4j.support.web.jpa.ThreadLocalEntityManager.getEm;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.Id;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.Query;
+import javax.persistence.Table;
+
+import org.deephacks.tools4j.config.model.Bean.BeanId;
+import org.deephacks.tools4j.config.model.BeanChange;
+import org.deephacks.tools4j.config.model.BeanChange.Operation;
+
+/**
+ * A row in the change log, written in the same transaction as the change itself.
+ * <p>
+ * Changes are queued while the transaction runs and written by {@link #flushChanges()}
+ * just before commit. At that point every bean row of the transaction is already
+ * written and locked, and the sequence numbers of all queued changes are reserved
+ * with a single update of the row in CONFIG_CHANGELOG_SEQ. The row stay locked until
+ * the transaction commit, so sequence numbers become visible in the order they are
+ * given and a reader never miss a change that commit later with a lower sequence
+ * number. Since the sequence row is always locked last, and only once, writers
+ * never wait for a bean row while holding it.
+ * <p>
+ * The sequence row is inserted by the install and upgrade scripts.
+ */
+@Entity
+@Table(name = "CONFIG_CHANGELOG")
+@NamedQueries({
+        @NamedQuery(name = JpaChange.FIND_CHANGES_SINCE_NAME, query = JpaChange.FIND_CHANGES_SINCE),
+        @NamedQuery(name = JpaChange.INCREMENT_SEQUENCE_NAME, query = JpaChange.INCREMENT_SEQUENCE),
+        @NamedQuery(name = JpaChange.FIND_SEQUENCE_NAME, query = JpaChange.FIND_SEQUENCE) })
+public class JpaChange implements Serializable {
+    private static final long serialVersionUID = 6310489186457150573L;
+    private static final ThreadLocal<List<JpaChange>> PENDING = new ThreadLocal<List<JpaChange>>();
+
+    @Id
+    @Column(name = "SEQ")
+    private long sequence;
+
+    @Column(name = "BEAN_ID", nullable = false)
+    private String beanId;
+
+    @Column(name = "BEAN_SCHEMA_NAME", nullable = false)
+    private String schemaName;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "OP", nullable = false)
+    private Operation operation;
+
+    @Column(name = "BEAN_VERSION", nullable = false)
+    private long version;
+
+    protected static final String FIND_CHANGES_SINCE = "SELECT e FROM JpaChange e WHERE e.sequence > ?1 ORDER BY e.sequence";
+    protected static final String FIND_CHANGES_SINCE_NAME = "FIND_CHANGES_SINCE_NAME";
+
+    @SuppressWarnings("unchecked")
+    public static List<BeanChange> findChangesSince(long sequence, int max) {
+        Query query = getEm().createNamedQuery(FIND_CHANGES_SINCE_NAME);
+        query.setParameter(1, sequence);
+        query.setMaxResults(max);
+        List<BeanChange> changes = new ArrayList<BeanChange>();
+        for (JpaChange change : (List<JpaChange>) getResultList(query)) {
+            changes.add(change.toBeanChange());
+        }
+        return changes;
+    }
+
+    protected static final String INCREMENT_SEQUENCE = "UPDATE JpaChangeSequence e SET e.sequence = e.sequence + ?1 WHERE e.id = 1";
+    protected static final String INCREMENT_SEQUENCE_NAME = "INCREMENT_SEQUENCE_NAME";
+    protected static final String FIND_SEQUENCE = "SELECT e.sequence FROM JpaChangeSequence e WHERE e.id = 1";
+    protected static final String FIND_SEQUENCE_NAME = "FIND_SEQUENCE_NAME";
+
+    /**
+     * Log a change of a bean in the current transaction. The change is written
+     * when the transaction is about to commit, see {@link #flushChanges()}.
+     */
+    public static void logChange(Operation operation, BeanId id, long version) {
+        List<JpaChange> pending = PENDING.get();
+        if (pending == null) {
+            pending = new ArrayList<JpaChange>();
+            PENDING.set(pending);
+        }
+        pending.add(new JpaChange(0, operation, id, version));
+    }
+
+    /**
+     * Write the changes logged in the current transaction. Must be called right
+     * before the transaction commit.
+     */
+    public static void flushChanges() {
+        List<JpaChange> pending = PENDING.get();
+        if (pending == null) {
+            return;
+        }
+        PENDING.remove();
+        // write and lock the bean rows before the sequence row
+        getEm().flush();
+        Query increment = getEm().createNamedQuery(INCREMENT_SEQUENCE_NAME);
+        increment.setParameter(1, (long) pending.size());
+        if (executeUpdate(increment) == 0) {
+            throw new IllegalStateException(
+                    "CONFIG_CHANGELOG_SEQ has no row, install or upgrade the tables with the scripts in META-INF.");
+        }
+        Query query = getEm().createNamedQuery(FIND_SEQUENCE_NAME);
+        long sequence = ((Number) getSingleResult(query)).longValue() - pending.size();
+        for (JpaChange change : pending) {
+            change.sequence = ++sequence;
+            persist(change);
+        }
+    }
+
+    /**
+     * Forget the changes logged in the current transaction, when it roll back.
+     */
+    public static void discardChanges() {
+        PENDING.remove();
+    }
+
+    public JpaChange() {
+
+    }
+
+    private JpaChange(long sequence, Operation operation, BeanId id, long version) {
+        this.sequence = sequence;
+        this.operation = operation;
+        this.beanId = id.getInstanceId();
+        this.schemaName = id.getSchemaName();
+        this.version = version;
+    }
+
+    BeanChange toBeanChange() {
+        return BeanChange.create(sequence, BeanId.create(beanId, schemaName), operation, version);
+    }
+
+    @Override
+    public String toString() {
+        return toStringHelper(JpaChange.class).add("sequence", sequence).add("beanId", beanId)
+                .add("schemaName", schemaName).add("operation", operation).toString();
+    }
+}
@@ -0,0 +1,41 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.internal.core.jpa;
+
+import java.io.Serializable;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * The last sequence number given to a change, see {@link JpaChange}.
+ */
+@Entity
+@Table(name = "CONFIG_CHANGELOG_SEQ")
+public class JpaChangeSequence implements Serializable {
+    private static final long serialVersionUID = -2951046367834440815L;
+
+    @Id
+    @Column(name = "ID")
+    private int id = 1;
+
+    @Column(name = "SEQ", nullable = false)
+    private long sequence = 1;
+
+    public JpaChangeSequence() {
+
+    }
+}
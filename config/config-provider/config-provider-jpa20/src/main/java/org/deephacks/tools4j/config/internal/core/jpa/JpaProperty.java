@@ -15,12 +15,20 @@ package org.deephacks.tools4j.config.internal.core.jpa;
 
 import static com.google.common.base.Objects.equal;
 import static com.google.common.base.Objects.toStringHelper;
+import static org.deephacks.tools4j.config.internal.core.jpa.JpaStatements.executeUpdate;
+import static org.deephacks.tools4j.config.internal.core.jpa.JpaStatements.getResultList;
 import static org.deephacks.tools4j.support.web.jpa.ThreadLocalEntityManager.getEm;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map.Entry;
+import java.util.Set;
 import java.util.UUID;
 
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.Id;
@@ -30,14 +38,18 @@ import javax.persistence.Query;
 import javax.persistence.Table;
 
 import org.deephacks.tools4j.config.model.Bean.BeanId;
+import org.deephacks.tools4j.config.model.Criteria;
+import org.deephacks.tools4j.config.model.Criteria.Restriction;
 
 import com.google.common.base.Objects;
+import com.google.common.collect.Iterables;
 
 /**
  * 
  * @author Kristoffer Sjogren / ekrisjo
  */
 @Entity
+@Cacheable
 @Table(name = "CONFIG_PROPERTY")
 @NamedQueries({
         @NamedQuery(name = JpaProperty.DELETE_ALL_PROPERTIES_FOR_BEANID_NAME,
@@ -45,7 +57,13 @@ import com.google.common.base.Objects;
         @NamedQuery(name = JpaProperty.DELETE_PROPERTY_FOR_BEANID_NAME,
                 query = JpaProperty.DELETE_PROPERTY_FOR_BEANID),
         @NamedQuery(name = JpaProperty.FIND_PROPERTIES_FOR_BEAN_NAME,
-                query = JpaProperty.FIND_PROPERTIES_FOR_BEAN) })
+                query = JpaProperty.FIND_PROPERTIES_FOR_BEAN),
+        @NamedQuery(name = JpaProperty.FIND_PROPERTIES_FOR_SCHEMA_NAME,
+                query = JpaProperty.FIND_PROPERTIES_FOR_SCHEMA),
+        @NamedQuery(name = JpaProperty.FIND_PROPERTIES_FOR_BEANS_NAME,
+                query = JpaProperty.FIND_PROPERTIES_FOR_BEANS),
+        @NamedQuery(name = JpaProperty.FIND_VALUES_FOR_PROPERTY_NAME,
+                query = JpaProperty.FIND_VALUES_FOR_PROPERTY) })
 public class JpaProperty implements Serializable {
     private static final long serialVersionUID = -8467786505761160478L;
 
@@ -72,7 +90,7 @@ public class JpaProperty implements Serializable {
         Query query = getEm().createNamedQuery(DELETE_ALL_PROPERTIES_FOR_BEANID_NAME);
         query.setParameter(1, id.getInstanceId());
         query.setParameter(2, id.getSchemaName());
-        query.executeUpdate();
+        executeUpdate(query);
     }
 
     protected static final String DELETE_PROPERTY_FOR_BEANID = "DELETE FROM JpaProperty e WHERE e.id = ?1 AND e.schemaName= ?2 AND e.propName = ?3";
@@ -83,7 +101,7 @@ public class JpaProperty implements Serializable {
         query.setParameter(1, id.getInstanceId());
         query.setParameter(2, id.getSchemaName());
         query.setParameter(3, propName);
-        query.executeUpdate();
+        executeUpdate(query);
     }
 
     protected static final String FIND_PROPERTIES_FOR_BEAN = "SELECT e FROM JpaProperty e WHERE e.id= ?1 AND e.schemaName= ?2";
@@ -94,7 +112,155 @@ public class JpaProperty implements Serializable {
         Query query = getEm().createNamedQuery(FIND_PROPERTIES_FOR_BEAN_NAME);
         query.setParameter(1, id.getInstanceId());
         query.setParameter(2, id.getSchemaName());
-        return (List<JpaProperty>) query.getResultList();
+        return (List<JpaProperty>) getResultList(query);
+    }
+
+    protected static final String FIND_PROPERTIES_FOR_SCHEMA = "SELECT e FROM JpaProperty e WHERE e.schemaName= ?1";
+    protected static final String FIND_PROPERTIES_FOR_SCHEMA_NAME = "FIND_PROPERTIES_FOR_SCHEMA_NAME";
+    protected static final String FIND_PROPERTIES_FOR_BEANS = "SELECT e FROM JpaProperty e WHERE e.schemaName= ?1 AND e.id IN ?2";
+    protected static final String FIND_PROPERTIES_FOR_BEANS_NAME = "FIND_PROPERTIES_FOR_BEANS_NAME";
+
+    /**
+     * Find the properties of many beans of the same schema, with one query per
+     * {@link JpaBean#MAX_IN_PARAMETERS} beans.
+     * 
+     * @param ids instance ids of the beans, or null for all beans of the schema.
+     */
+    @SuppressWarnings("unchecked")
+    public static List<JpaProperty> findProperties(String schemaName, Collection<String> ids) {
+        if (ids == null) {
+            Query query = getEm().createNamedQuery(FIND_PROPERTIES_FOR_SCHEMA_NAME);
+            query.setParameter(1, schemaName);
+            return (List<JpaProperty>) getResultList(query);
+        }
+        List<JpaProperty> result = new ArrayList<JpaProperty>();
+        for (List<String> partition : Iterables.partition(ids, JpaBean.MAX_IN_PARAMETERS)) {
+            Query query = getEm().createNamedQuery(FIND_PROPERTIES_FOR_BEANS_NAME);
+            query.setParameter(1, schemaName);
+            query.setParameter(2, partition);
+            result.addAll((List<JpaProperty>) getResultList(query));
+        }
+        return result;
+    }
+
+    /**
+     * Find the instance ids of beans that match a criteria. Restrictions are 
+     * evaluated by the database in one query that join the property table once 
+     * per restriction. Numeric ranges are not, since values are stored as strings,
+     * those are evaluated on the values of their property instead.
+     * <p>
+     * Strings are compared by the collation of the database, which may be less 
+     * strict than {@link Criteria#apply}.
+     * </p>
+     * A criteria without restrictions match all beans of the schema.
+     */
+    @SuppressWarnings("unchecked")
+    public static Set<String> findBeanIds(String schemaName, Criteria criteria) {
+        StringBuilder from = new StringBuilder();
+        StringBuilder where = new StringBuilder();
+        List<Object> params = new ArrayList<Object>();
+        params.add(schemaName);
+        Set<String> numericMatches = null;
+        int joins = 0;
+        for (Entry<String, List<Restriction>> entry : criteria.getRestrictions().entrySet()) {
+            for (Restriction restriction : entry.getValue()) {
+                if (restriction.isNumeric()) {
+                    Set<String> matches = findNumericMatches(schemaName, entry.getKey(),
+                            restriction);
+                    if (numericMatches == null) {
+                        numericMatches = matches;
+                    } else {
+                        numericMatches.retainAll(matches);
+                    }
+                    continue;
+                }
+                String p = "p" + joins;
+                if (joins == 0) {
+                    from.append("JpaProperty p0");
+                    where.append("p0.schemaName = ?1");
+                } else {
+                    from.append(", JpaProperty ").append(p);
+                    where.append(" AND ").append(p).append(".id = p0.id AND ").append(p)
+                            .append(".schemaName = p0.schemaName");
+                }
+                where.append(" AND ").append(p).append(".propName = ")
+                        .append(param(params, entry.getKey()));
+                appendRestriction(p, restriction, where, params);
+                joins++;
+            }
+        }
+        if (joins == 0) {
+            // no restrictions match every bean of the schema
+            return numericMatches == null ? JpaBean.findJpaBeanIds(schemaName) : numericMatches;
+        }
+        Query query = getEm().createQuery("SELECT DISTINCT p0.id FROM " + from + " WHERE " + where);
+        for (int i = 0; i < params.size(); i++) {
+            query.setParameter(i + 1, params.get(i));
+        }
+        Set<String> ids = new HashSet<String>((List<String>) getResultList(query));
+        if (numericMatches != null) {
+            ids.retainAll(numericMatches);
+        }
+        return ids;
+    }
+
+    private static void appendRestriction(String p, Restriction restriction, StringBuilder where,
+            List<Object> params) {
+        switch (restriction.getType()) {
+        case EQUAL:
+            where.append(" AND ").append(p).append(".value = ")
+                    .append(param(params, restriction.getValues().get(0)));
+            break;
+        case IN:
+            where.append(" AND ").append(p).append(".value IN (");
+            for (int i = 0; i < restriction.getValues().size(); i++) {
+                where.append(i == 0 ? "" : ", ").append(
+                        param(params, restriction.getValues().get(i)));
+            }
+            where.append(")");
+            break;
+        case PREFIX:
+            String prefix = restriction.getValues().get(0).replace("!", "!!").replace("%", "!%")
+                    .replace("_", "!_");
+            where.append(" AND ").append(p).append(".value LIKE ")
+                    .append(param(params, prefix + "%")).append(" ESCAPE '!'");
+            break;
+        case RANGE:
+            if (restriction.getLower() != null) {
+                where.append(" AND ").append(p).append(".value >= ")
+                        .append(param(params, restriction.getLower()));
+            }
+            if (restriction.getUpper() != null) {
+                where.append(" AND ").append(p).append(".value <= ")
+                        .append(param(params, restriction.getUpper()));
+            }
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown type " + restriction.getType());
+        }
+    }
+
+    private static String param(List<Object> params, Object value) {
+        params.add(value);
+        return "?" + params.size();
+    }
+
+    protected static final String FIND_VALUES_FOR_PROPERTY = "SELECT e.id, e.value FROM JpaProperty e WHERE e.schemaName= ?1 AND e.propName= ?2";
+    protected static final String FIND_VALUES_FOR_PROPERTY_NAME = "FIND_VALUES_FOR_PROPERTY_NAME";
+
+    @SuppressWarnings("unchecked")
+    private static Set<String> findNumericMatches(String schemaName, String propName,
+            Restriction restriction) {
+        Query query = getEm().createNamedQuery(FIND_VALUES_FOR_PROPERTY_NAME);
+        query.setParameter(1, schemaName);
+        query.setParameter(2, propName);
+        Set<String> ids = new HashSet<String>();
+        for (Object[] row : (List<Object[]>) getResultList(query)) {
+            if (restriction.apply((String) row[1])) {
+                ids.add((String) row[0]);
+            }
+        }
+        return ids;
     }
 
     public JpaProperty() {
@@ -14,12 +14,17 @@
 package org.deephacks.tools4j.config.internal.core.jpa;
 
 import static com.google.common.base.Objects.equal;
+import static org.deephacks.tools4j.config.internal.core.jpa.JpaStatements.executeUpdate;
+import static org.deephacks.tools4j.config.internal.core.jpa.JpaStatements.getResultList;
 import static org.deephacks.tools4j.support.web.jpa.ThreadLocalEntityManager.getEm;
 
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.UUID;
 
+import javax.persistence.Cacheable;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.Id;
@@ -32,8 +37,10 @@ import javax.persistence.Transient;
 import org.deephacks.tools4j.config.model.Bean.BeanId;
 
 import com.google.common.base.Objects;
+import com.google.common.collect.Iterables;
 
 @Entity
+@Cacheable
 @Table(name = "CONFIG_BEAN_REF")
 @NamedQueries({
         @NamedQuery(name = JpaRef.DELETE_REF_USING_BEANID_NAME,
@@ -41,6 +48,8 @@ import com.google.common.base.Objects;
         @NamedQuery(name = JpaRef.DELETE_REF_USING_PROPNAME_NAME,
                 query = JpaRef.DELETE_REF_USING_PROPNAME),
         @NamedQuery(name = JpaRef.FIND_REFS_FOR_BEAN_NAME, query = JpaRef.FIND_REFS_FOR_BEAN),
+        @NamedQuery(name = JpaRef.FIND_REFS_FOR_SCHEMA_NAME, query = JpaRef.FIND_REFS_FOR_SCHEMA),
+        @NamedQuery(name = JpaRef.FIND_REFS_FOR_BEANS_NAME, query = JpaRef.FIND_REFS_FOR_BEANS),
         @NamedQuery(name = JpaRef.FIND_PREDECESSORS_FOR_BEAN_NAME,
                 query = JpaRef.FIND_PREDECESSORS_FOR_BEAN) })
 public class JpaRef implements Serializable {
@@ -75,7 +84,7 @@ public class JpaRef implements Serializable {
         Query query = getEm().createNamedQuery(DELETE_REF_USING_BEANID_NAME);
         query.setParameter(1, id.getInstanceId());
         query.setParameter(2, id.getSchemaName());
-        query.executeUpdate();
+        executeUpdate(query);
     }
 
     protected static final String DELETE_REF_USING_PROPNAME = "DELETE FROM JpaRef e WHERE e.sourceId = ?1 AND e.sourceSchemaName= ?2 AND  e.propertyName= ?3";
@@ -86,7 +95,7 @@ public class JpaRef implements Serializable {
         query.setParameter(1, id.getInstanceId());
         query.setParameter(2, id.getSchemaName());
         query.setParameter(3, propName);
-        query.executeUpdate();
+        executeUpdate(query);
     }
 
     protected static final String FIND_REFS_FOR_BEAN = "SELECT e FROM JpaRef e WHERE e.sourceId= ?1 AND e.sourceSchemaName= ?2";
@@ -97,7 +106,35 @@ public class JpaRef implements Serializable {
         Query query = getEm().createNamedQuery(FIND_REFS_FOR_BEAN_NAME);
         query.setParameter(1, id.getInstanceId());
         query.setParameter(2, id.getSchemaName());
-        List<JpaRef> result = (List<JpaRef>) query.getResultList();
+        List<JpaRef> result = (List<JpaRef>) getResultList(query);
+        return result;
+    }
+
+    protected static final String FIND_REFS_FOR_SCHEMA = "SELECT e FROM JpaRef e WHERE e.sourceSchemaName= ?1";
+    protected static final String FIND_REFS_FOR_SCHEMA_NAME = "FIND_REFS_FOR_SCHEMA_NAME";
+    protected static final String FIND_REFS_FOR_BEANS = "SELECT e FROM JpaRef e WHERE e.sourceSchemaName= ?1 AND e.sourceId IN ?2";
+    protected static final String FIND_REFS_FOR_BEANS_NAME = "FIND_REFS_FOR_BEANS_NAME";
+
+    /**
+     * Find the references of many beans of the same schema, with one query per
+     * {@link JpaBean#MAX_IN_PARAMETERS} beans.
+     * 
+     * @param ids instance ids of the beans, or null for all beans of the schema.
+     */
+    @SuppressWarnings("unchecked")
+    public static List<JpaRef> findReferences(String schemaName, Collection<String> ids) {
+        if (ids == null) {
+            Query query = getEm().createNamedQuery(FIND_REFS_FOR_SCHEMA_NAME);
+            query.setParameter(1, schemaName);
+            return (List<JpaRef>) getResultList(query);
+        }
+        List<JpaRef> result = new ArrayList<JpaRef>();
+        for (List<String> partition : Iterables.partition(ids, JpaBean.MAX_IN_PARAMETERS)) {
+            Query query = getEm().createNamedQuery(FIND_REFS_FOR_BEANS_NAME);
+            query.setParameter(1, schemaName);
+            query.setParameter(2, partition);
+            result.addAll((List<JpaRef>) getResultList(query));
+        }
         return result;
     }
 
@@ -109,7 +146,7 @@ public class JpaRef implements Serializable {
         Query query = getEm().createNamedQuery(FIND_PREDECESSORS_FOR_BEAN_NAME);
         query.setParameter(1, id.getInstanceId());
         query.setParameter(2, id.getSchemaName());
-        return (List<JpaRef>) query.getResultList();
+        return (List<JpaRef>) getResultList(query);
     }
 
     public JpaRef() {
@@ -0,0 +1,269 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.internal.core.jpa;
+
+import static com.google.common.base.Objects.toStringHelper;
+import static org.deephacks.tools4j.support.web.jpa.ThreadLocalEntityManager.getEm;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.persistence.NoResultException;
+import javax.persistence.Query;
+
+/**
+ * JpaStatements count the statements that the Jpa20BeanManager issue, and the
+ * rows those statements fetch, for each call to the bean manager. Calls that are
+ * served by the {@link JpaBeanCache} issue no statements and are not counted.
+ * <p>
+ * Statements are counted as JPA operations, one per query and persist that this
+ * provider make, not as the SQL statements that the JPA provider send to the
+ * database. Those may differ, for example if persisted entities are batched or if
+ * the JPA provider load or flush more than it was asked to. The counts are
+ * meant for comparing operations with each other, like when guarding against
+ * N+1 queries, rather than for measuring the database.
+ * <p>
+ * The last call of the current thread is kept for tests that want to assert
+ * how many statements an operation may issue, see {@link #assertAtMost}, and
+ * totals per operation are summed over all threads for diagnostics.
+ */
+public final class JpaStatements {
+    private static final ThreadLocal<Counter> CURRENT = new ThreadLocal<Counter>();
+    private static final ThreadLocal<Count> LAST = new ThreadLocal<Count>();
+    private static final ConcurrentMap<String, Counter> TOTALS = new ConcurrentHashMap<String, Counter>();
+
+    private JpaStatements() {
+    }
+
+    /**
+     * @return statements of the last bean manager call that was finished by the
+     * current thread, or null if there is none.
+     */
+    public static Count getLast() {
+        return LAST.get();
+    }
+
+    /**
+     * @return statements of all bean manager calls since the last reset, summed
+     * per operation.
+     */
+    public static List<Count> getTotals() {
+        List<Count> totals = new ArrayList<Count>();
+        for (Counter counter : TOTALS.values()) {
+            synchronized (counter) {
+                totals.add(counter.toCount());
+            }
+        }
+        return totals;
+    }
+
+    /**
+     * @return statements of all calls to an operation since the last reset, or
+     * null if the operation have not been called.
+     */
+    public static Count getTotal(String operation) {
+        Counter counter = TOTALS.get(operation);
+        if (counter == null) {
+            return null;
+        }
+        synchronized (counter) {
+            return counter.toCount();
+        }
+    }
+
+    /**
+     * Run code that call the bean manager and check the statements issued by the
+     * last bean manager call that it make. Cached calls issue no statements, so
+     * tests should clear the {@link JpaBeanCache} first.
+     *
+     * @return statements issued by the call.
+     * @throws AssertionError if the call issued more statements than allowed, or
+     * if the code did not call the bean manager.
+     */
+    public static long assertAtMost(int maxStatements, Runnable call) {
+        LAST.remove();
+        call.run();
+        Count count = LAST.get();
+        if (count == null) {
+            throw new AssertionError("No call to the bean manager was made.");
+        }
+        if (count.getStatements() > maxStatements) {
+            throw new AssertionError(count.getOperation() + " issued " + count.getStatements()
+                    + " statements, expected at most " + maxStatements + ".");
+        }
+        return count.getStatements();
+    }
+
+    /**
+     * Forget the totals and the last call of the current thread.
+     */
+    public static void reset() {
+        TOTALS.clear();
+        LAST.remove();
+    }
+
+    /**
+     * Start counting statements of the current thread for an operation. A call
+     * that was not ended is discarded.
+     */
+    static void begin(String operation) {
+        CURRENT.set(new Counter(operation));
+    }
+
+    /**
+     * Stop counting statements of the current thread, if started.
+     */
+    static void end() {
+        Counter counter = CURRENT.get();
+        if (counter == null) {
+            return;
+        }
+        CURRENT.remove();
+        counter.calls = 1;
+        counter.maxStatements = counter.statements;
+        LAST.set(counter.toCount());
+        Counter total = TOTALS.get(counter.operation);
+        if (total == null) {
+            Counter created = new Counter(counter.operation);
+            total = TOTALS.putIfAbsent(counter.operation, created);
+            if (total == null) {
+                total = created;
+            }
+        }
+        synchronized (total) {
+            total.add(counter);
+        }
+    }
+
+    static List<?> getResultList(Query query) {
+        List<?> result = query.getResultList();
+        count(result.size());
+        return result;
+    }
+
+    static Object getSingleResult(Query query) {
+        try {
+            Object result = query.getSingleResult();
+            count(1);
+            return result;
+        } catch (NoResultException e) {
+            count(0);
+            throw e;
+        }
+    }
+
+    static int executeUpdate(Query query) {
+        int updated = query.executeUpdate();
+        count(0);
+        return updated;
+    }
+
+    /**
+     * Each persisted entity is counted as the insert that it will cause when flushed.
+     */
+    static void persist(Object entity) {
+        getEm().persist(entity);
+        count(0);
+    }
+
+    private static void count(int rows) {
+        Counter counter = CURRENT.get();
+        if (counter == null) {
+            return;
+        }
+        counter.statements++;
+        counter.rows += rows;
+    }
+
+    private static final class Counter {
+        private final String operation;
+        private long calls;
+        private long statements;
+        private long rows;
+        private long maxStatements;
+
+        private Counter(String operation) {
+            this.operation = operation;
+        }
+
+        private void add(Counter call) {
+            calls += call.calls;
+            statements += call.statements;
+            rows += call.rows;
+            maxStatements = Math.max(maxStatements, call.statements);
+        }
+
+        private Count toCount() {
+            return new Count(operation, calls, statements, rows, maxStatements);
+        }
+    }
+
+    /**
+     * Statements of one or more calls to an operation of the bean manager.
+     */
+    public static final class Count {
+        private final String operation;
+        private final long calls;
+        private final long statements;
+        private final long rows;
+        private final long maxStatements;
+
+        private Count(String operation, long calls, long statements, long rows,
+                long maxStatements) {
+            this.operation = operation;
+            this.calls = calls;
+            this.statements = statements;
+            this.rows = rows;
+            this.maxStatements = maxStatements;
+        }
+
+        /**
+         * @return name of the bean manager method.
+         */
+        public String getOperation() {
+            return operation;
+        }
+
+        public long getCalls() {
+            return calls;
+        }
+
+        public long getStatements() {
+            return statements;
+        }
+
+        /**
+         * @return rows fetched by queries.
+         */
+        public long getRows() {
+            return rows;
+        }
+
+        /**
+         * @return most statements issued by a single call.
+         */
+        public long getMaxStatements() {
+            return maxStatements;
+        }
+
+        @Override
+        public String toString() {
+            return toStringHelper(Count.class).add("operation", operation).add("calls", calls)
+                    .add("statements", statements).add("rows", rows)
+                    .add("maxStatements", maxStatements).toString();
+        }
+    }
+}
@@ -0,0 +1,181 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.internal.core.jpa;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.deephacks.tools4j.config.internal.core.invalidation.LoopbackBroadcaster;
+import org.deephacks.tools4j.config.model.Bean;
+import org.deephacks.tools4j.config.model.Bean.BeanId;
+import org.junit.Test;
+
+public class JpaBeanCacheTest {
+    private final BeanId parentId = BeanId.create("p", "Parent");
+    private final BeanId childId = BeanId.create("c", "Child");
+    private final BeanId otherId = BeanId.create("o", "Child");
+
+    @Test
+    public void test_copy_on_get() {
+        JpaBeanCache cache = new JpaBeanCache(10);
+        cache.putEager(parent(child()), cache.generation());
+        Bean first = cache.getEager(parentId);
+        first.setProperty("name", "changed");
+        Bean second = cache.getEager(parentId);
+        assertNotSame(first, second);
+        assertEquals("parent", second.getSingleValue("name"));
+        assertEquals("child", second.getFirstReference("child").getBean().getSingleValue("name"));
+        assertEquals(2, cache.getHitCount());
+        assertEquals(1.0, cache.getHitRatio(), 0.0);
+    }
+
+    @Test
+    public void test_invalidate_referenced_bean() {
+        JpaBeanCache cache = new JpaBeanCache(10);
+        cache.putEager(parent(child()), cache.generation());
+        cache.putLazy(Bean.create(otherId), cache.generation());
+        cache.invalidate(Arrays.asList(childId));
+        assertNull(cache.getEager(parentId));
+        // same schema as the child but not part of the graph
+        assertEquals(otherId, cache.getLazy(otherId).getId());
+        assertEquals(1, cache.getInvalidationCount());
+    }
+
+    @Test
+    public void test_invalidate_listing_of_schema() {
+        JpaBeanCache cache = new JpaBeanCache(10);
+        Map<BeanId, Bean> beans = new HashMap<BeanId, Bean>();
+        beans.put(childId, child());
+        cache.putList("Child", beans, cache.generation());
+        assertEquals(1, cache.list("Child").size());
+        // a new bean in the schema
+        cache.invalidate(Arrays.asList(otherId));
+        assertNull(cache.list("Child"));
+    }
+
+    @Test
+    public void test_stale_put_is_ignored() {
+        JpaBeanCache cache = new JpaBeanCache(10);
+        long generation = cache.generation();
+        cache.invalidate(Arrays.asList(childId));
+        cache.putEager(child(), generation);
+        assertNull(cache.getEager(childId));
+    }
+
+    @Test
+    public void test_eviction_and_shared_references() {
+        JpaBeanCache cache = new JpaBeanCache(1);
+        Bean child = child();
+        Map<BeanId, Bean> beans = new HashMap<BeanId, Bean>();
+        BeanId secondId = BeanId.create("p2", "Parent");
+        beans.put(parentId, parent(parentId, child));
+        beans.put(secondId, parent(secondId, child));
+        cache.putList("Parent", beans, cache.generation());
+        Map<BeanId, Bean> cached = cache.list("Parent");
+        Bean first = cached.get(parentId).getFirstReference("child").getBean();
+        for (Bean bean : cached.values()) {
+            assertSame(first, bean.getFirstReference("child").getBean());
+        }
+        cache.putEager(child, cache.generation());
+        assertEquals(1, cache.size());
+        assertNull(cache.list("Parent"));
+    }
+
+    @Test
+    public void test_invalidation_between_nodes() {
+        JpaBeanCache[] nodes = new JpaBeanCache[3];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = new JpaBeanCache(10);
+            nodes[i].setBroadcaster(new LoopbackBroadcaster("test_invalidation_between_nodes"));
+            nodes[i].putEager(parent(child()), nodes[i].generation());
+            nodes[i].putLazy(Bean.create(otherId), nodes[i].generation());
+        }
+        // a write on the first node
+        nodes[0].invalidate(Arrays.asList(childId));
+        for (JpaBeanCache node : nodes) {
+            assertNull(node.getEager(parentId));
+            assertEquals(otherId, node.getLazy(otherId).getId());
+        }
+        nodes[1].clear();
+        for (JpaBeanCache node : nodes) {
+            assertEquals(0, node.size());
+            node.setBroadcaster(null);
+        }
+    }
+
+    @Test
+    public void test_cache_per_factory() {
+        EntityManagerFactory first = factory();
+        EntityManagerFactory second = factory();
+        assertSame(JpaBeanCache.get(first), JpaBeanCache.get(first));
+        assertNotSame(JpaBeanCache.get(first), JpaBeanCache.get(second));
+        // nothing is broadcast
+        assertFalse(JpaBeanCache.get(first).isEnabled());
+        System.setProperty(JpaBeanCache.CACHE_SIZE_PROP, "10");
+        try {
+            assertTrue(JpaBeanCache.get(factory()).isEnabled());
+        } finally {
+            System.clearProperty(JpaBeanCache.CACHE_SIZE_PROP);
+        }
+    }
+
+    private static EntityManagerFactory factory() {
+        return (EntityManagerFactory) Proxy.newProxyInstance(
+                JpaBeanCacheTest.class.getClassLoader(),
+                new Class<?>[] { EntityManagerFactory.class }, new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        if ("equals".equals(method.getName())) {
+                            return proxy == args[0];
+                        }
+                        if ("hashCode".equals(method.getName())) {
+                            return System.identityHashCode(proxy);
+                        }
+                        throw new UnsupportedOperationException(method.getName());
+                    }
+                });
+    }
+
+    private Bean parent(Bean child) {
+        return parent(parentId, child);
+    }
+
+    private Bean parent(BeanId id, Bean child) {
+        Bean parent = Bean.create(id);
+        parent.setProperty("name", "parent");
+        BeanId ref = BeanId.create(childId.getInstanceId(), childId.getSchemaName());
+        ref.setBean(child);
+        parent.addReference("child", ref);
+        return parent;
+    }
+
+    private Bean child() {
+        Bean child = Bean.create(childId);
+        child.setProperty("name", "child");
+        return child;
+    }
+}
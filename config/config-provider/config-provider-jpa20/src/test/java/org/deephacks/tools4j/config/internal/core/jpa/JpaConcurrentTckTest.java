@@ -0,0 +1,88 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.internal.core.jpa;
+
+import static org.deephacks.tools4j.support.test.Database.DERBY;
+import static org.deephacks.tools4j.support.test.Database.DERBY_DRIVER;
+
+import java.io.File;
+import java.util.Arrays;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.deephacks.tools4j.config.internal.core.xml.XmlSchemaManager;
+import org.deephacks.tools4j.config.spi.BeanManager;
+import org.deephacks.tools4j.config.spi.SchemaManager;
+import org.deephacks.tools4j.config.spi.ValidationManager;
+import org.deephacks.tools4j.config.test.ConfigConcurrentTckTests;
+import org.deephacks.tools4j.config.test.XmlStorageHelper;
+import org.deephacks.tools4j.internal.core.jsr303.Jsr303ValidationManager;
+import org.deephacks.tools4j.support.io.FileUtils;
+import org.deephacks.tools4j.support.lookup.MockLookup;
+import org.deephacks.tools4j.support.test.Database;
+import org.deephacks.tools4j.support.test.JUnitUtils;
+import org.deephacks.tools4j.support.web.jpa.EntityManagerFactoryCreator;
+import org.deephacks.tools4j.support.web.jpa.ThreadLocalEntityManager;
+import org.junit.After;
+
+/**
+ * Run concurrent tck tests targeted at the JpaBeanManager using EclipseLink
+ * on an embedded Derby database. Every worker thread use an EntityManager
+ * of its own, created from the same factory.
+ */
+public class JpaConcurrentTckTest extends ConfigConcurrentTckTests {
+    private EntityManagerFactory factory;
+
+    @Override
+    public void before() {
+        XmlStorageHelper.clearAndInit(JpaConcurrentTckTest.class);
+        MockLookup.setMockInstances(BeanManager.class, new Jpa20BeanManager());
+        MockLookup.addMockInstances(SchemaManager.class, new XmlSchemaManager());
+        MockLookup.addMockInstances(ValidationManager.class, new Jsr303ValidationManager());
+        File scriptDir = JUnitUtils.getMavenProjectChildFile(Jpa20BeanManager.class,
+                "src/main/resources/META-INF/");
+        Database database = Database.create(DERBY, scriptDir);
+        File targetDir = JUnitUtils.getMavenProjectChildFile(Jpa20BeanManager.class, "target");
+        File jpaProperties = new File(targetDir, "jpa.properties");
+        FileUtils.writeFile(Arrays.asList(
+                "javax.persistence.provider=org.eclipse.persistence.jpa.PersistenceProvider",
+                "javax.persistence.jdbc.url=" + database.getUrl(),
+                "javax.persistence.jdbc.driver=" + DERBY_DRIVER,
+                "javax.persistence.jdbc.user=" + database.getUsername(),
+                "javax.persistence.jdbc.password=" + database.getPassword(),
+                "javax.persistence.transactionType=RESOURCE_LOCAL",
+                "eclipselink.persistence-context.flush-mode=COMMIT"), jpaProperties);
+        System.setProperty(EntityManagerFactoryCreator.JPA_PROPERTIES_FILE,
+                jpaProperties.getAbsolutePath());
+        database.initalize();
+        factory = EntityManagerFactoryCreator.createFactory(JpaConfigTckTest.UNIT_NAME);
+        ThreadLocalEntityManager.createEm(factory);
+    }
+
+    @After
+    public void after() {
+        ThreadLocalEntityManager.close();
+        factory.close();
+    }
+
+    @Override
+    protected void beforeThread() {
+        ThreadLocalEntityManager.createEm(factory);
+    }
+
+    @Override
+    protected void afterThread() {
+        ThreadLocalEntityManager.close();
+    }
+}
@@ -19,6 +19,8 @@ import static org.deephacks.tools4j.support.test.Database.MYSQL;
 import static org.deephacks.tools4j.support.test.Database.MYSQL_DRIVER;
 import static org.deephacks.tools4j.support.test.Database.POSTGRESQL;
 import static org.deephacks.tools4j.support.test.Database.POSTGRESQL_DRIVER;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 import java.io.File;
 import java.util.ArrayList;
@@ -30,10 +32,15 @@ import java.util.List;
 import javax.persistence.EntityManagerFactory;
 
 import org.deephacks.tools4j.config.internal.core.xml.XmlSchemaManager;
+import org.deephacks.tools4j.config.model.Bean;
+import org.deephacks.tools4j.config.model.Bean.BeanId;
+import org.deephacks.tools4j.config.model.BeanChange;
+import org.deephacks.tools4j.config.model.BeanChange.Operation;
 import org.deephacks.tools4j.config.spi.BeanManager;
 import org.deephacks.tools4j.config.spi.SchemaManager;
 import org.deephacks.tools4j.config.spi.ValidationManager;
 import org.deephacks.tools4j.config.test.ConfigTckTests;
+import org.deephacks.tools4j.config.test.ConfigTestData;
 import org.deephacks.tools4j.config.test.XmlStorageHelper;
 import org.deephacks.tools4j.internal.core.jsr303.Jsr303ValidationManager;
 import org.deephacks.tools4j.support.io.FileUtils;
@@ -43,6 +50,7 @@ import org.deephacks.tools4j.support.test.EclipseParameterized;
 import org.deephacks.tools4j.support.test.JUnitUtils;
 import org.deephacks.tools4j.support.web.jpa.EntityManagerFactoryCreator;
 import org.deephacks.tools4j.support.web.jpa.ThreadLocalEntityManager;
+import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.Parameterized.Parameters;
 
@@ -106,6 +114,31 @@ public class JpaConfigTckTest extends ConfigTckTests {
             factory = EntityManagerFactoryCreator.createFactory(UNIT_NAME);
             ThreadLocalEntityManager.createEm(factory);
         }
+        // tables were recreated behind the back of the bean manager
+        JpaBeanCache.get(factory).clear();
+    }
+
+    @Test
+    public void test_changes_since() {
+        Jpa20BeanManager manager = new Jpa20BeanManager();
+        assertTrue(manager.isChangeLogSupported());
+        List<BeanChange> registered = manager.getChangesSince(0, Integer.MAX_VALUE);
+        long sequence = registered.isEmpty() ? 0 : registered.get(registered.size() - 1)
+                .getSequence();
+        BeanId id = BeanId.create("changelog", ConfigTestData.CHILD_SCHEMA_NAME);
+        admin.create(Bean.create(id));
+        admin.delete(id);
+
+        List<BeanChange> changes = manager.getChangesSince(sequence, Integer.MAX_VALUE);
+        assertEquals(2, changes.size());
+        assertEquals(Operation.CREATE, changes.get(0).getOperation());
+        assertEquals(Operation.DELETE, changes.get(1).getOperation());
+        assertEquals(id, changes.get(1).getId());
+        assertEquals(sequence + 1, changes.get(0).getSequence());
+        assertEquals(sequence + 2, changes.get(1).getSequence());
+        changes = manager.getChangesSince(sequence + 1, 1);
+        assertEquals(1, changes.size());
+        assertEquals(Operation.DELETE, changes.get(0).getOperation());
     }
 
     // Unique jpa/database provider combination for a specifci test execution.
@@ -0,0 +1,237 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.internal.core.jpa;
+
+import static org.deephacks.tools4j.config.model.Criteria.field;
+import static org.deephacks.tools4j.config.model.Criteria.startsWith;
+import static org.deephacks.tools4j.support.test.Database.DERBY;
+import static org.deephacks.tools4j.support.test.Database.DERBY_DRIVER;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.deephacks.tools4j.config.model.Bean;
+import org.deephacks.tools4j.config.model.Bean.BeanId;
+import org.deephacks.tools4j.support.io.FileUtils;
+import org.deephacks.tools4j.support.test.Database;
+import org.deephacks.tools4j.support.test.JUnitUtils;
+import org.deephacks.tools4j.support.web.jpa.EntityManagerFactoryCreator;
+import org.deephacks.tools4j.support.web.jpa.ThreadLocalEntityManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Guard against N+1 queries by checking that the statements of a call does
+ * not grow with the number of beans it touch. The cache is cleared before
+ * each measured call so that statements are always issued.
+ */
+public class JpaStatementsTest {
+    private static final String SCHEMA_NAME = "Node";
+    private EntityManagerFactory factory;
+    private Jpa20BeanManager manager;
+
+    @Before
+    public void before() {
+        File scriptDir = JUnitUtils.getMavenProjectChildFile(Jpa20BeanManager.class,
+                "src/main/resources/META-INF/");
+        Database database = Database.create(DERBY, scriptDir);
+        File targetDir = JUnitUtils.getMavenProjectChildFile(Jpa20BeanManager.class, "target");
+        File jpaProperties = new File(targetDir, "jpa.properties");
+        FileUtils.writeFile(Arrays.asList(
+                "javax.persistence.provider=org.eclipse.persistence.jpa.PersistenceProvider",
+                "javax.persistence.jdbc.url=" + database.getUrl(),
+                "javax.persistence.jdbc.driver=" + DERBY_DRIVER,
+                "javax.persistence.jdbc.user=" + database.getUsername(),
+                "javax.persistence.jdbc.password=" + database.getPassword(),
+                "javax.persistence.transactionType=RESOURCE_LOCAL",
+                "eclipselink.persistence-context.flush-mode=COMMIT"), jpaProperties);
+        System.setProperty(EntityManagerFactoryCreator.JPA_PROPERTIES_FILE,
+                jpaProperties.getAbsolutePath());
+        database.initalize();
+        factory = EntityManagerFactoryCreator.createFactory(JpaConfigTckTest.UNIT_NAME);
+        ThreadLocalEntityManager.createEm(factory);
+        manager = new Jpa20BeanManager();
+        JpaStatements.reset();
+    }
+
+    @After
+    public void after() {
+        ThreadLocalEntityManager.close();
+        factory.close();
+    }
+
+    @Test
+    public void test_list_statements_independent_of_beans() {
+        manager.create(nodes("a", 10));
+        // beans, properties and references
+        long few = assertAtMost(3, new Runnable() {
+            @Override
+            public void run() {
+                assertEquals(10, manager.list(SCHEMA_NAME).size());
+            }
+        });
+        manager.create(nodes("b", 90));
+        long many = assertAtMost(3, new Runnable() {
+            @Override
+            public void run() {
+                assertEquals(100, manager.list(SCHEMA_NAME).size());
+            }
+        });
+        assertEquals(few, many);
+    }
+
+    @Test
+    public void test_query_statements_independent_of_matches() {
+        manager.create(nodes("few", 10));
+        manager.create(nodes("many", 100));
+        // ids, beans, properties and references
+        long few = assertAtMost(4, new Runnable() {
+            @Override
+            public void run() {
+                assertEquals(10, manager.query(SCHEMA_NAME, field("name").is(startsWith("few")))
+                        .size());
+            }
+        });
+        long many = assertAtMost(4, new Runnable() {
+            @Override
+            public void run() {
+                assertEquals(100, manager.query(SCHEMA_NAME,
+                        field("name").is(startsWith("many"))).size());
+            }
+        });
+        assertEquals(few, many);
+    }
+
+    @Test
+    public void test_get_eager_statements_independent_of_references() {
+        final BeanId few = root("few", create(nodes("few", 10)));
+        final BeanId many = root("many", create(nodes("many", 100)));
+        // beans, properties and references of the root and of its references
+        long fewStatements = assertAtMost(6, new Runnable() {
+            @Override
+            public void run() {
+                assertEquals(10, manager.getEager(few).getReferences().size());
+            }
+        });
+        long manyStatements = assertAtMost(6, new Runnable() {
+            @Override
+            public void run() {
+                assertEquals(100, manager.getEager(many).getReferences().size());
+            }
+        });
+        assertEquals(fewStatements, manyStatements);
+    }
+
+    @Test
+    public void test_get_eager_statements_bounded_by_depth() {
+        final BeanId shallow = chain("shallow", 2);
+        final BeanId deep = chain("deep", 10);
+        // beans, properties and references for each level
+        long shallowStatements = assertAtMost(2 * 3, new Runnable() {
+            @Override
+            public void run() {
+                manager.getEager(shallow);
+            }
+        });
+        long deepStatements = assertAtMost(10 * 3, new Runnable() {
+            @Override
+            public void run() {
+                manager.getEager(deep);
+            }
+        });
+        assertEquals(shallowStatements + 8 * 3, deepStatements);
+    }
+
+    @Test
+    public void test_merge_statements_independent_of_graph() {
+        final BeanId shallow = root("shallow", Arrays.asList(chain("shallow", 1)));
+        final BeanId deep = root("deep", Arrays.asList(chain("deep", 20)));
+        long shallowStatements = assertAtMost(7, new Runnable() {
+            @Override
+            public void run() {
+                manager.merge(merge(shallow));
+            }
+        });
+        long deepStatements = assertAtMost(7, new Runnable() {
+            @Override
+            public void run() {
+                manager.merge(merge(deep));
+            }
+        });
+        assertEquals(shallowStatements, deepStatements);
+    }
+
+    /**
+     * Clear the cache so that the call issue statements, see {@link JpaStatements#assertAtMost}.
+     */
+    private long assertAtMost(int maxStatements, Runnable call) {
+        manager.getCache().clear();
+        return JpaStatements.assertAtMost(maxStatements, call);
+    }
+
+    private List<Bean> nodes(String prefix, int count) {
+        List<Bean> beans = new ArrayList<Bean>();
+        for (int i = 0; i < count; i++) {
+            Bean bean = Bean.create(BeanId.create(prefix + i, SCHEMA_NAME));
+            bean.addProperty("name", prefix + i);
+            beans.add(bean);
+        }
+        return beans;
+    }
+
+    private List<BeanId> create(List<Bean> beans) {
+        manager.create(beans);
+        List<BeanId> ids = new ArrayList<BeanId>();
+        for (Bean bean : beans) {
+            ids.add(bean.getId());
+        }
+        return ids;
+    }
+
+    /**
+     * Create a bean that reference existing beans.
+     */
+    private BeanId root(String prefix, List<BeanId> targets) {
+        Bean root = Bean.create(BeanId.create(prefix + "-root", SCHEMA_NAME));
+        root.addReference("next", targets);
+        manager.create(root);
+        return root.getId();
+    }
+
+    /**
+     * Create beans that reference each other one after another.
+     *
+     * @return id of the first bean of the chain.
+     */
+    private BeanId chain(String prefix, int length) {
+        List<Bean> beans = nodes(prefix + "-chain", length);
+        for (int i = 0; i < length - 1; i++) {
+            beans.get(i).addReference("next", beans.get(i + 1).getId());
+        }
+        manager.create(beans);
+        return beans.get(0).getId();
+    }
+
+    private static Bean merge(BeanId id) {
+        Bean bean = Bean.create(id);
+        bean.setProperty("name", "merged");
+        return bean;
+    }
+}
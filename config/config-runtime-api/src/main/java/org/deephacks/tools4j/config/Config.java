@@ -80,4 +80,37 @@ public @interface Config {
      */
     String desc();
 
+    /**
+     * <p>
+     * Only applicable for classes. Lazy configurables are fetched from the runtime
+     * context without their references. Referenced collections and maps are loaded 
+     * first when they are accessed and single references are loaded one at a time.
+     * </p>
+     * <p>
+     * Useful for configurables that reference large or deep graphs where only a few 
+     * parts are read by the application.
+     * </p>
+     * @return true if references should be loaded lazily.
+     */
+    boolean lazy() default false;
+
+    /**
+     * <p>
+     * Only applicable for fields that are not references. Indexed properties can be
+     * used for looking up instances by value from the runtime context without 
+     * listing every instance of the configurable.
+     * </p>
+     * @return true if instances should be indexed on the value of this field.
+     */
+    boolean index() default false;
+
+    /**
+     * <p>
+     * Only applicable for fields that are not references. Unique properties are
+     * indexed and no two instances of the configurable can have the same value.
+     * </p>
+     * @return true if the value of this field must be unique.
+     */
+    boolean unique() default false;
+
 }
@@ -0,0 +1,326 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.annotation.processing.SupportedSourceVersion;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.lang.model.util.Elements;
+import javax.lang.model.util.Types;
+
+import org.deephacks.tools4j.support.FileOutputAnnotationProcessor;
+
+/**
+ * ConfigSchemaAnnotationProcessor is responsible for generating schema descriptors
+ * of {@link Config} classes into META-INF/config/schemas/, one file for each class
+ * named by the binary name of the class.
+ * <p>
+ * Descriptors are properties files that hold everything needed to create the schema
+ * of a class without reflecting on it. Default values of fields that are not constants
+ * cannot be known at build time, these are left out and read from an instance of the
+ * class at runtime.
+ * </p>
+ * Classes that are not valid configurables are skipped, so that the runtime fail with
+ * the same error as it always did when they are registered.
+ */
+@SupportedSourceVersion(SourceVersion.RELEASE_7)
+@SupportedAnnotationTypes("org.deephacks.tools4j.config.Config")
+public class ConfigSchemaAnnotationProcessor extends FileOutputAnnotationProcessor {
+    public static final String OUTPUT_DIR = "META-INF/config/schemas/";
+    /** keys of the class */
+    public static final String CLASS = "class";
+    public static final String NAME = "name";
+    public static final String DESC = "desc";
+    public static final String ID_NAME = "id.name";
+    public static final String ID_DESC = "id.desc";
+    public static final String ID_SINGLETON = "id.singleton";
+    /** keys of a field are prefixed with FIELD and the name of the field */
+    public static final String FIELD = "field.";
+    public static final String KIND = ".kind";
+    public static final String FIELD_NAME = ".name";
+    public static final String FIELD_DESC = ".desc";
+    public static final String DECLARING_CLASS = ".declaringClass";
+    /** class of simple fields, schema name of references */
+    public static final String TYPE = ".type";
+    public static final String COLLECTION_TYPE = ".collectionType";
+    public static final String FINAL = ".final";
+    public static final String ENUM = ".enum";
+    public static final String INDEX = ".index";
+    public static final String UNIQUE = ".unique";
+    public static final String SINGLETON = ".singleton";
+    /** only present for constants */
+    public static final String DEFAULT = ".default";
+    /** kinds of fields */
+    public static final String PROPERTY = "property";
+    public static final String PROPERTY_LIST = "list";
+    public static final String REF = "ref";
+    public static final String REF_LIST = "reflist";
+    public static final String REF_MAP = "refmap";
+
+    @Override
+    protected boolean handleProcess(Set<? extends TypeElement> annotations,
+            RoundEnvironment roundEnv) {
+        debug("ConfigSchemaAnnotationProcessor");
+        for (Element element : roundEnv.getElementsAnnotatedWith(Config.class)) {
+            if (element.getKind() != ElementKind.CLASS) {
+                continue;
+            }
+            TypeElement type = (TypeElement) element;
+            Properties descriptor = describe(type);
+            if (descriptor == null) {
+                debug("Skipping invalid configurable: " + type);
+                continue;
+            }
+            addProperties(descriptor, OUTPUT_DIR + getBinaryName(type));
+        }
+        return false;
+    }
+
+    /**
+     * @return descriptor of the class or null if it is not a valid configurable.
+     */
+    private Properties describe(TypeElement type) {
+        Config config = type.getAnnotation(Config.class);
+        VariableElement id = getId(type);
+        if (id == null) {
+            return null;
+        }
+        boolean isStatic = id.getModifiers().contains(Modifier.STATIC);
+        boolean isFinal = id.getModifiers().contains(Modifier.FINAL);
+        if (isStatic != isFinal) {
+            return null;
+        }
+        Properties descriptor = new Properties();
+        descriptor.setProperty(CLASS, getBinaryName(type));
+        descriptor.setProperty(NAME, getSchemaName(type));
+        descriptor.setProperty(DESC, config.desc());
+        Id idAnnotation = id.getAnnotation(Id.class);
+        descriptor.setProperty(ID_NAME, getName(idAnnotation.name(), id));
+        descriptor.setProperty(ID_DESC, idAnnotation.desc());
+        descriptor.setProperty(ID_SINGLETON, Boolean.toString(isFinal));
+        Set<String> fieldNames = new HashSet<String>();
+        for (VariableElement field : getFields(type)) {
+            Config property = field.getAnnotation(Config.class);
+            if (property == null) {
+                continue;
+            }
+            if (!fieldNames.add(field.getSimpleName().toString())) {
+                // hidden fields cannot be told apart
+                return null;
+            }
+            if (!describe(field, property, descriptor)) {
+                return null;
+            }
+        }
+        return descriptor;
+    }
+
+    /**
+     * @return false if the field is not a valid property.
+     */
+    private boolean describe(VariableElement field, Config config, Properties descriptor) {
+        String fieldName = field.getSimpleName().toString();
+        String prefix = FIELD + fieldName;
+        boolean isStatic = field.getModifiers().contains(Modifier.STATIC);
+        boolean isFinal = field.getModifiers().contains(Modifier.FINAL);
+        descriptor.setProperty(prefix + FIELD_NAME, getName(config.name(), field));
+        descriptor.setProperty(prefix + FIELD_DESC, config.desc());
+        descriptor.setProperty(prefix + FINAL, Boolean.toString(isFinal));
+        descriptor.setProperty(prefix + DECLARING_CLASS,
+                getBinaryName((TypeElement) field.getEnclosingElement()));
+        TypeMirror type = field.asType();
+        boolean isMap = isAssignable(type, "java.util.Map");
+        boolean isCollection = isAssignable(type, "java.util.Collection");
+        if (isMap || isCollection) {
+            descriptor.setProperty(prefix + COLLECTION_TYPE, getBinaryName(type));
+        }
+        if (isMap) {
+            List<? extends TypeMirror> params = getTypeArguments(type);
+            if (params.size() != 2 || !"java.lang.String".equals(getBinaryName(params.get(0)))
+                    || getConfigurable(params.get(1)) == null) {
+                return false;
+            }
+            if (config.index() || config.unique()) {
+                return false;
+            }
+            descriptor.setProperty(prefix + KIND, REF_MAP);
+            descriptor.setProperty(prefix + TYPE, getSchemaName(getConfigurable(params.get(1))));
+            return true;
+        }
+        if (isCollection) {
+            List<? extends TypeMirror> params = getTypeArguments(type);
+            if (params.size() != 1) {
+                return false;
+            }
+            type = params.get(0);
+        }
+        if (getBinaryName(type) == null) {
+            return false;
+        }
+        TypeElement configurable = getConfigurable(type);
+        if (configurable != null) {
+            if (config.index() || config.unique()) {
+                return false;
+            }
+            descriptor.setProperty(prefix + TYPE, getSchemaName(configurable));
+            if (isCollection) {
+                descriptor.setProperty(prefix + KIND, REF_LIST);
+                return true;
+            }
+            VariableElement id = getId(configurable);
+            if (id == null) {
+                return false;
+            }
+            descriptor.setProperty(prefix + KIND, REF);
+            descriptor.setProperty(prefix + SINGLETON, Boolean.toString(id.getModifiers()
+                    .contains(Modifier.STATIC) && id.getModifiers().contains(Modifier.FINAL)));
+            return true;
+        }
+        if ((isStatic && !isFinal) || field.getModifiers().contains(Modifier.TRANSIENT)) {
+            return false;
+        }
+        descriptor.setProperty(prefix + KIND, isCollection ? PROPERTY_LIST : PROPERTY);
+        descriptor.setProperty(prefix + TYPE, getBinaryName(type));
+        descriptor.setProperty(prefix + ENUM, Boolean.toString(isEnum(type)));
+        descriptor.setProperty(prefix + INDEX, Boolean.toString(config.index()));
+        descriptor.setProperty(prefix + UNIQUE, Boolean.toString(config.unique()));
+        Object constant = field.getConstantValue();
+        if (constant != null) {
+            descriptor.setProperty(prefix + DEFAULT, constant.toString());
+        }
+        return true;
+    }
+
+    /**
+     * @return first field annotated with {@link Id} of the class or its superclasses.
+     */
+    private VariableElement getId(TypeElement type) {
+        for (VariableElement field : getFields(type)) {
+            if (field.getAnnotation(Id.class) != null) {
+                return field;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return fields of the class followed by fields of its superclasses.
+     */
+    private List<VariableElement> getFields(TypeElement type) {
+        List<VariableElement> fields = new ArrayList<VariableElement>();
+        TypeElement current = type;
+        while (current != null && !current.getQualifiedName().contentEquals("java.lang.Object")) {
+            fields.addAll(ElementFilter.fieldsIn(current.getEnclosedElements()));
+            TypeMirror superclass = current.getSuperclass();
+            current = superclass.getKind() == TypeKind.DECLARED ? (TypeElement) getTypes()
+                    .asElement(superclass) : null;
+        }
+        return fields;
+    }
+
+    private String getSchemaName(TypeElement type) {
+        String name = type.getAnnotation(Config.class).name();
+        if (name == null || "".equals(name)) {
+            return getBinaryName(type);
+        }
+        return name;
+    }
+
+    private static String getName(String name, VariableElement field) {
+        if (name == null || "".equals(name)) {
+            return field.getSimpleName().toString();
+        }
+        return name;
+    }
+
+    /**
+     * @return the type if it is (or inherit) a {@link Config} class, otherwise null.
+     */
+    private TypeElement getConfigurable(TypeMirror type) {
+        if (type.getKind() != TypeKind.DECLARED) {
+            return null;
+        }
+        TypeElement element = (TypeElement) getTypes().asElement(type);
+        return element.getAnnotation(Config.class) != null ? element : null;
+    }
+
+    private boolean isEnum(TypeMirror type) {
+        return type.getKind() == TypeKind.DECLARED
+                && getTypes().asElement(type).getKind() == ElementKind.ENUM;
+    }
+
+    private boolean isAssignable(TypeMirror type, String className) {
+        TypeElement target = getElements().getTypeElement(className);
+        return type.getKind() == TypeKind.DECLARED
+                && getTypes().isAssignable(getTypes().erasure(type),
+                        getTypes().erasure(target.asType()));
+    }
+
+    /**
+     * @return arguments of a parameterized type, or an empty list if raw or if any
+     * argument is not a plain class.
+     */
+    private static List<? extends TypeMirror> getTypeArguments(TypeMirror type) {
+        List<? extends TypeMirror> params = ((DeclaredType) type).getTypeArguments();
+        for (TypeMirror param : params) {
+            if (param.getKind() != TypeKind.DECLARED
+                    || !((DeclaredType) param).getTypeArguments().isEmpty()) {
+                return new ArrayList<TypeMirror>();
+            }
+        }
+        return params;
+    }
+
+    /**
+     * @return same name as Class.getName() for primitives and classes, null for other
+     * types such as arrays and type variables.
+     */
+    private String getBinaryName(TypeMirror type) {
+        if (type.getKind().isPrimitive()) {
+            return type.toString();
+        }
+        if (type.getKind() != TypeKind.DECLARED) {
+            return null;
+        }
+        return getBinaryName((TypeElement) getTypes().asElement(type));
+    }
+
+    private String getBinaryName(TypeElement type) {
+        return getElements().getBinaryName(type).toString();
+    }
+
+    private Types getTypes() {
+        return processingEnv.getTypeUtils();
+    }
+
+    private Elements getElements() {
+        return processingEnv.getElementUtils();
+    }
+}
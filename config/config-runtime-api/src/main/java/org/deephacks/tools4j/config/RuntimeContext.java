@@ -88,4 +88,27 @@ public abstract class RuntimeContext {
 
     public abstract <T> T get(String id, Class<T> configurable);
 
+    /**
+     * Get an instance where references are loaded lazily, regardless of 
+     * {@link Config#lazy()}.
+     * 
+     * @param id instance id
+     * @param configurable A configurable class
+     * @return
+     */
+    public abstract <T> T getLazy(String id, Class<T> configurable);
+
+    /**
+     * Get instances that have a certain value of an indexed property, see 
+     * {@link Config#index()}. Instances are found using the index of the storage 
+     * rather than reading every instance of the configurable.
+     * 
+     * @param propertyName name of an indexed property
+     * @param value value that instances must have, converted to its string form
+     * @param configurable A configurable class
+     * @return matching instances, at most one if the property is unique
+     */
+    public abstract <T> List<T> getByIndex(String propertyName, Object value,
+            Class<T> configurable);
+
 }
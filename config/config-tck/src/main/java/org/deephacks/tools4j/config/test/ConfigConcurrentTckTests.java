@@ -0,0 +1,341 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.config.test;
+
+import static org.deephacks.tools4j.config.model.Events.CFG302;
+import static org.deephacks.tools4j.config.test.ConfigTestData.CHILD_SCHEMA_NAME;
+import static org.deephacks.tools4j.config.test.ConfigTestData.CONCURRENT_SINGLETON_SCHEMA_NAME;
+import static org.deephacks.tools4j.config.test.ConfigTestData.PARENT_SCHEMA_NAME;
+import static org.deephacks.tools4j.config.test.ConfigTestData.SINGLETON_PARENT_SCHEMA_NAME;
+import static org.hamcrest.CoreMatchers.is;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.deephacks.tools4j.config.model.Bean;
+import org.deephacks.tools4j.config.model.Bean.BeanId;
+import org.deephacks.tools4j.config.model.BeanUtils;
+import org.deephacks.tools4j.config.test.ConfigTestData.ConcurrentSingleton;
+import org.deephacks.tools4j.config.test.ConfigTestData.Parent;
+import org.deephacks.tools4j.config.test.ConfigTestData.SingletonParent;
+import org.deephacks.tools4j.support.event.AbortRuntimeException;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A multi-threaded variant of {@link ConfigTckTests} that run mixed workloads
+ * from many threads at the same time and check that the storage is consistent
+ * afterwards. Every test is repeated for each thread count and the throughput
+ * of each is logged, so that a provider can be checked for both correctness
+ * and scaling.
+ * <p>
+ * Thread counts and operations per thread can be changed with the system
+ * properties {@value #THREADS_PROP} (comma separated) and
+ * {@value #OPERATIONS_PROP}.
+ * <p>
+ * It is the responsibility of subclasses to initalize the lookup of service
+ * providers, and to prepare threads that need thread local resources.
+ */
+public abstract class ConfigConcurrentTckTests extends ConfigDefaultSetup {
+    public static final String THREADS_PROP = "config.tck.concurrent.threads";
+    public static final String OPERATIONS_PROP = "config.tck.concurrent.operations";
+    private static final Logger log = LoggerFactory.getLogger(ConfigConcurrentTckTests.class);
+    /** single valued properties of the parent schema, updated by one thread each */
+    private static final String[] PARENT_PROPS = { "prop1", "prop8", "prop9", "prop10",
+            "prop11", "prop12" };
+    private List<Integer> threadCounts;
+    private int operations;
+
+    /**
+     * This method can be used to do initalize tests in the subclass
+     * before the superclass.
+     */
+    public abstract void before();
+
+    /**
+     * Called by each worker thread before it start its workload.
+     */
+    protected void beforeThread() {
+    }
+
+    /**
+     * Called by each worker thread after it have finished its workload,
+     * also if it failed.
+     */
+    protected void afterThread() {
+    }
+
+    @Before
+    public final void beforeMethod() {
+        before();
+        setupDefaultConfigData();
+        threadCounts = new ArrayList<Integer>();
+        for (String count : System.getProperty(THREADS_PROP, "1,2,4,8").split(",")) {
+            threadCounts.add(Integer.parseInt(count.trim()));
+        }
+        operations = Integer.getInteger(OPERATIONS_PROP, 50);
+    }
+
+    /**
+     * Create, get, merge and delete parents and children from every thread.
+     * All parents reference a shared child that no thread can delete.
+     * Afterwards every reference must resolve and every surviving parent
+     * must have the last value it was given.
+     */
+    @Test
+    public void test_concurrent_create_get_merge_delete() {
+        for (final int threads : threadCounts) {
+            final BeanId shared = BeanId.create("shared-" + threads, CHILD_SCHEMA_NAME);
+            admin.create(Bean.create(shared));
+            run("create_get_merge_delete", threads, new Workload() {
+                @Override
+                public void run(int thread, String prefix) {
+                    for (int i = 0; i < operations; i++) {
+                        BeanId child = BeanId.create(prefix + "-c" + i, CHILD_SCHEMA_NAME);
+                        admin.create(Bean.create(child));
+                        BeanId parent = BeanId.create(prefix + "-p" + i, PARENT_SCHEMA_NAME);
+                        Bean bean = Bean.create(parent);
+                        bean.setReference("prop6", child);
+                        bean.addReference("prop7", shared);
+                        admin.create(bean);
+
+                        Bean merge = Bean.create(parent);
+                        merge.setProperty("prop1", "v" + i);
+                        admin.merge(merge);
+
+                        bean = admin.get(parent);
+                        assertEquals("v" + i, bean.getSingleValue("prop1"));
+                        assertEquals(child, bean.getFirstReference("prop6"));
+                        assertEquals(shared, bean.getFirstReference("prop7"));
+                        Parent object = runtime.get(parent.getInstanceId(), Parent.class);
+                        assertEquals(child.getInstanceId(), object.prop6.id);
+
+                        if (i % 10 == 0) {
+                            try {
+                                admin.delete(shared);
+                                fail("Not possible to delete a bean that is referenced");
+                            } catch (AbortRuntimeException e) {
+                                assertThat(e.getEvent().getCode(), is(CFG302));
+                            }
+                        }
+                        if (i % 2 == 1) {
+                            admin.delete(parent);
+                            admin.delete(child);
+                        }
+                    }
+                }
+            });
+            Map<BeanId, Bean> parents = BeanUtils.uniqueIndex(admin.list(PARENT_SCHEMA_NAME));
+            Map<BeanId, Bean> children = BeanUtils.uniqueIndex(admin.list(CHILD_SCHEMA_NAME));
+            assertTrue(children.containsKey(shared));
+            for (Bean parent : parents.values()) {
+                for (BeanId ref : parent.getReferences()) {
+                    assertTrue(parent.getId() + " reference missing " + ref,
+                            children.containsKey(ref));
+                }
+            }
+            for (int thread = 0; thread < threads; thread++) {
+                String prefix = prefix("create_get_merge_delete", threads, thread);
+                for (int i = 0; i < operations; i++) {
+                    BeanId parent = BeanId.create(prefix + "-p" + i, PARENT_SCHEMA_NAME);
+                    BeanId child = BeanId.create(prefix + "-c" + i, CHILD_SCHEMA_NAME);
+                    assertEquals(parent.toString(), i % 2 == 0, parents.containsKey(parent));
+                    assertEquals(child.toString(), i % 2 == 0, children.containsKey(child));
+                    if (i % 2 == 0) {
+                        assertEquals("v" + i, parents.get(parent).getSingleValue("prop1"));
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Threads merge different properties of the same beans. Every property
+     * must keep the last value written to it, no matter how merges of other
+     * properties of the same bean were interleaved.
+     */
+    @Test
+    public void test_concurrent_merge_no_lost_updates() {
+        for (final int threads : threadCounts) {
+            final List<BeanId> shared = new ArrayList<BeanId>();
+            for (int i = 0; i < threads; i += PARENT_PROPS.length) {
+                BeanId id = BeanId.create("merge-" + threads + "-" + i, PARENT_SCHEMA_NAME);
+                admin.create(Bean.create(id));
+                shared.add(id);
+            }
+            run("merge", threads, new Workload() {
+                @Override
+                public void run(int thread, String prefix) {
+                    BeanId id = shared.get(thread / PARENT_PROPS.length);
+                    String property = PARENT_PROPS[thread % PARENT_PROPS.length];
+                    for (int i = 0; i < operations; i++) {
+                        Bean bean = Bean.create(id);
+                        bean.setProperty(property, value(i));
+                        admin.merge(bean);
+                    }
+                }
+            });
+            for (int thread = 0; thread < threads; thread++) {
+                Bean bean = admin.get(shared.get(thread / PARENT_PROPS.length));
+                String property = PARENT_PROPS[thread % PARENT_PROPS.length];
+                assertEquals(bean.getId() + " lost update of " + property, value(operations - 1),
+                        bean.getSingleValue(property));
+            }
+        }
+    }
+
+    /**
+     * Threads merge overlapping lists of the same beans in one call, so that
+     * every call lock beans that other calls are waiting for. A provider that
+     * lock something shared between the beans of a call must not deadlock.
+     */
+    @Test
+    public void test_concurrent_merge_overlapping_beans() {
+        for (final int threads : threadCounts) {
+            final List<BeanId> shared = new ArrayList<BeanId>();
+            for (int i = 0; i < threads + 1; i++) {
+                BeanId id = BeanId.create("overlap-" + threads + "-" + i, PARENT_SCHEMA_NAME);
+                admin.create(Bean.create(id));
+                shared.add(id);
+            }
+            run("merge_overlapping", threads, new Workload() {
+                @Override
+                public void run(int thread, String prefix) {
+                    for (int i = 0; i < operations; i++) {
+                        List<Bean> beans = new ArrayList<Bean>();
+                        for (BeanId id : shared.subList(thread, shared.size())) {
+                            Bean bean = Bean.create(id);
+                            bean.setProperty("prop1", value(i));
+                            beans.add(bean);
+                        }
+                        admin.merge(beans);
+                    }
+                }
+            });
+            for (BeanId id : shared) {
+                assertEquals(value(operations - 1), admin.get(id).getSingleValue("prop1"));
+            }
+        }
+    }
+
+    /**
+     * Threads race on registering a singleton that does not exist yet, while
+     * creating beans that reference it. There must only ever be one
+     * instance of the singleton.
+     */
+    @Test
+    public void test_concurrent_singleton_uniqueness() {
+        for (final int threads : threadCounts) {
+            run("singleton", threads, new Workload() {
+                @Override
+                public void run(int thread, String prefix) {
+                    for (int i = 0; i < operations; i++) {
+                        runtime.register(ConcurrentSingleton.class);
+                        assertNotNull(runtime.singleton(ConcurrentSingleton.class));
+                        BeanId id = BeanId.create(prefix + "-sp" + i,
+                                SINGLETON_PARENT_SCHEMA_NAME);
+                        admin.create(Bean.create(id));
+                        SingletonParent parent = runtime.get(id.getInstanceId(),
+                                SingletonParent.class);
+                        assertNotNull(parent.singleton);
+                    }
+                }
+            });
+            List<Bean> singletons = admin.list(CONCURRENT_SINGLETON_SCHEMA_NAME);
+            assertEquals(singletons.toString(), 1, singletons.size());
+        }
+    }
+
+    /**
+     * A workload that is run by every thread at the same time.
+     */
+    interface Workload {
+        /**
+         * @param thread number of the calling thread, starting from 0.
+         * @param prefix unique for the calling thread, to be used for instance ids
+         * of beans that are owned by the thread.
+         */
+        void run(int thread, String prefix) throws Exception;
+    }
+
+    private void run(String name, int threads, final Workload workload) {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (int thread = 0; thread < threads; thread++) {
+            final int number = thread;
+            final String prefix = prefix(name, threads, thread);
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    beforeThread();
+                    try {
+                        start.await();
+                        workload.run(number, prefix);
+                    } finally {
+                        afterThread();
+                    }
+                    return null;
+                }
+            }));
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        try {
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new AssertionError(e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AssertionError(e);
+        } finally {
+            executor.shutdownNow();
+        }
+        long millis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin));
+        log.info("{} threads={} operations={} time={}ms throughput={} operations/s",
+                new Object[] { name, threads, threads * operations, millis,
+                        threads * operations * 1000L / millis });
+    }
+
+    private static String prefix(String name, int threads, int thread) {
+        return name + "-" + threads + "-t" + thread;
+    }
+
+    /**
+     * @return value that is valid for all {@link #PARENT_PROPS}.
+     */
+    private static String value(int i) {
+        return Integer.toString(i % 100 + 1);
+    }
+}
@@ -13,6 +13,12 @@
  */
 package org.deephacks.tools4j.config.test;
 
+import static org.deephacks.tools4j.config.model.Criteria.between;
+import static org.deephacks.tools4j.config.model.Criteria.equal;
+import static org.deephacks.tools4j.config.model.Criteria.field;
+import static org.deephacks.tools4j.config.model.Criteria.in;
+import static org.deephacks.tools4j.config.model.Criteria.largerOrEquals;
+import static org.deephacks.tools4j.config.model.Criteria.startsWith;
 import static org.deephacks.tools4j.config.model.Events.CFG101;
 import static org.deephacks.tools4j.config.model.Events.CFG105;
 import static org.deephacks.tools4j.config.model.Events.CFG106;
@@ -24,24 +30,32 @@ import static org.deephacks.tools4j.config.model.Events.CFG304;
 import static org.deephacks.tools4j.config.model.Events.CFG307;
 import static org.deephacks.tools4j.config.model.Events.CFG308;
 import static org.deephacks.tools4j.config.model.Events.CFG309;
+import static org.deephacks.tools4j.config.model.Events.CFG310;
 import static org.deephacks.tools4j.config.test.BeanUnitils.toBean;
 import static org.deephacks.tools4j.config.test.BeanUnitils.toBeans;
 import static org.hamcrest.CoreMatchers.is;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.unitils.reflectionassert.ReflectionAssert.assertReflectionEquals;
 import static org.unitils.reflectionassert.ReflectionComparatorMode.LENIENT_ORDER;
 
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import junit.framework.AssertionFailedError;
 
 import org.deephacks.tools4j.config.model.Bean;
 import org.deephacks.tools4j.config.model.Bean.BeanId;
+import org.deephacks.tools4j.config.model.Criteria;
 import org.deephacks.tools4j.config.test.ConfigTestData.Grandfather;
 import org.deephacks.tools4j.config.test.ConfigTestData.Singleton;
 import org.deephacks.tools4j.config.test.ConfigTestData.SingletonParent;
@@ -369,6 +383,90 @@ public abstract class ConfigTckTests extends ConfigDefaultSetup {
         }
     }
 
+    /**
+     * Test that beans can be queried by the values of their properties, as
+     * strings and as numbers, and that queried beans have their references
+     * fetched eagerly.
+     */
+    @Test
+    public void test_query() {
+        createDefault();
+        String schemaName = g1.getId().getSchemaName();
+        Bean merge = Bean.create(g2.getId());
+        merge.setProperty("prop1", "other");
+        merge.setProperty("prop10", "99");
+        admin.merge(merge);
+
+        List<Bean> result = admin.query(schemaName, field("prop1").is(equal("value")));
+        assertThat(ids(result), is(ids(g1.getId())));
+        assertNotNull(result.get(0).getFirstReference("prop7").getBean());
+        assertThat(ids(admin.query(schemaName, field("prop2").is(in("x", "a")))),
+                is(ids(g1.getId(), g2.getId())));
+        assertThat(ids(admin.query(schemaName, field("prop1").is(startsWith("oth")))),
+                is(ids(g2.getId())));
+        assertThat(ids(admin.query(schemaName, field("prop1").is(between("a", "p")))),
+                is(ids(g2.getId())));
+        // compared as numbers, not as strings
+        assertThat(ids(admin.query(schemaName, field("prop10").is(between(100, 200)))),
+                is(ids(g1.getId())));
+        Criteria none = field("prop1").is(startsWith("oth")).and(
+                field("prop10").is(largerOrEquals(100)));
+        assertThat(admin.query(schemaName, none).size(), is(0));
+        assertThat(admin.query(schemaName, field("prop1").is(equal("missing"))).size(), is(0));
+    }
+
+    /**
+     * Test that a bean that have been changed after it was read cannot be 
+     * written with the version it was read with, and that version 0 always
+     * overwrite the stored bean.
+     */
+    @Test
+    public void test_concurrent_modification() {
+        createDefault();
+        Bean first = admin.get(g1.getId());
+        Bean second = admin.get(g1.getId());
+        assertThat(second.getVersion(), is(first.getVersion()));
+
+        first.setProperty("prop1", "first");
+        admin.merge(first);
+        assertThat(admin.get(g1.getId()).getVersion(), is(first.getVersion()));
+
+        second.setProperty("prop1", "second");
+        try {
+            admin.merge(second);
+            fail("Bean was changed after it was read");
+        } catch (AbortRuntimeException e) {
+            assertThat(e.getEvent().getCode(), is(CFG310));
+        }
+        try {
+            admin.set(second);
+            fail("Bean was changed after it was read");
+        } catch (AbortRuntimeException e) {
+            assertThat(e.getEvent().getCode(), is(CFG310));
+        }
+        try {
+            admin.delete(second);
+            fail("Bean was changed after it was read");
+        } catch (AbortRuntimeException e) {
+            assertThat(e.getEvent().getCode(), is(CFG310));
+        }
+        assertThat(admin.get(g1.getId()).getSingleValue("prop1"), is("first"));
+
+        second.setVersion(0);
+        admin.merge(second);
+        Bean result = admin.get(g1.getId());
+        assertThat(result.getSingleValue("prop1"), is("second"));
+        assertThat(result.getVersion(), is(second.getVersion()));
+
+        admin.delete(result);
+        try {
+            admin.get(g1.getId());
+            fail("Bean should have been deleted");
+        } catch (AbortRuntimeException e) {
+            assertThat(e.getEvent().getCode(), is(CFG304));
+        }
+    }
+
     @Test
     public void test_delete_beans() {
         createDefault();
@@ -540,10 +638,23 @@ public abstract class ConfigTckTests extends ConfigDefaultSetup {
     private void getAndAssert(Object object) throws AssertionFailedError {
         Bean bean = toBean(object);
         Bean result = admin.get(bean.getId());
+        expectVersions(Arrays.asList(bean), Arrays.asList(result));
         assertReflectionEquals(bean, result, LENIENT_ORDER);
         runtimeGetAndAssert(object, bean);
     }
 
+    private static Set<BeanId> ids(BeanId... ids) {
+        return new HashSet<BeanId>(Arrays.asList(ids));
+    }
+
+    private static Set<BeanId> ids(Collection<Bean> beans) {
+        Set<BeanId> ids = new HashSet<BeanId>();
+        for (Bean bean : beans) {
+            ids.add(bean.getId());
+        }
+        return ids;
+    }
+
     /**
      * Create the default testdata structure. 
      */
@@ -554,10 +665,50 @@ public abstract class ConfigTckTests extends ConfigDefaultSetup {
 
     private void listAndAssert(String schemaName, Object... objects) {
         Collection<Bean> beans = admin.list(schemaName);
-        assertReflectionEquals(toBeans(objects), beans, LENIENT_ORDER);
+        Collection<Bean> expected = toBeans(objects);
+        expectVersions(expected, beans);
+        assertReflectionEquals(expected, beans, LENIENT_ORDER);
         runtimeAllAndAssert(objects[0].getClass(), objects);
     }
 
+    /**
+     * Versions are given by the bean manager, so expect the version of the
+     * stored beans, which must have been assigned, also for referenced beans.
+     */
+    private void expectVersions(Collection<Bean> expected, Collection<Bean> result) {
+        Map<BeanId, Bean> stored = new HashMap<BeanId, Bean>();
+        for (Bean bean : result) {
+            index(bean, stored);
+        }
+        // expected beans are not shared between references
+        Map<Bean, Bean> visited = new IdentityHashMap<Bean, Bean>();
+        for (Bean bean : expected) {
+            expectVersions(bean, stored, visited);
+        }
+    }
+
+    private void index(Bean bean, Map<BeanId, Bean> stored) {
+        if (bean == null || stored.put(bean.getId(), bean) != null) {
+            return;
+        }
+        assertTrue(bean.getVersion() > 0);
+        for (BeanId ref : bean.getReferences()) {
+            index(ref.getBean(), stored);
+        }
+    }
+
+    private void expectVersions(Bean bean, Map<BeanId, Bean> stored, Map<Bean, Bean> visited) {
+        if (bean == null || visited.put(bean, bean) != null) {
+            return;
+        }
+        if (stored.containsKey(bean.getId())) {
+            bean.setVersion(stored.get(bean.getId()).getVersion());
+        }
+        for (BeanId ref : bean.getReferences()) {
+            expectVersions(ref.getBean(), stored, visited);
+        }
+    }
+
     private void runtimeGetAndAssert(Object object, Bean bean) throws AssertionFailedError {
         Object o = runtime.get(bean.getId().getInstanceId(), object.getClass());
         assertReflectionEquals(object, o, LENIENT_ORDER);
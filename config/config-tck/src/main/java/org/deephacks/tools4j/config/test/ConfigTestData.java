@@ -395,6 +395,22 @@ public class ConfigTestData {
         }
     }
 
+    public static final String CONCURRENT_SINGLETON_SCHEMA_NAME = "ConcurrentSingletonSchemaName";
+
+    /**
+     * Singleton that is never registered by the default setup, so that
+     * threads can race on creating it.
+     */
+    @Config(name = CONCURRENT_SINGLETON_SCHEMA_NAME, desc = "")
+    public class ConcurrentSingleton {
+
+        @Id(desc = "")
+        public static final String id = "concurrentSingleton";
+
+        @Config(desc = "")
+        public String prop1 = "defaultValue";
+    }
+
     public static final String SINGLETON_PARENT_SCHEMA_NAME = "SingletonParentSchemaName";
 
     @Config(name = SINGLETON_PARENT_SCHEMA_NAME, desc = "")
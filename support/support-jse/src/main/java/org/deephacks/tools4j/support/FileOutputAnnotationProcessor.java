@@ -13,10 +13,12 @@
  */
 package org.deephacks.tools4j.support;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
+import java.util.Properties;
 import java.util.Set;
 
 import javax.annotation.processing.AbstractProcessor;
@@ -61,6 +63,24 @@ public abstract class FileOutputAnnotationProcessor extends AbstractProcessor {
         fileContents.put(filePath, line);
     }
 
+    /**
+     * Add properties as lines that can be read with {@link Properties#load}. Properties
+     * do the escaping, the timestamp comment is skipped.
+     */
+    public void addProperties(Properties properties, String filePath) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            properties.store(out, null);
+            for (String line : out.toString("ISO-8859-1").split("\r?\n")) {
+                if (!line.startsWith("#")) {
+                    addLine(line, filePath);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     private void writeFiles() {
         String file = null;
         try {
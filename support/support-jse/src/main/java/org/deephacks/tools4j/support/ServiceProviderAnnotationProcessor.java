@@ -13,6 +13,8 @@
  */
 package org.deephacks.tools4j.support;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Set;
 
 import javax.annotation.processing.RoundEnvironment;
@@ -23,19 +25,42 @@ import javax.lang.model.element.Element;
 import javax.lang.model.element.TypeElement;
 import javax.lang.model.type.MirroredTypeException;
 import javax.lang.model.type.TypeMirror;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
 
 /**
  * ServiceProviderAnnotationProcessor is responsible for generating META-INF/services/ files.
+ * <p>
+ * All providers are also written to a single index, {@value #INDEX_FILE}, with one 
+ * service=provider line for each provider and a version line. The lookup read the 
+ * indexes of all jars at once instead of searching every jar for each service.
+ * <p>
+ * Services files that are already in the class output, such as those copied from
+ * resources before compilation, are added to the index as well and kept in the
+ * generated services files, since the lookup does not read services files of jars
+ * that have an index.
+ * </p>
  */
 @SupportedSourceVersion(SourceVersion.RELEASE_7)
 @SupportedAnnotationTypes("org.deephacks.tools4j.support.ServiceProvider")
 public class ServiceProviderAnnotationProcessor extends FileOutputAnnotationProcessor {
     public static final String OUTPUT_DIR = "META-INF/services/";
+    public static final String INDEX_FILE = "META-INF/tools4j/services.index";
+    /** increment if the format of the index change */
+    public static final int INDEX_VERSION = 1;
+    private boolean servicesFilesAdded = false;
 
     @Override
     protected boolean handleProcess(Set<? extends TypeElement> annotations,
             RoundEnvironment roundEnv) {
         debug("ServiceProviderAnnotationProcessor");
+        if (!servicesFilesAdded) {
+            servicesFilesAdded = true;
+            addServicesFiles();
+        }
         for (Element implClazz : roundEnv.getElementsAnnotatedWith(ServiceProvider.class)) {
             ServiceProvider provider = implClazz.getAnnotation(ServiceProvider.class);
             try {
@@ -46,6 +71,8 @@ public class ServiceProviderAnnotationProcessor extends FileOutputAnnotationProc
                 debug("Found provider: " + implClazz + " " + e.getTypeMirror());
                 // toString on Element results in same as class.getName()
                 addLine(implClazz.toString(), getFilePath(e.getTypeMirror()));
+                addLine(e.getTypeMirror().toString() + "=" + implClazz.toString(), INDEX_FILE);
+                addLine("version=" + INDEX_VERSION, INDEX_FILE);
 
             }
 
@@ -54,6 +81,45 @@ public class ServiceProviderAnnotationProcessor extends FileOutputAnnotationProc
         return false;
     }
 
+    /**
+     * Add providers of services files in the class output to the index.
+     */
+    private void addServicesFiles() {
+        File[] files;
+        try {
+            // the filer does not open directories, so the directory is found from a
+            // file in it that is never written
+            FileObject file = processingEnv.getFiler().getResource(
+                    StandardLocation.CLASS_OUTPUT, "", OUTPUT_DIR + ".list");
+            files = new File(file.toUri()).getParentFile().listFiles();
+        } catch (Exception e) {
+            // no services files or output is not a directory
+            debug("No services files in output: " + e);
+            return;
+        }
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (!file.isFile()) {
+                continue;
+            }
+            try {
+                for (String line : Files.readLines(file, Charsets.UTF_8)) {
+                    int comment = line.indexOf('#');
+                    line = (comment < 0 ? line : line.substring(0, comment)).trim();
+                    if (!line.isEmpty()) {
+                        addLine(line, OUTPUT_DIR + file.getName());
+                        addLine(file.getName() + "=" + line, INDEX_FILE);
+                        addLine("version=" + INDEX_VERSION, INDEX_FILE);
+                    }
+                }
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+
     /**
      * @param mirror toString on TypeMirror returns the class.getName() 
      * @return
@@ -13,8 +13,9 @@
  */
 package org.deephacks.tools4j.support.lookup;
 
-import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Map;
+import java.util.WeakHashMap;
 import java.util.concurrent.ConcurrentHashMap;
 
 public abstract class LookupProvider {
@@ -38,35 +39,47 @@ public abstract class LookupProvider {
 
     /**
      * ServiceLoaderLookup is responsible for handling standard java service loader lookup.
+     * <p>
+     * Providers are found through a {@link ServiceIndex} of the context class loader, 
+     * which is created once for each class loader.
+     * </p>
      */
     static class ServiceLoaderLookup extends LookupProvider {
+        private final Map<ClassLoader, ServiceIndex> indexes = new WeakHashMap<ClassLoader, ServiceIndex>();
 
         public ServiceLoaderLookup() {
 
         }
 
         public final <T> T lookup(Class<T> clazz) {
-            ClassLoader cl = Thread.currentThread().getContextClassLoader();
-            for (T standardJavaProvider : java.util.ServiceLoader.load(clazz, cl)) {
-                // return first provider found. May need more elaborate mechanism in future.
-                if (standardJavaProvider == null) {
-                    continue;
-                }
-                // return the provider that was first found.
-                return standardJavaProvider;
-            }
-            return null;
+            // return the provider that was first found. May need more elaborate mechanism in future.
+            ClassLoader cl = getClassLoader();
+            return getIndex(cl).loadFirst(clazz, cl);
         }
 
         @Override
         public <T> Collection<T> lookupAll(Class<T> clazz) {
-            ArrayList<T> result = new ArrayList<T>();
+            ClassLoader cl = getClassLoader();
+            return getIndex(cl).load(clazz, cl);
+        }
+
+        private ServiceIndex getIndex(ClassLoader cl) {
+            synchronized (indexes) {
+                ServiceIndex index = indexes.get(cl);
+                if (index == null) {
+                    index = ServiceIndex.load(cl);
+                    indexes.put(cl, index);
+                }
+                return index;
+            }
+        }
+
+        private static ClassLoader getClassLoader() {
             ClassLoader cl = Thread.currentThread().getContextClassLoader();
-            for (T o : java.util.ServiceLoader.load(clazz, cl)) {
-                // return first provider found. May need more elaborate mechanism in future.
-                result.add(o);
+            if (cl == null) {
+                return ClassLoader.getSystemClassLoader();
             }
-            return result;
+            return cl;
         }
     }
 }
@@ -0,0 +1,295 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.support.lookup;
+
+import static org.deephacks.tools4j.support.ServiceProviderAnnotationProcessor.INDEX_FILE;
+import static org.deephacks.tools4j.support.ServiceProviderAnnotationProcessor.INDEX_VERSION;
+import static org.deephacks.tools4j.support.ServiceProviderAnnotationProcessor.OUTPUT_DIR;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.JarURLConnection;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.deephacks.tools4j.support.ServiceProviderAnnotationProcessor;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.Multimap;
+
+/**
+ * ServiceIndex is responsible for knowing the service providers of a class loader.
+ * <p>
+ * Jars compiled with the {@link ServiceProviderAnnotationProcessor} have an index of
+ * all their providers, also those of services files that were not generated. The
+ * providers of all jars are read in a single pass over the class path when the
+ * ServiceIndex is created: from the index of jars that have one, and from the
+ * META-INF/services files of jars that do not. Providers are kept in class path order,
+ * the same as {@link java.util.ServiceLoader}.
+ * <p>
+ * Jars and directories are found through their META-INF/services directory. If the
+ * services files of one cannot be listed, because the class loader use an unknown
+ * protocol, every service is instead searched for the first time it is looked up,
+ * the same way as ServiceLoader does, and the result is kept.
+ * </p>
+ * Only the names of providers are kept, every lookup create new instances. The class 
+ * loader is not referenced so that the index can be kept in a weak map of class loaders.
+ */
+final class ServiceIndex {
+    private static final Logger LOG = LoggerFactory.getLogger(ServiceIndex.class);
+    /** providers of all jars and directories, if all could be listed */
+    private final ImmutableListMultimap<String, String> all;
+    /** providers of each jar and directory that have an index */
+    private final ImmutableMap<String, ImmutableListMultimap<String, String>> indexes;
+    /** false if some jar or directory could not be listed */
+    private final boolean listed;
+    /** providers of services that have been looked up, if not listed */
+    private final ConcurrentMap<String, List<String>> providers = new ConcurrentHashMap<String, List<String>>();
+
+    private ServiceIndex(ImmutableListMultimap<String, String> all,
+            ImmutableMap<String, ImmutableListMultimap<String, String>> indexes, boolean listed) {
+        this.all = all;
+        this.indexes = indexes;
+        this.listed = listed;
+    }
+
+    /**
+     * Read the providers of all jars and directories of a class loader.
+     */
+    static ServiceIndex load(ClassLoader cl) {
+        Map<String, ImmutableListMultimap<String, String>> indexes = new LinkedHashMap<String, ImmutableListMultimap<String, String>>();
+        for (URL url : getResources(cl, INDEX_FILE)) {
+            List<String> lines = readLines(url);
+            if (!lines.contains("version=" + INDEX_VERSION)) {
+                // services files of the jar are read instead
+                LOG.debug("Ignoring service index of unknown version {}", url);
+                continue;
+            }
+            ImmutableListMultimap.Builder<String, String> index = ImmutableListMultimap.builder();
+            for (String line : lines) {
+                String[] entry = line.split("=", 2);
+                if (entry.length == 2 && !"version".equals(entry[0])) {
+                    index.put(entry[0].trim(), entry[1].trim());
+                }
+            }
+            indexes.put(getRoot(url, INDEX_FILE), index.build());
+        }
+        Set<String> roots = new LinkedHashSet<String>();
+        for (URL url : getResources(cl, OUTPUT_DIR)) {
+            roots.add(getRoot(url, OUTPUT_DIR));
+        }
+        // indexed jars that were packaged without directory entries
+        roots.addAll(indexes.keySet());
+        // a provider is only loaded once, same as ServiceLoader
+        LinkedHashMultimap<String, String> all = LinkedHashMultimap.create();
+        boolean listed = true;
+        for (String root : roots) {
+            ImmutableListMultimap<String, String> index = indexes.get(root);
+            if (index != null) {
+                all.putAll(index);
+            } else if (!readServicesFiles(root, all)) {
+                LOG.debug("Services files of {} are searched for each service", root);
+                listed = false;
+            }
+        }
+        return new ServiceIndex(ImmutableListMultimap.copyOf(all), ImmutableMap.copyOf(indexes),
+                listed);
+    }
+
+    /**
+     * Create new instances of the providers of a service, in order.
+     * 
+     * @param cl the class loader that the index was loaded from.
+     */
+    <T> List<T> load(Class<T> service, ClassLoader cl) {
+        List<String> names = getProviders(service.getName(), cl);
+        List<T> instances = new ArrayList<T>(names.size());
+        for (String name : names) {
+            instances.add(newInstance(service, name, cl));
+        }
+        return instances;
+    }
+
+    /**
+     * Create a new instance of the first provider of a service.
+     *
+     * @param cl the class loader that the index was loaded from.
+     * @return the provider or null if there are none.
+     */
+    <T> T loadFirst(Class<T> service, ClassLoader cl) {
+        List<String> names = getProviders(service.getName(), cl);
+        if (names.isEmpty()) {
+            return null;
+        }
+        return newInstance(service, names.get(0), cl);
+    }
+
+    List<String> getProviders(String service, ClassLoader cl) {
+        if (listed) {
+            return all.get(service);
+        }
+        List<String> names = providers.get(service);
+        if (names != null) {
+            return names;
+        }
+        Set<String> found = new LinkedHashSet<String>();
+        for (URL url : getResources(cl, OUTPUT_DIR + service)) {
+            ImmutableListMultimap<String, String> index = indexes.get(getRoot(url, OUTPUT_DIR
+                    + service));
+            found.addAll(index != null ? index.get(service) : readLines(url));
+        }
+        names = ImmutableList.copyOf(found);
+        List<String> existing = providers.putIfAbsent(service, names);
+        return existing != null ? existing : names;
+    }
+
+    /**
+     * Read all services files of a jar or directory.
+     * 
+     * @return false if the services files could not be listed.
+     */
+    private static boolean readServicesFiles(String root, Multimap<String, String> found) {
+        try {
+            URL url = new URL(root + OUTPUT_DIR);
+            if ("file".equals(url.getProtocol())) {
+                File[] files = new File(url.toURI()).listFiles();
+                if (files == null) {
+                    return false;
+                }
+                for (File file : files) {
+                    if (file.isFile()) {
+                        found.putAll(file.getName(), readLines(file.toURI().toURL()));
+                    }
+                }
+                return true;
+            }
+            if ("jar".equals(url.getProtocol())) {
+                JarURLConnection connection = (JarURLConnection) url.openConnection();
+                // the cached jar may be in use by others and must not be closed
+                connection.setUseCaches(false);
+                JarFile jar = connection.getJarFile();
+                try {
+                    for (JarEntry entry : Collections.list(jar.entries())) {
+                        String name = entry.getName();
+                        if (name.startsWith(OUTPUT_DIR) && !entry.isDirectory()
+                                && name.indexOf('/', OUTPUT_DIR.length()) < 0) {
+                            found.putAll(name.substring(OUTPUT_DIR.length()),
+                                    readLines(jar.getInputStream(entry)));
+                        }
+                    }
+                } finally {
+                    jar.close();
+                }
+                return true;
+            }
+            return false;
+        } catch (IOException e) {
+            throw new ServiceConfigurationError("Could not read " + root + OUTPUT_DIR, e);
+        } catch (URISyntaxException e) {
+            throw new ServiceConfigurationError("Could not read " + root + OUTPUT_DIR, e);
+        }
+    }
+
+    private static <T> T newInstance(Class<T> service, String name, ClassLoader cl) {
+        try {
+            Class<?> provider = Class.forName(name, false, cl);
+            if (!service.isAssignableFrom(provider)) {
+                throw new ServiceConfigurationError(service.getName() + ": Provider " + name
+                        + " not a subtype");
+            }
+            return service.cast(provider.newInstance());
+        } catch (ClassNotFoundException e) {
+            throw new ServiceConfigurationError(service.getName() + ": Provider " + name
+                    + " not found", e);
+        } catch (Exception e) {
+            throw new ServiceConfigurationError(service.getName() + ": Provider " + name
+                    + " could not be instantiated", e);
+        }
+    }
+
+    private static List<URL> getResources(ClassLoader cl, String name) {
+        try {
+            List<URL> urls = new ArrayList<URL>();
+            Enumeration<URL> resources = cl.getResources(name);
+            while (resources.hasMoreElements()) {
+                urls.add(resources.nextElement());
+            }
+            return urls;
+        } catch (IOException e) {
+            throw new ServiceConfigurationError("Could not read " + name, e);
+        }
+    }
+
+    /**
+     * @return lines without comments and white space, same as ServiceLoader.
+     */
+    private static List<String> readLines(URL url) {
+        try {
+            return readLines(url.openStream());
+        } catch (IOException e) {
+            throw new ServiceConfigurationError("Could not read " + url, e);
+        }
+    }
+
+    private static List<String> readLines(InputStream in) throws IOException {
+        List<String> lines = new ArrayList<String>();
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(in, Charsets.UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int comment = line.indexOf('#');
+                if (comment >= 0) {
+                    line = line.substring(0, comment);
+                }
+                line = line.trim();
+                if (!line.isEmpty()) {
+                    lines.add(line);
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return lines;
+    }
+
+    /**
+     * @return url of the jar or directory that contain a resource.
+     */
+    private static String getRoot(URL url, String resource) {
+        String external = url.toExternalForm();
+        return external.substring(0, external.length() - resource.length());
+    }
+}
@@ -0,0 +1,188 @@
+/**
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.deephacks.tools4j.support.lookup;
+
+import static org.deephacks.tools4j.support.ServiceProviderAnnotationProcessor.INDEX_FILE;
+import static org.deephacks.tools4j.support.ServiceProviderAnnotationProcessor.INDEX_VERSION;
+import static org.deephacks.tools4j.support.ServiceProviderAnnotationProcessor.OUTPUT_DIR;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Arrays;
+import java.util.List;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import javax.tools.JavaCompiler;
+import javax.tools.JavaCompiler.CompilationTask;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import org.deephacks.tools4j.support.ServiceProvider;
+import org.deephacks.tools4j.support.ServiceProviderAnnotationProcessor;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.io.Files;
+
+public class ServiceIndexTest {
+    private static final String SERVICE = Service.class.getName();
+    private static final String OTHER_SERVICE = OtherService.class.getName();
+    private File plain;
+    private File indexed;
+    private File unknown;
+    private ClassLoader cl;
+
+    @Before
+    public void before() throws Exception {
+        plain = Files.createTempDir();
+        write(plain, OUTPUT_DIR + SERVICE, "# comment", Second.class.getName());
+        // providers of indexed jars are taken from the index only
+        indexed = Files.createTempDir();
+        write(indexed, INDEX_FILE, "version=" + INDEX_VERSION, SERVICE + "=" + First.class.getName());
+        write(indexed, OUTPUT_DIR + SERVICE, Unused.class.getName());
+        write(indexed, OUTPUT_DIR + OTHER_SERVICE, Other.class.getName());
+        // unknown versions are ignored
+        unknown = Files.createTempDir();
+        write(unknown, INDEX_FILE, "version=" + (INDEX_VERSION + 1),
+                SERVICE + "=" + Unused.class.getName());
+        write(unknown, OUTPUT_DIR + SERVICE, Third.class.getName(), First.class.getName());
+        cl = new URLClassLoader(new URL[] { plain.toURI().toURL(), indexed.toURI().toURL(),
+                unknown.toURI().toURL() }, ServiceIndexTest.class.getClassLoader());
+    }
+
+    @Test
+    public void test_providers_in_order() {
+        ServiceIndex index = ServiceIndex.load(cl);
+        // class path order, and a provider only once
+        assertEquals(Arrays.asList(Second.class.getName(), First.class.getName(),
+                Third.class.getName()), index.getProviders(SERVICE, cl));
+        List<Service> services = index.load(Service.class, cl);
+        assertEquals(3, services.size());
+        assertTrue(services.get(0) instanceof Second);
+        assertTrue(index.loadFirst(Service.class, cl) instanceof Second);
+        // new instances for every lookup
+        assertTrue(index.loadFirst(Service.class, cl) != index.loadFirst(Service.class, cl));
+    }
+
+    @Test
+    public void test_services_files_of_indexed_jar_not_read() {
+        ServiceIndex index = ServiceIndex.load(cl);
+        assertTrue(index.getProviders(OTHER_SERVICE, cl).isEmpty());
+    }
+
+    @Test
+    public void test_jars() throws Exception {
+        ClassLoader jars = new URLClassLoader(new URL[] { jar(plain), jar(indexed), jar(unknown) },
+                ServiceIndexTest.class.getClassLoader());
+        ServiceIndex index = ServiceIndex.load(jars);
+        assertEquals(Arrays.asList(Second.class.getName(), First.class.getName(),
+                Third.class.getName()), index.getProviders(SERVICE, jars));
+    }
+
+    /**
+     * Services files that are in the output before compilation are indexed
+     * together with the annotated providers.
+     */
+    @Test
+    public void test_index_services_files() throws Exception {
+        File dir = Files.createTempDir();
+        write(dir, OUTPUT_DIR + OTHER_SERVICE, Other.class.getName());
+        File source = new File(dir, "Annotated.java");
+        Files.write(Joiner.on('\n').join("@" + ServiceProvider.class.getName() + "(service = "
+                + Runnable.class.getName() + ".class)",
+                "public class Annotated implements Runnable {", "  public void run() {}", "}"),
+                source, Charsets.UTF_8);
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null);
+        String classpath = new File(ServiceProvider.class.getProtectionDomain().getCodeSource()
+                .getLocation().toURI()).getAbsolutePath();
+        CompilationTask task = compiler.getTask(null, fileManager, null,
+                Arrays.asList("-d", dir.getAbsolutePath(), "-cp", classpath), null,
+                fileManager.getJavaFileObjectsFromFiles(Arrays.asList(source)));
+        task.setProcessors(Arrays.asList(new ServiceProviderAnnotationProcessor()));
+        assertTrue(task.call());
+        fileManager.close();
+        List<String> index = Files.readLines(new File(dir, INDEX_FILE), Charsets.UTF_8);
+        assertTrue(index.contains(OTHER_SERVICE + "=" + Other.class.getName()));
+        assertTrue(index.contains(Runnable.class.getName() + "=Annotated"));
+        assertEquals(Arrays.asList(Other.class.getName()),
+                Files.readLines(new File(dir, OUTPUT_DIR + OTHER_SERVICE), Charsets.UTF_8));
+    }
+
+    @Test
+    public void test_no_providers() {
+        ServiceIndex index = ServiceIndex.load(cl);
+        assertTrue(index.load(Runnable.class, cl).isEmpty());
+        assertNull(index.loadFirst(Runnable.class, cl));
+    }
+
+    private static URL jar(File dir) throws IOException {
+        File file = File.createTempFile("services", ".jar");
+        JarOutputStream out = new JarOutputStream(new FileOutputStream(file));
+        try {
+            add(out, dir, "");
+        } finally {
+            out.close();
+        }
+        return file.toURI().toURL();
+    }
+
+    private static void add(JarOutputStream out, File dir, String path) throws IOException {
+        for (File file : dir.listFiles()) {
+            if (file.isDirectory()) {
+                out.putNextEntry(new JarEntry(path + file.getName() + "/"));
+                add(out, file, path + file.getName() + "/");
+            } else {
+                out.putNextEntry(new JarEntry(path + file.getName()));
+                Files.copy(file, out);
+            }
+        }
+    }
+
+    private static void write(File dir, String path, String... lines) throws IOException {
+        File file = new File(dir, path);
+        Files.createParentDirs(file);
+        Files.write(Joiner.on('\n').join(lines), file, Charsets.UTF_8);
+    }
+
+    public static interface Service {
+    }
+
+    public static class First implements Service {
+    }
+
+    public static class Second implements Service {
+    }
+
+    public static class Third implements Service {
+    }
+
+    public static class Unused implements Service {
+    }
+
+    public static interface OtherService {
+    }
+
+    public static class Other implements OtherService {
+    }
+}